@@ -0,0 +1,80 @@
+-- coverage_increase_sketch holds the binary encoding of com.compsource.app.data.model.QuantileSketch,
+-- distinct_*_sketch the binary encoding of com.compsource.app.data.model.DistinctCountSketch.
+-- policy_limit_change_requests_account_statistics has no distinct counts, an account only counts
+-- itself.
+-- policy_limit_change_requests_top_accounts ranks the heavy hitter accounts of every hour by
+-- requests count and by coverage increase amount (ranked_by), with the estimates of both.
+-- Tables created before the sketches were added:
+-- ALTER TABLE policy_limit_change_requests_statistics ADD coverage_increase_sketch blob;
+-- ALTER TABLE policy_limit_change_requests_statistics ADD (distinct_accounts bigint, distinct_recipients bigint,
+--     distinct_accounts_sketch blob, distinct_recipients_sketch blob);
+
+CREATE TABLE IF NOT EXISTS policy_limit_change_requests_statistics
+(
+	date_requested date,
+	hour_requested tinyint,
+	total_coverage_increase_amount bigint,
+	total_coverage_increase_requests_count int,
+	coverage_increase_sketch blob,
+	distinct_accounts bigint,
+	distinct_recipients bigint,
+	distinct_accounts_sketch blob,
+	distinct_recipients_sketch blob,
+	statistics_added_at timestamp,
+	PRIMARY KEY ((date_requested), hour_requested)
+);
+
+CREATE TABLE IF NOT EXISTS policy_limit_change_requests_daily_statistics
+(
+	month_requested date,
+	date_requested date,
+	total_coverage_increase_amount bigint,
+	total_coverage_increase_requests_count int,
+	coverage_increase_sketch blob,
+	distinct_accounts bigint,
+	distinct_recipients bigint,
+	distinct_accounts_sketch blob,
+	distinct_recipients_sketch blob,
+	statistics_added_at timestamp,
+	PRIMARY KEY ((month_requested), date_requested)
+);
+
+CREATE TABLE IF NOT EXISTS policy_limit_change_requests_monthly_statistics
+(
+	year_requested int,
+	month_requested date,
+	total_coverage_increase_amount bigint,
+	total_coverage_increase_requests_count int,
+	coverage_increase_sketch blob,
+	distinct_accounts bigint,
+	distinct_recipients bigint,
+	distinct_accounts_sketch blob,
+	distinct_recipients_sketch blob,
+	statistics_added_at timestamp,
+	PRIMARY KEY ((year_requested), month_requested)
+);
+
+CREATE TABLE IF NOT EXISTS policy_limit_change_requests_account_statistics
+(
+	account_id int,
+	date_requested date,
+	hour_requested tinyint,
+	total_coverage_increase_amount bigint,
+	total_coverage_increase_requests_count int,
+	coverage_increase_sketch blob,
+	statistics_added_at timestamp,
+	PRIMARY KEY ((account_id), date_requested, hour_requested)
+) WITH CLUSTERING ORDER BY (date_requested DESC, hour_requested DESC);
+
+CREATE TABLE IF NOT EXISTS policy_limit_change_requests_top_accounts
+(
+	date_requested date,
+	hour_requested tinyint,
+	ranked_by text,
+	rank int,
+	account_id int,
+	estimated_requests_count bigint,
+	estimated_coverage_increase_amount bigint,
+	statistics_added_at timestamp,
+	PRIMARY KEY ((date_requested, hour_requested), ranked_by, rank)
+);
@@ -0,0 +1,266 @@
+package com.compsource.app;
+
+import com.compsource.app.backfill.BackfillAggregate;
+import com.compsource.app.backfill.EventSource;
+import com.compsource.app.backfill.NdjsonFileSource;
+import com.compsource.app.backfill.TopicRangeSource;
+import com.compsource.app.data.dao.PolicyLimitChangeRequestsStatisticsDao;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.data.validation.RejectionReason;
+import com.compsource.app.logging.LogManager;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.datastax.driver.core.ResultSetFuture;
+import com.datastax.driver.core.Statement;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import java.io.IOException;
+import java.nio.file.Paths;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Supplier;
+
+/**
+ * Rebuilds the statistics of a time range from the historical events, without the streaming
+ * topology, e.g. after a change of the validation rules:
+ * <pre>
+ * java -cp policy-changereq--stream-processor-1.0-SNAPSHOT-jar-with-dependencies.jar
+ *     com.compsource.app.PolicyChangeReqBackfill --from 2024-01-01T00:00:00Z --to 2025-01-01T00:00:00Z
+ *     (--file export.ndjson | --topic [--offsets 0:0-1500,1:200-1800]) [--threads 16] [--dry-run]
+ *     [--epoch 2025-01-02T00:00:00Z]
+ * </pre>
+ * The events are read in parallel from a local NDJSON export or from offset ranges of the topic
+ * (all the partitions, from their beginning to their current end, by default) and aggregated by
+ * {@link BackfillAggregate}, dropping the copies of a coiRequestId when the stream drops them
+ * (dedup.horizon.hours above 0). The statistics of every granularity are then upserted to Cassandra,
+ * the rows of a partition in unlogged batches, with at most backfill.max-in-flight partitions
+ * written at once. Writes failing with transient errors are retried up to backfill.write.attempts
+ * times. --dry-run only logs the totals.
+ * <p>
+ * The rebuilt rows replace the rows of the same periods. With the exactly_once processing
+ * guarantee the rows are versioned: --epoch is then required, and must be later than the
+ * statistics.write-version.epoch of the stream, so the rebuilt rows replace the rows the stream
+ * wrote before. Set statistics.write-version.epoch of the stream later than the --epoch of the
+ * backfill (a day later leaves room for 86 billion updates of a period) once it is written, so
+ * the stream updates replace the rebuilt rows in turn.
+ */
+public class PolicyChangeReqBackfill {
+    private static LogManager logger = new LogManager(PolicyChangeReqBackfill.class);
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static final String CORRELATION_ID = "backfill";
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        if (options == null || !options.containsKey("from") || !options.containsKey("to")
+                || options.containsKey("file") == options.containsKey("topic")) {
+            logger.error("Usage: --from <ISO instant> --to <ISO instant> (--file <NDJSON file> | --topic " +
+                    "[--offsets partition:from-to,...]) [--threads <count>] [--dry-run] [--epoch <ISO instant>]");
+            System.exit(1);
+        }
+        try {
+            long from = Instant.parse(options.get("from")).toEpochMilli();
+            long to = Instant.parse(options.get("to")).toEpochMilli();
+            int threads = Integer.parseInt(options.getOrDefault("threads",
+                    properties.getProperty("backfill.threads", "0").trim()));
+            if (threads < 1)
+                threads = Runtime.getRuntime().availableProcessors();
+
+            long start = System.nanoTime();
+            boolean deduplicate = Long.parseLong(properties.getProperty("dedup.horizon.hours", "0").trim()) > 0;
+            BackfillAggregate aggregate = BackfillAggregate.read(sourceOf(options), from, to, threads, deduplicate);
+            logger.info("backfill aggregated", CORRELATION_ID, summaryOf(aggregate, System.nanoTime() - start));
+            if (options.containsKey("dry-run"))
+                System.exit(0);
+
+            start = System.nanoTime();
+            int failedPartitions = write(daoOf(options), aggregate.statistics());
+            logger.info("backfill written", CORRELATION_ID, String.format("Failed partitions: %d, Duration: %d ms",
+                    failedPartitions, (System.nanoTime() - start) / 1_000_000));
+            System.exit(failedPartitions == 0 ? 0 : 1);
+        } catch (IOException | RuntimeException e) {
+            logger.error("backfill failed", CORRELATION_ID, e.toString());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return - Options by name (without the leading --), null if an argument isn't an option.
+     * Flags have an empty value
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int index = 0; index < args.length; index++) {
+            if (!args[index].startsWith("--"))
+                return null;
+            boolean hasValue = index + 1 < args.length && !args[index + 1].startsWith("--");
+            options.put(args[index].substring(2), hasValue ? args[++index] : "");
+        }
+        return options;
+    }
+
+    /**
+     * @return - DAO writing with the --epoch of the options when the writes are versioned
+     * (exactly_once)
+     * @throws IllegalStateException - Versioned writes without an --epoch later than the
+     *                               statistics.write-version.epoch of the stream
+     */
+    private static PolicyLimitChangeRequestsStatisticsDao daoOf(Map<String, String> options) {
+        if (!KafkaUtil.isExactlyOnce())
+            return new PolicyLimitChangeRequestsStatisticsDao();
+        long streamEpochMicros = PolicyLimitChangeRequestsStatisticsDao.writeEpochMicros(
+                properties.getProperty("statistics.write-version.epoch", "").trim());
+        long epochMicros = PolicyLimitChangeRequestsStatisticsDao.writeEpochMicros(options.getOrDefault("epoch", ""));
+        if (epochMicros <= streamEpochMicros)
+            throw new IllegalStateException("--epoch must be later than the statistics.write-version.epoch " +
+                    "of the stream with the exactly_once processing guarantee");
+        return new PolicyLimitChangeRequestsStatisticsDao(epochMicros);
+    }
+
+    private static EventSource sourceOf(Map<String, String> options) {
+        if (options.containsKey("file"))
+            return new NdjsonFileSource(Paths.get(options.get("file")), 1024L * 1024 *
+                    Long.parseLong(properties.getProperty("backfill.file.split-mb", "64").trim()));
+        String topic = options.get("topic").isEmpty() ? properties.getProperty("kafka.consumer.topic")
+                : options.get("topic");
+        return new TopicRangeSource(topic,
+                options.containsKey("offsets") ? TopicRangeSource.parseOffsets(options.get("offsets")) : null,
+                Long.parseLong(properties.getProperty("backfill.topic.split-offsets", "1000000").trim()));
+    }
+
+    private static String summaryOf(BackfillAggregate aggregate, long durationNanos) {
+        StringBuilder summary = new StringBuilder();
+        for (RejectionReason reason : RejectionReason.values())
+            summary.append(reason).append(": ").append(aggregate.getEvents(reason)).append(", ");
+        return summary.append("Malformed: ").append(aggregate.getMalformedEvents())
+                .append(", Invalid dateRequested: ").append(aggregate.getInvalidTimestamps())
+                .append(", Out of range: ").append(aggregate.getOutOfRangeEvents())
+                .append(", Duplicates: ").append(aggregate.getDuplicateEvents())
+                .append(", Duration: ").append(durationNanos / 1_000_000).append(" ms").toString();
+    }
+
+    /**
+     * Upserts the statistics, grouped by Cassandra partition
+     *
+     * @param dao        - Writes the statistics
+     * @param statistics - Statistics by key
+     * @return - Number of partitions that couldn't be written
+     */
+    private static int write(PolicyLimitChangeRequestsStatisticsDao dao,
+                             Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> statistics) {
+        Map<String, List<Statement>> partitions = new LinkedHashMap<>();
+        List<Supplier<List<ResultSetFuture>>> writes = new ArrayList<>();
+        statistics.forEach((statisticsKey, stats) -> {
+            PolicyChangeReqStreamProcessor.setRequestedDateAndHour(
+                    Instant.ofEpochMilli(statisticsKey.getPeriodStart()), stats);
+            // The top accounts of an hour are a partition of their own, already written in one batch
+            if (statisticsKey.getGranularity() == Granularity.HOURLY_TOP_ACCOUNTS)
+                writes.add(() -> Collections.singletonList(dao.saveTopAccountsAsync(stats)));
+            else
+                partitions.computeIfAbsent(partitionOf(statisticsKey), partition -> new ArrayList<>())
+                        .add(statementOf(dao, statisticsKey, stats));
+        });
+        partitions.values().forEach(statements -> writes.add(() -> dao.savePartitionAsync(statements)));
+
+        int attempts = Integer.parseInt(properties.getProperty("backfill.write.attempts", "3").trim());
+        long backoffMs = Long.parseLong(properties.getProperty("cassandra.sink.retry.initial-backoff.ms", "100"));
+        AtomicInteger rejectedWrites = new AtomicInteger();
+        List<Supplier<List<ResultSetFuture>>> pendingWrites = writes;
+        for (int attempt = 1; ; attempt++) {
+            List<Supplier<List<ResultSetFuture>>> failedWrites = writeAll(pendingWrites, rejectedWrites);
+            if (failedWrites.isEmpty() || attempt == attempts)
+                return failedWrites.size() + rejectedWrites.get();
+            logger.info("backfill retried", CORRELATION_ID, String.format("Attempt: %d, Failed partitions: %d",
+                    attempt, failedWrites.size()));
+            try {
+                Thread.sleep(backoffMs << attempt);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return failedWrites.size() + rejectedWrites.get();
+            }
+            pendingWrites = failedWrites;
+        }
+    }
+
+    /**
+     * Runs the partition writes with at most backfill.max-in-flight of them at once
+     *
+     * @param writes         - Partition writes
+     * @param rejectedWrites - Incremented for every write failing with a non transient error
+     * @return - Writes failing with transient errors, to be retried
+     */
+    private static List<Supplier<List<ResultSetFuture>>> writeAll(List<Supplier<List<ResultSetFuture>>> writes,
+                                                                  AtomicInteger rejectedWrites) {
+        int maxInFlight = Integer.parseInt(properties.getProperty("backfill.max-in-flight", "64").trim());
+        Semaphore inFlight = new Semaphore(maxInFlight);
+        Queue<Supplier<List<ResultSetFuture>>> failedWrites = new ConcurrentLinkedQueue<>();
+        for (Supplier<List<ResultSetFuture>> write : writes) {
+            inFlight.acquireUninterruptibly();
+            Futures.addCallback(Futures.allAsList(write.get()), new FutureCallback<Object>() {
+                @Override
+                public void onSuccess(Object results) {
+                    inFlight.release();
+                }
+
+                @Override
+                public void onFailure(Throwable error) {
+                    if (PolicyLimitChangeRequestsStatisticsDao.isTransient(error)) {
+                        failedWrites.add(write);
+                    } else {
+                        rejectedWrites.incrementAndGet();
+                        logger.error("database not accessible", CORRELATION_ID,
+                                "Error in writing the backfilled statistics to Cassandra: " + error);
+                    }
+                    inFlight.release();
+                }
+            }, MoreExecutors.directExecutor());
+        }
+        // Waiting for the writes still in flight
+        inFlight.acquireUninterruptibly(maxInFlight);
+        return new ArrayList<>(failedWrites);
+    }
+
+    /**
+     * @return - Partition of the statistics row in the cassandra table of its granularity
+     */
+    private static String partitionOf(StatisticsKey statisticsKey) {
+        long periodStart = statisticsKey.getPeriodStart();
+        switch (statisticsKey.getGranularity()) {
+            case DAILY:
+                return "daily_" + Granularity.MONTHLY.periodStart(periodStart);
+            case MONTHLY:
+                return "monthly_" + Instant.ofEpochMilli(periodStart).atZone(ZoneOffset.UTC).getYear();
+            case ACCOUNT_HOURLY:
+                return "account_" + statisticsKey.getAccountId();
+            default:
+                return "hourly_" + Granularity.DAILY.periodStart(periodStart);
+        }
+    }
+
+    private static Statement statementOf(PolicyLimitChangeRequestsStatisticsDao dao, StatisticsKey statisticsKey,
+                                         PolicyLimitChangeRequestsStatistics stats) {
+        switch (statisticsKey.getGranularity()) {
+            case DAILY:
+                return dao.dailyStatement(stats);
+            case MONTHLY:
+                return dao.monthlyStatement(stats);
+            case ACCOUNT_HOURLY:
+                return dao.accountHourlyStatement(statisticsKey.getAccountId(), stats);
+            default:
+                return dao.hourlyStatement(stats);
+        }
+    }
+}
@@ -0,0 +1,233 @@
+package com.compsource.app;
+
+import com.compsource.app.backfill.EventSource;
+import com.compsource.app.backfill.NdjsonFileSource;
+import com.compsource.app.backfill.TopicRangeSource;
+import com.compsource.app.custom.DeadLetterPublisher;
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestDeserializer;
+import com.compsource.app.data.validation.PolicyLimitChangeReqRuleEngine;
+import com.compsource.app.data.validation.RejectionReason;
+import com.compsource.app.logging.LogManager;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.DateRequestedDecoder;
+import com.compsource.app.utils.KafkaUtil;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Re-injects the dead letter records into the input topic once they are fixed, e.g. after a
+ * change of the validation rules or with a corrected export:
+ * <pre>
+ * java -cp policy-changereq--stream-processor-1.0-SNAPSHOT-jar-with-dependencies.jar
+ *     com.compsource.app.PolicyChangeReqDlqReplay [--offsets 0:0-1500,1:200-1800]
+ *     [--reasons NOT_GREATER_THAN,MALFORMED] [--file fixed.ndjson] [--force] [--dry-run]
+ * </pre>
+ * The records of the dead letter topic (all the partitions, from their beginning to their current
+ * end, by default) with one of the given reason codes, or the lines of a fixed NDJSON file, are
+ * checked against the current business rules and the valid ones are sent to the input topic,
+ * with their key and a dlq.replayed-from header. --force also sends the ones that are still
+ * rejected, --dry-run only counts them.
+ */
+public class PolicyChangeReqDlqReplay {
+    private static LogManager logger = new LogManager(PolicyChangeReqDlqReplay.class);
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static final String CORRELATION_ID = "dlq-replay";
+    private static final String REPLAYED_FROM_HEADER = "dlq.replayed-from";
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+    private static final PolicyLimitChangeRequestDeserializer deserializer = new PolicyLimitChangeRequestDeserializer();
+    private static final PolicyLimitChangeReqRuleEngine ruleEngine = PolicyLimitChangeReqRuleEngine.compile(properties);
+
+    private final KafkaProducer<byte[], byte[]> producer;
+    private final String topic;
+    private final boolean force;
+    private final AtomicLong replayedRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+    private long stillRejectedRecords;
+    private long skippedRecords;
+
+    private PolicyChangeReqDlqReplay(KafkaProducer<byte[], byte[]> producer, String topic, boolean force) {
+        this.producer = producer;
+        this.topic = topic;
+        this.force = force;
+    }
+
+    public static void main(String[] args) {
+        Map<String, String> options = parseOptions(args);
+        String deadLetterTopic = properties.getProperty("dlq.topic", "").trim();
+        if (options == null || (deadLetterTopic.isEmpty() && !options.containsKey("file"))) {
+            logger.error("Usage: [--offsets partition:from-to,...] [--reasons reason,...] [--file <NDJSON file>] " +
+                    "[--force] [--dry-run], with dlq.topic configured unless --file is given");
+            System.exit(1);
+        }
+        Properties producerProperties = KafkaUtil.getDeadLetterProducerProperties(CORRELATION_ID);
+        // Nothing is dropped: the replay waits for room in the buffer and the sends are idempotent
+        producerProperties.put(ProducerConfig.MAX_BLOCK_MS_CONFIG, 60_000L);
+        producerProperties.put(ProducerConfig.ENABLE_IDEMPOTENCE_CONFIG, true);
+        producerProperties.put(ProducerConfig.ACKS_CONFIG, "all");
+        try (KafkaProducer<byte[], byte[]> producer = options.containsKey("dry-run") ? null
+                : new KafkaProducer<>(producerProperties)) {
+            PolicyChangeReqDlqReplay replay = new PolicyChangeReqDlqReplay(producer,
+                    properties.getProperty("kafka.consumer.topic"), options.containsKey("force"));
+            if (options.containsKey("file"))
+                replay.replayFile(new NdjsonFileSource(Paths.get(options.get("file")), Integer.MAX_VALUE / 2));
+            else
+                replay.replayTopic(deadLetterTopic, options.containsKey("offsets")
+                        ? TopicRangeSource.parseOffsets(options.get("offsets")) : null, reasonCodesOf(options));
+            if (producer != null)
+                producer.flush();
+            logger.info("dlq replayed", CORRELATION_ID, String.format("Replayed: %d, Still rejected: %d, " +
+                            "Skipped: %d, Failed: %d", replay.replayedRecords.get(), replay.stillRejectedRecords,
+                    replay.skippedRecords, replay.failedRecords.get()));
+            System.exit(replay.failedRecords.get() == 0 ? 0 : 1);
+        } catch (IOException | RuntimeException e) {
+            logger.error("dlq replay failed", CORRELATION_ID, e.toString());
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return - Options by name (without the leading --), null if an argument isn't an option.
+     * Flags have an empty value
+     */
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new LinkedHashMap<>();
+        for (int index = 0; index < args.length; index++) {
+            if (!args[index].startsWith("--"))
+                return null;
+            boolean hasValue = index + 1 < args.length && !args[index + 1].startsWith("--");
+            options.put(args[index].substring(2), hasValue ? args[++index] : "");
+        }
+        return options;
+    }
+
+    /**
+     * @return - Reason codes of the --reasons option (RejectionReason names or MALFORMED), null for
+     * all the reasons
+     */
+    private static Set<Byte> reasonCodesOf(Map<String, String> options) {
+        if (!options.containsKey("reasons"))
+            return null;
+        Set<Byte> reasonCodes = new HashSet<>();
+        for (String reason : options.get("reasons").split(",")) {
+            reasonCodes.add("MALFORMED".equals(reason.trim()) ? DeadLetterPublisher.MALFORMED
+                    : RejectionReason.valueOf(reason.trim()).getCode());
+        }
+        return reasonCodes;
+    }
+
+    /**
+     * Replays the records of the dead letter topic with one of the reason codes
+     *
+     * @param deadLetterTopic - Dead letter topic
+     * @param offsets         - First (inclusive) and last (exclusive) offset per partition, null to
+     *                        read every partition from its beginning to its current end
+     * @param reasonCodes     - Reason codes of the replayed records, null for all
+     */
+    private void replayTopic(String deadLetterTopic, Map<Integer, long[]> offsets, Set<Byte> reasonCodes) {
+        try (KafkaConsumer<byte[], byte[]> consumer =
+                     new KafkaConsumer<>(KafkaUtil.getConsumerProperties(CORRELATION_ID))) {
+            Map<Integer, long[]> ranges = offsets != null ? offsets : currentOffsets(consumer, deadLetterTopic);
+            for (Map.Entry<Integer, long[]> range : ranges.entrySet()) {
+                TopicPartition partition = new TopicPartition(deadLetterTopic, range.getKey());
+                long to = range.getValue()[1];
+                consumer.assign(Collections.singletonList(partition));
+                consumer.seek(partition, range.getValue()[0]);
+                // Compacted or transactional offsets may be missing, the position moves past them
+                while (consumer.position(partition) < to) {
+                    for (ConsumerRecord<byte[], byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                        if (record.offset() >= to)
+                            break;
+                        Byte reasonCode = DeadLetterPublisher.reasonOf(record.headers());
+                        if (record.value() == null || (reasonCodes != null && !reasonCodes.contains(reasonCode))) {
+                            skippedRecords++;
+                            continue;
+                        }
+                        replay(record.key(), record.value(), deadLetterTopic + "-" + record.partition() + "@" +
+                                record.offset());
+                    }
+                }
+            }
+        }
+    }
+
+    private static Map<Integer, long[]> currentOffsets(KafkaConsumer<byte[], byte[]> consumer, String topic) {
+        List<TopicPartition> partitions = new ArrayList<>();
+        for (PartitionInfo partitionInfo : consumer.partitionsFor(topic))
+            partitions.add(new TopicPartition(topic, partitionInfo.partition()));
+        Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+        Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+        Map<Integer, long[]> ranges = new TreeMap<>();
+        for (TopicPartition partition : partitions)
+            ranges.put(partition.partition(), new long[]{beginningOffsets.get(partition), endOffsets.get(partition)});
+        return ranges;
+    }
+
+    /**
+     * Replays the lines of a fixed NDJSON file, without keys
+     */
+    private void replayFile(NdjsonFileSource source) throws IOException {
+        for (EventSource.Split split : source.splits())
+            split.read(line -> replay(null, line, "file"));
+    }
+
+    /**
+     * Sends the record to the input topic if it is valid JSON conforming to the business rules with
+     * a valid dateRequested, or if the replay is forced
+     */
+    private void replay(byte[] key, byte[] value, String replayedFrom) {
+        if (!force && !isValid(value)) {
+            stillRejectedRecords++;
+            return;
+        }
+        if (producer == null) {
+            replayedRecords.incrementAndGet();
+            return;
+        }
+        RecordHeaders headers = new RecordHeaders();
+        headers.add(REPLAYED_FROM_HEADER, replayedFrom.getBytes(StandardCharsets.UTF_8));
+        producer.send(new ProducerRecord<>(topic, null, key, value, headers), (metadata, error) -> {
+            if (error == null) {
+                replayedRecords.incrementAndGet();
+            } else {
+                failedRecords.incrementAndGet();
+                logger.error("dlq replay failed", CORRELATION_ID, "Record: " + replayedFrom + ", Error: " + error);
+            }
+        });
+    }
+
+    private static boolean isValid(byte[] value) {
+        PolicyLimitChangeRequest policyLimitChangeRequest;
+        try {
+            policyLimitChangeRequest = deserializer.deserialize(null, value);
+        } catch (SerializationException e) {
+            return false;
+        }
+        // The stream drops the events without a valid dateRequested before validating them
+        return policyLimitChangeRequest != null
+                && DateRequestedDecoder.epochMillis(policyLimitChangeRequest.getDateRequested()) >= 0
+                && ruleEngine.reasonOf(ruleEngine.evaluate(policyLimitChangeRequest)) == RejectionReason.ACCEPTED;
+    }
+}
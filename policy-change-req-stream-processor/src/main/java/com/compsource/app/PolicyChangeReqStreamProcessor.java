@@ -1,82 +1,116 @@
 package com.compsource.app;
 
-import com.compsource.app.custom.PolicyChangeReqTimestampExtractor;
+import com.compsource.app.custom.DeadLetterPublisher;
+import com.compsource.app.custom.StatisticsWriter;
 import com.compsource.app.data.dao.PolicyLimitChangeRequestsStatisticsDao;
+import com.compsource.app.data.journal.StatisticsJournalDrainer;
+import com.compsource.app.data.journal.StatisticsSpillJournal;
+import com.compsource.app.data.model.PartialStatistics;
 import com.compsource.app.data.model.PolicyLimitChangeRequest;
 import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
-import com.compsource.app.data.serde.kafka.JsonDeserializer;
+import com.compsource.app.data.model.StatisticsKey;
 import com.compsource.app.data.serde.kafka.JsonSerializer;
+import com.compsource.app.data.serde.kafka.PartialStatisticsDeserializer;
+import com.compsource.app.data.serde.kafka.PartialStatisticsSerializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsSerializer;
+import com.compsource.app.data.serde.kafka.StatisticsKeyDeserializer;
+import com.compsource.app.data.serde.kafka.StatisticsKeySerializer;
 import com.compsource.app.data.serde.kafka.WrapperSerde;
-import com.compsource.app.data.validation.PolicyLimitChangeReqValidator;
 import com.compsource.app.logging.LogManager;
+import com.compsource.app.metrics.StreamProcessorMetrics;
+import com.compsource.app.query.StatisticsQueryServer;
 import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.DateRequestedDecoder;
 import com.compsource.app.utils.KafkaUtil;
+import com.compsource.app.utils.StreamsTuningProfile;
 import com.compsource.app.utils.TypeConverter;
 import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.ResultSet;
+import com.datastax.driver.core.ResultSetFuture;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
 import org.apache.kafka.common.serialization.Serdes;
-import org.apache.kafka.common.utils.Bytes;
 import org.apache.kafka.streams.KafkaStreams;
-import org.apache.kafka.streams.KeyValue;
-import org.apache.kafka.streams.StreamsBuilder;
-import org.apache.kafka.streams.kstream.*;
-import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.state.HostInfo;
 
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Paths;
 import java.time.Duration;
 import java.time.Instant;
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
 import java.util.Properties;
 
 /**
  * This class consumes and process the events from COIWithPolicyCoverageLimitRequested topic using
- * Kafka Streams and saves the required statistics to a cassandra table
+ * Kafka Streams and saves the required statistics (hourly, daily, monthly and per account hourly
+ * totals) to cassandra tables
  */
 public class PolicyChangeReqStreamProcessor {
     private static LogManager logger = new LogManager(PolicyChangeReqStreamProcessor.class);
     private static Properties properties = ConfigUtil.loadProperty();
-    private static final String TOPIC_NAME = properties.getProperty("kafka.consumer.topic");
     private static PolicyLimitChangeRequestsStatisticsDao policyChangeStatDao =
             new PolicyLimitChangeRequestsStatisticsDao();
 
+    /**
+     * Usage: PolicyChangeReqStreamProcessor consumer-group-id [--profile throughput|low-latency|restore-fast]
+     */
     public static void main(String[] args) {
-        if (args.length != 1) {
-            logger.error("Provide the Consumer-Group-Id as argument");
+        if (args.length != 1 && !(args.length == 3 && "--profile".equals(args[1]))) {
+            logger.error("Provide the Consumer-Group-Id as argument, optionally followed by " +
+                    "--profile throughput|low-latency|restore-fast");
             System.exit(1);
         }
         final String consumerGroupId = args[0];
         final String clientId = "KSC-" + Instant.now().toString();
+        StreamsTuningProfile profile = KafkaUtil.getStreamsTuningProfile();
+        if (args.length == 3) {
+            try {
+                profile = StreamsTuningProfile.of(args[2]);
+            } catch (IllegalArgumentException e) {
+                logger.error("Unknown tuning profile " + args[2] + ", expected throughput, low-latency or restore-fast");
+                System.exit(1);
+            }
+        }
+
+        // The seen request IDs are committed with the statistics they were aggregated in only with
+        // exactly_once, otherwise the requests of a crashed task would be dropped when reprocessed
+        if (PolicyChangeReqTopology.isDeduplicating() && !KafkaUtil.isExactlyOnce()) {
+            logger.error("The deduplication (dedup.horizon.hours) requires the exactly_once processing guarantee");
+            System.exit(1);
+        }
 
         Properties streamProperties = KafkaUtil.getStreamProperties(consumerGroupId, clientId,
-                consumerGroupId, Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class);
-
-        StreamsBuilder streamsBuilder = new StreamsBuilder();
-        KStream<String, PolicyLimitChangeRequest> streamSource = streamsBuilder
-                .stream(TOPIC_NAME, Consumed.with(Serdes.String(),
-                        new PolicyLimitChangeRequestSerde())
-                        .withTimestampExtractor(new PolicyChangeReqTimestampExtractor()));
-
-
-        streamSource
-                //Filtering out the invalid requests that doesn't conforms to the business rules
-                .filter((key, policyLimitChangeRequest) ->
-                        PolicyLimitChangeReqValidator.validate(policyLimitChangeRequest))
-                //Mapping all events to a single key in order to group all the events
-                .map((key, policyLimitChangeRequest) -> new KeyValue<>("key", policyLimitChangeRequest))
-                .groupByKey()
-                //Creating an one hour Tumbling window (non-overlapping window)
-                .windowedBy(TimeWindows.of(Duration.ofMinutes(60)).advanceBy(Duration.ofMinutes(60)).grace(Duration.ofDays(355)))
-                // Aggregating the PolicyLimitChangeRequest events
-                .aggregate(PolicyLimitChangeRequestsStatistics::new,
-                        (key, policyLimitChangeRequest, policyStats) -> policyStats.add(policyLimitChangeRequest),
-                        Materialized.<String, PolicyLimitChangeRequestsStatistics, WindowStore<Bytes, byte[]>>as
-                                ("policy-change-aggregates")
-                                .withValueSerde(new PolicyLimitChangeRequestStatsSerde())
-                                .withRetention(Duration.ofDays(356)))
-                .toStream()
-                .foreach(PolicyChangeReqStreamProcessor::writeStatistics);
-
-        KafkaStreams kafkaStreams = new KafkaStreams(streamsBuilder.build(), streamProperties);
+                consumerGroupId, Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class, profile);
+
+        Closeable metrics = startMetrics();
+
+        StatisticsWriter statisticsWriter = new CassandraStatisticsWriter();
+        StatisticsSpillJournal spillJournal = openSpillJournal();
+        StatisticsJournalDrainer journalDrainer = null;
+        if (spillJournal != null) {
+            journalDrainer = new StatisticsJournalDrainer(spillJournal, statisticsWriter);
+            journalDrainer.start(Duration.ofMillis(
+                    Long.parseLong(properties.getProperty("statistics.journal.drain.interval.ms", "5000"))));
+        }
+
+        //Shared by the topology and the deserialization exception handlers of all the stream threads
+        DeadLetterPublisher deadLetterPublisher = DeadLetterPublisher.fromConfig();
+        if (deadLetterPublisher != null)
+            streamProperties.put(DeadLetterPublisher.CONFIG, deadLetterPublisher);
+
+        KafkaStreams kafkaStreams = new KafkaStreams(
+                PolicyChangeReqTopology.build(statisticsWriter, spillJournal, deadLetterPublisher),
+                streamProperties);
         kafkaStreams.start();
+        StreamProcessorMetrics.bindStateStores(kafkaStreams, Paths.get(streamProperties.getProperty(
+                StreamsConfig.STATE_DIR_CONFIG, "/tmp/kafka-streams"), consumerGroupId),
+                PolicyChangeReqTopology.HOURLY_TOTALS_STORE, PolicyChangeReqTopology.DAILY_TOTALS_STORE,
+                PolicyChangeReqTopology.MONTHLY_TOTALS_STORE, PolicyChangeReqTopology.PENDING_EMISSIONS_STORE);
 
         //Add State listener to kafka stream if it is newly created
         if (kafkaStreams.state() == KafkaStreams.State.CREATED) {
@@ -88,38 +122,173 @@ public class PolicyChangeReqStreamProcessor {
             });
         }
 
-        Runtime.getRuntime().addShutdownHook(new Thread(kafkaStreams::close));
+        StatisticsQueryServer queryServer = startQueryServer(kafkaStreams);
+
+        final StatisticsJournalDrainer drainer = journalDrainer;
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            if (queryServer != null)
+                queryServer.close();
+            kafkaStreams.close();
+            if (deadLetterPublisher != null)
+                deadLetterPublisher.close();
+            if (drainer != null) {
+                drainer.close();
+                spillJournal.close();
+            }
+            closeMetrics(metrics);
+        }));
     }
 
+    /**
+     * Starts the query server of the live statistics on the port configured in the properties file
+     *
+     * @param kafkaStreams - Started KafkaStreams instance
+     * @return - StatisticsQueryServer, null if no port is configured
+     */
+    private static StatisticsQueryServer startQueryServer(KafkaStreams kafkaStreams) {
+        HostInfo hostInfo = KafkaUtil.getQueryServerHostInfo();
+        if (hostInfo == null)
+            return null;
+        try {
+            StatisticsQueryServer queryServer = new StatisticsQueryServer(kafkaStreams, hostInfo,
+                    Integer.parseInt(properties.getProperty("query.server.threads", "4")));
+            queryServer.start();
+            return queryServer;
+        } catch (IOException e) {
+            logger.error("Unable to start the statistics query server on port " + hostInfo.port() + ": " + e);
+            return null;
+        }
+    }
 
     /**
-     * Writes the policyLimitChangeRequestsStatistics to a cassandra table
+     * Starts the export of the metrics over JMX and on the Prometheus port configured in the
+     * properties file
      *
-     * @param timeWindow                     - Time window (one hour)
-     * @param policyLimitChangeRequestsStats - Policy Limit Change Request Statistics
+     * @return - Stops the export, null if it couldn't be started
      */
-    private static void writeStatistics
-    (Windowed<String> timeWindow, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+    private static Closeable startMetrics() {
+        try {
+            return StreamProcessorMetrics.start();
+        } catch (IOException e) {
+            logger.error("Unable to start the Prometheus metrics endpoint: " + e);
+            return null;
+        }
+    }
 
-        setRequestedDateAndHour(timeWindow, policyLimitChangeRequestsStats);
+    private static void closeMetrics(Closeable metrics) {
+        if (metrics == null)
+            return;
+        try {
+            metrics.close();
+        } catch (IOException e) {
+            logger.error("Unable to stop the metrics export: " + e);
+        }
+    }
 
-        String correlationId = policyLimitChangeRequestsStats.getDateRequested().toString()
-                + "_" + policyLimitChangeRequestsStats.getHourRequested().toString();
+    /**
+     * Opens the statistics spill journal configured in the properties file
+     *
+     * @return - StatisticsSpillJournal, null if no journal is configured
+     */
+    private static StatisticsSpillJournal openSpillJournal() {
+        String journalPath = properties.getProperty("statistics.journal.path", "");
+        if (journalPath.trim().isEmpty())
+            return null;
         try {
-            policyChangeStatDao.save(policyLimitChangeRequestsStats);
-            logger.info("event processed", correlationId,
-                    String.format("Statistics: %s, Message: Statistics for %s to %s was " +
-                                    "successfully saved to Cassandra",
-                            policyLimitChangeRequestsStats.toJSON(),
-                            timeWindow.window().startTime(), timeWindow.window().endTime()));
-        } catch (Exception e) {
-            logger.error("database not accessible", correlationId,
-                    String.format("Error in writing the Policy Limit Change Statistics to " +
-                                    "Cassandra. Time Window: %s to %s. Record: %s",
-                            timeWindow.window().startTime(), timeWindow.window().endTime(),
-                            policyLimitChangeRequestsStats.toJSON()));
-            e.printStackTrace();
+            return StatisticsSpillJournal.open(Paths.get(journalPath.trim()), 1024 * 1024 *
+                    Integer.parseInt(properties.getProperty("statistics.journal.size.mb", "64")));
+        } catch (IOException e) {
+            logger.error("Unable to open the statistics spill journal " + journalPath + ": " + e);
             System.exit(1);
+            return null;
+        }
+    }
+
+
+    /**
+     * Writes the policyLimitChangeRequestsStatistics to the cassandra table of its granularity
+     * without blocking the stream thread
+     *
+     * @param statisticsKey                  - Granularity and start of the period
+     * @param policyLimitChangeRequestsStats - Policy Limit Change Request Statistics
+     * @return - Future completed when the write is acknowledged
+     */
+    private static ListenableFuture<ResultSet> writeStatistics
+    (StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        Instant startTime = Instant.ofEpochMilli(statisticsKey.getPeriodStart());
+        Instant endTime = Instant.ofEpochMilli(statisticsKey.getPeriodEnd());
+
+        setRequestedDateAndHour(startTime, policyLimitChangeRequestsStats);
+
+        String correlationId = correlationIdOf(statisticsKey, policyLimitChangeRequestsStats);
+        long submitted = System.nanoTime();
+        ListenableFuture<ResultSet> write = saveAsync(statisticsKey, policyLimitChangeRequestsStats);
+        Futures.addCallback(write, new FutureCallback<ResultSet>() {
+            @Override
+            public void onSuccess(ResultSet resultSet) {
+                StreamProcessorMetrics.recordWrite(statisticsKey.getGranularity(), System.nanoTime() - submitted,
+                        true);
+                logger.info("event processed", correlationId, () ->
+                        String.format("Statistics: %s, Message: Statistics for %s to %s was " +
+                                        "successfully saved to Cassandra",
+                                policyLimitChangeRequestsStats.toJSON(),
+                                startTime, endTime));
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                StreamProcessorMetrics.recordWrite(statisticsKey.getGranularity(), System.nanoTime() - submitted,
+                        false);
+                logger.error("database not accessible", correlationId, () ->
+                        String.format("Error in writing the Policy Limit Change Statistics to " +
+                                        "Cassandra. Time Window: %s to %s. Record: %s. Error: %s",
+                                startTime, endTime,
+                                policyLimitChangeRequestsStats.toJSON(), error));
+            }
+        }, MoreExecutors.directExecutor());
+        return write;
+    }
+
+    /**
+     * Writes the statistics to the cassandra table of the granularity
+     */
+    private static ResultSetFuture saveAsync(StatisticsKey statisticsKey,
+                                             PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        switch (statisticsKey.getGranularity()) {
+            case DAILY:
+                return policyChangeStatDao.saveDailyAsync(policyLimitChangeRequestsStats);
+            case MONTHLY:
+                return policyChangeStatDao.saveMonthlyAsync(policyLimitChangeRequestsStats);
+            case ACCOUNT_HOURLY:
+                return policyChangeStatDao.saveAccountHourlyAsync(statisticsKey.getAccountId(),
+                        policyLimitChangeRequestsStats);
+            case HOURLY_TOP_ACCOUNTS:
+                return policyChangeStatDao.saveTopAccountsAsync(policyLimitChangeRequestsStats);
+            default:
+                return policyChangeStatDao.saveAsync(policyLimitChangeRequestsStats);
+        }
+    }
+
+    /**
+     * @return - yyyy-MM-dd_hour for the hourly totals (prefixed by the accountId for the per account
+     * totals, by top-accounts for the top accounts), yyyy-MM-dd for the daily totals and yyyy-MM for the
+     * monthly totals
+     */
+    private static String correlationIdOf(StatisticsKey statisticsKey,
+                                          PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        String dateRequested = policyLimitChangeRequestsStats.getDateRequested().toString();
+        switch (statisticsKey.getGranularity()) {
+            case DAILY:
+                return dateRequested;
+            case MONTHLY:
+                return dateRequested.substring(0, 7);
+            case ACCOUNT_HOURLY:
+                return statisticsKey.getAccountId() + "_" + dateRequested + "_"
+                        + policyLimitChangeRequestsStats.getHourRequested();
+            case HOURLY_TOP_ACCOUNTS:
+                return "top-accounts_" + dateRequested + "_" + policyLimitChangeRequestsStats.getHourRequested();
+            default:
+                return dateRequested + "_" + policyLimitChangeRequestsStats.getHourRequested();
         }
     }
 
@@ -127,15 +296,16 @@ public class PolicyChangeReqStreamProcessor {
      * Set the Requested Date and hour for the PolicyLimitChangeRequestsStatistics object from the
      * time Window
      *
-     * @param timeWindow                     - Time window of the calculated Statistics
+     * @param startTime                      - Start time of the calculated Statistics window
      * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
      */
-    private static void setRequestedDateAndHour
-    (Windowed<String> timeWindow, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
-        Instant startTime = timeWindow.window().startTime();
-        LocalDateTime localDateTime = LocalDateTime.ofInstant(startTime, ZoneOffset.UTC);
-        LocalDate dateRequested = TypeConverter.stringToDatastaxDate(localDateTime.toLocalDate().toString());
-        byte hourRequested = (byte) localDateTime.getHour();
+    static void setRequestedDateAndHour
+    (Instant startTime, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        long windowStart = startTime.toEpochMilli();
+        LocalDate dateRequested = TypeConverter.epochDayToDatastaxDate(
+                (int) Math.floorDiv(windowStart, DateRequestedDecoder.DAY_MS));
+        byte hourRequested =
+                (byte) (Math.floorMod(windowStart, DateRequestedDecoder.DAY_MS) / DateRequestedDecoder.HOUR_MS);
 
         policyLimitChangeRequestsStats.setDateRequested(dateRequested);
         policyLimitChangeRequestsStats.setHourRequested(hourRequested);
@@ -143,11 +313,45 @@ public class PolicyChangeReqStreamProcessor {
     }
 
     /**
-     * Serde class for  PolicyLimitChangeRequestsStatistics
+     * Writes the statistics to Cassandra, transient Cassandra failures are retried by the sink
+     */
+    private static final class CassandraStatisticsWriter implements StatisticsWriter {
+        @Override
+        public ListenableFuture<?> write(StatisticsKey statisticsKey,
+                                         PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+            return writeStatistics(statisticsKey, policyLimitChangeRequestsStats);
+        }
+
+        @Override
+        public boolean isRetryable(Throwable error) {
+            return PolicyLimitChangeRequestsStatisticsDao.isTransient(error);
+        }
+    }
+
+    /**
+     * Serde class for  PolicyLimitChangeRequestsStatistics, in the compact binary format
      */
     public static final class PolicyLimitChangeRequestStatsSerde extends WrapperSerde<PolicyLimitChangeRequestsStatistics> {
         PolicyLimitChangeRequestStatsSerde() {
-            super(new JsonSerializer<>(), new JsonDeserializer<>(PolicyLimitChangeRequestsStatistics.class));
+            super(new PolicyLimitChangeRequestsStatisticsSerializer(), new PolicyLimitChangeRequestsStatisticsDeserializer());
+        }
+    }
+
+    /**
+     * Serde class for  StatisticsKey
+     */
+    public static final class StatisticsKeySerde extends WrapperSerde<StatisticsKey> {
+        public StatisticsKeySerde() {
+            super(new StatisticsKeySerializer(), new StatisticsKeyDeserializer());
+        }
+    }
+
+    /**
+     * Serde class for  PartialStatistics
+     */
+    public static final class PartialStatisticsSerde extends WrapperSerde<PartialStatistics> {
+        public PartialStatisticsSerde() {
+            super(new PartialStatisticsSerializer(), new PartialStatisticsDeserializer());
         }
     }
 
@@ -156,7 +360,7 @@ public class PolicyChangeReqStreamProcessor {
      */
     public static final class PolicyLimitChangeRequestSerde extends WrapperSerde<PolicyLimitChangeRequest> {
         public PolicyLimitChangeRequestSerde() {
-            super(new JsonSerializer<>(), new JsonDeserializer<>(PolicyLimitChangeRequest.class));
+            super(new JsonSerializer<>(), new PolicyLimitChangeRequestDeserializer());
         }
     }
 
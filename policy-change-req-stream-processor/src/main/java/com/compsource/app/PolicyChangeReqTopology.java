@@ -0,0 +1,535 @@
+package com.compsource.app;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PartialStatisticsSerde;
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestStatsSerde;
+import com.compsource.app.PolicyChangeReqStreamProcessor.StatisticsKeySerde;
+import com.compsource.app.custom.AsyncStatisticsSink;
+import com.compsource.app.custom.DeadLetterPublisher;
+import com.compsource.app.custom.DuplicateRequestFilter;
+import com.compsource.app.custom.PartialStatisticsMerger;
+import com.compsource.app.custom.PartitionLocalAggregator;
+import com.compsource.app.custom.PolicyChangeReqTimestampExtractor;
+import com.compsource.app.custom.RequestValidationFilter;
+import com.compsource.app.custom.StatisticsEmissionPolicy;
+import com.compsource.app.custom.StatisticsEmissionTransformer;
+import com.compsource.app.custom.StatisticsSinkProcessor;
+import com.compsource.app.custom.StatisticsWriter;
+import com.compsource.app.custom.TieredWindowBytesStoreSupplier;
+import com.compsource.app.data.journal.StatisticsSpillJournal;
+import com.compsource.app.data.model.PartialStatistics;
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.metrics.StreamProcessorMetrics;
+import com.compsource.app.utils.ConfigUtil;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.kstream.*;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.StoreBuilder;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.Stores;
+import org.apache.kafka.streams.state.WindowStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * Builds the Kafka Streams topology that aggregates the Policy Limit Change Requests into hourly,
+ * daily, monthly and per account hourly statistics.
+ * <p>
+ * The events that don't conform to the business rules are sent to the dead letter topic by the
+ * {@link RequestValidationFilter}. The valid events are deduplicated by coiRequestId within the dedup horizon by the {@link
+ * DuplicateRequestFilter}, so the copies republished by the producers are aggregated once.
+ * <p>
+ * The hourly aggregation runs in two stages. The valid events are spread across a fixed number of
+ * accountId hash buckets and pre-aggregated per bucket, so the heavy per-event work scales with
+ * the partitions and stream threads. The partial hourly statistics of all the buckets are then
+ * regrouped by month and merged into the hourly, daily and monthly totals by the {@link
+ * PartialStatisticsMerger}, a small final stage which only sees one update per bucket and window
+ * and forwards totals that always count all the buckets. The per account totals are aggregated
+ * from the valid events in their own hourly windows.
+ * <p>
+ * Upgrading from the single key aggregation of the earlier versions, or from the regrouped KTable
+ * merge of the hourly totals, requires an application reset (kafka-streams-application-reset and
+ * a cleanup of the local state) and reprocessing the input from the start of the oldest hour still
+ * open: the stores and internal topics of the aggregation changed, and the statistics are now
+ * stored in a binary format that doesn't read the JSON entries of the earlier stores and
+ * changelogs, so the state of the windows in flight isn't carried over. The hours already closed can be rebuilt by PolicyChangeReqBackfill
+ * instead.
+ * <p>
+ * With aggregation.mode set to partition-local, the valid events are instead aggregated into the
+ * partial hourly and per account hourly statistics of their input partition by the {@link
+ * PartitionLocalAggregator}, in the task that reads them: the events aren't regrouped through any
+ * repartition topic nor serialized again, whatever their key. The partial statistics updated
+ * within a flush interval (aggregation.partition-local.flush.interval.ms) are regrouped by month
+ * once per interval and merged like the partial statistics of the buckets, the input partitions
+ * being the buckets.
+ * <p>
+ * The partial and hourly totals also rank the heavy hitter accounts of the hour in a constant
+ * size {@link com.compsource.app.data.model.HeavyHittersSketch}, written as the hourly top accounts
+ * once the hour is over.
+ * <p>
+ * The updated totals of all the granularities, keyed by {@link StatisticsKey}, are handed to the
+ * statistics sink according to the configured {@link StatisticsEmissionPolicy} and written through
+ * the {@link AsyncStatisticsSink}.
+ */
+public class PolicyChangeReqTopology {
+    // Not the store of the single key aggregation of the earlier versions, see the upgrade note
+    public static final String PARTIAL_AGGREGATES_STORE = "policy-change-bucket-aggregates";
+    public static final String MERGED_PARTIALS_STORE = "policy-change-merged-partials";
+    public static final String PARTIAL_RELAY_STORE = "policy-change-partials-by-month";
+    public static final String HOURLY_TOTALS_STORE = "policy-change-totals";
+    public static final String DAILY_TOTALS_STORE = "policy-change-daily-totals";
+    public static final String MONTHLY_TOTALS_STORE = "policy-change-monthly-totals";
+    public static final String ACCOUNT_AGGREGATES_STORE = "policy-change-account-aggregates";
+    public static final String PENDING_EMISSIONS_STORE = "policy-change-pending-rollups";
+    public static final String STATISTICS_SINK_STORE = "policy-change-statistics-sink";
+    public static final String SEEN_REQUESTS_STORE = "policy-change-seen-requests";
+    public static final String ACCOUNT_PARTIALS_STORE = "policy-change-account-partials";
+    public static final String UPDATED_PARTIALS_STORE = "policy-change-updated-partials";
+    public static final Duration WINDOW_SIZE = Duration.ofMinutes(60);
+
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static final String TOPIC_NAME = properties.getProperty("kafka.consumer.topic");
+    private static final int PARTIAL_BUCKETS =
+            Integer.parseInt(properties.getProperty("aggregation.partial-buckets", "12"));
+    private static final String[] BUCKET_KEYS = bucketKeys(PARTIAL_BUCKETS);
+    private static final Duration WINDOW_GRACE =
+            Duration.ofDays(Long.parseLong(properties.getProperty("aggregation.window.grace.days", "355")));
+    private static final Duration WINDOW_RETENTION =
+            Duration.ofDays(Long.parseLong(properties.getProperty("aggregation.window.retention.days", "356")));
+    private static final String WINDOW_STORE_TYPE = properties.getProperty("aggregation.window-store", "rocksdb");
+    private static final AggregationMode AGGREGATION_MODE =
+            AggregationMode.of(properties.getProperty("aggregation.mode", "repartition"));
+    private static final Duration LOCAL_FLUSH_INTERVAL = Duration.ofMillis(Long.parseLong(
+            properties.getProperty("aggregation.partition-local.flush.interval.ms", "1000")));
+    private static final StoreType STORE_TYPE =
+            StoreType.valueOf(properties.getProperty("state.store.type", "persistent").trim().toUpperCase());
+    private static final Duration WINDOW_STORE_HOT_RETENTION = Duration.ofHours(
+            Long.parseLong(properties.getProperty("aggregation.window-store.hot-hours", "48")));
+    private static final StatisticsEmissionPolicy EMISSION_POLICY =
+            StatisticsEmissionPolicy.of(properties.getProperty("statistics.emission.policy", "eager"));
+    private static final Duration EMISSION_INTERVAL = Duration.ofSeconds(
+            Long.parseLong(properties.getProperty("statistics.emission.interval.seconds", "60")));
+    private static final Duration DEDUP_HORIZON =
+            Duration.ofHours(Long.parseLong(properties.getProperty("dedup.horizon.hours", "0")));
+    private static final long DEDUP_EXPECTED_REQUESTS =
+            Long.parseLong(properties.getProperty("dedup.bloom.expected-requests", "1000000"));
+    private static final double DEDUP_FALSE_POSITIVE_RATE =
+            Double.parseDouble(properties.getProperty("dedup.bloom.false-positive-rate", "0.01"));
+    private static final String DEDUP_TOPIC = properties.getProperty("dedup.topic", "").trim();
+    private static final int SINK_MAX_IN_FLIGHT =
+            Integer.parseInt(properties.getProperty("cassandra.sink.max-in-flight", "64"));
+    private static final Duration SINK_INITIAL_BACKOFF = Duration.ofMillis(
+            Long.parseLong(properties.getProperty("cassandra.sink.retry.initial-backoff.ms", "100")));
+    private static final Duration SINK_MAX_BACKOFF = Duration.ofMillis(
+            Long.parseLong(properties.getProperty("cassandra.sink.retry.max-backoff.ms", "10000")));
+    private static final Duration SINK_MAX_WAIT = Duration.ofMillis(
+            Long.parseLong(properties.getProperty("cassandra.sink.max-wait.ms", "240000")));
+
+    /**
+     * Builds the topology without a spill journal
+     *
+     * @param statisticsWriter - Writes the statistics of every granularity as decided by the
+     *                         statistics emission policy
+     * @return - Topology
+     */
+    public static Topology build(StatisticsWriter statisticsWriter) {
+        return build(statisticsWriter, null);
+    }
+
+    /**
+     * Builds the topology
+     *
+     * @param statisticsWriter - Writes the statistics of every granularity as decided by the
+     *                         statistics emission policy
+     * @param spillJournal     - Receives the writes failing with transient errors, null to retry
+     *                         them in place
+     * @return - Topology
+     */
+    public static Topology build(StatisticsWriter statisticsWriter, StatisticsSpillJournal spillJournal) {
+        return build(statisticsWriter, spillJournal, null);
+    }
+
+    /**
+     * Builds the topology
+     *
+     * @param statisticsWriter    - Writes the statistics of every granularity as decided by the
+     *                            statistics emission policy
+     * @param spillJournal        - Receives the writes failing with transient errors, null to retry
+     *                            them in place
+     * @param deadLetterPublisher - Receives the rejected events, null to only log their summaries
+     * @return - Topology
+     */
+    public static Topology build(StatisticsWriter statisticsWriter, StatisticsSpillJournal spillJournal,
+                                 DeadLetterPublisher deadLetterPublisher) {
+        return build(statisticsWriter, spillJournal, deadLetterPublisher, STORE_TYPE);
+    }
+
+    /**
+     * Builds the topology
+     *
+     * @param statisticsWriter    - Writes the statistics of every granularity as decided by the
+     *                            statistics emission policy
+     * @param spillJournal        - Receives the writes failing with transient errors, null to retry
+     *                            them in place
+     * @param deadLetterPublisher - Receives the rejected events, null to only log their summaries
+     * @param storeType           - Kind of the state stores, instead of the state.store.type property
+     * @return - Topology
+     */
+    public static Topology build(StatisticsWriter statisticsWriter, StatisticsSpillJournal spillJournal,
+                                 DeadLetterPublisher deadLetterPublisher, StoreType storeType) {
+        return build(statisticsWriter, spillJournal, deadLetterPublisher, storeType, AGGREGATION_MODE);
+    }
+
+    /**
+     * Builds the topology
+     *
+     * @param statisticsWriter    - Writes the statistics of every granularity as decided by the
+     *                            statistics emission policy
+     * @param spillJournal        - Receives the writes failing with transient errors, null to retry
+     *                            them in place
+     * @param deadLetterPublisher - Receives the rejected events, null to only log their summaries
+     * @param storeType           - Kind of the state stores, instead of the state.store.type property
+     * @param aggregationMode     - Aggregation of the events, instead of the aggregation.mode property
+     * @return - Topology
+     */
+    public static Topology build(StatisticsWriter statisticsWriter, StatisticsSpillJournal spillJournal,
+                                 DeadLetterPublisher deadLetterPublisher, StoreType storeType,
+                                 AggregationMode aggregationMode) {
+        return build(statisticsWriter, spillJournal, deadLetterPublisher, storeType, aggregationMode, DEDUP_HORIZON);
+    }
+
+    /**
+     * Builds the topology
+     *
+     * @param statisticsWriter    - Writes the statistics of every granularity as decided by the
+     *                            statistics emission policy
+     * @param spillJournal        - Receives the writes failing with transient errors, null to retry
+     *                            them in place
+     * @param deadLetterPublisher - Receives the rejected events, null to only log their summaries
+     * @param storeType           - Kind of the state stores, instead of the state.store.type property
+     * @param aggregationMode     - Aggregation of the events, instead of the aggregation.mode property
+     * @param dedupHorizon        - Time during which the copies of a request are dropped, zero to
+     *                            aggregate every copy, instead of the dedup.horizon.hours property
+     * @return - Topology
+     */
+    public static Topology build(StatisticsWriter statisticsWriter, StatisticsSpillJournal spillJournal,
+                                 DeadLetterPublisher deadLetterPublisher, StoreType storeType,
+                                 AggregationMode aggregationMode, Duration dedupHorizon) {
+        StreamsBuilder streamsBuilder = new StreamsBuilder();
+        streamsBuilder.addStateStore(pendingEmissionsStore(storeType));
+        streamsBuilder.addStateStore(new AsyncStatisticsSink.Builder(STATISTICS_SINK_STORE, statisticsWriter,
+                spillJournal, SINK_MAX_IN_FLIGHT, SINK_INITIAL_BACKOFF, SINK_MAX_BACKOFF, SINK_MAX_WAIT));
+        KStream<String, PolicyLimitChangeRequest> streamSource = streamsBuilder
+                .stream(TOPIC_NAME, Consumed.with(Serdes.String(),
+                        new PolicyLimitChangeRequestSerde())
+                        .withTimestampExtractor(new PolicyChangeReqTimestampExtractor()));
+
+        //Filtering out the invalid requests that doesn't conforms to the business rules, to the dead
+        // letter topic
+        KStream<String, PolicyLimitChangeRequest> validRequests = streamSource
+                .transform(() -> new RequestValidationFilter(deadLetterPublisher));
+        if (!dedupHorizon.isZero())
+            validRequests = deduplicate(streamsBuilder, validRequests, storeType, aggregationMode, dedupHorizon);
+
+        KStream<StatisticsKey, PolicyLimitChangeRequestsStatistics> statistics =
+                aggregationMode == AggregationMode.PARTITION_LOCAL
+                        ? aggregateLocally(streamsBuilder, validRequests, storeType)
+                        : aggregate(streamsBuilder, validRequests, storeType);
+        statistics
+                //Holding back the updates that the emission policy doesn't write yet
+                .transform(() -> new StatisticsEmissionTransformer(EMISSION_POLICY, PENDING_EMISSIONS_STORE,
+                        WINDOW_GRACE, EMISSION_INTERVAL), PENDING_EMISSIONS_STORE)
+                .process(() -> new StatisticsSinkProcessor(STATISTICS_SINK_STORE), STATISTICS_SINK_STORE);
+
+        return streamsBuilder.build();
+    }
+
+    /**
+     * Aggregates the valid requests in two stages regrouped through the repartition topics: per
+     * accountId hash bucket, then merged per month into the hourly, daily and monthly totals, and
+     * per account
+     *
+     * @param streamsBuilder - Builder of the topology, receives the totals stores
+     * @param validRequests  - Valid and deduplicated requests
+     * @param storeType      - Kind of the state stores
+     * @return - Updated totals of all the granularities, keyed by StatisticsKey
+     */
+    private static KStream<StatisticsKey, PolicyLimitChangeRequestsStatistics> aggregate(
+            StreamsBuilder streamsBuilder, KStream<String, PolicyLimitChangeRequest> validRequests,
+            StoreType storeType) {
+        KTable<Windowed<String>, PolicyLimitChangeRequestsStatistics> partialStatistics = validRequests
+                //Spreading the events across the accountId hash buckets for the partial aggregation
+                .selectKey((key, policyLimitChangeRequest) -> bucketOf(policyLimitChangeRequest))
+                .groupByKey(Grouped.with(Serdes.String(), new PolicyLimitChangeRequestSerde()))
+                //Creating an one hour Tumbling window (non-overlapping window)
+                .windowedBy(TimeWindows.of(WINDOW_SIZE).advanceBy(WINDOW_SIZE).grace(WINDOW_GRACE))
+                // Stage 1: Aggregating the PolicyLimitChangeRequest events per bucket
+                .aggregate(PolicyLimitChangeRequestsStatistics::withTopAccounts,
+                        StreamProcessorMetrics.timedPartialAggregation((key, policyLimitChangeRequest, policyStats) ->
+                                policyStats.add(policyLimitChangeRequest)),
+                        partialAggregatesStore(storeType)
+                                .withValueSerde(new PolicyLimitChangeRequestStatsSerde())
+                                .withRetention(WINDOW_RETENTION));
+
+        KTable<Windowed<Integer>, PolicyLimitChangeRequestsStatistics> accountTotals = validRequests
+                .groupBy((key, policyLimitChangeRequest) -> policyLimitChangeRequest.getAccountId(),
+                        Grouped.with(Serdes.Integer(), new PolicyLimitChangeRequestSerde()))
+                .windowedBy(TimeWindows.of(WINDOW_SIZE).advanceBy(WINDOW_SIZE).grace(WINDOW_GRACE))
+                .aggregate(PolicyLimitChangeRequestsStatistics::withoutDistinctCounts,
+                        StreamProcessorMetrics.timedAccountAggregation((accountId, policyLimitChangeRequest, accountStats) ->
+                                accountStats.accumulate(policyLimitChangeRequest)),
+                        PolicyChangeReqTopology.<Integer>windowStore(ACCOUNT_AGGREGATES_STORE, storeType)
+                                .withValueSerde(new PolicyLimitChangeRequestStatsSerde())
+                                .withRetention(WINDOW_RETENTION));
+
+        KStream<Long, PartialStatistics> partialsByMonth = partialStatistics.toStream()
+                .map((timeWindow, partialStats) -> KeyValue.pair(
+                        Granularity.MONTHLY.periodStart(timeWindow.window().start()),
+                        new PartialStatistics(timeWindow.key(), timeWindow.window().start(), partialStats)));
+        return mergePartials(streamsBuilder, partialsByMonth, storeType, null)
+                .merge(accountTotals.toStream()
+                        .map((timeWindow, stats) -> KeyValue.pair(
+                                StatisticsKey.accountHourly(timeWindow.key(), timeWindow.window().start()), stats)));
+    }
+
+    /**
+     * Stage 2: regroups the partial statistics by the month of their window and merges them into
+     * the hourly, daily and monthly totals with the {@link PartialStatisticsMerger}. Unlike a
+     * regrouped KTable, whose subtraction of the previous value and addition of the updated value
+     * reach the aggregation as two records, the merger replaces the previous partial statistics of
+     * a bucket in a single update, so no lowered total is ever forwarded
+     *
+     * @param streamsBuilder         - Builder of the topology, receives the merger stores
+     * @param partialsByMonth        - Partial statistics per bucket and hourly window, keyed by the
+     *                               start of the month of their window
+     * @param storeType              - Kind of the state stores
+     * @param accountTotalsStoreName - Store of the per account totals merged from the partial
+     *                               statistics of the accounts, null if there are none
+     * @return - Updated hourly, daily, monthly totals and hourly top accounts, and the updated per
+     * account totals when merged, keyed by StatisticsKey
+     */
+    private static KStream<StatisticsKey, PolicyLimitChangeRequestsStatistics> mergePartials(
+            StreamsBuilder streamsBuilder, KStream<Long, PartialStatistics> partialsByMonth, StoreType storeType,
+            String accountTotalsStoreName) {
+        addTotalsStores(streamsBuilder, storeType);
+        List<String> mergerStores = new ArrayList<>(Arrays.asList(MERGED_PARTIALS_STORE, HOURLY_TOTALS_STORE,
+                DAILY_TOTALS_STORE, MONTHLY_TOTALS_STORE));
+        if (accountTotalsStoreName != null) {
+            streamsBuilder.addStateStore(Stores.windowStoreBuilder(localWindowStore(accountTotalsStoreName, storeType),
+                    Serdes.Integer(), new PolicyLimitChangeRequestStatsSerde()));
+            mergerStores.add(accountTotalsStoreName);
+        }
+        streamsBuilder.addStateStore(Stores.windowStoreBuilder(storeType == StoreType.IN_MEMORY
+                        ? Stores.inMemoryWindowStore(MERGED_PARTIALS_STORE, WINDOW_RETENTION, WINDOW_SIZE, false)
+                        : Stores.persistentWindowStore(MERGED_PARTIALS_STORE, WINDOW_RETENTION, WINDOW_SIZE, false),
+                Serdes.String(), new PolicyLimitChangeRequestStatsSerde()));
+
+        return partialsByMonth
+                .groupByKey(Grouped.with(Serdes.Long(), new PartialStatisticsSerde()))
+                //Only regrouping the partial statistics by month: every one of them is passed on,
+                //the relay store keeps the latest one per month without cache nor changelog
+                .reduce((previousPartialStats, partialStats) -> partialStats,
+                        Materialized.<Long, PartialStatistics>as(Stores.inMemoryKeyValueStore(PARTIAL_RELAY_STORE))
+                                .withKeySerde(Serdes.Long())
+                                .withValueSerde(new PartialStatisticsSerde())
+                                .withCachingDisabled()
+                                .withLoggingDisabled())
+                .toStream()
+                .transform(() -> new PartialStatisticsMerger(MERGED_PARTIALS_STORE, HOURLY_TOTALS_STORE,
+                                DAILY_TOTALS_STORE, MONTHLY_TOTALS_STORE, accountTotalsStoreName),
+                        mergerStores.toArray(new String[0]));
+    }
+
+    /**
+     * Aggregates the valid requests in the task that reads them with the {@link
+     * PartitionLocalAggregator}, into the partial hourly and per account hourly statistics of the
+     * input partition, so the requests aren't regrouped through any repartition topic nor
+     * serialized again. The partial statistics of the updated hours and account hours are
+     * forwarded every flush interval, regrouped by month and merged into the totals of all the
+     * granularities by the {@link PartialStatisticsMerger}, the input partitions being their
+     * buckets
+     *
+     * @param streamsBuilder - Builder of the topology, receives the partial statistics stores
+     * @param validRequests  - Valid and deduplicated requests
+     * @param storeType      - Kind of the state stores
+     * @return - Updated totals of all the granularities, keyed by StatisticsKey
+     */
+    private static KStream<StatisticsKey, PolicyLimitChangeRequestsStatistics> aggregateLocally(
+            StreamsBuilder streamsBuilder, KStream<String, PolicyLimitChangeRequest> validRequests,
+            StoreType storeType) {
+        // Cached, so the changelogs only receive the latest value of every key per commit
+        streamsBuilder.addStateStore(Stores.windowStoreBuilder(localWindowStore(PARTIAL_AGGREGATES_STORE, storeType),
+                Serdes.String(), new PolicyLimitChangeRequestStatsSerde()).withCachingEnabled());
+        streamsBuilder.addStateStore(Stores.windowStoreBuilder(localWindowStore(ACCOUNT_PARTIALS_STORE, storeType),
+                Serdes.Integer(), new PolicyLimitChangeRequestStatsSerde()).withCachingEnabled());
+        streamsBuilder.addStateStore(Stores.keyValueStoreBuilder(storeType == StoreType.IN_MEMORY
+                        ? Stores.inMemoryKeyValueStore(UPDATED_PARTIALS_STORE)
+                        : Stores.persistentKeyValueStore(UPDATED_PARTIALS_STORE),
+                new StatisticsKeySerde(), Serdes.Long()).withCachingEnabled());
+
+        KStream<Long, PartialStatistics> partialsByMonth = validRequests
+                .transform(() -> new PartitionLocalAggregator(PARTIAL_AGGREGATES_STORE, ACCOUNT_PARTIALS_STORE,
+                                UPDATED_PARTIALS_STORE, WINDOW_GRACE, LOCAL_FLUSH_INTERVAL),
+                        PARTIAL_AGGREGATES_STORE, ACCOUNT_PARTIALS_STORE, UPDATED_PARTIALS_STORE);
+        return mergePartials(streamsBuilder, partialsByMonth, storeType, ACCOUNT_AGGREGATES_STORE);
+    }
+
+    private static WindowBytesStoreSupplier localWindowStore(String storeName, StoreType storeType) {
+        return storeType == StoreType.IN_MEMORY
+                ? Stores.inMemoryWindowStore(storeName, WINDOW_RETENTION, WINDOW_SIZE, false)
+                : Stores.persistentWindowStore(storeName, WINDOW_RETENTION, WINDOW_SIZE, false);
+    }
+
+    /**
+     * Drops the copies of the requests already seen within the dedup horizon. When dedup.topic is
+     * set, the requests are first repartitioned by coiRequestId through this topic (created
+     * beforehand, like the input topic), so the copies of a request land in the same task whatever
+     * the key they were published with. Otherwise, and in the partition-local aggregation mode, the
+     * copies must be published with the same key
+     *
+     * @param streamsBuilder  - Builder of the topology, receives the seen requests store
+     * @param requests        - Valid requests
+     * @param storeType       - Kind of the seen requests store
+     * @param aggregationMode - Aggregation of the requests
+     * @param horizon         - Time during which the copies of a request are dropped
+     * @return - Requests seen for the first time
+     */
+    private static KStream<String, PolicyLimitChangeRequest> deduplicate(
+            StreamsBuilder streamsBuilder, KStream<String, PolicyLimitChangeRequest> requests, StoreType storeType,
+            AggregationMode aggregationMode, Duration horizon) {
+        streamsBuilder.addStateStore(Stores.windowStoreBuilder(storeType == StoreType.IN_MEMORY
+                        ? Stores.inMemoryWindowStore(SEEN_REQUESTS_STORE, horizon, Duration.ofMillis(1), false)
+                        : Stores.persistentWindowStore(SEEN_REQUESTS_STORE, horizon, Duration.ofMillis(1), false),
+                Serdes.String(), Serdes.Long()));
+        if (!DEDUP_TOPIC.isEmpty() && aggregationMode == AggregationMode.REPARTITION)
+            requests = requests
+                    .selectKey((key, policyLimitChangeRequest) -> policyLimitChangeRequest.getCoiRequestId())
+                    .through(DEDUP_TOPIC, Produced.with(Serdes.String(), new PolicyLimitChangeRequestSerde()));
+        return requests.transform(() -> new DuplicateRequestFilter(SEEN_REQUESTS_STORE, horizon,
+                DEDUP_EXPECTED_REQUESTS, DEDUP_FALSE_POSITIVE_RATE), SEEN_REQUESTS_STORE);
+    }
+
+    /**
+     * Returns the partial aggregation bucket of the PolicyLimitChangeRequest. Requests of the same
+     * account always land in the same bucket.
+     *
+     * @param policyLimitChangeRequest - A valid PolicyLimitChangeRequest object
+     * @return - Bucket key
+     */
+    static String bucketOf(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return BUCKET_KEYS[Math.floorMod(policyLimitChangeRequest.getAccountId().hashCode(),
+                PARTIAL_BUCKETS)];
+    }
+
+    /**
+     * The partial aggregates, a few buckets per hour, are kept in the in-memory {@link
+     * com.compsource.app.custom.TieredWindowStore} when aggregation.window-store is set to tiered
+     * (not persistent, the whole changelog is replayed on every start), like the other window
+     * stores otherwise
+     */
+    private static Materialized<String, PolicyLimitChangeRequestsStatistics, WindowStore<Bytes, byte[]>>
+    partialAggregatesStore(StoreType storeType) {
+        if ("tiered".equalsIgnoreCase(WINDOW_STORE_TYPE))
+            return Materialized.as(new TieredWindowBytesStoreSupplier(PARTIAL_AGGREGATES_STORE,
+                    WINDOW_RETENTION, WINDOW_SIZE, WINDOW_STORE_HOT_RETENTION));
+        return windowStore(PARTIAL_AGGREGATES_STORE, storeType);
+    }
+
+    /**
+     * The window aggregates are kept in RocksDB, replaced by in-memory stores with the in_memory
+     * state store type
+     */
+    private static <K> Materialized<K, PolicyLimitChangeRequestsStatistics, WindowStore<Bytes, byte[]>>
+    windowStore(String storeName, StoreType storeType) {
+        if (storeType == StoreType.IN_MEMORY)
+            return Materialized.as(Stores.inMemoryWindowStore(storeName, WINDOW_RETENTION, WINDOW_SIZE, false));
+        return Materialized.as(storeName);
+    }
+
+    /**
+     * Adds the key-value stores of the hourly, daily and monthly totals, keyed by the start of their
+     * period
+     */
+    private static void addTotalsStores(StreamsBuilder streamsBuilder, StoreType storeType) {
+        for (String storeName : new String[]{HOURLY_TOTALS_STORE, DAILY_TOTALS_STORE, MONTHLY_TOTALS_STORE})
+            streamsBuilder.addStateStore(Stores.keyValueStoreBuilder(storeType == StoreType.IN_MEMORY
+                            ? Stores.inMemoryKeyValueStore(storeName) : Stores.persistentKeyValueStore(storeName),
+                    Serdes.Long(), new PolicyLimitChangeRequestStatsSerde()));
+    }
+
+    private static StoreBuilder<KeyValueStore<StatisticsKey, PolicyLimitChangeRequestsStatistics>>
+    pendingEmissionsStore(StoreType storeType) {
+        return Stores.keyValueStoreBuilder(storeType == StoreType.IN_MEMORY
+                        ? Stores.inMemoryKeyValueStore(PENDING_EMISSIONS_STORE)
+                        : Stores.persistentKeyValueStore(PENDING_EMISSIONS_STORE),
+                new StatisticsKeySerde(), new PolicyLimitChangeRequestStatsSerde());
+    }
+
+    /**
+     * Kind of the state stores of the topology, both restored from their changelogs
+     */
+    public enum StoreType {
+        /**
+         * RocksDB, the state outlives the process
+         */
+        PERSISTENT,
+        /**
+         * Heap, e.g. for the load tests, which would otherwise measure the flushes of RocksDB on
+         * the commit after every record of the TopologyTestDriver
+         */
+        IN_MEMORY
+    }
+
+    /**
+     * @return - true if the copies of a coiRequestId are dropped before the aggregation
+     * (dedup.horizon.hours above 0)
+     */
+    public static boolean isDeduplicating() {
+        return !DEDUP_HORIZON.isZero();
+    }
+
+    /**
+     * Aggregation of the events
+     */
+    public enum AggregationMode {
+        /**
+         * The events and the partial statistics are regrouped through repartition topics, for an
+         * input topic of any number of partitions
+         */
+        REPARTITION,
+        /**
+         * The events are aggregated in the task that reads them by the {@link
+         * PartitionLocalAggregator}, only the partial statistics of every input partition are
+         * regrouped by month, once per flush interval, and merged into the totals
+         */
+        PARTITION_LOCAL;
+
+        /**
+         * @param name - Mode name as in the properties file (repartition, partition-local)
+         * @return - AggregationMode
+         */
+        public static AggregationMode of(String name) {
+            return valueOf(name.trim().toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private static String[] bucketKeys(int buckets) {
+        if (buckets < 1)
+            throw new IllegalArgumentException("aggregation.partial-buckets must be a positive Integer");
+        String[] keys = new String[buckets];
+        for (int bucket = 0; bucket < buckets; bucket++)
+            keys[bucket] = "bucket-" + bucket;
+        return keys;
+    }
+}
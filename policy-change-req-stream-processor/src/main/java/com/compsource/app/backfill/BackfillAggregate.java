@@ -0,0 +1,283 @@
+package com.compsource.app.backfill;
+
+import com.compsource.app.custom.PolicyChangeReqTimestampExtractor;
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestDeserializer;
+import com.compsource.app.data.validation.PolicyLimitChangeReqRuleEngine;
+import com.compsource.app.data.validation.RejectionReason;
+import com.compsource.app.utils.ConfigUtil;
+import org.apache.kafka.common.errors.SerializationException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Statistics of the historical PolicyLimitChangeRequest events of a time range, aggregated
+ * outside of the streaming topology.
+ * <p>
+ * The hourly totals and the per account hourly totals (by accountId) are kept in arrays indexed by
+ * the epoch hour from the start of the range, so an event is aggregated without window stores,
+ * serdes or repartitioning. The events are checked by the same rules and
+ * aggregated by the same {@link PolicyLimitChangeRequestsStatistics} methods as in the topology, so
+ * the rebuilt rows match the rows the stream would write for the same events. When the stream
+ * drops the copies of a coiRequestId (dedup.horizon.hours above 0), the backfill drops them too,
+ * across the whole range rather than within the horizon: the copies of a request carry its
+ * dateRequested, so they are the same as the ones dropped by the stream. The daily and monthly
+ * totals are rolled up from the hourly totals, for the days and months fully inside the range.
+ */
+public class BackfillAggregate {
+    private static final long HOUR_MS = 3_600_000L;
+    private static final PolicyLimitChangeRequestDeserializer deserializer = new PolicyLimitChangeRequestDeserializer();
+    private static final PolicyLimitChangeReqRuleEngine ruleEngine =
+            PolicyLimitChangeReqRuleEngine.compile(ConfigUtil.loadProperty());
+
+    private final long from;
+    private final long to;
+    private final PolicyLimitChangeRequestsStatistics[] hourlyTotals;
+    private final List<Map<Integer, PolicyLimitChangeRequestsStatistics>> accountTotals;
+    private final Set<String> seenRequests;
+    private final long[] eventsByReason = new long[RejectionReason.values().length];
+    private long malformedEvents;
+    private long invalidTimestamps;
+    private long outOfRangeEvents;
+    private long duplicateEvents;
+
+    /**
+     * Aggregates every copy of the requests
+     *
+     * @param from - Start of the range (inclusive), epoch milliseconds at the start of an hour
+     * @param to   - End of the range (exclusive), epoch milliseconds at the start of an hour
+     */
+    public BackfillAggregate(long from, long to) {
+        this(from, to, null);
+    }
+
+    /**
+     * @param from         - Start of the range (inclusive), epoch milliseconds at the start of an hour
+     * @param to           - End of the range (exclusive), epoch milliseconds at the start of an hour
+     * @param seenRequests - Thread-safe set of the coiRequestIds already aggregated, shared by the
+     *                     aggregates of the splits, null to aggregate every copy of the requests
+     */
+    public BackfillAggregate(long from, long to, Set<String> seenRequests) {
+        if (from % HOUR_MS != 0 || to % HOUR_MS != 0 || to <= from)
+            throw new IllegalArgumentException("The backfill range must start and end at the start of an hour");
+        this.from = from;
+        this.to = to;
+        this.hourlyTotals = new PolicyLimitChangeRequestsStatistics[Math.toIntExact((to - from) / HOUR_MS)];
+        this.accountTotals = new ArrayList<>(Collections.nCopies(hourlyTotals.length, null));
+        this.seenRequests = seenRequests;
+    }
+
+    /**
+     * Reads the splits of the source in parallel and aggregates their events. Each split is
+     * aggregated on its own and merged once it is read, so the workers don't share any state
+     * while they parse and aggregate
+     *
+     * @param source      - Historical events
+     * @param from        - Start of the range (inclusive), epoch milliseconds at the start of an hour
+     * @param to          - End of the range (exclusive), epoch milliseconds at the start of an hour
+     * @param threads     - Number of worker threads
+     * @param deduplicate - Whether the copies of a coiRequestId are dropped, as by the stream
+     * @return - Statistics of all the events of the source
+     * @throws IOException - A split can't be read
+     */
+    public static BackfillAggregate read(EventSource source, long from, long to, int threads, boolean deduplicate)
+            throws IOException {
+        Set<String> seenRequests = deduplicate ? ConcurrentHashMap.newKeySet() : null;
+        BackfillAggregate total = new BackfillAggregate(from, to);
+        ExecutorService workers = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<?>> reads = new ArrayList<>();
+            for (EventSource.Split split : source.splits()) {
+                reads.add(workers.submit(() -> {
+                    BackfillAggregate splitAggregate = new BackfillAggregate(from, to, seenRequests);
+                    split.read(splitAggregate::add);
+                    synchronized (total) {
+                        total.merge(splitAggregate);
+                    }
+                    return null;
+                }));
+            }
+            for (Future<?> read : reads)
+                read.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while reading the backfill source", e);
+        } catch (ExecutionException e) {
+            throw new IOException("Unable to read the backfill source", e.getCause());
+        } finally {
+            workers.shutdownNow();
+        }
+        return total;
+    }
+
+    /**
+     * Parses, checks and aggregates an event. Events with an invalid dateRequested are dropped as
+     * the stream drops them, events outside of the range are skipped, and so are the copies of an
+     * already aggregated request when the aggregate drops them
+     *
+     * @param event - UTF-8 JSON bytes of a PolicyLimitChangeRequest
+     */
+    public void add(byte[] event) {
+        PolicyLimitChangeRequest policyLimitChangeRequest;
+        try {
+            policyLimitChangeRequest = deserializer.deserialize(null, event);
+        } catch (SerializationException e) {
+            malformedEvents++;
+            return;
+        }
+        if (policyLimitChangeRequest == null)
+            return;
+        long eventTime = PolicyChangeReqTimestampExtractor.eventTimeOf(policyLimitChangeRequest);
+        if (eventTime < 0) {
+            invalidTimestamps++;
+            return;
+        }
+        if (eventTime < from || eventTime >= to) {
+            outOfRangeEvents++;
+            return;
+        }
+        RejectionReason reason = ruleEngine.reasonOf(ruleEngine.evaluate(policyLimitChangeRequest));
+        eventsByReason[reason.ordinal()]++;
+        if (reason != RejectionReason.ACCEPTED)
+            return;
+        if (seenRequests != null && !seenRequests.add(policyLimitChangeRequest.getCoiRequestId())) {
+            duplicateEvents++;
+            return;
+        }
+
+        int hour = (int) ((eventTime - from) / HOUR_MS);
+        if (hourlyTotals[hour] == null) {
+            hourlyTotals[hour] = PolicyLimitChangeRequestsStatistics.withTopAccounts();
+            accountTotals.set(hour, new HashMap<>());
+        }
+        hourlyTotals[hour].accumulate(policyLimitChangeRequest);
+        // The stream drops the null accountIds when it groups the events by account
+        if (policyLimitChangeRequest.getAccountId() != null)
+            accountTotals.get(hour).computeIfAbsent(policyLimitChangeRequest.getAccountId(),
+                    accountId -> PolicyLimitChangeRequestsStatistics.withoutDistinctCounts())
+                    .accumulate(policyLimitChangeRequest);
+    }
+
+    /**
+     * Adds the statistics of another aggregate of the same range. Their statistics objects are
+     * taken over, the other aggregate must not be used afterwards
+     *
+     * @param aggregate - BackfillAggregate of the same range
+     */
+    public void merge(BackfillAggregate aggregate) {
+        if (aggregate.from != from || aggregate.to != to)
+            throw new IllegalArgumentException("Only the aggregates of the same range can be merged");
+        for (int hour = 0; hour < hourlyTotals.length; hour++) {
+            if (aggregate.hourlyTotals[hour] == null)
+                continue;
+            if (hourlyTotals[hour] == null) {
+                hourlyTotals[hour] = aggregate.hourlyTotals[hour];
+                accountTotals.set(hour, aggregate.accountTotals.get(hour));
+                continue;
+            }
+            hourlyTotals[hour].merge(aggregate.hourlyTotals[hour]);
+            Map<Integer, PolicyLimitChangeRequestsStatistics> hourAccountTotals = accountTotals.get(hour);
+            aggregate.accountTotals.get(hour).forEach((accountId, stats) ->
+                    hourAccountTotals.merge(accountId, stats, PolicyLimitChangeRequestsStatistics::merge));
+        }
+        for (int reason = 0; reason < eventsByReason.length; reason++)
+            eventsByReason[reason] += aggregate.eventsByReason[reason];
+        malformedEvents += aggregate.malformedEvents;
+        invalidTimestamps += aggregate.invalidTimestamps;
+        outOfRangeEvents += aggregate.outOfRangeEvents;
+        duplicateEvents += aggregate.duplicateEvents;
+    }
+
+    /**
+     * Builds the statistics of every granularity: the hourly totals and their top accounts, the
+     * per account hourly totals, and the daily and monthly totals of the days and months fully
+     * inside the range. Periods without any valid event have no statistics, as in the topology
+     *
+     * @return - Statistics by key, the hourly ones in time order
+     */
+    public Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> statistics() {
+        Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> statistics = new LinkedHashMap<>();
+        Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> dailyTotals = new LinkedHashMap<>();
+        for (int hour = 0; hour < hourlyTotals.length; hour++) {
+            if (hourlyTotals[hour] == null)
+                continue;
+            long hourStart = from + hour * HOUR_MS;
+            statistics.put(StatisticsKey.hourly(hourStart), hourlyTotals[hour]);
+            statistics.put(StatisticsKey.hourlyTopAccounts(hourStart), hourlyTotals[hour]);
+            rollUp(dailyTotals, Granularity.DAILY, hourStart, hourlyTotals[hour]);
+        }
+        Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> monthlyTotals = new LinkedHashMap<>();
+        dailyTotals.forEach((dayKey, stats) ->
+                rollUp(monthlyTotals, Granularity.MONTHLY, dayKey.getPeriodStart(), stats));
+        statistics.putAll(dailyTotals);
+        statistics.putAll(monthlyTotals);
+        for (int hour = 0; hour < hourlyTotals.length; hour++) {
+            if (accountTotals.get(hour) == null)
+                continue;
+            long hourStart = from + hour * HOUR_MS;
+            accountTotals.get(hour).forEach((accountId, stats) ->
+                    statistics.put(StatisticsKey.accountHourly(accountId, hourStart), stats));
+        }
+        return statistics;
+    }
+
+    private void rollUp(Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> totals, Granularity granularity,
+                        long periodStart, PolicyLimitChangeRequestsStatistics stats) {
+        long rolledUpStart = granularity.periodStart(periodStart);
+        if (rolledUpStart < from || granularity.periodEnd(rolledUpStart) > to)
+            return;
+        totals.computeIfAbsent(new StatisticsKey(granularity, rolledUpStart, null),
+                key -> new PolicyLimitChangeRequestsStatistics()).merge(stats);
+    }
+
+    /**
+     * @param reason - Outcome of the validation
+     * @return - Number of events of the range with this outcome
+     */
+    public long getEvents(RejectionReason reason) {
+        return eventsByReason[reason.ordinal()];
+    }
+
+    /**
+     * @return - Number of events that aren't valid JSON
+     */
+    public long getMalformedEvents() {
+        return malformedEvents;
+    }
+
+    /**
+     * @return - Number of events without a valid dateRequested
+     */
+    public long getInvalidTimestamps() {
+        return invalidTimestamps;
+    }
+
+    /**
+     * @return - Number of events outside of the range
+     */
+    public long getOutOfRangeEvents() {
+        return outOfRangeEvents;
+    }
+
+    /**
+     * @return - Number of valid events dropped as copies of an already aggregated request
+     */
+    public long getDuplicateEvents() {
+        return duplicateEvents;
+    }
+}
@@ -0,0 +1,32 @@
+package com.compsource.app.backfill;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Historical PolicyLimitChangeRequest events read by the backfill, divided into independent
+ * splits that are read in parallel
+ */
+public interface EventSource {
+
+    /**
+     * @return - Splits covering every event of the source exactly once
+     * @throws IOException - The source can't be opened
+     */
+    List<Split> splits() throws IOException;
+
+    /**
+     * Part of the source read by a single worker thread
+     */
+    interface Split {
+
+        /**
+         * Reads the events of the split in order
+         *
+         * @param events - Receives the UTF-8 JSON bytes of every event
+         * @throws IOException - The split can't be read
+         */
+        void read(Consumer<byte[]> events) throws IOException;
+    }
+}
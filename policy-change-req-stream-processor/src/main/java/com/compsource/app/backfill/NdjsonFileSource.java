@@ -0,0 +1,101 @@
+package com.compsource.app.backfill;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Local newline delimited JSON export of the topic, one PolicyLimitChangeRequest per line.
+ * <p>
+ * The file is divided into splits of about splitBytes, each ending after a line feed, so that no
+ * line is shared by two splits. Every split is memory-mapped and scanned by its worker, nothing is
+ * read through a shared stream.
+ */
+public class NdjsonFileSource implements EventSource {
+    private static final byte LINE_FEED = '\n';
+
+    private final Path file;
+    private final long splitBytes;
+
+    /**
+     * @param file       - NDJSON file
+     * @param splitBytes - Approximate size of a split, at most 2 GB (size of a mapped buffer)
+     */
+    public NdjsonFileSource(Path file, long splitBytes) {
+        if (splitBytes < 1 || splitBytes > Integer.MAX_VALUE / 2)
+            throw new IllegalArgumentException("The split size must be between 1 byte and 1 GB: " + splitBytes);
+        this.file = file;
+        this.splitBytes = splitBytes;
+    }
+
+    @Override
+    public List<Split> splits() throws IOException {
+        List<Split> splits = new ArrayList<>();
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long start = 0;
+            while (start < size) {
+                long end = start + splitBytes >= size ? size : lineEndAfter(channel, start + splitBytes, size);
+                splits.add(new FileSplit(start, end));
+                start = end;
+            }
+        }
+        return splits;
+    }
+
+    /**
+     * @return - Position following the first line feed at or after the position, the file size if
+     * there is none
+     */
+    private static long lineEndAfter(FileChannel channel, long position, long size) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(8192);
+        while (position < size) {
+            buffer.clear();
+            int read = channel.read(buffer, position);
+            for (int index = 0; index < read; index++) {
+                if (buffer.get(index) == LINE_FEED)
+                    return position + index + 1;
+            }
+            position += read;
+        }
+        return size;
+    }
+
+    private final class FileSplit implements Split {
+        private final long start;
+        private final long end;
+
+        private FileSplit(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        public void read(Consumer<byte[]> events) throws IOException {
+            MappedByteBuffer buffer;
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                // The mapping stays valid once the channel is closed
+                buffer = channel.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+            }
+            int lineStart = 0;
+            int limit = buffer.limit();
+            for (int position = 0; position <= limit; position++) {
+                if (position < limit && buffer.get(position) != LINE_FEED)
+                    continue;
+                if (position > lineStart) {
+                    byte[] line = new byte[position - lineStart];
+                    buffer.position(lineStart);
+                    buffer.get(line);
+                    events.accept(line);
+                }
+                lineStart = position + 1;
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.compsource.app.backfill;
+
+import com.compsource.app.utils.KafkaUtil;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.clients.consumer.KafkaConsumer;
+import org.apache.kafka.common.PartitionInfo;
+import org.apache.kafka.common.TopicPartition;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.function.Consumer;
+
+/**
+ * Offset ranges of the partitions of a topic. Every range is divided into splits of at most
+ * splitOffsets offsets, each read by its own consumer assigned to the partition, so a few large
+ * partitions are still read by all the worker threads
+ */
+public class TopicRangeSource implements EventSource {
+    private static final Duration POLL_TIMEOUT = Duration.ofSeconds(1);
+
+    private final String topic;
+    private final Map<Integer, long[]> offsets;
+    private final long splitOffsets;
+
+    /**
+     * @param topic        - Topic of the PolicyLimitChangeRequest events
+     * @param offsets      - First (inclusive) and last (exclusive) offset per partition, null to
+     *                     read every partition from its beginning to its current end
+     * @param splitOffsets - Maximum number of offsets of a split
+     */
+    public TopicRangeSource(String topic, Map<Integer, long[]> offsets, long splitOffsets) {
+        if (splitOffsets < 1)
+            throw new IllegalArgumentException("The split size must be a positive number of offsets: " + splitOffsets);
+        this.topic = topic;
+        this.offsets = offsets;
+        this.splitOffsets = splitOffsets;
+    }
+
+    /**
+     * Parses offset ranges written as partition:from-to, separated by commas, e.g. 0:0-1500,1:200-1800
+     *
+     * @param ranges - Offset ranges, the last offset excluded
+     * @return - First and last offset per partition
+     * @throws IllegalArgumentException - Malformed range
+     */
+    public static Map<Integer, long[]> parseOffsets(String ranges) {
+        Map<Integer, long[]> offsets = new TreeMap<>();
+        for (String range : ranges.split(",")) {
+            String[] partitionAndOffsets = range.trim().split(":");
+            String[] fromAndTo = partitionAndOffsets.length == 2 ? partitionAndOffsets[1].split("-") : new String[0];
+            if (fromAndTo.length != 2)
+                throw new IllegalArgumentException("Offset range must be written as partition:from-to: " + range);
+            long from = Long.parseLong(fromAndTo[0].trim());
+            long to = Long.parseLong(fromAndTo[1].trim());
+            if (from < 0 || to < from)
+                throw new IllegalArgumentException("Invalid offset range: " + range);
+            offsets.put(Integer.parseInt(partitionAndOffsets[0].trim()), new long[]{from, to});
+        }
+        return offsets;
+    }
+
+    @Override
+    public List<Split> splits() {
+        Map<Integer, long[]> ranges = offsets != null ? offsets : currentOffsets();
+        List<Split> splits = new ArrayList<>();
+        for (Map.Entry<Integer, long[]> range : ranges.entrySet()) {
+            TopicPartition partition = new TopicPartition(topic, range.getKey());
+            for (long from = range.getValue()[0]; from < range.getValue()[1]; from += splitOffsets)
+                splits.add(new OffsetRangeSplit(partition, from, Math.min(from + splitOffsets, range.getValue()[1])));
+        }
+        return splits;
+    }
+
+    /**
+     * @return - Beginning and end offsets of every partition of the topic
+     */
+    private Map<Integer, long[]> currentOffsets() {
+        try (KafkaConsumer<byte[], byte[]> consumer =
+                     new KafkaConsumer<>(KafkaUtil.getConsumerProperties("backfill-offsets"))) {
+            List<TopicPartition> partitions = new ArrayList<>();
+            for (PartitionInfo partitionInfo : consumer.partitionsFor(topic))
+                partitions.add(new TopicPartition(topic, partitionInfo.partition()));
+            Map<TopicPartition, Long> beginningOffsets = consumer.beginningOffsets(partitions);
+            Map<TopicPartition, Long> endOffsets = consumer.endOffsets(partitions);
+            Map<Integer, long[]> ranges = new TreeMap<>();
+            for (TopicPartition partition : partitions)
+                ranges.put(partition.partition(),
+                        new long[]{beginningOffsets.get(partition), endOffsets.get(partition)});
+            return ranges;
+        }
+    }
+
+    private static final class OffsetRangeSplit implements Split {
+        private final TopicPartition partition;
+        private final long from;
+        private final long to;
+
+        private OffsetRangeSplit(TopicPartition partition, long from, long to) {
+            this.partition = partition;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        public void read(Consumer<byte[]> events) {
+            try (KafkaConsumer<byte[], byte[]> consumer = new KafkaConsumer<>(
+                    KafkaUtil.getConsumerProperties("backfill-" + partition + "-" + from))) {
+                consumer.assign(Collections.singletonList(partition));
+                consumer.seek(partition, from);
+                // Compacted or transactional offsets may be missing, the position moves past them
+                while (consumer.position(partition) < to) {
+                    for (ConsumerRecord<byte[], byte[]> record : consumer.poll(POLL_TIMEOUT)) {
+                        if (record.offset() >= to)
+                            return;
+                        if (record.value() != null)
+                            events.accept(record.value());
+                    }
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,344 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.journal.StatisticsSpillJournal;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.logging.LogManager;
+import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.kafka.streams.errors.StreamsException;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.StoreBuilder;
+
+import java.time.Duration;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Pipelines the statistics writes of a stream task through a {@link StatisticsWriter}.
+ * <p>
+ * At most maxInFlight writes are pending at a time. When the limit is reached the stream thread
+ * waits for an acknowledgement before processing the next record, which pauses the consumption
+ * until the database catches up. Retryable failures are retried with an exponential backoff
+ * (capped at maxBackoff) while still holding their slot, any other failure fails the task on the
+ * next write or commit. A write superseded by a newer write of the same period is not retried.
+ * The stream thread waits at most maxWait for a slot or for the pending writes of a commit, then
+ * fails the task: keep it below max.poll.interval.ms, so a task stuck on a database outage is
+ * failed and restarted from its last committed offset rather than its consumer leaving the group.
+ * <p>
+ * With a {@link StatisticsSpillJournal}, a write failing with a retryable error is appended to the
+ * journal instead and its slot is released, so the processing keeps its pace during a database
+ * outage. While the journal holds records, the new writes are appended to it as well, so the
+ * journal drainer always replays the latest value of a period. When it's full, the stream thread
+ * waits (at most maxWait) for the drainer to empty it rather than writing around it, as its older
+ * values would then overwrite the newer ones written directly.
+ * <p>
+ * The sink is registered as a (non-persistent, non-logged) state store because Kafka Streams
+ * flushes the state stores of a task before committing its offsets: {@link #flush()} waits for all
+ * the pending writes, so the offsets are only committed once the related writes are acknowledged.
+ */
+public class AsyncStatisticsSink implements StateStore {
+    private static LogManager logger = new LogManager(AsyncStatisticsSink.class);
+    private static final ScheduledExecutorService retryScheduler = Executors.newSingleThreadScheduledExecutor(
+            runnable -> {
+                Thread thread = new Thread(runnable, "statistics-sink-retry");
+                thread.setDaemon(true);
+                return thread;
+            });
+    private static final long WAIT_LOG_INTERVAL_SECONDS = 30;
+
+    private final String name;
+    private final StatisticsWriter writer;
+    private final StatisticsSpillJournal journal;
+    private final int maxInFlight;
+    private final long initialBackoffMs;
+    private final long maxBackoffMs;
+    private final long maxWaitMs;
+    private final Semaphore inFlightWrites;
+    // Sequence number of the latest direct write of every period with a pending write
+    private final Map<StatisticsKey, Long> latestWrites = new HashMap<>();
+    private long lastSequence;
+    private volatile Throwable failure;
+    private volatile boolean open;
+
+    /**
+     * @param name           - Store name
+     * @param writer         - Writes the statistics
+     * @param journal        - Spill journal, null to retry every failed write in place
+     * @param maxInFlight    - Maximum number of pending writes
+     * @param initialBackoff - Delay before the first retry of a failed write
+     * @param maxBackoff     - Maximum delay between the retries
+     * @param maxWait        - Maximum wait of the stream thread for the pending writes
+     */
+    public AsyncStatisticsSink(String name, StatisticsWriter writer, StatisticsSpillJournal journal,
+                               int maxInFlight, Duration initialBackoff, Duration maxBackoff, Duration maxWait) {
+        if (maxInFlight < 1)
+            throw new IllegalArgumentException("maxInFlight must be a positive Integer");
+        this.name = name;
+        this.writer = writer;
+        this.journal = journal;
+        this.maxInFlight = maxInFlight;
+        this.initialBackoffMs = initialBackoff.toMillis();
+        this.maxBackoffMs = maxBackoff.toMillis();
+        this.maxWaitMs = maxWait.toMillis();
+        this.inFlightWrites = new Semaphore(maxInFlight);
+    }
+
+    /**
+     * Starts writing the statistics of a rollup period, waiting for a free slot if maxInFlight
+     * writes are already pending
+     *
+     * @param statisticsKey                  - Granularity and start of the period
+     * @param policyLimitChangeRequestsStats - Policy Limit Change Request Statistics
+     * @throws StreamsException - A previous write failed, or no slot was freed or the full journal
+     *                          wasn't drained within maxWait
+     */
+    public void write(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        checkFailure();
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        long sequence;
+        while (true) {
+            synchronized (this) {
+                if (journal == null || journal.isEmpty()) {
+                    // Registered before waiting for a slot, so a pending write of the period failing in the
+                    // meantime is dropped as superseded rather than spilled behind this newer value
+                    sequence = ++lastSequence;
+                    latestWrites.put(statisticsKey, sequence);
+                    break;
+                }
+                if (journal.append(statisticsKey, policyLimitChangeRequestsStats)) {
+                    latestWrites.remove(statisticsKey);
+                    return;
+                }
+            }
+            awaitJournalDrained(deadline);
+        }
+        try {
+            awaitPermits(1);
+        } catch (StreamsException e) {
+            synchronized (this) {
+                latestWrites.remove(statisticsKey, sequence);
+            }
+            throw e;
+        }
+        submit(statisticsKey, policyLimitChangeRequestsStats, sequence, 0);
+    }
+
+    private void submit(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats,
+                        long sequence, int attempt) {
+        ListenableFuture<?> write;
+        try {
+            write = writer.write(statisticsKey, policyLimitChangeRequestsStats);
+        } catch (RuntimeException e) {
+            write = Futures.immediateFailedFuture(e);
+        }
+        Futures.addCallback(write, new FutureCallback<Object>() {
+            @Override
+            public void onSuccess(Object result) {
+                synchronized (AsyncStatisticsSink.this) {
+                    latestWrites.remove(statisticsKey, sequence);
+                }
+                inFlightWrites.release();
+            }
+
+            @Override
+            public void onFailure(Throwable error) {
+                if (open && writer.isRetryable(error)) {
+                    synchronized (AsyncStatisticsSink.this) {
+                        if (!latestWrites.remove(statisticsKey, sequence)
+                                || (journal != null && journal.append(statisticsKey, policyLimitChangeRequestsStats))) {
+                            // Superseded by a newer write or spilled to the journal
+                            inFlightWrites.release();
+                            return;
+                        }
+                        latestWrites.put(statisticsKey, sequence);
+                    }
+                    long backoffMs = backoffMs(attempt);
+                    logger.error("database not accessible", statisticsKey.toString(),
+                            String.format("Retrying the statistics write in %d ms (attempt %d). Error: %s",
+                                    backoffMs, attempt + 1, error));
+                    try {
+                        retryScheduler.schedule(() -> submit(statisticsKey, policyLimitChangeRequestsStats,
+                                sequence, attempt + 1), backoffMs, TimeUnit.MILLISECONDS);
+                        return;
+                    } catch (RejectedExecutionException e) {
+                        error = e;
+                    }
+                }
+                failure = error;
+                inFlightWrites.release();
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private long backoffMs(int attempt) {
+        return Math.min(maxBackoffMs, initialBackoffMs << Math.min(attempt, 30));
+    }
+
+    private void awaitPermits(int permits) {
+        long deadline = System.currentTimeMillis() + maxWaitMs;
+        try {
+            long remainingMs = maxWaitMs;
+            while (!inFlightWrites.tryAcquire(permits, Math.min(remainingMs,
+                    TimeUnit.SECONDS.toMillis(WAIT_LOG_INTERVAL_SECONDS)), TimeUnit.MILLISECONDS)) {
+                remainingMs = deadline - System.currentTimeMillis();
+                if (remainingMs <= 0) {
+                    checkFailure();
+                    throw new StreamsException(String.format(
+                            "Statistics sink %s timed out after %d ms waiting for %d in-flight writes", name,
+                            maxWaitMs, maxInFlight - inFlightWrites.availablePermits()));
+                }
+                logger.info(String.format("Statistics sink %s is waiting for %d in-flight writes", name,
+                        maxInFlight - inFlightWrites.availablePermits()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamsException("Interrupted while waiting for the statistics writes", e);
+        }
+    }
+
+    private void awaitJournalDrained(long deadline) {
+        try {
+            if (!journal.awaitEmpty(deadline - System.currentTimeMillis()))
+                throw new StreamsException(String.format(
+                        "Statistics sink %s timed out after %d ms waiting for the full spill journal to drain",
+                        name, maxWaitMs));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new StreamsException("Interrupted while waiting for the spill journal to drain", e);
+        }
+    }
+
+    private void checkFailure() {
+        if (failure != null)
+            throw new StreamsException("Writing the statistics failed", failure);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        context.register(root, null);
+        open = true;
+    }
+
+    /**
+     * Waits until all the pending writes are acknowledged or spilled, and makes the spilled writes
+     * durable
+     *
+     * @throws StreamsException - A write failed, or the pending writes weren't acknowledged within
+     *                          maxWait
+     */
+    @Override
+    public void flush() {
+        awaitPermits(maxInFlight);
+        inFlightWrites.release(maxInFlight);
+        if (journal != null)
+            journal.force();
+        checkFailure();
+    }
+
+    @Override
+    public void close() {
+        open = false;
+        // Pending retries are given up, their records are reprocessed from the last committed offset
+        if (failure != null)
+            logger.error("Statistics sink " + name + " closed after a failed write: " + failure);
+    }
+
+    @Override
+    public boolean persistent() {
+        return false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    /**
+     * Builds one AsyncStatisticsSink per stream task. Caching and logging are not supported
+     */
+    public static class Builder implements StoreBuilder<AsyncStatisticsSink> {
+        private final String name;
+        private final StatisticsWriter writer;
+        private final StatisticsSpillJournal journal;
+        private final int maxInFlight;
+        private final Duration initialBackoff;
+        private final Duration maxBackoff;
+        private final Duration maxWait;
+
+        /**
+         * @param name           - Store name
+         * @param writer         - Writes the statistics
+         * @param journal        - Spill journal shared by the tasks, null to retry every failed write
+         *                       in place
+         * @param maxInFlight    - Maximum number of pending writes per task
+         * @param initialBackoff - Delay before the first retry of a failed write
+         * @param maxBackoff     - Maximum delay between the retries
+         * @param maxWait        - Maximum wait of the stream thread for the pending writes
+         */
+        public Builder(String name, StatisticsWriter writer, StatisticsSpillJournal journal, int maxInFlight,
+                       Duration initialBackoff, Duration maxBackoff, Duration maxWait) {
+            this.name = name;
+            this.writer = writer;
+            this.journal = journal;
+            this.maxInFlight = maxInFlight;
+            this.initialBackoff = initialBackoff;
+            this.maxBackoff = maxBackoff;
+            this.maxWait = maxWait;
+        }
+
+        @Override
+        public StoreBuilder<AsyncStatisticsSink> withCachingEnabled() {
+            throw new UnsupportedOperationException("The statistics sink can't be cached");
+        }
+
+        @Override
+        public StoreBuilder<AsyncStatisticsSink> withCachingDisabled() {
+            return this;
+        }
+
+        @Override
+        public StoreBuilder<AsyncStatisticsSink> withLoggingEnabled(Map<String, String> config) {
+            throw new UnsupportedOperationException("The statistics sink has no changelog");
+        }
+
+        @Override
+        public StoreBuilder<AsyncStatisticsSink> withLoggingDisabled() {
+            return this;
+        }
+
+        @Override
+        public AsyncStatisticsSink build() {
+            return new AsyncStatisticsSink(name, writer, journal, maxInFlight, initialBackoff, maxBackoff, maxWait);
+        }
+
+        @Override
+        public Map<String, String> logConfig() {
+            return Collections.emptyMap();
+        }
+
+        @Override
+        public boolean loggingEnabled() {
+            return false;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.logging.SummaryLog;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.Producer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.KafkaException;
+import org.apache.kafka.common.header.Headers;
+import org.apache.kafka.common.header.internals.RecordHeaders;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Sends the rejected and malformed records to the dead letter topic, instead of writing them to
+ * the error log.
+ * <p>
+ * The record keeps the key and the value bytes it was read with, so it can be replayed unchanged
+ * once fixed. Its headers carry the reason code (one byte, see {@link #reasonOf(Headers)}) and the
+ * topic, partition and offset it was read from. The records go through a dedicated producer that
+ * batches and compresses them, and that never blocks a stream thread longer than
+ * dlq.producer.max-block.ms: a record that can't be buffered in time is dropped and counted. The
+ * publisher is shared by all the stream threads.
+ * <p>
+ * The dead letter records aren't part of the exactly_once transactions: a record rejected again
+ * after a crash is sent again.
+ */
+public class DeadLetterPublisher implements AutoCloseable {
+    /**
+     * Key of the publisher in the stream properties, read by the {@link DeserExcepHandler}
+     */
+    public static final String CONFIG = "dlq.publisher";
+    public static final String REASON_HEADER = "dlq.reason";
+    public static final String SOURCE_TOPIC_HEADER = "dlq.source.topic";
+    public static final String SOURCE_PARTITION_HEADER = "dlq.source.partition";
+    public static final String SOURCE_OFFSET_HEADER = "dlq.source.offset";
+    /**
+     * Reason code of the records that aren't valid JSON. The other codes are the {@link
+     * com.compsource.app.data.validation.RejectionReason} codes
+     */
+    public static final byte MALFORMED = 127;
+
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static final SummaryLog failureLog = new SummaryLog(DeadLetterPublisher.class,
+            "dead letter not sent", Duration.ofSeconds(
+            Long.parseLong(properties.getProperty("log.rejections.summary-interval.seconds", "10"))));
+
+    private final Producer<byte[], byte[]> producer;
+    private final String topic;
+    private final AtomicLong sentRecords = new AtomicLong();
+    private final AtomicLong failedRecords = new AtomicLong();
+
+    /**
+     * @param producer - Producer of the dead letter records
+     * @param topic    - Dead letter topic
+     */
+    public DeadLetterPublisher(Producer<byte[], byte[]> producer, String topic) {
+        this.producer = producer;
+        this.topic = topic;
+    }
+
+    /**
+     * Creates the publisher of the dead letter topic configured in the properties file
+     *
+     * @return - DeadLetterPublisher, null if no dead letter topic is configured
+     */
+    public static DeadLetterPublisher fromConfig() {
+        String topic = properties.getProperty("dlq.topic", "").trim();
+        if (topic.isEmpty())
+            return null;
+        return new DeadLetterPublisher(new KafkaProducer<>(KafkaUtil.getDeadLetterProducerProperties(
+                "dlq-" + UUID.randomUUID()), new ByteArraySerializer(), new ByteArraySerializer()), topic);
+    }
+
+    /**
+     * Sends a record to the dead letter topic without waiting for the acknowledgement
+     *
+     * @param sourceTopic     - Topic the record was read from
+     * @param sourcePartition - Partition the record was read from
+     * @param sourceOffset    - Offset of the record
+     * @param key             - Key bytes of the record
+     * @param value           - Value bytes of the record
+     * @param reasonCode      - RejectionReason code, or MALFORMED
+     */
+    public void publish(String sourceTopic, int sourcePartition, long sourceOffset, byte[] key, byte[] value,
+                        byte reasonCode) {
+        Headers headers = new RecordHeaders()
+                .add(REASON_HEADER, new byte[]{reasonCode})
+                .add(SOURCE_TOPIC_HEADER, sourceTopic == null ? null : sourceTopic.getBytes(StandardCharsets.UTF_8))
+                .add(SOURCE_PARTITION_HEADER, ByteBuffer.allocate(Integer.BYTES).putInt(sourcePartition).array())
+                .add(SOURCE_OFFSET_HEADER, ByteBuffer.allocate(Long.BYTES).putLong(sourceOffset).array());
+        String source = sourceTopic + "-" + sourcePartition + "@" + sourceOffset;
+        try {
+            producer.send(new ProducerRecord<>(topic, null, key, value, headers), (metadata, error) -> {
+                if (error == null)
+                    sentRecords.incrementAndGet();
+                else
+                    failed(source, error);
+            });
+        } catch (KafkaException e) {
+            // The buffer stayed full (or the topic unknown) for max.block.ms
+            failed(source, e);
+        }
+    }
+
+    private void failed(String source, Exception error) {
+        failedRecords.incrementAndGet();
+        failureLog.record(error.getClass().getSimpleName(), source,
+                () -> String.format("Record: %s, Error: %s, Failed records: %d", source, error, failedRecords.get()));
+    }
+
+    /**
+     * @param headers - Headers of a dead letter record
+     * @return - Reason code of the record, null if it has none
+     */
+    public static Byte reasonOf(Headers headers) {
+        byte[] reason = headers.lastHeader(REASON_HEADER) == null ? null : headers.lastHeader(REASON_HEADER).value();
+        return reason == null || reason.length != 1 ? null : reason[0];
+    }
+
+    /**
+     * @return - Number of records acknowledged by the dead letter topic
+     */
+    public long getSentRecords() {
+        return sentRecords.get();
+    }
+
+    /**
+     * @return - Number of records that couldn't be sent
+     */
+    public long getFailedRecords() {
+        return failedRecords.get();
+    }
+
+    /**
+     * Sends the buffered records and closes the producer
+     */
+    @Override
+    public void close() {
+        producer.close(Duration.ofSeconds(10));
+    }
+}
@@ -1,22 +1,36 @@
 package com.compsource.app.custom;
 
-import com.compsource.app.logging.LogManager;
+import com.compsource.app.logging.SummaryLog;
+import com.compsource.app.metrics.StreamProcessorMetrics;
+import com.compsource.app.utils.ConfigUtil;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.streams.errors.DeserializationExceptionHandler;
 import org.apache.kafka.streams.processor.ProcessorContext;
 
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
 import java.util.Map;
+import java.util.Properties;
 import java.util.UUID;
 
 /**
  * Custom Deserialization Exception handler class to handle the exception occurs while
- * de-serializing the kafka message
+ * de-serializing the kafka message. The malformed records are sent to the dead letter topic by
+ * the {@link DeadLetterPublisher} found in the stream properties, if any, and summarized in the
+ * error log
  */
 public class DeserExcepHandler implements DeserializationExceptionHandler {
-    private static LogManager logger = new LogManager(DeserExcepHandler.class);
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static final SummaryLog malformedLog = new SummaryLog(DeserExcepHandler.class, "malformed json",
+            Duration.ofSeconds(Long.parseLong(properties.getProperty("log.rejections.summary-interval.seconds", "10"))));
+    // Longest part of a malformed record written to the log summary
+    private static final int LOGGED_EVENT_BYTES = 512;
+
+    private DeadLetterPublisher deadLetterPublisher;
 
     /**
-     * Logs the error message and continue to consume the upcoming messages
+     * Sends the malformed record to the dead letter topic and continue to consume the upcoming
+     * messages
      *
      * @param context   - Processor context
      * @param record    - Malformed event
@@ -25,15 +39,27 @@ public class DeserExcepHandler implements DeserializationExceptionHandler {
      */
     @Override
     public DeserializationHandlerResponse handle(ProcessorContext context, ConsumerRecord<byte[], byte[]> record, Exception exception) {
-        String event = new String(record.value());
-        logger.error("malformed json", UUID.randomUUID().toString(),
-                String.format("Event: %s, Reason: Unable to convert the Json to required Object, " +
-                        "Exception: %s", event, exception.toString()));
+        StreamProcessorMetrics.recordMalformed();
+        if (deadLetterPublisher != null)
+            deadLetterPublisher.publish(record.topic(), record.partition(), record.offset(), record.key(),
+                    record.value(), DeadLetterPublisher.MALFORMED);
+        malformedLog.record(exception.getClass().getSimpleName(), UUID.randomUUID().toString(), () ->
+                String.format("Event: %s, Source: %s-%d@%d, Reason: Unable to convert the Json to required " +
+                                "Object, Exception: %s", truncated(record.value()), record.topic(),
+                        record.partition(), record.offset(), exception.toString()));
         return DeserializationHandlerResponse.CONTINUE;
     }
 
+    private static String truncated(byte[] value) {
+        if (value == null)
+            return null;
+        return new String(value, 0, Math.min(value.length, LOGGED_EVENT_BYTES), StandardCharsets.UTF_8);
+    }
+
     @Override
     public void configure(Map<String, ?> configs) {
-
+        Object publisher = configs.get(DeadLetterPublisher.CONFIG);
+        if (publisher instanceof DeadLetterPublisher)
+            this.deadLetterPublisher = (DeadLetterPublisher) publisher;
     }
 }
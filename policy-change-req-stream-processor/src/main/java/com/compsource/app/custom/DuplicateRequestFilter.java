@@ -0,0 +1,129 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.logging.LogManager;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+import java.time.Duration;
+
+/**
+ * Drops the PolicyLimitChangeRequest events whose coiRequestId was already seen within the dedup
+ * horizon, e.g. republished by the retries of the producers, so that every request is aggregated
+ * once.
+ * <p>
+ * The seen request IDs are kept in a window store by event time, with the dedup horizon as
+ * retention, so the store only holds the IDs of the last horizon of stream time and survives a
+ * restart through its changelog. The store is fronted by a {@link RotatingBloomFilter} with a
+ * generation of one horizon: most requests are new and are accepted by the filter without a store
+ * lookup, only the duplicates and the false positives of the filter are looked up. The filter is
+ * rebuilt from the store when the task starts.
+ * <p>
+ * Duplicates are only detected within the stream task of the first copy: the events must be keyed
+ * (or repartitioned) so that the copies of a request land in the same partition. A copy arriving
+ * when the stream time is more than a horizon past its event time is not detected. Dropped
+ * duplicates and store lookups are counted in the request-deduplication metrics
+ * (duplicates-dropped-total / store-lookups-total, tagged with the task id).
+ * <p>
+ * A request ID is recorded when the request is forwarded, before the statistics it updates are
+ * committed. The filter therefore requires the exactly_once processing guarantee, which commits
+ * the seen requests store with the statistics: with at_least_once, the requests reprocessed after
+ * a crash would be found in the restored store and dropped, and their statistics never updated.
+ */
+public class DuplicateRequestFilter implements
+        Transformer<String, PolicyLimitChangeRequest, KeyValue<String, PolicyLimitChangeRequest>> {
+    private static LogManager logger = new LogManager(DuplicateRequestFilter.class);
+    private static final String METRICS_SCOPE = "request-deduplication";
+
+    private final String seenRequestsStoreName;
+    private final long horizonMs;
+    private final long expectedRequests;
+    private final double falsePositiveRate;
+
+    private ProcessorContext context;
+    private WindowStore<String, Long> seenRequests;
+    private RotatingBloomFilter seenRequestsFilter;
+    private Sensor duplicatesDropped;
+    private Sensor storeLookups;
+    private long observedStreamTime = -1;
+
+    /**
+     * @param seenRequestsStoreName - Window store of the seen request IDs, retained for the horizon
+     * @param horizon               - Time during which the copies of a request are dropped
+     * @param expectedRequests      - Expected number of requests per task and horizon, sizes the
+     *                              Bloom filter
+     * @param falsePositiveRate     - False positive rate of the Bloom filter at the expected number
+     *                              of requests
+     */
+    public DuplicateRequestFilter(String seenRequestsStoreName, Duration horizon, long expectedRequests,
+                                  double falsePositiveRate) {
+        this.seenRequestsStoreName = seenRequestsStoreName;
+        this.horizonMs = horizon.toMillis();
+        this.expectedRequests = expectedRequests;
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.seenRequests = (WindowStore<String, Long>) context.getStateStore(seenRequestsStoreName);
+        this.seenRequestsFilter = new RotatingBloomFilter(horizonMs, expectedRequests, falsePositiveRate);
+        String taskId = context.taskId().toString();
+        this.duplicatesDropped = context.metrics().addRateTotalSensor(METRICS_SCOPE, taskId,
+                "duplicates-dropped", Sensor.RecordingLevel.INFO);
+        this.storeLookups = context.metrics().addRateTotalSensor(METRICS_SCOPE, taskId,
+                "store-lookups", Sensor.RecordingLevel.INFO);
+
+        // The IDs restored from the changelog
+        try (KeyValueIterator<Windowed<String>, Long> iterator = seenRequests.all()) {
+            while (iterator.hasNext())
+                seenRequestsFilter.add(iterator.next().key.key());
+        }
+    }
+
+    @Override
+    public KeyValue<String, PolicyLimitChangeRequest> transform(String key,
+                                                                PolicyLimitChangeRequest policyLimitChangeRequest) {
+        String coiRequestId = policyLimitChangeRequest.getCoiRequestId();
+        long eventTime = context.timestamp();
+        observedStreamTime = Math.max(observedStreamTime, eventTime);
+        seenRequestsFilter.advance(observedStreamTime);
+
+        if (seenRequestsFilter.mightContain(coiRequestId)) {
+            storeLookups.record();
+            Long firstOffset = firstOffsetOf(coiRequestId, eventTime);
+            if (firstOffset != null) {
+                duplicatesDropped.record();
+                logger.info("duplicate dropped", coiRequestId, () -> "First seen at offset " + firstOffset);
+                return null;
+            }
+        }
+        seenRequestsFilter.add(coiRequestId);
+        seenRequests.put(coiRequestId, context.offset(), eventTime);
+        return KeyValue.pair(key, policyLimitChangeRequest);
+    }
+
+    /**
+     * @return - Offset of the first copy of the request seen within the horizon of the event time,
+     * null if there is none
+     */
+    private Long firstOffsetOf(String coiRequestId, long eventTime) {
+        try (WindowStoreIterator<Long> iterator = seenRequests.fetch(coiRequestId,
+                Math.max(0, eventTime - horizonMs), eventTime + horizonMs)) {
+            return iterator.hasNext() ? iterator.next().value : null;
+        }
+    }
+
+    @Override
+    public void close() {
+        context.metrics().removeSensor(duplicatesDropped);
+        context.metrics().removeSensor(storeLookups);
+    }
+}
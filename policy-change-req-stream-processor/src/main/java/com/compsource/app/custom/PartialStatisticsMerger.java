@@ -0,0 +1,161 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PartialStatistics;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.WindowStore;
+
+import java.util.function.Supplier;
+
+/**
+ * Merges the partial statistics of the hourly windows, keyed by the start of their month, into the
+ * hourly, daily and monthly totals, in the task that owns their month. The last partial statistics
+ * merged for every bucket and window are kept, so an update of a bucket replaces its previous
+ * contribution to the totals of its hour, day and month in a single step: every total forwarded
+ * counts all the buckets, and the totals never go down between two updates.
+ * <p>
+ * The updated totals are forwarded keyed by their {@link StatisticsKey}, in order: hourly, daily,
+ * monthly and the hourly top accounts. The partial statistics of an account, when the merger keeps
+ * the per account totals, replace the previous ones of their bucket in the account's hourly totals
+ * the same way, forwarded as the account hourly statistics.
+ */
+public class PartialStatisticsMerger implements
+        Transformer<Long, PartialStatistics, KeyValue<StatisticsKey, PolicyLimitChangeRequestsStatistics>> {
+    private final String mergedPartialsStoreName;
+    private final String hourlyTotalsStoreName;
+    private final String dailyTotalsStoreName;
+    private final String monthlyTotalsStoreName;
+    private final String accountTotalsStoreName;
+
+    private ProcessorContext context;
+    private WindowStore<String, PolicyLimitChangeRequestsStatistics> mergedPartials;
+    private KeyValueStore<Long, PolicyLimitChangeRequestsStatistics> hourlyTotals;
+    private KeyValueStore<Long, PolicyLimitChangeRequestsStatistics> dailyTotals;
+    private KeyValueStore<Long, PolicyLimitChangeRequestsStatistics> monthlyTotals;
+    private WindowStore<Integer, PolicyLimitChangeRequestsStatistics> accountTotals;
+
+    /**
+     * @param mergedPartialsStoreName - Hourly window store of the last partial statistics merged,
+     *                                by bucket
+     * @param hourlyTotalsStoreName   - Key-value store of the hourly totals, by start of the hour
+     * @param dailyTotalsStoreName    - Key-value store of the daily totals, by start of the day
+     * @param monthlyTotalsStoreName  - Key-value store of the monthly totals, by start of the month
+     */
+    public PartialStatisticsMerger(String mergedPartialsStoreName, String hourlyTotalsStoreName,
+                                   String dailyTotalsStoreName, String monthlyTotalsStoreName) {
+        this(mergedPartialsStoreName, hourlyTotalsStoreName, dailyTotalsStoreName, monthlyTotalsStoreName, null);
+    }
+
+    /**
+     * @param mergedPartialsStoreName - Hourly window store of the last partial statistics merged,
+     *                                by bucket, and by bucket and account
+     * @param hourlyTotalsStoreName   - Key-value store of the hourly totals, by start of the hour
+     * @param dailyTotalsStoreName    - Key-value store of the daily totals, by start of the day
+     * @param monthlyTotalsStoreName  - Key-value store of the monthly totals, by start of the month
+     * @param accountTotalsStoreName  - Hourly window store of the per account totals, by accountId,
+     *                                null if the per account totals aren't merged
+     */
+    public PartialStatisticsMerger(String mergedPartialsStoreName, String hourlyTotalsStoreName,
+                                   String dailyTotalsStoreName, String monthlyTotalsStoreName,
+                                   String accountTotalsStoreName) {
+        this.mergedPartialsStoreName = mergedPartialsStoreName;
+        this.hourlyTotalsStoreName = hourlyTotalsStoreName;
+        this.dailyTotalsStoreName = dailyTotalsStoreName;
+        this.monthlyTotalsStoreName = monthlyTotalsStoreName;
+        this.accountTotalsStoreName = accountTotalsStoreName;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.mergedPartials = (WindowStore<String, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(mergedPartialsStoreName);
+        this.hourlyTotals = (KeyValueStore<Long, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(hourlyTotalsStoreName);
+        this.dailyTotals = (KeyValueStore<Long, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(dailyTotalsStoreName);
+        this.monthlyTotals = (KeyValueStore<Long, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(monthlyTotalsStoreName);
+        if (accountTotalsStoreName != null)
+            this.accountTotals = (WindowStore<Integer, PolicyLimitChangeRequestsStatistics>)
+                    context.getStateStore(accountTotalsStoreName);
+    }
+
+    @Override
+    public KeyValue<StatisticsKey, PolicyLimitChangeRequestsStatistics> transform(
+            Long monthStart, PartialStatistics partialStats) {
+        long windowStart = partialStats.getWindowStart();
+        if (partialStats.getAccountId() != null) {
+            mergeAccount(partialStats);
+            return null;
+        }
+        PolicyLimitChangeRequestsStatistics previous = mergedPartials.fetch(partialStats.getBucket(), windowStart);
+        mergedPartials.put(partialStats.getBucket(), partialStats.getStatistics(), windowStart);
+
+        PolicyLimitChangeRequestsStatistics hourlyStats = replace(hourlyTotals, windowStart, previous,
+                partialStats.getStatistics(), PolicyLimitChangeRequestsStatistics::withTopAccounts);
+        context.forward(StatisticsKey.hourly(windowStart), hourlyStats);
+        long dayStart = Granularity.DAILY.periodStart(windowStart);
+        context.forward(StatisticsKey.daily(dayStart), replace(dailyTotals, dayStart, previous,
+                partialStats.getStatistics(), PolicyLimitChangeRequestsStatistics::new));
+        context.forward(StatisticsKey.monthly(monthStart), replace(monthlyTotals, monthStart, previous,
+                partialStats.getStatistics(), PolicyLimitChangeRequestsStatistics::new));
+        //The windows aggregated before the top accounts were added don't rank their accounts
+        if (hourlyStats.getTopAccountsSketch() != null)
+            context.forward(StatisticsKey.hourlyTopAccounts(windowStart), hourlyStats);
+        return null;
+    }
+
+    /**
+     * Replaces the previous partial statistics of a bucket and account by its current ones in the
+     * account's hourly totals
+     */
+    private void mergeAccount(PartialStatistics partialStats) {
+        if (accountTotals == null)
+            throw new IllegalStateException("The partial statistics of an account need the per account totals store");
+        long windowStart = partialStats.getWindowStart();
+        Integer accountId = partialStats.getAccountId();
+        String accountBucket = partialStats.getBucket() + "/" + accountId;
+        PolicyLimitChangeRequestsStatistics previous = mergedPartials.fetch(accountBucket, windowStart);
+        mergedPartials.put(accountBucket, partialStats.getStatistics(), windowStart);
+
+        PolicyLimitChangeRequestsStatistics accountStats = accountTotals.fetch(accountId, windowStart);
+        if (accountStats == null)
+            accountStats = PolicyLimitChangeRequestsStatistics.withoutDistinctCounts();
+        if (previous != null)
+            accountStats.subtract(previous);
+        accountStats.merge(partialStats.getStatistics());
+        accountTotals.put(accountId, accountStats, windowStart);
+        context.forward(StatisticsKey.accountHourly(accountId, windowStart), accountStats);
+    }
+
+    /**
+     * Replaces the previous partial statistics of a bucket by its current ones in the totals of a
+     * period. The distinct count sketches are only merged: the partial statistics only grow
+     *
+     * @return - Updated totals
+     */
+    private static PolicyLimitChangeRequestsStatistics replace(
+            KeyValueStore<Long, PolicyLimitChangeRequestsStatistics> totals, long periodStart,
+            PolicyLimitChangeRequestsStatistics previous, PolicyLimitChangeRequestsStatistics current,
+            Supplier<PolicyLimitChangeRequestsStatistics> initializer) {
+        PolicyLimitChangeRequestsStatistics stats = totals.get(periodStart);
+        if (stats == null)
+            stats = initializer.get();
+        if (previous != null)
+            stats.subtract(previous);
+        stats.merge(current);
+        totals.put(periodStart, stats);
+        return stats;
+    }
+
+    @Override
+    public void close() {
+    }
+}
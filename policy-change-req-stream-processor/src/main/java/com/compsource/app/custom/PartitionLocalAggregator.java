@@ -0,0 +1,142 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PartialStatistics;
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.processor.To;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.WindowStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Aggregates the valid PolicyLimitChangeRequest events into the partial hourly and per account
+ * hourly statistics of the input partition, in the task that reads them, without regrouping the
+ * events through any repartition topic. The input partition is the bucket of the partial
+ * statistics, so the events may be keyed in any way: the partial statistics of all the partitions
+ * are merged into the hourly, daily, monthly and per account totals by the {@link
+ * PartialStatisticsMerger}.
+ * <p>
+ * The partial statistics aren't forwarded with every event: the updated hours and account hours
+ * are recorded in a key-value store, and their latest partial statistics are forwarded every flush
+ * interval (wall-clock time), keyed by the start of their month. The updated periods survive a
+ * restart in the store, so none of them is lost between two flushes. Like the windowed
+ * aggregations, the events whose hour closed before the grace period in the stream time of the
+ * task are dropped.
+ */
+public class PartitionLocalAggregator implements
+        Transformer<String, PolicyLimitChangeRequest, KeyValue<Long, PartialStatistics>> {
+    private final String hourlyPartialsStoreName;
+    private final String accountPartialsStoreName;
+    private final String updatedPeriodsStoreName;
+    private final long gracePeriodMs;
+    private final Duration flushInterval;
+
+    private ProcessorContext context;
+    private WindowStore<String, PolicyLimitChangeRequestsStatistics> hourlyPartials;
+    private WindowStore<Integer, PolicyLimitChangeRequestsStatistics> accountPartials;
+    private KeyValueStore<StatisticsKey, Long> updatedPeriods;
+    private String bucket;
+    private long observedStreamTime = -1;
+
+    /**
+     * @param hourlyPartialsStoreName  - Hourly window store of the partial hourly statistics, by bucket
+     * @param accountPartialsStoreName - Hourly window store of the partial per account statistics,
+     *                                 by accountId
+     * @param updatedPeriodsStoreName  - Key-value store of the periods updated since the last flush,
+     *                                 with the time of their last update
+     * @param gracePeriod              - Time after the end of an hour during which late events are
+     *                                 still aggregated
+     * @param flushInterval            - Wall-clock interval between two forwards of the updated
+     *                                 partial statistics
+     */
+    public PartitionLocalAggregator(String hourlyPartialsStoreName, String accountPartialsStoreName,
+                                    String updatedPeriodsStoreName, Duration gracePeriod, Duration flushInterval) {
+        this.hourlyPartialsStoreName = hourlyPartialsStoreName;
+        this.accountPartialsStoreName = accountPartialsStoreName;
+        this.updatedPeriodsStoreName = updatedPeriodsStoreName;
+        this.gracePeriodMs = gracePeriod.toMillis();
+        this.flushInterval = flushInterval;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.hourlyPartials = (WindowStore<String, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(hourlyPartialsStoreName);
+        this.accountPartials = (WindowStore<Integer, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(accountPartialsStoreName);
+        this.updatedPeriods = (KeyValueStore<StatisticsKey, Long>) context.getStateStore(updatedPeriodsStoreName);
+        this.bucket = "partition-" + context.taskId().partition;
+        context.schedule(flushInterval, PunctuationType.WALL_CLOCK_TIME, timestamp -> flush());
+    }
+
+    @Override
+    public KeyValue<Long, PartialStatistics> transform(String key, PolicyLimitChangeRequest policyLimitChangeRequest) {
+        long eventTime = context.timestamp();
+        observedStreamTime = Math.max(observedStreamTime, eventTime);
+        long hourStart = Granularity.HOURLY.periodStart(eventTime);
+        if (Granularity.HOURLY.periodEnd(hourStart) + gracePeriodMs <= observedStreamTime)
+            return null;
+
+        PolicyLimitChangeRequestsStatistics hourlyStats = hourlyPartials.fetch(bucket, hourStart);
+        if (hourlyStats == null)
+            hourlyStats = PolicyLimitChangeRequestsStatistics.withTopAccounts();
+        hourlyStats.add(policyLimitChangeRequest);
+        hourlyPartials.put(bucket, hourlyStats, hourStart);
+        updatedPeriods.put(StatisticsKey.hourly(hourStart), eventTime);
+
+        // The repartitioned aggregation drops the null accountIds when it groups the events by account
+        Integer accountId = policyLimitChangeRequest.getAccountId();
+        if (accountId != null) {
+            PolicyLimitChangeRequestsStatistics accountStats = accountPartials.fetch(accountId, hourStart);
+            if (accountStats == null)
+                accountStats = PolicyLimitChangeRequestsStatistics.withoutDistinctCounts();
+            accountStats.accumulate(policyLimitChangeRequest);
+            accountPartials.put(accountId, accountStats, hourStart);
+            updatedPeriods.put(StatisticsKey.accountHourly(accountId, hourStart), eventTime);
+        }
+        return null;
+    }
+
+    /**
+     * Forwards the latest partial statistics of the periods updated since the last flush, the
+     * hours first, with the event time of their last update as the record timestamp rather than
+     * the wall-clock time of the flush, so the stream time downstream still follows the events
+     */
+    private void flush() {
+        List<StatisticsKey> flushedPeriods = new ArrayList<>();
+        try (KeyValueIterator<StatisticsKey, Long> periods = updatedPeriods.all()) {
+            while (periods.hasNext()) {
+                KeyValue<StatisticsKey, Long> period = periods.next();
+                StatisticsKey statisticsKey = period.key;
+                long hourStart = statisticsKey.getPeriodStart();
+                PolicyLimitChangeRequestsStatistics partialStats = statisticsKey.getAccountId() == null
+                        ? hourlyPartials.fetch(bucket, hourStart)
+                        : accountPartials.fetch(statisticsKey.getAccountId(), hourStart);
+                // Null once the hour is past the retention of the stores
+                if (partialStats != null)
+                    context.forward(Granularity.MONTHLY.periodStart(hourStart),
+                            new PartialStatistics(bucket, hourStart, statisticsKey.getAccountId(), partialStats),
+                            To.all().withTimestamp(period.value));
+                flushedPeriods.add(statisticsKey);
+            }
+        }
+        for (StatisticsKey statisticsKey : flushedPeriods)
+            updatedPeriods.delete(statisticsKey);
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -1,45 +1,57 @@
 package com.compsource.app.custom;
 
 import com.compsource.app.data.model.PolicyLimitChangeRequest;
-import com.compsource.app.logging.LogManager;
+import com.compsource.app.metrics.StreamProcessorMetrics;
+import com.compsource.app.utils.DateRequestedDecoder;
 import org.apache.kafka.clients.consumer.ConsumerRecord;
 import org.apache.kafka.streams.processor.TimestampExtractor;
 
-import java.time.LocalDateTime;
-import java.time.ZoneOffset;
-import java.time.format.DateTimeFormatter;
-
 /**
  * Custom TimestampExtractor class for extracting the Timestamp from the kafka message instead
  * using the default Kafka time
  */
 public class PolicyChangeReqTimestampExtractor implements TimestampExtractor {
-    private static LogManager logger = new LogManager(PolicyChangeReqTimestampExtractor.class);
-
     /**
      * Extracts the event time from the event - dateRequested field
      *
      * @param record        - Consumer Record
      * @param partitionTime - Event created time of the previous record in the partition
-     * @return - Extracted epoch milliseconds
+     * @return - Extracted epoch milliseconds, the partition time for an invalid dateRequested
      */
     @Override
     public long extract(ConsumerRecord<Object, Object> record, long partitionTime) {
-        PolicyLimitChangeRequest policyLimitChangeRequest =
-                (PolicyLimitChangeRequest) record.value();
-        try {
-            String dateRequestedStr = policyLimitChangeRequest.getDateRequested();
-            DateTimeFormatter dateTimeFormatter = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
-            LocalDateTime dateRequested = LocalDateTime.parse(dateRequestedStr, dateTimeFormatter);
+        // Empty records and JSON nulls carry no request. Their broker timestamp would move the
+        // stream time to the wall clock and close the windows of the events still to come, so
+        // they are dropped
+        if (record.value() == null) {
+            StreamProcessorMetrics.recordMalformed();
+            return -1;
+        }
+        // Internal repartition topics carry the partial statistics, which are already stamped
+        // with the event time of the request that produced them
+        if (!(record.value() instanceof PolicyLimitChangeRequest))
+            return record.timestamp();
 
-            return dateRequested.toInstant(ZoneOffset.UTC).toEpochMilli();
-        } catch (Exception e) {
-            logger.error("invalid content", policyLimitChangeRequest.getCoiRequestId(),
-                    String.format("Event: %s, Reason: %s, Exception: %s",
-                            policyLimitChangeRequest.toJSON(), "Invalid field - dateRequested",
-                            e.toString()));
+        PolicyLimitChangeRequest policyLimitChangeRequest = (PolicyLimitChangeRequest) record.value();
+        long eventTime = eventTimeOf(policyLimitChangeRequest);
+        if (eventTime < 0) {
+            // Sent to the dead letter topic by the RequestValidationFilter. A negative timestamp
+            // would drop the record with a warning instead, and the partition time leaves the
+            // stream time unchanged
+            policyLimitChangeRequest.setInvalidDateRequested(true);
+            return Math.max(partitionTime, 0);
         }
-        return -1;
+        StreamProcessorMetrics.observeEventTime(eventTime);
+        return eventTime;
+    }
 
+    /**
+     * Decodes the event time of the PolicyLimitChangeRequest, the dateRequested field (UTC)
+     *
+     * @param policyLimitChangeRequest - PolicyLimitChangeRequest object
+     * @return - Epoch milliseconds, -1 if the dateRequested is missing or invalid
+     */
+    public static long eventTimeOf(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return DateRequestedDecoder.epochMillis(policyLimitChangeRequest.getDateRequested());
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,134 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.utils.ConfigUtil;
+import org.apache.kafka.streams.state.RocksDBConfigSetter;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.BloomFilter;
+import org.rocksdb.Cache;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.LRUCache;
+import org.rocksdb.Options;
+import org.rocksdb.WriteBufferManager;
+
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * Tunes the RocksDB instances of the state stores from the rocksdb.* settings. A setting is read
+ * from the stream properties first, then from the properties file. Settings that are not
+ * configured keep the Kafka Streams defaults.
+ * <ul>
+ * <li>rocksdb.block-cache.mb - block cache shared by all the stores of the process, holding the
+ * index and filter blocks too</li>
+ * <li>rocksdb.write-buffer-manager.mb - memtable memory of all the stores, charged to the shared
+ * block cache (requires rocksdb.block-cache.mb)</li>
+ * <li>rocksdb.block-size.kb - data block size</li>
+ * <li>rocksdb.bloom-filter.bits-per-key - bloom filter of the point lookups, 0 disables it</li>
+ * <li>rocksdb.compression / rocksdb.bottommost-compression - none, snappy, lz4, lz4hc, zlib or
+ * zstd</li>
+ * <li>rocksdb.write-buffer.mb / rocksdb.write-buffer.count - memtable size and count per store</li>
+ * <li>rocksdb.compaction-style - level, universal or fifo</li>
+ * </ul>
+ */
+public class PolicyChangeRocksDBConfigSetter implements RocksDBConfigSetter {
+    private static final long MB = 1024L * 1024L;
+    // Share of the block cache reserved for the index and filter blocks
+    private static final double HIGH_PRIORITY_POOL_RATIO = 0.1;
+
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static Cache sharedBlockCache;
+    private static WriteBufferManager sharedWriteBufferManager;
+
+    private BloomFilter bloomFilter;
+
+    @Override
+    public void setConfig(String storeName, Options options, Map<String, Object> configs) {
+        BlockBasedTableConfig tableConfig = (BlockBasedTableConfig) options.tableFormatConfig();
+
+        String blockCacheMb = setting(configs, "rocksdb.block-cache.mb");
+        if (blockCacheMb != null) {
+            tableConfig.setBlockCache(sharedBlockCache(Long.parseLong(blockCacheMb) * MB));
+            tableConfig.setCacheIndexAndFilterBlocks(true);
+            tableConfig.setCacheIndexAndFilterBlocksWithHighPriority(true);
+            tableConfig.setPinTopLevelIndexAndFilter(true);
+
+            String writeBufferManagerMb = setting(configs, "rocksdb.write-buffer-manager.mb");
+            if (writeBufferManagerMb != null)
+                options.setWriteBufferManager(sharedWriteBufferManager(Long.parseLong(writeBufferManagerMb) * MB));
+        }
+
+        String blockSizeKb = setting(configs, "rocksdb.block-size.kb");
+        if (blockSizeKb != null)
+            tableConfig.setBlockSize(Long.parseLong(blockSizeKb) * 1024L);
+
+        String bloomFilterBitsPerKey = setting(configs, "rocksdb.bloom-filter.bits-per-key");
+        if (bloomFilterBitsPerKey != null && Integer.parseInt(bloomFilterBitsPerKey) > 0) {
+            bloomFilter = new BloomFilter(Integer.parseInt(bloomFilterBitsPerKey), false);
+            tableConfig.setFilter(bloomFilter);
+        }
+        options.setTableFormatConfig(tableConfig);
+
+        String compression = setting(configs, "rocksdb.compression");
+        if (compression != null)
+            options.setCompressionType(compressionType(compression));
+        String bottommostCompression = setting(configs, "rocksdb.bottommost-compression");
+        if (bottommostCompression != null)
+            options.setBottommostCompressionType(compressionType(bottommostCompression));
+
+        String writeBufferMb = setting(configs, "rocksdb.write-buffer.mb");
+        if (writeBufferMb != null)
+            options.setWriteBufferSize(Long.parseLong(writeBufferMb) * MB);
+        String writeBufferCount = setting(configs, "rocksdb.write-buffer.count");
+        if (writeBufferCount != null)
+            options.setMaxWriteBufferNumber(Integer.parseInt(writeBufferCount));
+
+        String compactionStyle = setting(configs, "rocksdb.compaction-style");
+        if (compactionStyle != null)
+            options.setCompactionStyle(CompactionStyle.valueOf(compactionStyle.trim().toUpperCase()));
+    }
+
+    @Override
+    public void close(String storeName, Options options) {
+        // The shared block cache and write buffer manager live as long as the process
+        if (bloomFilter != null)
+            bloomFilter.close();
+    }
+
+    private static synchronized Cache sharedBlockCache(long capacity) {
+        if (sharedBlockCache == null)
+            sharedBlockCache = new LRUCache(capacity, -1, false, HIGH_PRIORITY_POOL_RATIO);
+        return sharedBlockCache;
+    }
+
+    private static synchronized WriteBufferManager sharedWriteBufferManager(long bufferSize) {
+        if (sharedWriteBufferManager == null)
+            sharedWriteBufferManager = new WriteBufferManager(bufferSize, sharedBlockCache);
+        return sharedWriteBufferManager;
+    }
+
+    private static CompressionType compressionType(String name) {
+        switch (name.trim().toLowerCase()) {
+            case "none":
+                return CompressionType.NO_COMPRESSION;
+            case "snappy":
+                return CompressionType.SNAPPY_COMPRESSION;
+            case "lz4":
+                return CompressionType.LZ4_COMPRESSION;
+            case "lz4hc":
+                return CompressionType.LZ4HC_COMPRESSION;
+            case "zlib":
+                return CompressionType.ZLIB_COMPRESSION;
+            case "zstd":
+                return CompressionType.ZSTD_COMPRESSION;
+            default:
+                throw new IllegalArgumentException("Unknown RocksDB compression: " + name);
+        }
+    }
+
+    private static String setting(Map<String, Object> configs, String key) {
+        Object value = configs.get(key);
+        String setting = value != null ? value.toString() : properties.getProperty(key);
+        return setting == null || setting.trim().isEmpty() ? null : setting.trim();
+    }
+}
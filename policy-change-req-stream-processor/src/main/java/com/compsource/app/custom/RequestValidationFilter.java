@@ -0,0 +1,58 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.validation.PolicyLimitChangeReqValidator;
+import com.compsource.app.data.validation.RejectionReason;
+import com.compsource.app.metrics.StreamProcessorMetrics;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Forwards the PolicyLimitChangeRequest events that conform to the business rules, and sends the
+ * rejected ones, and the ones whose dateRequested the {@link PolicyChangeReqTimestampExtractor}
+ * couldn't decode, to the dead letter topic with their reason code, as they were read from the
+ * input topic
+ */
+public class RequestValidationFilter implements
+        Transformer<String, PolicyLimitChangeRequest, KeyValue<String, PolicyLimitChangeRequest>> {
+    private final DeadLetterPublisher deadLetterPublisher;
+
+    private ProcessorContext context;
+
+    /**
+     * @param deadLetterPublisher - Publisher of the rejected events, null to drop them
+     */
+    public RequestValidationFilter(DeadLetterPublisher deadLetterPublisher) {
+        this.deadLetterPublisher = deadLetterPublisher;
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        this.context = context;
+    }
+
+    @Override
+    public KeyValue<String, PolicyLimitChangeRequest> transform(String key,
+                                                                PolicyLimitChangeRequest policyLimitChangeRequest) {
+        RejectionReason reason = policyLimitChangeRequest.isInvalidDateRequested()
+                ? RejectionReason.INVALID_DATE_REQUESTED : PolicyLimitChangeReqValidator.check(policyLimitChangeRequest);
+        StreamProcessorMetrics.recordValidation(reason);
+        if (reason == RejectionReason.ACCEPTED)
+            return KeyValue.pair(key, policyLimitChangeRequest);
+        if (deadLetterPublisher != null) {
+            byte[] value = policyLimitChangeRequest.getSourceBytes() != null
+                    ? policyLimitChangeRequest.getSourceBytes()
+                    : policyLimitChangeRequest.toJSON().getBytes(StandardCharsets.UTF_8);
+            deadLetterPublisher.publish(context.topic(), context.partition(), context.offset(),
+                    key == null ? null : key.getBytes(StandardCharsets.UTF_8), value, reason.getCode());
+        }
+        return null;
+    }
+
+    @Override
+    public void close() {
+    }
+}
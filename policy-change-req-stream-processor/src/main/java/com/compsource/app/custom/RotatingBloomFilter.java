@@ -0,0 +1,121 @@
+package com.compsource.app.custom;
+
+import java.util.Arrays;
+
+/**
+ * Bloom filter of the request IDs seen during the last one to two generations of stream time.
+ * <p>
+ * The filter has two generations of the same fixed size: IDs are added to the current generation
+ * and looked up in both. Once the stream time passes the end of the current generation, the
+ * previous generation is cleared and becomes the current one, so an ID is remembered for at least
+ * one generation and the memory never grows, whatever the request rate. The generations are sized
+ * for the expected number of IDs per generation and false positive rate: about 9.6 bits per ID for
+ * 1%. Above the expected number of IDs the false positive rate rises, nothing else changes.
+ * <p>
+ * A "not seen" answer is always right, a "maybe seen" answer must be checked against the store.
+ */
+public class RotatingBloomFilter {
+    private final long generationMs;
+    private final int bits;
+    private final int hashes;
+
+    private long[] current;
+    private long[] previous;
+    private long currentStart = -1;
+
+    /**
+     * @param generationMs      - Stream time covered by a generation, in milliseconds
+     * @param expectedIds       - Expected number of IDs added per generation
+     * @param falsePositiveRate - Expected false positive rate, between 0 and 1 (exclusive)
+     */
+    public RotatingBloomFilter(long generationMs, long expectedIds, double falsePositiveRate) {
+        if (generationMs < 1 || expectedIds < 1 || falsePositiveRate <= 0 || falsePositiveRate >= 1)
+            throw new IllegalArgumentException("The Bloom filter needs a positive generation and number of " +
+                    "IDs, and a false positive rate between 0 and 1");
+        this.generationMs = generationMs;
+        // -n ln(p) / ln(2)^2 bits and (bits / n) ln(2) hashes, rounded up to whole longs
+        long optimalBits = (long) Math.ceil(-expectedIds * Math.log(falsePositiveRate) / (Math.log(2) * Math.log(2)));
+        this.bits = (int) Math.min((Math.max(optimalBits, 64) + 63) / 64 * 64, Integer.MAX_VALUE - 63);
+        this.hashes = (int) Math.max(1, Math.round((double) bits / expectedIds * Math.log(2)));
+        this.current = new long[bits / 64];
+        this.previous = new long[bits / 64];
+    }
+
+    /**
+     * Rotates the generations if the stream time passed the end of the current generation
+     *
+     * @param streamTime - Current stream time
+     */
+    public void advance(long streamTime) {
+        if (currentStart < 0) {
+            currentStart = streamTime;
+            return;
+        }
+        if (streamTime < currentStart + generationMs)
+            return;
+        // After a gap of more than a generation the current generation is too old to keep as well
+        if (streamTime >= currentStart + 2 * generationMs)
+            Arrays.fill(current, 0L);
+        long[] cleared = previous;
+        Arrays.fill(cleared, 0L);
+        previous = current;
+        current = cleared;
+        currentStart = streamTime;
+    }
+
+    /**
+     * @param id - Request ID
+     * @return - False if the ID wasn't added during the current or previous generation, true if it
+     * may have been
+     */
+    public boolean mightContain(String id) {
+        long hash = hash(id);
+        return contains(current, hash) || contains(previous, hash);
+    }
+
+    /**
+     * Adds the ID to the current generation
+     *
+     * @param id - Request ID
+     */
+    public void add(String id) {
+        long hash = hash(id);
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        for (int index = 0; index < hashes; index++) {
+            int bit = Math.floorMod(first + index * second, bits);
+            current[bit >>> 6] |= 1L << bit;
+        }
+    }
+
+    /**
+     * @return - Size of both generations in bytes
+     */
+    public long sizeInBytes() {
+        return 2L * bits / 8;
+    }
+
+    private boolean contains(long[] generation, long hash) {
+        // Bit positions from the two halves of the hash (Kirsch-Mitzenmacher)
+        int first = (int) hash;
+        int second = (int) (hash >>> 32) | 1;
+        for (int index = 0; index < hashes; index++) {
+            int bit = Math.floorMod(first + index * second, bits);
+            if ((generation[bit >>> 6] & (1L << bit)) == 0)
+                return false;
+        }
+        return true;
+    }
+
+    private static long hash(String id) {
+        // FNV-1a over the chars, mixed with the splitmix64 finalizer to spread the bits
+        long hash = 0xcbf29ce484222325L;
+        for (int index = 0; index < id.length(); index++) {
+            hash ^= id.charAt(index);
+            hash *= 0x100000001b3L;
+        }
+        hash = (hash ^ (hash >>> 30)) * 0xbf58476d1ce4e5b9L;
+        hash = (hash ^ (hash >>> 27)) * 0x94d049bb133111ebL;
+        return hash ^ (hash >>> 31);
+    }
+}
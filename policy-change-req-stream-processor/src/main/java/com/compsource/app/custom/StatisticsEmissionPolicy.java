@@ -0,0 +1,27 @@
+package com.compsource.app.custom;
+
+/**
+ * Controls when the hourly statistics are written to the statistics sink
+ */
+public enum StatisticsEmissionPolicy {
+    /**
+     * Every update of a window is written
+     */
+    EAGER,
+    /**
+     * A window is written once, when it closes (window end + grace period)
+     */
+    FINAL,
+    /**
+     * The latest value of every updated window is written once per emission interval
+     */
+    RATE_LIMITED;
+
+    /**
+     * @param name - Policy name as in the properties file (eager, final, rate-limited)
+     * @return - StatisticsEmissionPolicy
+     */
+    public static StatisticsEmissionPolicy of(String name) {
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -0,0 +1,170 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import org.apache.kafka.common.metrics.Sensor;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Transformer;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.PunctuationType;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.KeyValueStore;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Applies the {@link StatisticsEmissionPolicy} to the statistics rollup updates before they reach
+ * the statistics sink. A period closes once its end plus the grace period is reached by the stream
+ * time.
+ * <p>
+ * The hourly top accounts rankings are always held back until the end of their hour is reached by
+ * the stream time, whatever the policy, so they are written once per hour (and again for the late
+ * corrections) rather than with every update or a year later, once the grace period is over.
+ * <p>
+ * Updates that are held back wait in a key-value store, so only the latest value of each period
+ * is kept and pending periods survive a restart. Every held back update that is overwritten before
+ * being written is counted as a suppressed write in the statistics-emission metrics
+ * (suppressed-writes-total / emitted-writes-total, tagged with the task id).
+ */
+public class StatisticsEmissionTransformer implements
+        Transformer<StatisticsKey, PolicyLimitChangeRequestsStatistics, KeyValue<StatisticsKey, PolicyLimitChangeRequestsStatistics>> {
+    // How often the closed periods are looked up, in stream time, for the final policy
+    private static final Duration CLOSED_PERIODS_CHECK_INTERVAL = Duration.ofMinutes(1);
+    private static final String METRICS_SCOPE = "statistics-emission";
+
+    private final StatisticsEmissionPolicy policy;
+    private final String pendingStatisticsStoreName;
+    private final long gracePeriodMs;
+    private final Duration emissionInterval;
+
+    private ProcessorContext context;
+    private KeyValueStore<StatisticsKey, PolicyLimitChangeRequestsStatistics> pendingStatistics;
+    private Sensor suppressedWrites;
+    private Sensor emittedWrites;
+    private long observedStreamTime = -1;
+
+    /**
+     * @param policy                     - Emission policy
+     * @param pendingStatisticsStoreName - Key-value store holding the statistics not written yet
+     * @param gracePeriod                - Time after the end of a period during which late events
+     *                                   are still accepted
+     * @param emissionInterval           - Emission interval of the rate limited policy
+     */
+    public StatisticsEmissionTransformer(StatisticsEmissionPolicy policy, String pendingStatisticsStoreName,
+                                         Duration gracePeriod, Duration emissionInterval) {
+        this.policy = policy;
+        this.pendingStatisticsStoreName = pendingStatisticsStoreName;
+        this.gracePeriodMs = gracePeriod.toMillis();
+        this.emissionInterval = emissionInterval;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public void init(ProcessorContext context) {
+        this.context = context;
+        this.pendingStatistics = (KeyValueStore<StatisticsKey, PolicyLimitChangeRequestsStatistics>)
+                context.getStateStore(pendingStatisticsStoreName);
+        String taskId = context.taskId().toString();
+        this.suppressedWrites = context.metrics().addRateTotalSensor(METRICS_SCOPE, taskId,
+                "suppressed-writes", Sensor.RecordingLevel.INFO, "policy", policy.name());
+        this.emittedWrites = context.metrics().addRateTotalSensor(METRICS_SCOPE, taskId,
+                "emitted-writes", Sensor.RecordingLevel.INFO, "policy", policy.name());
+
+        context.schedule(CLOSED_PERIODS_CHECK_INTERVAL, PunctuationType.STREAM_TIME,
+                this::emitClosedPeriods);
+        if (policy == StatisticsEmissionPolicy.RATE_LIMITED) {
+            context.schedule(emissionInterval, PunctuationType.WALL_CLOCK_TIME,
+                    timestamp -> emitPendingPeriods());
+        }
+    }
+
+    @Override
+    public KeyValue<StatisticsKey, PolicyLimitChangeRequestsStatistics> transform(
+            StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        boolean heldUntilClosed = isHeldUntilClosed(statisticsKey.getGranularity());
+        if (heldUntilClosed)
+            observedStreamTime = Math.max(observedStreamTime, context.timestamp());
+
+        // A late correction of an already closed period is written straight away
+        if ((policy == StatisticsEmissionPolicy.EAGER && !heldUntilClosed)
+                || (heldUntilClosed && isClosed(statisticsKey, observedStreamTime))) {
+            emittedWrites.record();
+            return KeyValue.pair(statisticsKey, policyLimitChangeRequestsStats);
+        }
+
+        if (pendingStatistics.get(statisticsKey) != null)
+            suppressedWrites.record();
+        pendingStatistics.put(statisticsKey, policyLimitChangeRequestsStats);
+        return null;
+    }
+
+    /**
+     * Writes and removes the pending periods held until closed that are closed at the given stream
+     * time
+     *
+     * @param streamTime - Current stream time
+     */
+    private void emitClosedPeriods(long streamTime) {
+        observedStreamTime = Math.max(observedStreamTime, streamTime);
+        for (Granularity granularity : Granularity.values()) {
+            long lastClosedPeriodStart =
+                    granularity.periodStart(observedStreamTime - closingDelayMs(granularity)) - 1;
+            if (isHeldUntilClosed(granularity) && lastClosedPeriodStart >= 0)
+                emit(pendingPeriods(granularity, lastClosedPeriodStart));
+        }
+    }
+
+    /**
+     * Writes and removes all the pending periods, except the ones held until closed
+     */
+    private void emitPendingPeriods() {
+        for (Granularity granularity : Granularity.values()) {
+            if (!isHeldUntilClosed(granularity))
+                emit(pendingPeriods(granularity, Long.MAX_VALUE));
+        }
+    }
+
+    /**
+     * The serialized keys are ordered by granularity, period start and accountId
+     */
+    private KeyValueIterator<StatisticsKey, PolicyLimitChangeRequestsStatistics> pendingPeriods(
+            Granularity granularity, long lastPeriodStart) {
+        return pendingStatistics.range(new StatisticsKey(granularity, 0L, null),
+                new StatisticsKey(granularity, lastPeriodStart, Integer.MAX_VALUE));
+    }
+
+    private void emit(KeyValueIterator<StatisticsKey, PolicyLimitChangeRequestsStatistics> periods) {
+        List<StatisticsKey> emittedPeriods = new ArrayList<>();
+        try (KeyValueIterator<StatisticsKey, PolicyLimitChangeRequestsStatistics> iterator = periods) {
+            while (iterator.hasNext()) {
+                KeyValue<StatisticsKey, PolicyLimitChangeRequestsStatistics> period = iterator.next();
+                context.forward(period.key, period.value);
+                emittedWrites.record();
+                emittedPeriods.add(period.key);
+            }
+        }
+        for (StatisticsKey statisticsKey : emittedPeriods)
+            pendingStatistics.delete(statisticsKey);
+    }
+
+    private boolean isHeldUntilClosed(Granularity granularity) {
+        return policy == StatisticsEmissionPolicy.FINAL || granularity == Granularity.HOURLY_TOP_ACCOUNTS;
+    }
+
+    private long closingDelayMs(Granularity granularity) {
+        return granularity == Granularity.HOURLY_TOP_ACCOUNTS ? 0 : gracePeriodMs;
+    }
+
+    private boolean isClosed(StatisticsKey statisticsKey, long streamTime) {
+        return statisticsKey.getPeriodEnd() + closingDelayMs(statisticsKey.getGranularity()) <= streamTime;
+    }
+
+    @Override
+    public void close() {
+        context.metrics().removeSensor(suppressedWrites);
+        context.metrics().removeSensor(emittedWrites);
+    }
+}
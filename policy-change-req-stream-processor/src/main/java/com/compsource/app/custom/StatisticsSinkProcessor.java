@@ -0,0 +1,32 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import org.apache.kafka.streams.processor.AbstractProcessor;
+import org.apache.kafka.streams.processor.ProcessorContext;
+
+/**
+ * Hands the statistics rollups to the {@link AsyncStatisticsSink} of the stream task
+ */
+public class StatisticsSinkProcessor extends AbstractProcessor<StatisticsKey, PolicyLimitChangeRequestsStatistics> {
+    private final String sinkStoreName;
+    private AsyncStatisticsSink statisticsSink;
+
+    /**
+     * @param sinkStoreName - Name of the AsyncStatisticsSink store
+     */
+    public StatisticsSinkProcessor(String sinkStoreName) {
+        this.sinkStoreName = sinkStoreName;
+    }
+
+    @Override
+    public void init(ProcessorContext context) {
+        super.init(context);
+        this.statisticsSink = (AsyncStatisticsSink) context.getStateStore(sinkStoreName);
+    }
+
+    @Override
+    public void process(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        statisticsSink.write(statisticsKey, policyLimitChangeRequestsStats);
+    }
+}
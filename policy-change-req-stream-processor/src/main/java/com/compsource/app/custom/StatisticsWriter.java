@@ -0,0 +1,28 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.google.common.util.concurrent.ListenableFuture;
+
+/**
+ * Writes the statistics rollups to their final destination without blocking the stream thread
+ */
+public interface StatisticsWriter {
+
+    /**
+     * Starts writing the statistics of a rollup period
+     *
+     * @param statisticsKey                  - Granularity and start of the period
+     * @param policyLimitChangeRequestsStats - Policy Limit Change Request Statistics
+     * @return - Future completed when the write is acknowledged
+     */
+    ListenableFuture<?> write(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats);
+
+    /**
+     * @param error - Failure of a write
+     * @return - true if the write may succeed when it is retried
+     */
+    default boolean isRetryable(Throwable error) {
+        return false;
+    }
+}
@@ -0,0 +1,73 @@
+package com.compsource.app.custom;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.state.WindowBytesStoreSupplier;
+import org.apache.kafka.streams.state.WindowStore;
+
+import java.time.Duration;
+
+/**
+ * Supplies {@link TieredWindowStore} instances
+ */
+public class TieredWindowBytesStoreSupplier implements WindowBytesStoreSupplier {
+    private final String name;
+    private final long retentionPeriod;
+    private final long windowSize;
+    private final long hotRetention;
+
+    /**
+     * @param name            - Store name
+     * @param retentionPeriod - Retention period of the windows
+     * @param windowSize      - Window size, must divide a day
+     * @param hotRetention    - Stream time span kept in the hot tier
+     */
+    public TieredWindowBytesStoreSupplier(String name, Duration retentionPeriod, Duration windowSize,
+                                          Duration hotRetention) {
+        this.name = name;
+        this.retentionPeriod = retentionPeriod.toMillis();
+        this.windowSize = windowSize.toMillis();
+        this.hotRetention = hotRetention.toMillis();
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public WindowStore<Bytes, byte[]> get() {
+        return new TieredWindowStore(name, retentionPeriod, windowSize, hotRetention);
+    }
+
+    @Override
+    public String metricsScope() {
+        return "tiered-window-state";
+    }
+
+    @Deprecated
+    @Override
+    public int segments() {
+        throw new IllegalStateException("Segments is deprecated and should not be called");
+    }
+
+    @Override
+    public long segmentIntervalMs() {
+        // Segments are not used by the tiered store
+        return 1;
+    }
+
+    @Override
+    public long windowSize() {
+        return windowSize;
+    }
+
+    @Override
+    public boolean retainDuplicates() {
+        return false;
+    }
+
+    @Override
+    public long retentionPeriod() {
+        return retentionPeriod;
+    }
+}
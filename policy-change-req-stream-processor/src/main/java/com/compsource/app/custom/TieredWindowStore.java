@@ -0,0 +1,347 @@
+package com.compsource.app.custom;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.kstream.internals.TimeWindow;
+import org.apache.kafka.streams.processor.ProcessorContext;
+import org.apache.kafka.streams.processor.StateStore;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.WindowStore;
+import org.apache.kafka.streams.state.WindowStoreIterator;
+
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+
+/**
+ * In-memory window store for a small, stable key set (the partial aggregation buckets) and a long
+ * retention, with two tiers:
+ * <ul>
+ * <li>hot - the windows of the last hotRetention of stream time, in a ring buffer with one slot
+ * per window and one value per key</li>
+ * <li>cold - older windows, compacted into one dense segment per day (one column of values per
+ * key, one row per window of the day). Cold windows still accept late updates</li>
+ * </ul>
+ * A window belongs to exactly one tier: it stays in its ring slot until a newer window claims the
+ * slot, and is moved to its day segment then. Windows older than the retention period are dropped.
+ * <p>
+ * The keys are interned into dense indexes, so the footprint scales with the number of windows
+ * holding a value instead of the number of events. Range queries materialize their result, they
+ * are only used by interactive queries. Duplicates are not supported.
+ * <p>
+ * The store isn't persistent: every start of a task replays its whole changelog, i.e. every window
+ * of the retention period, before processing. Only use it when that restart time is acceptable.
+ */
+public class TieredWindowStore implements WindowStore<Bytes, byte[]> {
+    private static final long DAY_MS = Duration.ofDays(1).toMillis();
+    // Changelog keys are the serialized key followed by the window start (long) and a sequence
+    // number (int)
+    private static final int CHANGELOG_KEY_SUFFIX_SIZE = 12;
+
+    private final String name;
+    private final long retentionPeriod;
+    private final long windowSize;
+    private final long hotRetention;
+    private final int windowsPerDay;
+
+    private final Map<Bytes, Integer> keyIndexes = new HashMap<>();
+    private final List<Bytes> keys = new ArrayList<>();
+    // Hot tier ring buffer, slot = (window start / window size) % slots
+    private final long[] slotWindowStarts;
+    private final byte[][][] slotValues;
+    // Cold tier, day start -> values[key index][window of the day]
+    private final TreeMap<Long, byte[][][]> daySegments = new TreeMap<>();
+
+    private ProcessorContext context;
+    private long observedStreamTime = -1;
+    private volatile boolean open;
+
+    /**
+     * @param name            - Store name
+     * @param retentionPeriod - Retention period of the windows in milliseconds
+     * @param windowSize      - Window size in milliseconds, must divide a day
+     * @param hotRetention    - Stream time span kept in the hot tier in milliseconds
+     */
+    public TieredWindowStore(String name, long retentionPeriod, long windowSize, long hotRetention) {
+        if (windowSize <= 0 || DAY_MS % windowSize != 0)
+            throw new IllegalArgumentException("The window size must divide a day: " + windowSize);
+        this.name = name;
+        this.retentionPeriod = retentionPeriod;
+        this.windowSize = windowSize;
+        this.hotRetention = hotRetention;
+        this.windowsPerDay = (int) (DAY_MS / windowSize);
+        int slots = (int) (hotRetention / windowSize) + 2;
+        this.slotWindowStarts = new long[slots];
+        this.slotValues = new byte[slots][][];
+        Arrays.fill(slotWindowStarts, -1);
+    }
+
+    @Override
+    public String name() {
+        return name;
+    }
+
+    @Override
+    public void init(ProcessorContext context, StateStore root) {
+        this.context = context;
+        context.register(root, (key, value) -> {
+            ByteBuffer changelogKey = ByteBuffer.wrap(key);
+            long windowStart = changelogKey.getLong(key.length - CHANGELOG_KEY_SUFFIX_SIZE);
+            put(Bytes.wrap(Arrays.copyOf(key, key.length - CHANGELOG_KEY_SUFFIX_SIZE)), value, windowStart);
+        });
+        open = true;
+    }
+
+    @Deprecated
+    @Override
+    public void put(Bytes key, byte[] value) {
+        put(key, value, context.timestamp());
+    }
+
+    @Override
+    public synchronized void put(Bytes key, byte[] value, long windowStartTimestamp) {
+        observedStreamTime = Math.max(observedStreamTime, windowStartTimestamp);
+        if (isExpired(windowStartTimestamp))
+            return;
+        dropExpiredDays();
+
+        int keyIndex = keyIndex(key, value != null);
+        if (keyIndex < 0)
+            return;
+        int slot = slotOf(windowStartTimestamp);
+        if (slotWindowStarts[slot] != windowStartTimestamp
+                && windowStartTimestamp > observedStreamTime - hotRetention) {
+            demote(slot);
+            slotWindowStarts[slot] = windowStartTimestamp;
+            slotValues[slot] = new byte[keys.size()][];
+        }
+        if (slotWindowStarts[slot] == windowStartTimestamp) {
+            slotValues[slot] = ensureCapacity(slotValues[slot]);
+            slotValues[slot][keyIndex] = value;
+        } else {
+            byte[][][] daySegment = daySegments.computeIfAbsent(dayOf(windowStartTimestamp),
+                    day -> new byte[keys.size()][][]);
+            if (daySegment.length < keys.size()) {
+                daySegment = Arrays.copyOf(daySegment, keys.size());
+                daySegments.put(dayOf(windowStartTimestamp), daySegment);
+            }
+            if (daySegment[keyIndex] == null)
+                daySegment[keyIndex] = new byte[windowsPerDay][];
+            daySegment[keyIndex][windowOfDay(windowStartTimestamp)] = value;
+        }
+    }
+
+    @Override
+    public synchronized byte[] fetch(Bytes key, long windowStartTimestamp) {
+        Integer keyIndex = keyIndexes.get(key);
+        if (keyIndex == null || isExpired(windowStartTimestamp))
+            return null;
+        int slot = slotOf(windowStartTimestamp);
+        if (slotWindowStarts[slot] == windowStartTimestamp) {
+            byte[][] values = slotValues[slot];
+            return keyIndex < values.length ? values[keyIndex] : null;
+        }
+        byte[][][] daySegment = daySegments.get(dayOf(windowStartTimestamp));
+        if (daySegment == null || keyIndex >= daySegment.length || daySegment[keyIndex] == null)
+            return null;
+        return daySegment[keyIndex][windowOfDay(windowStartTimestamp)];
+    }
+
+    @Deprecated
+    @Override
+    public synchronized WindowStoreIterator<byte[]> fetch(Bytes key, long timeFrom, long timeTo) {
+        List<KeyValue<Long, byte[]>> windows = new ArrayList<>();
+        for (KeyValue<Windowed<Bytes>, byte[]> window : collect(key, key, timeFrom, timeTo))
+            windows.add(KeyValue.pair(window.key.window().start(), window.value));
+        return new ListWindowStoreIterator(windows);
+    }
+
+    @Deprecated
+    @Override
+    public synchronized KeyValueIterator<Windowed<Bytes>, byte[]> fetch(Bytes from, Bytes to, long timeFrom,
+                                                                        long timeTo) {
+        return new ListKeyValueIterator<>(collect(from, to, timeFrom, timeTo));
+    }
+
+    @Override
+    public synchronized KeyValueIterator<Windowed<Bytes>, byte[]> all() {
+        return new ListKeyValueIterator<>(collect(null, null, 0, Long.MAX_VALUE));
+    }
+
+    @Deprecated
+    @Override
+    public synchronized KeyValueIterator<Windowed<Bytes>, byte[]> fetchAll(long timeFrom, long timeTo) {
+        return new ListKeyValueIterator<>(collect(null, null, timeFrom, timeTo));
+    }
+
+    /**
+     * Collects the windows of the key range (null for all the keys) starting in the time range,
+     * ordered by window start and key
+     */
+    private List<KeyValue<Windowed<Bytes>, byte[]>> collect(Bytes from, Bytes to, long timeFrom, long timeTo) {
+        long minTime = Math.max(timeFrom, observedStreamTime - retentionPeriod + 1);
+        List<KeyValue<Windowed<Bytes>, byte[]>> result = new ArrayList<>();
+        if (timeTo < minTime)
+            return result;
+        TreeMap<Long, byte[][]> windows = new TreeMap<>();
+        for (Map.Entry<Long, byte[][][]> daySegment : daySegments.subMap(dayOf(minTime), true,
+                dayOf(Math.max(minTime, timeTo)), true).entrySet()) {
+            for (int keyIndex = 0; keyIndex < daySegment.getValue().length; keyIndex++) {
+                byte[][] column = daySegment.getValue()[keyIndex];
+                for (int window = 0; column != null && window < windowsPerDay; window++) {
+                    if (column[window] != null)
+                        windows.computeIfAbsent(daySegment.getKey() + window * windowSize,
+                                windowStart -> new byte[keys.size()][])[keyIndex] = column[window];
+                }
+            }
+        }
+        for (int slot = 0; slot < slotWindowStarts.length; slot++) {
+            if (slotWindowStarts[slot] >= 0)
+                windows.put(slotWindowStarts[slot], slotValues[slot]);
+        }
+
+        for (Map.Entry<Long, byte[][]> window : windows.subMap(minTime, true, timeTo, true).entrySet()) {
+            List<KeyValue<Windowed<Bytes>, byte[]>> windowResult = new ArrayList<>();
+            for (int keyIndex = 0; keyIndex < window.getValue().length; keyIndex++) {
+                Bytes key = keys.get(keyIndex);
+                if (window.getValue()[keyIndex] != null && (from == null || key.compareTo(from) >= 0)
+                        && (to == null || key.compareTo(to) <= 0))
+                    windowResult.add(KeyValue.pair(new Windowed<>(key, new TimeWindow(window.getKey(),
+                            window.getKey() + windowSize)), window.getValue()[keyIndex]));
+            }
+            windowResult.sort((left, right) -> left.key.key().compareTo(right.key.key()));
+            result.addAll(windowResult);
+        }
+        return result;
+    }
+
+    private int keyIndex(Bytes key, boolean create) {
+        Integer keyIndex = keyIndexes.get(key);
+        if (keyIndex == null) {
+            if (!create)
+                return -1;
+            keyIndex = keys.size();
+            keys.add(key);
+            keyIndexes.put(key, keyIndex);
+        }
+        return keyIndex;
+    }
+
+    private byte[][] ensureCapacity(byte[][] values) {
+        return values.length < keys.size() ? Arrays.copyOf(values, keys.size()) : values;
+    }
+
+    /**
+     * Moves the window held by the slot to its day segment
+     */
+    private void demote(int slot) {
+        long windowStart = slotWindowStarts[slot];
+        if (windowStart < 0)
+            return;
+        byte[][] values = slotValues[slot];
+        slotWindowStarts[slot] = -1;
+        slotValues[slot] = null;
+        if (isExpired(windowStart))
+            return;
+        for (int keyIndex = 0; keyIndex < values.length; keyIndex++) {
+            if (values[keyIndex] != null)
+                put(keys.get(keyIndex), values[keyIndex], windowStart);
+        }
+    }
+
+    private void dropExpiredDays() {
+        // A day is dropped once its last window is expired
+        long firstLiveDay = dayOf(Math.max(0, observedStreamTime - retentionPeriod + 1 - DAY_MS + windowSize));
+        daySegments.headMap(firstLiveDay, false).clear();
+    }
+
+    private boolean isExpired(long windowStart) {
+        return windowStart <= observedStreamTime - retentionPeriod;
+    }
+
+    private int slotOf(long windowStart) {
+        return (int) Math.floorMod(windowStart / windowSize, (long) slotWindowStarts.length);
+    }
+
+    private long dayOf(long timestamp) {
+        return timestamp - Math.floorMod(timestamp, DAY_MS);
+    }
+
+    private int windowOfDay(long windowStart) {
+        return (int) (Math.floorMod(windowStart, DAY_MS) / windowSize);
+    }
+
+    @Override
+    public void flush() {
+        // do-nothing since it is in-memory
+    }
+
+    @Override
+    public synchronized void close() {
+        daySegments.clear();
+        Arrays.fill(slotWindowStarts, -1);
+        Arrays.fill(slotValues, null);
+        open = false;
+    }
+
+    @Override
+    public boolean persistent() {
+        return false;
+    }
+
+    @Override
+    public boolean isOpen() {
+        return open;
+    }
+
+    private static class ListKeyValueIterator<K> implements KeyValueIterator<K, byte[]> {
+        private final Iterator<KeyValue<K, byte[]>> iterator;
+        private KeyValue<K, byte[]> next;
+
+        ListKeyValueIterator(List<KeyValue<K, byte[]>> entries) {
+            this.iterator = entries.iterator();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null || iterator.hasNext();
+        }
+
+        @Override
+        public KeyValue<K, byte[]> next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            KeyValue<K, byte[]> result = next != null ? next : iterator.next();
+            next = null;
+            return result;
+        }
+
+        @Override
+        public K peekNextKey() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            if (next == null)
+                next = iterator.next();
+            return next.key;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static final class ListWindowStoreIterator extends ListKeyValueIterator<Long>
+            implements WindowStoreIterator<byte[]> {
+        ListWindowStoreIterator(List<KeyValue<Long, byte[]>> entries) {
+            super(entries);
+        }
+    }
+}
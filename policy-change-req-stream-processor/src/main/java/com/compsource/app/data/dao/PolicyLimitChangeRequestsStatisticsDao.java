@@ -1,36 +1,399 @@
 package com.compsource.app.data.dao;
 
 import com.compsource.app.data.connector.CassandraConnector;
+import com.compsource.app.data.model.HeavyHittersSketch;
+import com.compsource.app.data.model.HeavyHittersSketch.TopAccount;
 import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.datastax.driver.core.BatchStatement;
+import com.datastax.driver.core.BoundStatement;
+import com.datastax.driver.core.CodecRegistry;
 import com.datastax.driver.core.ConsistencyLevel;
+import com.datastax.driver.core.LocalDate;
+import com.datastax.driver.core.PreparedStatement;
+import com.datastax.driver.core.ProtocolVersion;
+import com.datastax.driver.core.ResultSetFuture;
 import com.datastax.driver.core.Session;
-import com.datastax.driver.mapping.Mapper;
-import com.datastax.driver.mapping.MappingManager;
+import com.datastax.driver.core.Statement;
+import com.datastax.driver.core.exceptions.BusyPoolException;
+import com.datastax.driver.core.exceptions.ConnectionException;
+import com.datastax.driver.core.exceptions.NoHostAvailableException;
+import com.datastax.driver.core.exceptions.OperationTimedOutException;
+import com.datastax.driver.core.exceptions.OverloadedException;
+import com.datastax.driver.core.exceptions.QueryConsistencyException;
+import com.datastax.driver.core.exceptions.UnavailableException;
 
+import java.nio.ByteBuffer;
 import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
 
 /**
- * This class handles the read/write operations on the cassandra table
- * policy_limit_change_requests_statistics
+ * This class handles the read/write operations on the cassandra tables of the Policy Limit Change
+ * Requests statistics: policy_limit_change_requests_statistics (hourly totals),
+ * policy_limit_change_requests_daily_statistics, policy_limit_change_requests_monthly_statistics,
+ * policy_limit_change_requests_account_statistics (hourly totals per accountId) and
+ * policy_limit_change_requests_top_accounts (hourly heavy hitter accounts).
+ * <p>
+ * With the exactly_once processing guarantee, the rows are written with the write epoch
+ * (statistics.write-version.epoch) in microseconds plus the version of their statistics as the
+ * write timestamp. The version counts the updates of a period, so it increases with every update
+ * and reprocessing the same events gives the same timestamps. Cassandra keeps the cell with the
+ * highest write timestamp, so a retried, journaled or replayed write of an older value never
+ * overwrites a newer one, and writing the same version again is a no-op. The epoch must be later
+ * than the rows already written (without versions, or by a backfill of an earlier epoch), and
+ * raised after an application reset, which restarts the versions.
  */
 public class PolicyLimitChangeRequestsStatisticsDao {
 
     private static CassandraConnector cassandra = CassandraConnector.getInstance();
     private static Session session = cassandra.getSession();
-    private static MappingManager mappingMgr = new MappingManager(session);
-    private static Mapper<PolicyLimitChangeRequestsStatistics> mapper =
-            mappingMgr.mapper(PolicyLimitChangeRequestsStatistics.class);
+    private static final boolean VERSIONED_WRITES = KafkaUtil.isExactlyOnce();
+    private static final String WRITE_EPOCH = ConfigUtil.loadProperty()
+            .getProperty("statistics.write-version.epoch", "").trim();
+    private static final int MAX_BATCH_BYTES = 1024 * Integer.parseInt(ConfigUtil.loadProperty()
+            .getProperty("cassandra.batch.max-kb", "40").trim());
+    private static final ProtocolVersion PROTOCOL_VERSION =
+            session.getCluster().getConfiguration().getProtocolOptions().getProtocolVersion();
+    private static final CodecRegistry CODEC_REGISTRY = session.getCluster().getConfiguration().getCodecRegistry();
+    // The insert is idempotent (same row, same values), so the driver and the sink may retry it
+    private static PreparedStatement insertStatistics = session.prepare(
+            "INSERT INTO policy_limit_change_requests_statistics (date_requested, hour_requested, " +
+                    "total_coverage_increase_amount, total_coverage_increase_requests_count, " +
+                    "coverage_increase_sketch, distinct_accounts, distinct_recipients, distinct_accounts_sketch, " +
+                    "distinct_recipients_sketch, statistics_added_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM)
+            .setIdempotent(true);
+    private static PreparedStatement insertDailyStatistics = session.prepare(
+            "INSERT INTO policy_limit_change_requests_daily_statistics (month_requested, date_requested, " +
+                    "total_coverage_increase_amount, total_coverage_increase_requests_count, " +
+                    "coverage_increase_sketch, distinct_accounts, distinct_recipients, distinct_accounts_sketch, " +
+                    "distinct_recipients_sketch, statistics_added_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM)
+            .setIdempotent(true);
+    private static PreparedStatement insertMonthlyStatistics = session.prepare(
+            "INSERT INTO policy_limit_change_requests_monthly_statistics (year_requested, month_requested, " +
+                    "total_coverage_increase_amount, total_coverage_increase_requests_count, " +
+                    "coverage_increase_sketch, distinct_accounts, distinct_recipients, distinct_accounts_sketch, " +
+                    "distinct_recipients_sketch, statistics_added_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM)
+            .setIdempotent(true);
+    private static PreparedStatement insertAccountStatistics = session.prepare(
+            "INSERT INTO policy_limit_change_requests_account_statistics (account_id, date_requested, " +
+                    "hour_requested, total_coverage_increase_amount, total_coverage_increase_requests_count, " +
+                    "coverage_increase_sketch, statistics_added_at) VALUES (?, ?, ?, ?, ?, ?, ?)")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM)
+            .setIdempotent(true);
+
+    private static PreparedStatement insertTopAccount = session.prepare(
+            "INSERT INTO policy_limit_change_requests_top_accounts (date_requested, hour_requested, ranked_by, " +
+                    "rank, account_id, estimated_requests_count, estimated_coverage_increase_amount, " +
+                    "statistics_added_at) VALUES (?, ?, ?, ?, ?, ?, ?, ?)")
+            .setConsistencyLevel(ConsistencyLevel.QUORUM)
+            .setIdempotent(true);
+
+    private final long writeEpochMicros;
+
+    /**
+     * Writes the statistics with the write epoch of the statistics.write-version.epoch property
+     *
+     * @throws IllegalStateException - exactly_once without a write epoch
+     */
+    public PolicyLimitChangeRequestsStatisticsDao() {
+        this(VERSIONED_WRITES ? writeEpochMicros(WRITE_EPOCH) : 0);
+    }
+
+    /**
+     * @param writeEpochMicros - Write epoch of the versioned writes (exactly_once) in epoch
+     *                         microseconds, instead of the statistics.write-version.epoch property
+     */
+    public PolicyLimitChangeRequestsStatisticsDao(long writeEpochMicros) {
+        this.writeEpochMicros = writeEpochMicros;
+    }
 
     /**
-     * Writes the PolicyLimitChangeRequestsStatistics object to the cassandra table
+     * @param epoch - ISO-8601 instant
+     * @return - Write epoch in epoch microseconds
+     * @throws IllegalStateException - The epoch is empty or invalid
+     */
+    public static long writeEpochMicros(String epoch) {
+        try {
+            return TimeUnit.MILLISECONDS.toMicros(Instant.parse(epoch).toEpochMilli());
+        } catch (DateTimeParseException e) {
+            throw new IllegalStateException("The write epoch of the exactly_once processing guarantee must be " +
+                    "an ISO-8601 instant: " + epoch);
+        }
+    }
+
+    /**
+     * Writes the PolicyLimitChangeRequestsStatistics object to the cassandra table and waits for
+     * the acknowledgement
      *
      * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
      */
     public void save(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        saveAsync(policyLimitChangeRequestsStats).getUninterruptibly();
+    }
+
+    /**
+     * Writes the PolicyLimitChangeRequestsStatistics object to the cassandra table without
+     * blocking. NULL fields are left unset, so they don't overwrite the stored values
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
+     * @return - ResultSetFuture completed when the write is acknowledged
+     */
+    public ResultSetFuture saveAsync(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        return session.executeAsync(hourlyStatement(policyLimitChangeRequestsStats));
+    }
+
+    /**
+     * Binds the insert of the hourly totals. The rows of a day share a partition
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
+     * @return - BoundStatement
+     */
+    public BoundStatement hourlyStatement(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        BoundStatement statement = insertStatistics.bind();
+        if (policyLimitChangeRequestsStats.getDateRequested() != null)
+            statement.setDate(0, policyLimitChangeRequestsStats.getDateRequested());
+        if (policyLimitChangeRequestsStats.getHourRequested() != null)
+            statement.setByte(1, policyLimitChangeRequestsStats.getHourRequested());
+        bindTotals(statement, 2, policyLimitChangeRequestsStats);
+        return statement;
+    }
+
+    /**
+     * Writes the daily totals to policy_limit_change_requests_daily_statistics without blocking.
+     * The rows of a month share a partition
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object, with the
+     *                                       day as dateRequested
+     * @return - ResultSetFuture completed when the write is acknowledged
+     */
+    public ResultSetFuture saveDailyAsync(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        return session.executeAsync(dailyStatement(policyLimitChangeRequestsStats));
+    }
+
+    /**
+     * Binds the insert of the daily totals
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object, with the
+     *                                       day as dateRequested
+     * @return - BoundStatement
+     */
+    public BoundStatement dailyStatement(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        LocalDate dateRequested = policyLimitChangeRequestsStats.getDateRequested();
+        BoundStatement statement = insertDailyStatistics.bind();
+        statement.setDate(0, LocalDate.fromYearMonthDay(dateRequested.getYear(), dateRequested.getMonth(), 1));
+        statement.setDate(1, dateRequested);
+        bindTotals(statement, 2, policyLimitChangeRequestsStats);
+        return statement;
+    }
+
+    /**
+     * Writes the monthly totals to policy_limit_change_requests_monthly_statistics without
+     * blocking. The rows of a year share a partition
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object, with the
+     *                                       first day of the month as dateRequested
+     * @return - ResultSetFuture completed when the write is acknowledged
+     */
+    public ResultSetFuture saveMonthlyAsync(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        return session.executeAsync(monthlyStatement(policyLimitChangeRequestsStats));
+    }
+
+    /**
+     * Binds the insert of the monthly totals
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object, with the
+     *                                       first day of the month as dateRequested
+     * @return - BoundStatement
+     */
+    public BoundStatement monthlyStatement(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        LocalDate monthRequested = policyLimitChangeRequestsStats.getDateRequested();
+        BoundStatement statement = insertMonthlyStatistics.bind();
+        statement.setInt(0, monthRequested.getYear());
+        statement.setDate(1, monthRequested);
+        bindTotals(statement, 2, policyLimitChangeRequestsStats);
+        return statement;
+    }
+
+    /**
+     * Writes the hourly totals of an account to policy_limit_change_requests_account_statistics
+     * without blocking. The rows of an account share a partition
+     *
+     * @param accountId                      - accountId of the totals
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
+     * @return - ResultSetFuture completed when the write is acknowledged
+     */
+    public ResultSetFuture saveAccountHourlyAsync(int accountId,
+                                                  PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        return session.executeAsync(accountHourlyStatement(accountId, policyLimitChangeRequestsStats));
+    }
+
+    /**
+     * Binds the insert of the hourly totals of an account, without distinct counts: an account
+     * always counts itself only
+     *
+     * @param accountId                      - accountId of the totals
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
+     * @return - BoundStatement
+     */
+    public BoundStatement accountHourlyStatement(int accountId,
+                                                 PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        BoundStatement statement = insertAccountStatistics.bind();
+        statement.setInt(0, accountId);
+        statement.setDate(1, policyLimitChangeRequestsStats.getDateRequested());
+        statement.setByte(2, policyLimitChangeRequestsStats.getHourRequested());
+        bindTotals(statement, 3, policyLimitChangeRequestsStats, false);
+        return statement;
+    }
+
+    /**
+     * Writes the top accounts by requests count and by coverage increase amount of an hour to
+     * policy_limit_change_requests_top_accounts without blocking. The rows of an hour share a
+     * partition, so they are written in a single unlogged batch
+     *
+     * @param policyLimitChangeRequestsStats - Hourly PolicyLimitChangeRequestsStatistics object
+     *                                       keeping the top accounts
+     * @return - ResultSetFuture completed when the write is acknowledged
+     */
+    public ResultSetFuture saveTopAccountsAsync(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        HeavyHittersSketch sketch = policyLimitChangeRequestsStats.getTopAccountsSketch();
+        policyLimitChangeRequestsStats.setStatisticsAddedAt(Instant.now());
+        BatchStatement batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+        batch.setConsistencyLevel(ConsistencyLevel.QUORUM);
+        batch.setIdempotent(true);
+        if (VERSIONED_WRITES)
+            batch.setDefaultTimestamp(writeTimestamp(policyLimitChangeRequestsStats));
+        addTopAccounts(batch, "requests_count", sketch.getTopAccountsByCount(), sketch,
+                policyLimitChangeRequestsStats);
+        addTopAccounts(batch, "coverage_increase_amount", sketch.getTopAccountsByAmount(), sketch,
+                policyLimitChangeRequestsStats);
+        return session.executeAsync(batch);
+    }
+
+    /**
+     * Writes the rows of a single partition in unlogged batches without blocking. A batch of a
+     * single partition is applied as one mutation by its replicas, so the rows are written in a
+     * single round trip. The batches are kept under cassandra.batch.max-kb, below the
+     * batch_size_fail_threshold of the cluster. A batch has a single write timestamp, so the
+     * versioned writes (exactly_once) only share a batch with the rows of the same version
+     *
+     * @param partitionStatements - Statements writing rows of the same partition
+     * @return - Futures completed when the batches are acknowledged
+     */
+    public List<ResultSetFuture> savePartitionAsync(List<? extends Statement> partitionStatements) {
+        List<ResultSetFuture> writes = new ArrayList<>();
+        BatchStatement batch = null;
+        int batchSize = 0;
+        for (Statement statement : partitionStatements) {
+            int statementSize = statement.requestSizeInBytes(PROTOCOL_VERSION, CODEC_REGISTRY);
+            if (batch != null && (batchSize + statementSize > MAX_BATCH_BYTES
+                    || batch.getDefaultTimestamp() != statement.getDefaultTimestamp())) {
+                writes.add(session.executeAsync(batch));
+                batch = null;
+            }
+            if (batch == null) {
+                batch = new BatchStatement(BatchStatement.Type.UNLOGGED);
+                batch.setConsistencyLevel(ConsistencyLevel.QUORUM);
+                batch.setIdempotent(true);
+                batch.setDefaultTimestamp(statement.getDefaultTimestamp());
+                batchSize = 0;
+            }
+            batch.add(statement);
+            batchSize += statementSize;
+        }
+        if (batch != null)
+            writes.add(session.executeAsync(batch));
+        return writes;
+    }
+
+    private static void addTopAccounts(BatchStatement batch, String rankedBy, List<TopAccount> topAccounts,
+                                       HeavyHittersSketch sketch,
+                                       PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        for (int rank = 0; rank < topAccounts.size(); rank++) {
+            int accountId = topAccounts.get(rank).getAccountId();
+            batch.add(insertTopAccount.bind()
+                    .setDate(0, policyLimitChangeRequestsStats.getDateRequested())
+                    .setByte(1, policyLimitChangeRequestsStats.getHourRequested())
+                    .setString(2, rankedBy)
+                    .setInt(3, rank + 1)
+                    .setInt(4, accountId)
+                    .setLong(5, sketch.estimateCount(accountId))
+                    .setLong(6, sketch.estimateAmount(accountId))
+                    .set(7, policyLimitChangeRequestsStats.getStatisticsAddedAt(), Instant.class));
+        }
+    }
+
+    /**
+     * Binds the totals, the coverage increase sketch, the distinct accounts and recipients (estimates
+     * and sketches) and the statisticsAddedAt (set to now) from the given index. NULL values are
+     * left unset
+     */
+    private void bindTotals(BoundStatement statement, int index,
+                                   PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        bindTotals(statement, index, policyLimitChangeRequestsStats, true);
+    }
+
+    /**
+     * Binds the totals, the coverage increase sketch, the distinct accounts and recipients when the
+     * table has their columns, and the statisticsAddedAt (set to now) from the given index
+     */
+    private void bindTotals(BoundStatement statement, int index,
+                                   PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats,
+                                   boolean distinctCounts) {
         policyLimitChangeRequestsStats.setStatisticsAddedAt(Instant.now());
-        mapper.save(policyLimitChangeRequestsStats, Mapper.Option.saveNullFields(false),
-                Mapper.Option.consistencyLevel(ConsistencyLevel.QUORUM));
+        if (VERSIONED_WRITES)
+            statement.setDefaultTimestamp(writeTimestamp(policyLimitChangeRequestsStats));
+        if (policyLimitChangeRequestsStats.getTotalCoverageIncreaseAmount() != null)
+            statement.setLong(index, policyLimitChangeRequestsStats.getTotalCoverageIncreaseAmount());
+        if (policyLimitChangeRequestsStats.getTotalCoverageIncreaseRequestsCount() != null)
+            statement.setInt(index + 1, policyLimitChangeRequestsStats.getTotalCoverageIncreaseRequestsCount());
+        if (policyLimitChangeRequestsStats.getCoverageIncreaseSketch() != null)
+            statement.setBytes(index + 2,
+                    ByteBuffer.wrap(policyLimitChangeRequestsStats.getCoverageIncreaseSketch().toBytes()));
+        if (!distinctCounts) {
+            statement.set(index + 3, policyLimitChangeRequestsStats.getStatisticsAddedAt(), Instant.class);
+            return;
+        }
+        if (policyLimitChangeRequestsStats.getDistinctAccountsSketch() != null) {
+            statement.setLong(index + 3, policyLimitChangeRequestsStats.getDistinctAccounts());
+            statement.setBytes(index + 5,
+                    ByteBuffer.wrap(policyLimitChangeRequestsStats.getDistinctAccountsSketch().toBytes()));
+        }
+        if (policyLimitChangeRequestsStats.getDistinctRecipientsSketch() != null) {
+            statement.setLong(index + 4, policyLimitChangeRequestsStats.getDistinctRecipients());
+            statement.setBytes(index + 6,
+                    ByteBuffer.wrap(policyLimitChangeRequestsStats.getDistinctRecipientsSketch().toBytes()));
+        }
+        statement.set(index + 7, policyLimitChangeRequestsStats.getStatisticsAddedAt(), Instant.class);
     }
 
+    /**
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
+     * @return - Write timestamp (microseconds) of the versioned writes
+     */
+    long writeTimestamp(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        return writeEpochMicros + policyLimitChangeRequestsStats.getVersion();
+    }
 
+    /**
+     * Tells whether a failed write may succeed when it is retried
+     *
+     * @param error - Failure of a write
+     * @return - true - timeouts, unavailable or overloaded nodes and connection problems
+     */
+    public static boolean isTransient(Throwable error) {
+        return error instanceof NoHostAvailableException
+                || error instanceof OperationTimedOutException
+                || error instanceof QueryConsistencyException
+                || error instanceof UnavailableException
+                || error instanceof OverloadedException
+                || error instanceof BusyPoolException
+                || error instanceof ConnectionException;
+    }
 }
@@ -0,0 +1,85 @@
+package com.compsource.app.data.journal;
+
+import com.compsource.app.custom.StatisticsWriter;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.logging.LogManager;
+
+import java.io.Closeable;
+import java.time.Duration;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays the statistics spilled to the {@link StatisticsSpillJournal} once the database is
+ * reachable again.
+ * <p>
+ * Every round reads the journal up to its current end and keeps only the latest statistics of each
+ * rollup period, which is the complete total of the period. The records are removed from the journal
+ * once all the coalesced writes are acknowledged. A failed round is retried at the next interval.
+ */
+public class StatisticsJournalDrainer implements Closeable {
+    private static LogManager logger = new LogManager(StatisticsJournalDrainer.class);
+    private static final long WRITE_TIMEOUT_SECONDS = 30;
+
+    private final StatisticsSpillJournal journal;
+    private final StatisticsWriter writer;
+    private final ScheduledExecutorService scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "statistics-journal-drainer");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * @param journal - Spill journal
+     * @param writer  - Writes the statistics to the database
+     */
+    public StatisticsJournalDrainer(StatisticsSpillJournal journal, StatisticsWriter writer) {
+        this.journal = journal;
+        this.writer = writer;
+    }
+
+    /**
+     * Starts draining the journal in the background
+     *
+     * @param interval - Delay between the drain rounds
+     */
+    public void start(Duration interval) {
+        scheduler.scheduleWithFixedDelay(this::drain, 0, interval.toMillis(), TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs a single drain round
+     *
+     * @return - true if the journal was empty or all its records were written
+     */
+    public boolean drain() {
+        if (journal.isEmpty())
+            return true;
+
+        int endPosition = journal.position();
+        Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> latestStatistics = new LinkedHashMap<>();
+        journal.read(endPosition, latestStatistics::put);
+        try {
+            for (Map.Entry<StatisticsKey, PolicyLimitChangeRequestsStatistics> period : latestStatistics.entrySet())
+                writer.write(period.getKey(), period.getValue()).get(WRITE_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        } catch (Exception e) {
+            logger.error(String.format("Unable to drain the statistics spill journal, retrying later. Error: %s", e));
+            return false;
+        }
+        journal.truncate(endPosition);
+        logger.info(String.format("Drained %d statistics periods from the spill journal", latestStatistics.size()));
+        return true;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+}
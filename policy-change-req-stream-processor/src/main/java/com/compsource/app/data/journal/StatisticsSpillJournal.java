@@ -0,0 +1,246 @@
+package com.compsource.app.data.journal;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsSerializer;
+import com.compsource.app.data.serde.kafka.StatisticsKeyDeserializer;
+import com.compsource.app.data.serde.kafka.StatisticsKeySerializer;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.function.BiConsumer;
+import java.util.zip.CRC32;
+
+/**
+ * Memory-mapped, append-only journal of the statistics writes that couldn't reach the database.
+ * <p>
+ * The file starts with a header (magic, version, read position) followed by the records: payload
+ * length (int), CRC32 of the key and the payload (int), the {@link StatisticsKey} in the
+ * StatisticsKeySerializer format and the statistics in the binary serde format. A zero length marks
+ * the end of the journal. The length of a record is written last, so a torn record is dropped when
+ * the journal is reopened.
+ * <p>
+ * The records before the read position were drained. They are never moved: {@link #truncate(int)}
+ * only persists the new read position, and the file is cleared once every record is drained, so a
+ * crash can't lose or resurrect a record.
+ * <p>
+ * Appends only touch the mapped memory. {@link #force()} makes them durable and is called before
+ * the offsets of the related events are committed.
+ */
+public class StatisticsSpillJournal implements Closeable {
+    private static final int MAGIC = 0x504c4353;
+    private static final int VERSION = 1;
+    private static final int READ_POSITION_OFFSET = 8;
+    private static final int HEADER_SIZE = 12;
+    // length, crc, key
+    private static final int RECORD_HEADER_SIZE = 8 + StatisticsKeySerializer.SERIALIZED_SIZE;
+
+    private final PolicyLimitChangeRequestsStatisticsSerializer serializer =
+            new PolicyLimitChangeRequestsStatisticsSerializer();
+    private final PolicyLimitChangeRequestsStatisticsDeserializer deserializer =
+            new PolicyLimitChangeRequestsStatisticsDeserializer();
+    private final StatisticsKeySerializer keySerializer = new StatisticsKeySerializer();
+    private final StatisticsKeyDeserializer keyDeserializer = new StatisticsKeyDeserializer();
+    private final CRC32 crc = new CRC32();
+    private final MappedByteBuffer buffer;
+    private int readPosition;
+    private int writePosition;
+
+    private StatisticsSpillJournal(MappedByteBuffer buffer) {
+        this.buffer = buffer;
+    }
+
+    /**
+     * Opens the journal, creating the file if it doesn't exist. The records of an existing journal
+     * are kept
+     *
+     * @param path     - Journal file
+     * @param capacity - Size of the journal file in bytes
+     * @return - StatisticsSpillJournal
+     * @throws IOException - The file can't be created or mapped, or isn't a statistics spill journal
+     */
+    public static StatisticsSpillJournal open(Path path, int capacity) throws IOException {
+        if (path.getParent() != null)
+            Files.createDirectories(path.getParent());
+        // The mapping stays valid after the file is closed
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            boolean created = file.length() == 0;
+            int size = (int) Math.max(file.length(), capacity);
+            StatisticsSpillJournal journal = new StatisticsSpillJournal(
+                    file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size));
+            journal.recover(created);
+            return journal;
+        }
+    }
+
+    private void recover(boolean created) throws IOException {
+        if (created) {
+            buffer.putInt(0, MAGIC);
+            buffer.putInt(4, VERSION);
+            buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+        } else if (buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw new IOException("Not a statistics spill journal");
+        }
+        int position = HEADER_SIZE;
+        while (position + RECORD_HEADER_SIZE <= buffer.capacity()) {
+            int length = buffer.getInt(position);
+            if (length <= 0 || position + RECORD_HEADER_SIZE + length > buffer.capacity()
+                    || buffer.getInt(position + 4) != checksum(position, length))
+                break;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        writePosition = position;
+
+        readPosition = buffer.getInt(READ_POSITION_OFFSET);
+        // Past the last record when the process died while clearing the drained journal
+        if (readPosition < HEADER_SIZE || readPosition >= writePosition)
+            clear();
+        terminate();
+        buffer.force();
+    }
+
+    /**
+     * Appends the statistics of a rollup period
+     *
+     * @param statisticsKey                  - Granularity and start of the period
+     * @param policyLimitChangeRequestsStats - Policy Limit Change Request Statistics
+     * @return - false if the journal is full
+     */
+    public synchronized boolean append(StatisticsKey statisticsKey,
+                                       PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        byte[] payload = serializer.serialize(null, policyLimitChangeRequestsStats);
+        int recordEnd = writePosition + RECORD_HEADER_SIZE + payload.length;
+        // Room is left for the end marker
+        if (recordEnd + 4 > buffer.capacity())
+            return false;
+
+        buffer.putInt(recordEnd, 0);
+        byte[] key = keySerializer.serialize(null, statisticsKey);
+        for (int index = 0; index < key.length; index++)
+            buffer.put(writePosition + 8 + index, key[index]);
+        for (int index = 0; index < payload.length; index++)
+            buffer.put(writePosition + RECORD_HEADER_SIZE + index, payload[index]);
+        buffer.putInt(writePosition + 4, checksum(writePosition, payload.length));
+        buffer.putInt(writePosition, payload.length);
+        writePosition = recordEnd;
+        return true;
+    }
+
+    /**
+     * @return - true if the journal holds no records
+     */
+    public synchronized boolean isEmpty() {
+        return readPosition == writePosition;
+    }
+
+    /**
+     * Waits until all the records are drained
+     *
+     * @param timeoutMs - Maximum wait in milliseconds
+     * @return - false if the journal still holds records after the timeout
+     * @throws InterruptedException - Interrupted while waiting
+     */
+    public synchronized boolean awaitEmpty(long timeoutMs) throws InterruptedException {
+        long deadline = System.currentTimeMillis() + timeoutMs;
+        while (!isEmpty()) {
+            long remainingMs = deadline - System.currentTimeMillis();
+            if (remainingMs <= 0)
+                return false;
+            wait(remainingMs);
+        }
+        return true;
+    }
+
+    /**
+     * @return - Position after the last record, marks the records read by
+     * {@link #read(int, BiConsumer)} and removed by {@link #truncate(int)}
+     */
+    public synchronized int position() {
+        return writePosition;
+    }
+
+    /**
+     * Reads the records not drained yet up to the given position, in the order they were appended
+     *
+     * @param endPosition - Result of {@link #position()}
+     * @param consumer    - Receives the key and the statistics of every record
+     */
+    public synchronized void read(int endPosition,
+                                  BiConsumer<StatisticsKey, PolicyLimitChangeRequestsStatistics> consumer) {
+        int position = readPosition;
+        while (position < endPosition) {
+            int length = buffer.getInt(position);
+            consumer.accept(keyDeserializer.deserialize(null,
+                    payload(position + 8, StatisticsKeySerializer.SERIALIZED_SIZE)),
+                    deserializer.deserialize(null, payload(position + RECORD_HEADER_SIZE, length)));
+            position += RECORD_HEADER_SIZE + length;
+        }
+    }
+
+    /**
+     * Removes the records up to the given position, by persisting it as the read position. The
+     * journal is cleared once all its records are removed
+     *
+     * @param endPosition - Result of {@link #position()}
+     */
+    public synchronized void truncate(int endPosition) {
+        buffer.putInt(READ_POSITION_OFFSET, endPosition);
+        buffer.force();
+        readPosition = endPosition;
+        if (isEmpty()) {
+            clear();
+            buffer.force();
+            notifyAll();
+        }
+    }
+
+    /**
+     * Erases the drained records before moving the read position back to the start, so neither a
+     * crash nor a shorter record appended in their place can bring them back
+     */
+    private void clear() {
+        for (int position = HEADER_SIZE; position < Math.min(writePosition + 4, buffer.capacity()); position++)
+            buffer.put(position, (byte) 0);
+        buffer.force();
+        buffer.putInt(READ_POSITION_OFFSET, HEADER_SIZE);
+        readPosition = HEADER_SIZE;
+        writePosition = HEADER_SIZE;
+    }
+
+    /**
+     * Writes the appended records to the disk
+     */
+    public synchronized void force() {
+        buffer.force();
+    }
+
+    private void terminate() {
+        if (writePosition + 4 <= buffer.capacity())
+            buffer.putInt(writePosition, 0);
+    }
+
+    private byte[] payload(int position, int length) {
+        byte[] payload = new byte[length];
+        for (int index = 0; index < length; index++)
+            payload[index] = buffer.get(position + index);
+        return payload;
+    }
+
+    private int checksum(int position, int length) {
+        crc.reset();
+        for (int index = 8; index < RECORD_HEADER_SIZE + length; index++)
+            crc.update(buffer.get(position + index));
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public synchronized void close() {
+        buffer.force();
+    }
+}
@@ -0,0 +1,337 @@
+package com.compsource.app.data.model;
+
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * HyperLogLog sketch of the distinct values (accountIds, recipientIds) of an aggregate.
+ * <p>
+ * The sketch has 2^precision registers. With p the precision, the standard error of the estimate
+ * is 1.04 / sqrt(2^p), i.e. 1.6% for p = 12. Sketches are merged by keeping the maximum of every
+ * register, so merging the same values twice doesn't change the estimate. Sketches of different
+ * precisions are merged at the lower precision, unless the lower precision sketch is empty.
+ * <p>
+ * Small sketches only keep their non-empty registers (sparse), and switch to the full register
+ * array (dense) once it is smaller. Encoding (see {@link #encode(ByteBuffer)}): format version
+ * (byte), precision (byte), dense flag (byte), then either the 2^precision registers (dense), or
+ * the number of non-empty registers (varint) followed by the index delta (varint) and the value
+ * (byte) of every non-empty register in ascending index order (sparse).
+ */
+public class DistinctCountSketch {
+    public static final int MIN_PRECISION = 4;
+    public static final int MAX_PRECISION = 16;
+    private static final byte FORMAT_VERSION = 1;
+    private static final int[] NO_ENTRIES = new int[0];
+
+    private int precision;
+    // Dense registers, null while the sketch is sparse
+    private byte[] registers;
+    // Sparse non-empty registers (index << 8 | value), sorted by index
+    private int[] entries = NO_ENTRIES;
+    private int size;
+
+    /**
+     * @param precision - log2 of the number of registers, between 4 and 16
+     */
+    public DistinctCountSketch(int precision) {
+        if (precision < MIN_PRECISION || precision > MAX_PRECISION)
+            throw new IllegalArgumentException("The distinct count precision must be between "
+                    + MIN_PRECISION + " and " + MAX_PRECISION + ": " + precision);
+        this.precision = precision;
+    }
+
+    /**
+     * Creates a copy of the given sketch
+     *
+     * @param sketch - DistinctCountSketch object
+     */
+    public DistinctCountSketch(DistinctCountSketch sketch) {
+        this.precision = sketch.precision;
+        this.registers = sketch.registers == null ? null : sketch.registers.clone();
+        this.entries = Arrays.copyOf(sketch.entries, sketch.size);
+        this.size = sketch.size;
+    }
+
+    /**
+     * Adds an Integer value (accountId) to the sketch
+     *
+     * @param value - Value
+     * @return - Updated DistinctCountSketch object
+     */
+    public DistinctCountSketch add(int value) {
+        addHash(mix(value));
+        return this;
+    }
+
+    /**
+     * Adds a String value (recipientId) to the sketch
+     *
+     * @param value - Value
+     * @return - Updated DistinctCountSketch object
+     */
+    public DistinctCountSketch add(String value) {
+        // FNV-1a over the UTF-8 bytes, mixed to spread the bits over the whole hash
+        long hash = 0xcbf29ce484222325L;
+        for (byte b : value.getBytes(StandardCharsets.UTF_8)) {
+            hash ^= b & 0xff;
+            hash *= 0x100000001b3L;
+        }
+        addHash(mix(hash));
+        return this;
+    }
+
+    private void addHash(long hash) {
+        int index = (int) (hash >>> (64 - precision));
+        // Position of the first 1 bit after the index bits, the sentinel bit bounds it
+        int value = Long.numberOfLeadingZeros((hash << precision) | (1L << (precision - 1))) + 1;
+        update(index, value);
+    }
+
+    /**
+     * Adds the values of another sketch to this sketch
+     *
+     * @param sketch - DistinctCountSketch object
+     * @return - Updated DistinctCountSketch object
+     */
+    public DistinctCountSketch merge(DistinctCountSketch sketch) {
+        // An empty sketch doesn't lower the precision
+        if (sketch.registers == null && sketch.size == 0)
+            return this;
+        if (sketch.precision < precision)
+            reduce(sketch.precision);
+        int shift = sketch.precision - precision;
+        if (sketch.registers != null) {
+            for (int index = 0; index < sketch.registers.length; index++) {
+                if (sketch.registers[index] != 0)
+                    update(index, sketch.registers[index], shift);
+            }
+        } else {
+            for (int entry = 0; entry < sketch.size; entry++)
+                update(sketch.entries[entry] >>> 8, sketch.entries[entry] & 0xff, shift);
+        }
+        return this;
+    }
+
+    /**
+     * Folds a register of a higher precision sketch into this sketch
+     */
+    private void update(int index, int value, int shift) {
+        if (shift == 0) {
+            update(index, value);
+            return;
+        }
+        int droppedBits = index & ((1 << shift) - 1);
+        // The dropped index bits come first in the remaining hash bits at the lower precision
+        int foldedValue = droppedBits != 0
+                ? Integer.numberOfLeadingZeros(droppedBits) - (32 - shift) + 1 : value + shift;
+        update(index >>> shift, foldedValue);
+    }
+
+    private void reduce(int lowerPrecision) {
+        DistinctCountSketch reduced = new DistinctCountSketch(lowerPrecision);
+        reduced.merge(this);
+        this.precision = reduced.precision;
+        this.registers = reduced.registers;
+        this.entries = reduced.entries;
+        this.size = reduced.size;
+    }
+
+    private void update(int index, int value) {
+        if (registers != null) {
+            if (registers[index] < value)
+                registers[index] = (byte) value;
+            return;
+        }
+        int position = Arrays.binarySearch(entries, 0, size, index << 8);
+        if (position < 0)
+            position = -position - 1;
+        if (position < size && entries[position] >>> 8 == index) {
+            if ((entries[position] & 0xff) < value)
+                entries[position] = index << 8 | value;
+            return;
+        }
+        // A sparse entry takes 4 bytes in memory and a register 1 byte
+        if (size + 1 > (1 << precision) / 4) {
+            densify();
+            registers[index] = (byte) value;
+            return;
+        }
+        if (size == entries.length)
+            entries = Arrays.copyOf(entries, Math.max(4, size * 2));
+        System.arraycopy(entries, position, entries, position + 1, size - position);
+        entries[position] = index << 8 | value;
+        size++;
+    }
+
+    private void densify() {
+        registers = new byte[1 << precision];
+        for (int entry = 0; entry < size; entry++)
+            registers[entries[entry] >>> 8] = (byte) (entries[entry] & 0xff);
+        entries = NO_ENTRIES;
+        size = 0;
+    }
+
+    /**
+     * @return - Estimated number of distinct values
+     */
+    public long getEstimate() {
+        int registerCount = 1 << precision;
+        double sum = 0;
+        int emptyRegisters = registerCount;
+        if (registers != null) {
+            emptyRegisters = 0;
+            for (byte register : registers) {
+                sum += 1.0 / (1L << register);
+                if (register == 0)
+                    emptyRegisters++;
+            }
+        } else {
+            emptyRegisters -= size;
+            sum = emptyRegisters;
+            for (int entry = 0; entry < size; entry++)
+                sum += 1.0 / (1L << (entries[entry] & 0xff));
+        }
+        double estimate = alpha(registerCount) * registerCount * registerCount / sum;
+        // Linear counting is more accurate for the small cardinalities
+        if (estimate <= 2.5 * registerCount && emptyRegisters > 0)
+            estimate = registerCount * Math.log((double) registerCount / emptyRegisters);
+        return Math.round(estimate);
+    }
+
+    public int getPrecision() {
+        return precision;
+    }
+
+    private static double alpha(int registerCount) {
+        switch (registerCount) {
+            case 16:
+                return 0.673;
+            case 32:
+                return 0.697;
+            case 64:
+                return 0.709;
+            default:
+                return 0.7213 / (1 + 1.079 / registerCount);
+        }
+    }
+
+    static long mix(long value) {
+        // splitmix64 finalizer
+        value = (value ^ (value >>> 30)) * 0xbf58476d1ce4e5b9L;
+        value = (value ^ (value >>> 27)) * 0x94d049bb133111ebL;
+        return value ^ (value >>> 31);
+    }
+
+    /**
+     * @return - Size of the encoded sketch in bytes
+     */
+    public int encodedSize() {
+        if (registers != null)
+            return 3 + registers.length;
+        int encodedSize = 3 + ByteUtils.sizeOfVarint(size);
+        int previousIndex = 0;
+        for (int entry = 0; entry < size; entry++) {
+            encodedSize += ByteUtils.sizeOfVarint((entries[entry] >>> 8) - previousIndex) + 1;
+            previousIndex = entries[entry] >>> 8;
+        }
+        return encodedSize;
+    }
+
+    /**
+     * Writes the sketch in its binary encoding
+     *
+     * @param buffer - Receives {@link #encodedSize()} bytes
+     */
+    public void encode(ByteBuffer buffer) {
+        buffer.put(FORMAT_VERSION);
+        buffer.put((byte) precision);
+        buffer.put((byte) (registers != null ? 1 : 0));
+        if (registers != null) {
+            buffer.put(registers);
+            return;
+        }
+        ByteUtils.writeVarint(size, buffer);
+        int previousIndex = 0;
+        for (int entry = 0; entry < size; entry++) {
+            ByteUtils.writeVarint((entries[entry] >>> 8) - previousIndex, buffer);
+            buffer.put((byte) (entries[entry] & 0xff));
+            previousIndex = entries[entry] >>> 8;
+        }
+    }
+
+    /**
+     * @return - Binary encoding of the sketch
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize());
+        encode(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Reads a sketch written by {@link #encode(ByteBuffer)}
+     *
+     * @param buffer - Positioned at the start of the encoded sketch
+     * @return - DistinctCountSketch object
+     * @throws IllegalArgumentException - Unsupported format version or precision
+     */
+    public static DistinctCountSketch decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION)
+            throw new IllegalArgumentException("Unsupported distinct count sketch format version: " + version);
+        DistinctCountSketch sketch = new DistinctCountSketch(buffer.get());
+        if (buffer.get() != 0) {
+            sketch.registers = new byte[1 << sketch.precision];
+            buffer.get(sketch.registers);
+            return sketch;
+        }
+        sketch.size = ByteUtils.readVarint(buffer);
+        sketch.entries = new int[sketch.size];
+        int index = 0;
+        for (int entry = 0; entry < sketch.size; entry++) {
+            index += ByteUtils.readVarint(buffer);
+            sketch.entries[entry] = index << 8 | (buffer.get() & 0xff);
+        }
+        return sketch;
+    }
+
+    /**
+     * @param bytes - Binary encoding of a sketch, as stored in the distinct_*_sketch columns
+     * @return - DistinctCountSketch object
+     */
+    public static DistinctCountSketch fromBytes(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        return Arrays.equals(denseRegisters(), ((DistinctCountSketch) o).denseRegisters());
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(denseRegisters());
+    }
+
+    private byte[] denseRegisters() {
+        if (registers != null)
+            return registers;
+        byte[] dense = new byte[1 << precision];
+        for (int entry = 0; entry < size; entry++)
+            dense[entries[entry] >>> 8] = (byte) (entries[entry] & 0xff);
+        return dense;
+    }
+
+    @Override
+    public String toString() {
+        return "DistinctCountSketch{" +
+                "precision=" + precision +
+                ", estimate=" + getEstimate() +
+                '}';
+    }
+}
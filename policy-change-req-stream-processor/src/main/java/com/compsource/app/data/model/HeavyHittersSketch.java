@@ -0,0 +1,473 @@
+package com.compsource.app.data.model;
+
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+import java.util.function.IntToLongFunction;
+
+/**
+ * Heavy hitter accounts of an aggregate: Count-Min sketches of the requests count and of the
+ * coverage increase amount per accountId, and the top accounts by each of them in bounded
+ * min-heaps.
+ * <p>
+ * The memory doesn't depend on the number of accounts: 2 x depth x width counters and the
+ * capacity accountIds of each ranking. An estimate never undercounts. With probability 1 - e^-4
+ * it overcounts by at most e / width of the aggregate total, i.e. about 1% for a width of 256.
+ * The counters are plain sums, so sketches are merged and a previously merged sketch is
+ * subtracted exactly. After a merge the candidates of both rankings are ranked again against the
+ * merged counters, so an account only makes the merged top accounts if it is in the top accounts
+ * of one of the merged sketches, which holds for the accountId hash buckets of the topology since
+ * an account always lands in the same bucket.
+ * <p>
+ * Encoding (see {@link #encode(ByteBuffer)}): format version (byte), depth (byte), width (varint),
+ * capacity (varint), the requests count then the amount counters, then for the requests count and
+ * the amount rankings the number of accounts (varint) followed by their accountIds (varint). The
+ * counters are sparse, few accounts touch most of them in an hour: the number of non-zero counters
+ * (varint) followed by the gap from the previous one (varint) and the value (varlong) of each.
+ * The estimates of the ranked accounts are read back from the counters.
+ */
+public class HeavyHittersSketch {
+    public static final int DEPTH = 4;
+    private static final byte FORMAT_VERSION = 1;
+
+    private final int width;
+    private final int capacity;
+    // depth rows of width counters
+    private final long[] counts;
+    private final long[] amounts;
+    private final TopAccounts topByCount;
+    private final TopAccounts topByAmount;
+
+    /**
+     * @param width    - Counters per row of the Count-Min sketches
+     * @param capacity - Number of top accounts kept by each ranking
+     */
+    public HeavyHittersSketch(int width, int capacity) {
+        if (width < 1 || capacity < 1)
+            throw new IllegalArgumentException("The heavy hitters sketch width and capacity must be positive: "
+                    + width + ", " + capacity);
+        this.width = width;
+        this.capacity = capacity;
+        this.counts = new long[DEPTH * width];
+        this.amounts = new long[DEPTH * width];
+        this.topByCount = new TopAccounts(capacity);
+        this.topByAmount = new TopAccounts(capacity);
+    }
+
+    /**
+     * Creates a copy of the given sketch
+     *
+     * @param sketch - HeavyHittersSketch object
+     */
+    public HeavyHittersSketch(HeavyHittersSketch sketch) {
+        this.width = sketch.width;
+        this.capacity = sketch.capacity;
+        this.counts = sketch.counts.clone();
+        this.amounts = sketch.amounts.clone();
+        this.topByCount = new TopAccounts(sketch.topByCount);
+        this.topByAmount = new TopAccounts(sketch.topByAmount);
+    }
+
+    /**
+     * Counts a request of an account
+     *
+     * @param accountId - accountId of the request
+     * @param amount    - Coverage increase amount of the request
+     * @return - Updated HeavyHittersSketch object
+     */
+    public HeavyHittersSketch add(int accountId, long amount) {
+        long count = Long.MAX_VALUE;
+        long totalAmount = Long.MAX_VALUE;
+        long hash = DistinctCountSketch.mix(accountId);
+        for (int row = 0; row < DEPTH; row++) {
+            int counter = counter(hash, row);
+            count = Math.min(count, ++counts[counter]);
+            totalAmount = Math.min(totalAmount, amounts[counter] += amount);
+        }
+        topByCount.offer(accountId, count);
+        topByAmount.offer(accountId, totalAmount);
+        return this;
+    }
+
+    /**
+     * Adds the requests of another sketch to this sketch
+     *
+     * @param sketch - HeavyHittersSketch object with the same width
+     * @return - Updated HeavyHittersSketch object
+     */
+    public HeavyHittersSketch merge(HeavyHittersSketch sketch) {
+        combine(sketch, 1);
+        topByCount.rank(sketch.topByCount, this::estimateCount);
+        topByAmount.rank(sketch.topByAmount, this::estimateAmount);
+        return this;
+    }
+
+    /**
+     * Removes the requests of a sketch previously merged into this sketch
+     *
+     * @param sketch - HeavyHittersSketch object with the same width
+     * @return - Updated HeavyHittersSketch object
+     */
+    public HeavyHittersSketch subtract(HeavyHittersSketch sketch) {
+        combine(sketch, -1);
+        topByCount.rank(null, this::estimateCount);
+        topByAmount.rank(null, this::estimateAmount);
+        return this;
+    }
+
+    private void combine(HeavyHittersSketch sketch, int sign) {
+        if (sketch.width != width)
+            throw new IllegalArgumentException("Heavy hitters sketches of different widths can't be merged: "
+                    + width + ", " + sketch.width);
+        for (int counter = 0; counter < counts.length; counter++) {
+            counts[counter] += sign * sketch.counts[counter];
+            amounts[counter] += sign * sketch.amounts[counter];
+        }
+    }
+
+    /**
+     * @param accountId - accountId
+     * @return - Estimated number of requests of the account, never lower than the exact number
+     */
+    public long estimateCount(int accountId) {
+        return estimate(counts, accountId);
+    }
+
+    /**
+     * @param accountId - accountId
+     * @return - Estimated coverage increase amount of the account, never lower than the exact amount
+     */
+    public long estimateAmount(int accountId) {
+        return estimate(amounts, accountId);
+    }
+
+    private long estimate(long[] counters, int accountId) {
+        long estimate = Long.MAX_VALUE;
+        long hash = DistinctCountSketch.mix(accountId);
+        for (int row = 0; row < DEPTH; row++)
+            estimate = Math.min(estimate, counters[counter(hash, row)]);
+        return estimate;
+    }
+
+    /**
+     * Column of the account in a row, from the two halves of its hash (Kirsch-Mitzenmacher)
+     */
+    private int counter(long hash, int row) {
+        int column = Math.floorMod((int) hash + row * ((int) (hash >>> 32) | 1), width);
+        return row * width + column;
+    }
+
+    /**
+     * @return - Top accounts by requests count, highest first
+     */
+    public List<TopAccount> getTopAccountsByCount() {
+        return topByCount.sorted();
+    }
+
+    /**
+     * @return - Top accounts by coverage increase amount, highest first
+     */
+    public List<TopAccount> getTopAccountsByAmount() {
+        return topByAmount.sorted();
+    }
+
+    public int getWidth() {
+        return width;
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /**
+     * @return - Size of the encoded sketch in bytes
+     */
+    public int encodedSize() {
+        return 2 + ByteUtils.sizeOfVarint(width) + ByteUtils.sizeOfVarint(capacity) + encodedSize(counts)
+                + encodedSize(amounts) + topByCount.encodedSize() + topByAmount.encodedSize();
+    }
+
+    /**
+     * Writes the sketch in its binary encoding
+     *
+     * @param buffer - Receives {@link #encodedSize()} bytes
+     */
+    public void encode(ByteBuffer buffer) {
+        buffer.put(FORMAT_VERSION);
+        buffer.put((byte) DEPTH);
+        ByteUtils.writeVarint(width, buffer);
+        ByteUtils.writeVarint(capacity, buffer);
+        encode(counts, buffer);
+        encode(amounts, buffer);
+        topByCount.encode(buffer);
+        topByAmount.encode(buffer);
+    }
+
+    /**
+     * Reads a sketch written by {@link #encode(ByteBuffer)}
+     *
+     * @param buffer - Positioned at the start of the encoded sketch
+     * @return - HeavyHittersSketch object
+     * @throws IllegalArgumentException - Unsupported format version or depth
+     */
+    public static HeavyHittersSketch decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION)
+            throw new IllegalArgumentException("Unsupported heavy hitters sketch format version: " + version);
+        byte depth = buffer.get();
+        if (depth != DEPTH)
+            throw new IllegalArgumentException("Unsupported heavy hitters sketch depth: " + depth);
+        HeavyHittersSketch sketch = new HeavyHittersSketch(ByteUtils.readVarint(buffer), ByteUtils.readVarint(buffer));
+        decode(sketch.counts, buffer);
+        decode(sketch.amounts, buffer);
+        sketch.topByCount.decode(buffer, sketch::estimateCount);
+        sketch.topByAmount.decode(buffer, sketch::estimateAmount);
+        return sketch;
+    }
+
+    private static int encodedSize(long[] counters) {
+        int nonZeroCounters = 0;
+        int encodedSize = 0;
+        int previous = -1;
+        for (int counter = 0; counter < counters.length; counter++) {
+            if (counters[counter] == 0)
+                continue;
+            nonZeroCounters++;
+            encodedSize += ByteUtils.sizeOfVarint(counter - previous - 1) + ByteUtils.sizeOfVarlong(counters[counter]);
+            previous = counter;
+        }
+        return ByteUtils.sizeOfVarint(nonZeroCounters) + encodedSize;
+    }
+
+    private static void encode(long[] counters, ByteBuffer buffer) {
+        int nonZeroCounters = 0;
+        for (long value : counters)
+            if (value != 0)
+                nonZeroCounters++;
+        ByteUtils.writeVarint(nonZeroCounters, buffer);
+        int previous = -1;
+        for (int counter = 0; counter < counters.length; counter++) {
+            if (counters[counter] == 0)
+                continue;
+            ByteUtils.writeVarint(counter - previous - 1, buffer);
+            ByteUtils.writeVarlong(counters[counter], buffer);
+            previous = counter;
+        }
+    }
+
+    private static void decode(long[] counters, ByteBuffer buffer) {
+        int nonZeroCounters = ByteUtils.readVarint(buffer);
+        int counter = -1;
+        for (int index = 0; index < nonZeroCounters; index++) {
+            counter += ByteUtils.readVarint(buffer) + 1;
+            if (counter < 0 || counter >= counters.length)
+                throw new IllegalArgumentException("Invalid heavy hitters sketch counter: " + counter);
+            counters[counter] = ByteUtils.readVarlong(buffer);
+        }
+    }
+
+    /**
+     * @param bytes - Binary encoding of a sketch
+     * @return - HeavyHittersSketch object
+     */
+    public static HeavyHittersSketch fromBytes(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    /**
+     * @return - Binary encoding of the sketch
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize());
+        encode(buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        HeavyHittersSketch that = (HeavyHittersSketch) o;
+        return width == that.width && capacity == that.capacity
+                && Arrays.equals(counts, that.counts) && Arrays.equals(amounts, that.amounts)
+                && getTopAccountsByCount().equals(that.getTopAccountsByCount())
+                && getTopAccountsByAmount().equals(that.getTopAccountsByAmount());
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(width, capacity, Arrays.hashCode(counts), Arrays.hashCode(amounts));
+    }
+
+    @Override
+    public String toString() {
+        return "HeavyHittersSketch{" +
+                "topAccountsByCount=" + getTopAccountsByCount() +
+                ", topAccountsByAmount=" + getTopAccountsByAmount() +
+                '}';
+    }
+
+    /**
+     * An account of a ranking and its estimated requests count or coverage increase amount
+     */
+    public static final class TopAccount {
+        private final int accountId;
+        private final long estimate;
+
+        public TopAccount(int accountId, long estimate) {
+            this.accountId = accountId;
+            this.estimate = estimate;
+        }
+
+        public int getAccountId() {
+            return accountId;
+        }
+
+        public long getEstimate() {
+            return estimate;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) return true;
+            if (o == null || getClass() != o.getClass()) return false;
+            TopAccount that = (TopAccount) o;
+            return accountId == that.accountId && estimate == that.estimate;
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(accountId, estimate);
+        }
+
+        @Override
+        public String toString() {
+            return accountId + "=" + estimate;
+        }
+    }
+
+    /**
+     * Min-heap of the accounts with the highest estimates, bounded by the capacity
+     */
+    private static final class TopAccounts {
+        private final int[] accountIds;
+        private final long[] estimates;
+        private int size;
+
+        TopAccounts(int capacity) {
+            this.accountIds = new int[capacity];
+            this.estimates = new long[capacity];
+        }
+
+        TopAccounts(TopAccounts topAccounts) {
+            this.accountIds = topAccounts.accountIds.clone();
+            this.estimates = topAccounts.estimates.clone();
+            this.size = topAccounts.size;
+        }
+
+        /**
+         * Ranks an account, the estimate of an already ranked account can only grow
+         */
+        void offer(int accountId, long estimate) {
+            for (int position = 0; position < size; position++) {
+                if (accountIds[position] == accountId) {
+                    estimates[position] = estimate;
+                    siftDown(position);
+                    return;
+                }
+            }
+            if (size < accountIds.length) {
+                accountIds[size] = accountId;
+                estimates[size] = estimate;
+                siftUp(size++);
+            } else if (estimate > estimates[0]) {
+                accountIds[0] = accountId;
+                estimates[0] = estimate;
+                siftDown(0);
+            }
+        }
+
+        /**
+         * Ranks the current accounts and the accounts of another ranking again with updated estimates
+         */
+        void rank(TopAccounts other, IntToLongFunction estimator) {
+            int[] candidates = Arrays.copyOf(accountIds, size + (other == null ? 0 : other.size));
+            if (other != null)
+                System.arraycopy(other.accountIds, 0, candidates, size, other.size);
+            size = 0;
+            for (int accountId : candidates) {
+                long estimate = estimator.applyAsLong(accountId);
+                if (estimate > 0)
+                    offer(accountId, estimate);
+            }
+        }
+
+        List<TopAccount> sorted() {
+            List<TopAccount> sorted = new ArrayList<>(size);
+            for (int position = 0; position < size; position++)
+                sorted.add(new TopAccount(accountIds[position], estimates[position]));
+            sorted.sort(Comparator.comparingLong(TopAccount::getEstimate).reversed()
+                    .thenComparingInt(TopAccount::getAccountId));
+            return sorted;
+        }
+
+        int encodedSize() {
+            int encodedSize = ByteUtils.sizeOfVarint(size);
+            for (int position = 0; position < size; position++)
+                encodedSize += ByteUtils.sizeOfVarint(accountIds[position]);
+            return encodedSize;
+        }
+
+        void encode(ByteBuffer buffer) {
+            ByteUtils.writeVarint(size, buffer);
+            for (int position = 0; position < size; position++)
+                ByteUtils.writeVarint(accountIds[position], buffer);
+        }
+
+        void decode(ByteBuffer buffer, IntToLongFunction estimator) {
+            int accounts = ByteUtils.readVarint(buffer);
+            for (int account = 0; account < accounts; account++) {
+                int accountId = ByteUtils.readVarint(buffer);
+                offer(accountId, estimator.applyAsLong(accountId));
+            }
+        }
+
+        private void siftUp(int position) {
+            while (position > 0) {
+                int parent = (position - 1) / 2;
+                if (estimates[parent] <= estimates[position])
+                    return;
+                swap(position, parent);
+                position = parent;
+            }
+        }
+
+        private void siftDown(int position) {
+            while (true) {
+                int smallest = position;
+                for (int child = 2 * position + 1; child <= 2 * position + 2 && child < size; child++) {
+                    if (estimates[child] < estimates[smallest])
+                        smallest = child;
+                }
+                if (smallest == position)
+                    return;
+                swap(position, smallest);
+                position = smallest;
+            }
+        }
+
+        private void swap(int first, int second) {
+            int accountId = accountIds[first];
+            long estimate = estimates[first];
+            accountIds[first] = accountIds[second];
+            estimates[first] = estimates[second];
+            accountIds[second] = accountId;
+            estimates[second] = estimate;
+        }
+    }
+}
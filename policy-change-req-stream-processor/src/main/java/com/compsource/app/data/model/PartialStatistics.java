@@ -0,0 +1,63 @@
+package com.compsource.app.data.model;
+
+/**
+ * Partial statistics of an hourly window, aggregated by the first stage for one of its keys (an
+ * accountId hash bucket, or the input partition in the partition-local aggregation mode), on their
+ * way to the {@link com.compsource.app.custom.PartialStatisticsMerger}. The partial statistics of
+ * an account are the part of the account's hourly totals aggregated for the key
+ */
+public class PartialStatistics {
+    private final String bucket;
+    private final long windowStart;
+    private final Integer accountId;
+    private final PolicyLimitChangeRequestsStatistics statistics;
+
+    /**
+     * @param bucket      - Key the partial statistics were aggregated for
+     * @param windowStart - Start of the hourly window in epoch milliseconds
+     * @param statistics  - Partial statistics of the bucket and window so far
+     */
+    public PartialStatistics(String bucket, long windowStart, PolicyLimitChangeRequestsStatistics statistics) {
+        this(bucket, windowStart, null, statistics);
+    }
+
+    /**
+     * @param bucket      - Key the partial statistics were aggregated for
+     * @param windowStart - Start of the hourly window in epoch milliseconds
+     * @param accountId   - Account of the partial statistics, null for the totals of the window
+     * @param statistics  - Partial statistics of the bucket and window so far
+     */
+    public PartialStatistics(String bucket, long windowStart, Integer accountId,
+                             PolicyLimitChangeRequestsStatistics statistics) {
+        this.bucket = bucket;
+        this.windowStart = windowStart;
+        this.accountId = accountId;
+        this.statistics = statistics;
+    }
+
+    public String getBucket() {
+        return bucket;
+    }
+
+    public long getWindowStart() {
+        return windowStart;
+    }
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    public PolicyLimitChangeRequestsStatistics getStatistics() {
+        return statistics;
+    }
+
+    @Override
+    public String toString() {
+        return "PartialStatistics{" +
+                "bucket='" + bucket + '\'' +
+                ", windowStart=" + windowStart +
+                ", accountId=" + accountId +
+                ", statistics=" + statistics +
+                '}';
+    }
+}
@@ -1,5 +1,6 @@
 package com.compsource.app.data.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -9,6 +10,8 @@ import com.fasterxml.jackson.databind.ObjectWriter;
  * Model class to parse the Policy Limit Change Request event from kafka topic
  */
 public class PolicyLimitChangeRequest {
+    // Thread safe, shared by all the requests
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer();
 
     @JsonProperty(value = "coiRequestId")
     private String coiRequestId;
@@ -40,6 +43,14 @@ public class PolicyLimitChangeRequest {
     @JsonProperty(value = "dateRequested")
     private String dateRequested;
 
+    // Bytes of the record the request was read from, kept for the dead letter topic. Never serialized
+    @JsonIgnore
+    private transient byte[] sourceBytes;
+
+    // Set by the timestamp extractor when the dateRequested can't be decoded. Never serialized
+    @JsonIgnore
+    private transient boolean invalidDateRequested;
+
     public String getCoiRequestId() {
         return coiRequestId;
     }
@@ -122,6 +133,28 @@ public class PolicyLimitChangeRequest {
         this.dateRequested = dateRequested;
     }
 
+    /**
+     * @return - Bytes of the record the request was read from, null if it wasn't deserialized
+     */
+    public byte[] getSourceBytes() {
+        return sourceBytes;
+    }
+
+    public void setSourceBytes(byte[] sourceBytes) {
+        this.sourceBytes = sourceBytes;
+    }
+
+    /**
+     * @return - true if the timestamp extractor couldn't decode the dateRequested
+     */
+    public boolean isInvalidDateRequested() {
+        return invalidDateRequested;
+    }
+
+    public void setInvalidDateRequested(boolean invalidDateRequested) {
+        this.invalidDateRequested = invalidDateRequested;
+    }
+
     @Override
     public String toString() {
         return "PolicyLimitChangeRequest{" +
@@ -144,9 +177,8 @@ public class PolicyLimitChangeRequest {
      * @return - JSON String
      */
     public String toJSON() {
-        ObjectWriter objectWriter = new ObjectMapper().writer();
         try {
-            return objectWriter.writeValueAsString(this);
+            return JSON_WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             return this.toString();
         }
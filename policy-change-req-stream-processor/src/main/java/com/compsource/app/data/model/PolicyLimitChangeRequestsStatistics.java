@@ -5,9 +5,12 @@ import com.compsource.app.data.serde.json.instant.InstantSerializer;
 import com.compsource.app.data.serde.json.localdate.LocalDateDeserializer;
 import com.compsource.app.data.serde.json.localdate.LocalDateSerializer;
 import com.compsource.app.logging.LogManager;
+import com.compsource.app.utils.ConfigUtil;
 import com.datastax.driver.core.LocalDate;
 import com.datastax.driver.mapping.annotations.Column;
 import com.datastax.driver.mapping.annotations.Table;
+import com.datastax.driver.mapping.annotations.Transient;
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.ObjectWriter;
@@ -22,6 +25,14 @@ import java.time.Instant;
 @Table(name = "policy_limit_change_requests_statistics")
 public class PolicyLimitChangeRequestsStatistics {
     private static LogManager logger = new LogManager(PolicyLimitChangeRequestsStatistics.class);
+    // Thread safe, shared by all the conversions
+    private static final ObjectWriter JSON_WRITER = new ObjectMapper().writer();
+    private static final int DISTINCT_COUNT_PRECISION = Integer.parseInt(
+            ConfigUtil.loadProperty().getProperty("statistics.distinct-count.precision", "12"));
+    private static final int TOP_ACCOUNTS_SIZE = Integer.parseInt(
+            ConfigUtil.loadProperty().getProperty("statistics.top-accounts.size", "10"));
+    private static final int TOP_ACCOUNTS_SKETCH_WIDTH = Integer.parseInt(
+            ConfigUtil.loadProperty().getProperty("statistics.top-accounts.sketch-width", "256"));
 
     @JsonSerialize(using = LocalDateSerializer.class)
     @JsonDeserialize(using = LocalDateDeserializer.class)
@@ -37,6 +48,25 @@ public class PolicyLimitChangeRequestsStatistics {
     @Column(name = "total_coverage_increase_requests_count")
     private Integer totalCoverageIncreaseRequestsCount;
 
+    // Distribution of the coverage increase amounts, for the median and the p95/p99
+    @Column(name = "coverage_increase_sketch")
+    private QuantileSketch coverageIncreaseSketch;
+
+    // Distinct accountIds and recipientIds
+    @Column(name = "distinct_accounts_sketch")
+    private DistinctCountSketch distinctAccountsSketch;
+
+    @Column(name = "distinct_recipients_sketch")
+    private DistinctCountSketch distinctRecipientsSketch;
+
+    // Heavy hitter accounts, only kept by the statistics created with withTopAccounts()
+    @Transient
+    private HeavyHittersSketch topAccountsSketch;
+
+    // Number of updates of the aggregate, added to the write epoch in the exactly-once mode
+    @Transient
+    private long version;
+
     @JsonSerialize(using = InstantSerializer.class)
     @JsonDeserialize(using = InstantDeserializer.class)
     @Column(name = "statistics_added_at")
@@ -45,6 +75,54 @@ public class PolicyLimitChangeRequestsStatistics {
     public PolicyLimitChangeRequestsStatistics() {
         this.totalCoverageIncreaseAmount = 0L;
         this.totalCoverageIncreaseRequestsCount = 0;
+        this.coverageIncreaseSketch = new QuantileSketch();
+        this.distinctAccountsSketch = new DistinctCountSketch(DISTINCT_COUNT_PRECISION);
+        this.distinctRecipientsSketch = new DistinctCountSketch(DISTINCT_COUNT_PRECISION);
+    }
+
+    /**
+     * Creates empty statistics that also keep the top accounts by requests count and by coverage
+     * increase amount (statistics.top-accounts.size and statistics.top-accounts.sketch-width)
+     *
+     * @return - PolicyLimitChangeRequestsStatistics object
+     */
+    public static PolicyLimitChangeRequestsStatistics withTopAccounts() {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setTopAccountsSketch(new HeavyHittersSketch(TOP_ACCOUNTS_SKETCH_WIDTH, TOP_ACCOUNTS_SIZE));
+        return stats;
+    }
+
+    /**
+     * Creates empty statistics without the distinct accounts and recipients sketches, for the per
+     * account totals: they would always count a single account
+     *
+     * @return - PolicyLimitChangeRequestsStatistics object
+     */
+    public static PolicyLimitChangeRequestsStatistics withoutDistinctCounts() {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setDistinctAccountsSketch(null);
+        stats.setDistinctRecipientsSketch(null);
+        return stats;
+    }
+
+    /**
+     * Creates a copy of the given statistics
+     *
+     * @param policyLimitChangeRequestsStats - PolicyLimitChangeRequestsStatistics object
+     */
+    public PolicyLimitChangeRequestsStatistics(PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        this.dateRequested = policyLimitChangeRequestsStats.getDateRequested();
+        this.hourRequested = policyLimitChangeRequestsStats.getHourRequested();
+        this.totalCoverageIncreaseAmount = policyLimitChangeRequestsStats.getTotalCoverageIncreaseAmount();
+        this.totalCoverageIncreaseRequestsCount = policyLimitChangeRequestsStats.getTotalCoverageIncreaseRequestsCount();
+        this.coverageIncreaseSketch = policyLimitChangeRequestsStats.getCoverageIncreaseSketch() == null
+                ? new QuantileSketch() : new QuantileSketch(policyLimitChangeRequestsStats.getCoverageIncreaseSketch());
+        this.distinctAccountsSketch = copyOf(policyLimitChangeRequestsStats.getDistinctAccountsSketch());
+        this.distinctRecipientsSketch = copyOf(policyLimitChangeRequestsStats.getDistinctRecipientsSketch());
+        if (policyLimitChangeRequestsStats.getTopAccountsSketch() != null)
+            this.topAccountsSketch = new HeavyHittersSketch(policyLimitChangeRequestsStats.getTopAccountsSketch());
+        this.version = policyLimitChangeRequestsStats.getVersion();
+        this.statisticsAddedAt = policyLimitChangeRequestsStats.getStatisticsAddedAt();
     }
 
     /**
@@ -54,16 +132,82 @@ public class PolicyLimitChangeRequestsStatistics {
      * @return - Updated PolicyLimitChangeRequestsStatistics object
      */
     public PolicyLimitChangeRequestsStatistics add(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        accumulate(policyLimitChangeRequest);
+
+        logger.info("event processed", policyLimitChangeRequest.getCoiRequestId());
+
+        return this;
+    }
+
+    /**
+     * Updates the Policy Coverage request count and Policy Coverage Increase Amount without logging
+     * the event, for the rollups that count an event already logged by {@link
+     * #add(PolicyLimitChangeRequest)}
+     *
+     * @param policyLimitChangeRequest - PolicyLimitChangeRequest object
+     * @return - Updated PolicyLimitChangeRequestsStatistics object
+     */
+    public PolicyLimitChangeRequestsStatistics accumulate(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        nextVersion();
         //Incrementing the Policy limit change request count
         this.totalCoverageIncreaseRequestsCount++;
 
         //Adding the Increased policy limit coverage to the existing increasedPolicyLimitCoverage
-        this.totalCoverageIncreaseAmount +=
-                (policyLimitChangeRequest.getNewlyRequestedPolicyCoverageLimit() -
-                        policyLimitChangeRequest.getExistingPolicyCoverageLimit());
+        long coverageIncrease = policyLimitChangeRequest.getNewlyRequestedPolicyCoverageLimit() -
+                policyLimitChangeRequest.getExistingPolicyCoverageLimit();
+        this.totalCoverageIncreaseAmount += coverageIncrease;
+        this.coverageIncreaseSketch.add(coverageIncrease);
 
-        logger.info("event processed", policyLimitChangeRequest.getCoiRequestId(), null);
+        if (policyLimitChangeRequest.getAccountId() != null) {
+            if (this.distinctAccountsSketch != null)
+                this.distinctAccountsSketch.add(policyLimitChangeRequest.getAccountId());
+            if (this.topAccountsSketch != null)
+                this.topAccountsSketch.add(policyLimitChangeRequest.getAccountId(), coverageIncrease);
+        }
+        if (this.distinctRecipientsSketch != null && policyLimitChangeRequest.getRecipientId() != null)
+            this.distinctRecipientsSketch.add(policyLimitChangeRequest.getRecipientId());
+
+        return this;
+    }
+
+    /**
+     * Merges the partial statistics of another aggregation bucket into this statistics
+     *
+     * @param partialStats - Partial PolicyLimitChangeRequestsStatistics of the same time window
+     * @return - Updated PolicyLimitChangeRequestsStatistics object
+     */
+    public PolicyLimitChangeRequestsStatistics merge(PolicyLimitChangeRequestsStatistics partialStats) {
+        nextVersion();
+        this.totalCoverageIncreaseRequestsCount += partialStats.getTotalCoverageIncreaseRequestsCount();
+        this.totalCoverageIncreaseAmount += partialStats.getTotalCoverageIncreaseAmount();
+        if (partialStats.getCoverageIncreaseSketch() != null)
+            this.coverageIncreaseSketch.merge(partialStats.getCoverageIncreaseSketch());
+        if (this.distinctAccountsSketch != null && partialStats.getDistinctAccountsSketch() != null)
+            this.distinctAccountsSketch.merge(partialStats.getDistinctAccountsSketch());
+        if (this.distinctRecipientsSketch != null && partialStats.getDistinctRecipientsSketch() != null)
+            this.distinctRecipientsSketch.merge(partialStats.getDistinctRecipientsSketch());
+        if (this.topAccountsSketch != null && partialStats.getTopAccountsSketch() != null)
+            this.topAccountsSketch.merge(partialStats.getTopAccountsSketch());
+        return this;
+    }
 
+    /**
+     * Removes the previously merged partial statistics of an aggregation bucket from this
+     * statistics. The distinct count sketches are left as they are: the partial statistics only
+     * grow, so the sketch of everything merged so far is already the sketch of the current partial
+     * statistics
+     *
+     * @param partialStats - Partial PolicyLimitChangeRequestsStatistics of the same time window
+     * @return - Updated PolicyLimitChangeRequestsStatistics object
+     */
+    public PolicyLimitChangeRequestsStatistics subtract(PolicyLimitChangeRequestsStatistics partialStats) {
+        nextVersion();
+        this.totalCoverageIncreaseRequestsCount -= partialStats.getTotalCoverageIncreaseRequestsCount();
+        this.totalCoverageIncreaseAmount -= partialStats.getTotalCoverageIncreaseAmount();
+        if (partialStats.getCoverageIncreaseSketch() != null)
+            this.coverageIncreaseSketch.subtract(partialStats.getCoverageIncreaseSketch());
+        if (this.topAccountsSketch != null && partialStats.getTopAccountsSketch() != null)
+            this.topAccountsSketch.subtract(partialStats.getTopAccountsSketch());
         return this;
     }
 
@@ -84,6 +228,79 @@ public class PolicyLimitChangeRequestsStatistics {
         this.totalCoverageIncreaseRequestsCount = totalCoverageIncreaseRequestsCount;
     }
 
+    @JsonIgnore
+    public QuantileSketch getCoverageIncreaseSketch() {
+        return coverageIncreaseSketch;
+    }
+
+    public void setCoverageIncreaseSketch(QuantileSketch coverageIncreaseSketch) {
+        this.coverageIncreaseSketch = coverageIncreaseSketch;
+    }
+
+    @JsonIgnore
+    public DistinctCountSketch getDistinctAccountsSketch() {
+        return distinctAccountsSketch;
+    }
+
+    public void setDistinctAccountsSketch(DistinctCountSketch distinctAccountsSketch) {
+        this.distinctAccountsSketch = distinctAccountsSketch;
+    }
+
+    @JsonIgnore
+    public DistinctCountSketch getDistinctRecipientsSketch() {
+        return distinctRecipientsSketch;
+    }
+
+    public void setDistinctRecipientsSketch(DistinctCountSketch distinctRecipientsSketch) {
+        this.distinctRecipientsSketch = distinctRecipientsSketch;
+    }
+
+    @JsonIgnore
+    public HeavyHittersSketch getTopAccountsSketch() {
+        return topAccountsSketch;
+    }
+
+    public void setTopAccountsSketch(HeavyHittersSketch topAccountsSketch) {
+        this.topAccountsSketch = topAccountsSketch;
+    }
+
+    /**
+     * @return - Estimated number of distinct accountIds
+     */
+    public Long getDistinctAccounts() {
+        return distinctAccountsSketch == null ? null : distinctAccountsSketch.getEstimate();
+    }
+
+    /**
+     * @return - Estimated number of distinct recipientIds
+     */
+    public Long getDistinctRecipients() {
+        return distinctRecipientsSketch == null ? null : distinctRecipientsSketch.getEstimate();
+    }
+
+    private void nextVersion() {
+        this.version++;
+    }
+
+    private static DistinctCountSketch copyOf(DistinctCountSketch sketch) {
+        return sketch == null ? null : new DistinctCountSketch(sketch);
+    }
+
+    /**
+     * Every add, merge and subtract increments the version. It is kept with the aggregate in its
+     * store and changelog, so the successive values of an aggregate have increasing versions, also
+     * across a restore of its store, and reprocessing the same events gives the same versions
+     *
+     * @return - Number of updates of the aggregate
+     */
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
     public LocalDate getDateRequested() {
         return dateRequested;
     }
@@ -115,6 +332,11 @@ public class PolicyLimitChangeRequestsStatistics {
                 ", hourRequested=" + hourRequested +
                 ", totalCoverageIncreaseAmount=" + totalCoverageIncreaseAmount +
                 ", totalCoverageIncreaseRequestsCount=" + totalCoverageIncreaseRequestsCount +
+                ", coverageIncreaseSketch=" + coverageIncreaseSketch +
+                ", distinctAccountsSketch=" + distinctAccountsSketch +
+                ", distinctRecipientsSketch=" + distinctRecipientsSketch +
+                (topAccountsSketch != null ? ", topAccountsSketch=" + topAccountsSketch : "") +
+                ", version=" + version +
                 ", statisticsAddedAt=" + statisticsAddedAt +
                 '}';
     }
@@ -125,9 +347,8 @@ public class PolicyLimitChangeRequestsStatistics {
      * @return - JSON String
      */
     public String toJSON() {
-        ObjectWriter objectWriter = new ObjectMapper().writer();
         try {
-            return objectWriter.writeValueAsString(this);
+            return JSON_WRITER.writeValueAsString(this);
         } catch (JsonProcessingException e) {
             return this.toString();
         }
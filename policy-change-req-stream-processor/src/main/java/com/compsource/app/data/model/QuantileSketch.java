@@ -0,0 +1,283 @@
+package com.compsource.app.data.model;
+
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Mergeable quantile sketch of positive amounts with a relative accuracy of 1% (logarithmic
+ * buckets, as in DDSketch).
+ * <p>
+ * Bucket i counts the values in (gamma^(i-1), gamma^i] where gamma = 1.01 / 0.99, and a quantile
+ * is answered with the middle of its bucket, so it is within 1% of the exact quantile. Values that
+ * are zero or negative share a single bucket answered as 0. The buckets hold plain counts, so
+ * sketches can be merged and a previously merged sketch can be subtracted exactly, which keeps the
+ * subtracting aggregations of the topology exact. The number of buckets is bounded by the range of
+ * the values (at most 2200 for any long), a window of similar amounts only needs a few dozen.
+ * <p>
+ * Encoding (see {@link #encode(ByteBuffer)}): format version (byte), zero and negative values
+ * count (varlong), number of buckets (varint), then per bucket in ascending order the delta from
+ * the previous bucket index (zig-zag varint, from 0 for the first bucket) and the count (varlong).
+ */
+public class QuantileSketch {
+    public static final double RELATIVE_ACCURACY = 0.01;
+    private static final byte FORMAT_VERSION = 1;
+    private static final double GAMMA = (1 + RELATIVE_ACCURACY) / (1 - RELATIVE_ACCURACY);
+    private static final double LOG_GAMMA = Math.log(GAMMA);
+    private static final int[] NO_INDEXES = new int[0];
+    private static final long[] NO_COUNTS = new long[0];
+
+    // Non-empty buckets, sorted by index
+    private int[] indexes = NO_INDEXES;
+    private long[] counts = NO_COUNTS;
+    private int size;
+    private long zeroCount;
+
+    public QuantileSketch() {
+    }
+
+    /**
+     * Creates a copy of the given sketch
+     *
+     * @param sketch - QuantileSketch object
+     */
+    public QuantileSketch(QuantileSketch sketch) {
+        this.indexes = Arrays.copyOf(sketch.indexes, sketch.size);
+        this.counts = Arrays.copyOf(sketch.counts, sketch.size);
+        this.size = sketch.size;
+        this.zeroCount = sketch.zeroCount;
+    }
+
+    /**
+     * Adds a value to the sketch
+     *
+     * @param value - Amount
+     * @return - Updated QuantileSketch object
+     */
+    public QuantileSketch add(long value) {
+        if (value <= 0)
+            zeroCount++;
+        else
+            increment((int) Math.ceil(Math.log(value) / LOG_GAMMA), 1);
+        return this;
+    }
+
+    /**
+     * Adds the values of another sketch to this sketch
+     *
+     * @param sketch - QuantileSketch object
+     * @return - Updated QuantileSketch object
+     */
+    public QuantileSketch merge(QuantileSketch sketch) {
+        combine(sketch, 1);
+        return this;
+    }
+
+    /**
+     * Removes the values of a sketch previously merged into this sketch
+     *
+     * @param sketch - QuantileSketch object
+     * @return - Updated QuantileSketch object
+     */
+    public QuantileSketch subtract(QuantileSketch sketch) {
+        combine(sketch, -1);
+        return this;
+    }
+
+    /**
+     * @return - Number of values in the sketch
+     */
+    public long getCount() {
+        long count = zeroCount;
+        for (int bucket = 0; bucket < size; bucket++)
+            count += counts[bucket];
+        return count;
+    }
+
+    /**
+     * Returns the quantile of the values, within 1% of the exact quantile
+     *
+     * @param quantile - Quantile between 0 and 1, e.g. 0.95
+     * @return - Quantile value, null if the sketch is empty
+     */
+    public Long getQuantile(double quantile) {
+        if (quantile < 0 || quantile > 1)
+            throw new IllegalArgumentException("The quantile must be between 0 and 1: " + quantile);
+        long count = getCount();
+        if (count == 0)
+            return null;
+
+        long rank = (long) (quantile * (count - 1));
+        long seen = zeroCount;
+        if (rank < seen)
+            return 0L;
+        for (int bucket = 0; bucket < size; bucket++) {
+            seen += counts[bucket];
+            if (rank < seen)
+                return Math.round(2 * Math.pow(GAMMA, indexes[bucket]) / (GAMMA + 1));
+        }
+        return Math.round(2 * Math.pow(GAMMA, indexes[size - 1]) / (GAMMA + 1));
+    }
+
+    private void increment(int index, long count) {
+        int position = Arrays.binarySearch(indexes, 0, size, index);
+        if (position >= 0) {
+            counts[position] += count;
+            if (counts[position] == 0)
+                removeBucket(position);
+            return;
+        }
+        position = -position - 1;
+        if (size == indexes.length) {
+            int capacity = Math.max(4, size * 2);
+            indexes = Arrays.copyOf(indexes, capacity);
+            counts = Arrays.copyOf(counts, capacity);
+        }
+        System.arraycopy(indexes, position, indexes, position + 1, size - position);
+        System.arraycopy(counts, position, counts, position + 1, size - position);
+        indexes[position] = index;
+        counts[position] = count;
+        size++;
+    }
+
+    private void removeBucket(int position) {
+        System.arraycopy(indexes, position + 1, indexes, position, size - position - 1);
+        System.arraycopy(counts, position + 1, counts, position, size - position - 1);
+        size--;
+    }
+
+    /**
+     * Merges the sorted buckets of both sketches in a single pass
+     */
+    private void combine(QuantileSketch sketch, int sign) {
+        zeroCount += sign * sketch.zeroCount;
+        int[] mergedIndexes = new int[size + sketch.size];
+        long[] mergedCounts = new long[size + sketch.size];
+        int merged = 0;
+        int own = 0;
+        int other = 0;
+        while (own < size || other < sketch.size) {
+            int index;
+            long count;
+            if (other == sketch.size || (own < size && indexes[own] < sketch.indexes[other])) {
+                index = indexes[own];
+                count = counts[own++];
+            } else if (own == size || sketch.indexes[other] < indexes[own]) {
+                index = sketch.indexes[other];
+                count = sign * sketch.counts[other++];
+            } else {
+                index = indexes[own];
+                count = counts[own++] + sign * sketch.counts[other++];
+            }
+            if (count != 0) {
+                mergedIndexes[merged] = index;
+                mergedCounts[merged++] = count;
+            }
+        }
+        indexes = mergedIndexes;
+        counts = mergedCounts;
+        size = merged;
+    }
+
+    /**
+     * @return - Size of the encoded sketch in bytes
+     */
+    public int encodedSize() {
+        int encodedSize = 1 + ByteUtils.sizeOfVarlong(zeroCount) + ByteUtils.sizeOfVarint(size);
+        int previousIndex = 0;
+        for (int bucket = 0; bucket < size; bucket++) {
+            encodedSize += ByteUtils.sizeOfVarint(indexes[bucket] - previousIndex)
+                    + ByteUtils.sizeOfVarlong(counts[bucket]);
+            previousIndex = indexes[bucket];
+        }
+        return encodedSize;
+    }
+
+    /**
+     * Writes the sketch in its binary encoding
+     *
+     * @param buffer - Receives {@link #encodedSize()} bytes
+     */
+    public void encode(ByteBuffer buffer) {
+        buffer.put(FORMAT_VERSION);
+        ByteUtils.writeVarlong(zeroCount, buffer);
+        ByteUtils.writeVarint(size, buffer);
+        int previousIndex = 0;
+        for (int bucket = 0; bucket < size; bucket++) {
+            ByteUtils.writeVarint(indexes[bucket] - previousIndex, buffer);
+            ByteUtils.writeVarlong(counts[bucket], buffer);
+            previousIndex = indexes[bucket];
+        }
+    }
+
+    /**
+     * @return - Binary encoding of the sketch
+     */
+    public byte[] toBytes() {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize());
+        encode(buffer);
+        return buffer.array();
+    }
+
+    /**
+     * Reads a sketch written by {@link #encode(ByteBuffer)}
+     *
+     * @param buffer - Positioned at the start of the encoded sketch
+     * @return - QuantileSketch object
+     * @throws IllegalArgumentException - Unsupported format version
+     */
+    public static QuantileSketch decode(ByteBuffer buffer) {
+        byte version = buffer.get();
+        if (version != FORMAT_VERSION)
+            throw new IllegalArgumentException("Unsupported quantile sketch format version: " + version);
+        QuantileSketch sketch = new QuantileSketch();
+        sketch.zeroCount = ByteUtils.readVarlong(buffer);
+        sketch.size = ByteUtils.readVarint(buffer);
+        sketch.indexes = new int[sketch.size];
+        sketch.counts = new long[sketch.size];
+        int index = 0;
+        for (int bucket = 0; bucket < sketch.size; bucket++) {
+            index += ByteUtils.readVarint(buffer);
+            sketch.indexes[bucket] = index;
+            sketch.counts[bucket] = ByteUtils.readVarlong(buffer);
+        }
+        return sketch;
+    }
+
+    /**
+     * @param bytes - Binary encoding of a sketch, as stored in the coverage_increase_sketch columns
+     * @return - QuantileSketch object
+     */
+    public static QuantileSketch fromBytes(byte[] bytes) {
+        return decode(ByteBuffer.wrap(bytes));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        QuantileSketch that = (QuantileSketch) o;
+        return zeroCount == that.zeroCount && size == that.size
+                && Arrays.equals(Arrays.copyOf(indexes, size), Arrays.copyOf(that.indexes, that.size))
+                && Arrays.equals(Arrays.copyOf(counts, size), Arrays.copyOf(that.counts, that.size));
+    }
+
+    @Override
+    public int hashCode() {
+        int result = Long.hashCode(zeroCount);
+        for (int bucket = 0; bucket < size; bucket++)
+            result = 31 * (31 * result + indexes[bucket]) + Long.hashCode(counts[bucket]);
+        return result;
+    }
+
+    @Override
+    public String toString() {
+        return "QuantileSketch{" +
+                "count=" + getCount() +
+                ", p50=" + getQuantile(0.5) +
+                ", p95=" + getQuantile(0.95) +
+                ", p99=" + getQuantile(0.99) +
+                '}';
+    }
+}
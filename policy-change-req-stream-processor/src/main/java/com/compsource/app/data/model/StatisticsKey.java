@@ -0,0 +1,162 @@
+package com.compsource.app.data.model;
+
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneOffset;
+import java.util.Objects;
+
+/**
+ * Identifies a row of statistics: the rollup granularity, the start of its period (UTC) and, for
+ * the per account rollup, the accountId
+ */
+public class StatisticsKey {
+
+    /**
+     * Rollup granularities, each written to its own cassandra table. HOURLY_TOP_ACCOUNTS is the
+     * ranking of the heavy hitter accounts of the hourly totals
+     */
+    public enum Granularity {
+        HOURLY(1),
+        DAILY(2),
+        MONTHLY(3),
+        ACCOUNT_HOURLY(4),
+        HOURLY_TOP_ACCOUNTS(5);
+
+        private static final long HOUR_MS = 3_600_000L;
+        private static final long DAY_MS = 24 * HOUR_MS;
+
+        private final byte code;
+
+        Granularity(int code) {
+            this.code = (byte) code;
+        }
+
+        /**
+         * @return - Code of the granularity in the binary key format
+         */
+        public byte code() {
+            return code;
+        }
+
+        /**
+         * @param code - Code of the granularity in the binary key format
+         * @return - Granularity
+         */
+        public static Granularity of(byte code) {
+            for (Granularity granularity : values()) {
+                if (granularity.code == code)
+                    return granularity;
+            }
+            throw new IllegalArgumentException("Unknown statistics granularity code: " + code);
+        }
+
+        /**
+         * @param timestamp - Epoch milliseconds
+         * @return - Start of the period holding the timestamp, in epoch milliseconds
+         */
+        public long periodStart(long timestamp) {
+            switch (this) {
+                case DAILY:
+                    return Math.floorDiv(timestamp, DAY_MS) * DAY_MS;
+                case MONTHLY:
+                    LocalDate date = Instant.ofEpochMilli(timestamp).atZone(ZoneOffset.UTC).toLocalDate();
+                    return date.withDayOfMonth(1).atStartOfDay(ZoneOffset.UTC).toInstant().toEpochMilli();
+                default:
+                    return Math.floorDiv(timestamp, HOUR_MS) * HOUR_MS;
+            }
+        }
+
+        /**
+         * @param periodStart - Start of a period in epoch milliseconds
+         * @return - End (exclusive) of the period in epoch milliseconds
+         */
+        public long periodEnd(long periodStart) {
+            switch (this) {
+                case DAILY:
+                    return periodStart + DAY_MS;
+                case MONTHLY:
+                    return Instant.ofEpochMilli(periodStart).atZone(ZoneOffset.UTC).plusMonths(1)
+                            .toInstant().toEpochMilli();
+                default:
+                    return periodStart + HOUR_MS;
+            }
+        }
+    }
+
+    private final Granularity granularity;
+    private final long periodStart;
+    private final Integer accountId;
+
+    /**
+     * @param granularity - Rollup granularity
+     * @param periodStart - Start of the period in epoch milliseconds
+     * @param accountId   - accountId of the per account rollup, null otherwise
+     */
+    public StatisticsKey(Granularity granularity, long periodStart, Integer accountId) {
+        this.granularity = granularity;
+        this.periodStart = periodStart;
+        this.accountId = accountId;
+    }
+
+    public static StatisticsKey hourly(long windowStart) {
+        return new StatisticsKey(Granularity.HOURLY, windowStart, null);
+    }
+
+    public static StatisticsKey daily(long dayStart) {
+        return new StatisticsKey(Granularity.DAILY, dayStart, null);
+    }
+
+    public static StatisticsKey monthly(long monthStart) {
+        return new StatisticsKey(Granularity.MONTHLY, monthStart, null);
+    }
+
+    public static StatisticsKey accountHourly(int accountId, long windowStart) {
+        return new StatisticsKey(Granularity.ACCOUNT_HOURLY, windowStart, accountId);
+    }
+
+    public static StatisticsKey hourlyTopAccounts(long windowStart) {
+        return new StatisticsKey(Granularity.HOURLY_TOP_ACCOUNTS, windowStart, null);
+    }
+
+    public Granularity getGranularity() {
+        return granularity;
+    }
+
+    public long getPeriodStart() {
+        return periodStart;
+    }
+
+    /**
+     * @return - End (exclusive) of the period in epoch milliseconds
+     */
+    public long getPeriodEnd() {
+        return granularity.periodEnd(periodStart);
+    }
+
+    public Integer getAccountId() {
+        return accountId;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) return true;
+        if (o == null || getClass() != o.getClass()) return false;
+        StatisticsKey that = (StatisticsKey) o;
+        return periodStart == that.periodStart && granularity == that.granularity
+                && Objects.equals(accountId, that.accountId);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(granularity, periodStart, accountId);
+    }
+
+    @Override
+    public String toString() {
+        return "StatisticsKey{" +
+                "granularity=" + granularity +
+                ", periodStart=" + Instant.ofEpochMilli(periodStart) +
+                (accountId != null ? ", accountId=" + accountId : "") +
+                '}';
+    }
+}
@@ -0,0 +1,27 @@
+package com.compsource.app.data.serde.gson.instant;
+
+import com.google.gson.JsonDeserializationContext;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParseException;
+
+import java.lang.reflect.Type;
+import java.time.Instant;
+
+/**
+ * Gson Deserializer class for type Instant. Accepts both the ISO-8601 text and the
+ * {"seconds":..,"nanos":..} object written by the reflective Gson adapter
+ */
+public class InstantDeserializer implements JsonDeserializer<Instant> {
+    @Override
+    public Instant deserialize(JsonElement json, Type typeOfT,
+                               JsonDeserializationContext context) throws JsonParseException {
+        if (json.isJsonObject()) {
+            JsonObject instant = json.getAsJsonObject();
+            return Instant.ofEpochSecond(instant.get("seconds").getAsLong(),
+                    instant.get("nanos").getAsLong());
+        }
+        return Instant.parse(json.getAsString());
+    }
+}
@@ -1,5 +1,7 @@
 package com.compsource.app.data.serde.kafka;
 
+import com.compsource.app.data.serde.gson.instant.InstantDeserializer;
+import com.compsource.app.data.serde.gson.instant.InstantSerializer;
 import com.compsource.app.data.serde.gson.localdate.LocalDateDeserializer;
 import com.compsource.app.data.serde.gson.localdate.LocalDateSerializer;
 import com.datastax.driver.core.LocalDate;
@@ -7,6 +9,7 @@ import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import org.apache.kafka.common.serialization.Deserializer;
 
+import java.time.Instant;
 import java.util.Map;
 
 /**
@@ -19,6 +22,8 @@ public class JsonDeserializer<T> implements Deserializer<T> {
     private Gson gson = new GsonBuilder()
             .registerTypeAdapter(LocalDate.class, new LocalDateSerializer())
             .registerTypeAdapter(LocalDate.class, new LocalDateDeserializer())
+            .registerTypeAdapter(Instant.class, new InstantSerializer())
+            .registerTypeAdapter(Instant.class, new InstantDeserializer())
             .create();
 
     private Class<T> deserializedClass;
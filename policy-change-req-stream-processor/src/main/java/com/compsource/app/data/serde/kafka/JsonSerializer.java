@@ -1,5 +1,7 @@
 package com.compsource.app.data.serde.kafka;
 
+import com.compsource.app.data.serde.gson.instant.InstantDeserializer;
+import com.compsource.app.data.serde.gson.instant.InstantSerializer;
 import com.compsource.app.data.serde.gson.localdate.LocalDateDeserializer;
 import com.compsource.app.data.serde.gson.localdate.LocalDateSerializer;
 import com.datastax.driver.core.LocalDate;
@@ -8,6 +10,7 @@ import com.google.gson.GsonBuilder;
 import org.apache.kafka.common.serialization.Serializer;
 
 import java.nio.charset.StandardCharsets;
+import java.time.Instant;
 import java.util.Map;
 
 /**
@@ -20,6 +23,8 @@ public class JsonSerializer<T> implements Serializer<T> {
     private Gson gson = new GsonBuilder()
             .registerTypeAdapter(LocalDate.class, new LocalDateSerializer())
             .registerTypeAdapter(LocalDate.class, new LocalDateDeserializer())
+            .registerTypeAdapter(Instant.class, new InstantSerializer())
+            .registerTypeAdapter(Instant.class, new InstantDeserializer())
             .create();
 
     @Override
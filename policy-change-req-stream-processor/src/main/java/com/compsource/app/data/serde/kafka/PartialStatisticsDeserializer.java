@@ -0,0 +1,49 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.PartialStatistics;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Kafka Deserializer class for reading the PartialStatistics written by
+ * {@link PartialStatisticsSerializer}
+ */
+public class PartialStatisticsDeserializer implements Deserializer<PartialStatistics> {
+    private final PolicyLimitChangeRequestsStatisticsDeserializer statisticsDeserializer =
+            new PolicyLimitChangeRequestsStatisticsDeserializer();
+
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public PartialStatistics deserialize(String topic, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        if (bytes.length < PartialStatisticsSerializer.HEADER_SIZE) {
+            throw new SerializationException("Unsupported partial statistics size: " + bytes.length + " bytes");
+        }
+        long windowStart = buffer.getLong();
+        boolean accountPresent = buffer.get() != 0;
+        int accountId = buffer.getInt();
+        int bucketLength = buffer.getShort();
+        if (bucketLength < 0 || bucketLength > buffer.remaining()) {
+            throw new SerializationException("Invalid partial statistics bucket length: " + bucketLength);
+        }
+        String bucket = new String(bytes, buffer.position(), bucketLength, StandardCharsets.UTF_8);
+        return new PartialStatistics(bucket, windowStart, accountPresent ? accountId : null,
+                statisticsDeserializer.deserialize(topic,
+                        Arrays.copyOfRange(bytes, buffer.position() + bucketLength, bytes.length)));
+    }
+
+    @Override
+    public void close() {
+    }
+}
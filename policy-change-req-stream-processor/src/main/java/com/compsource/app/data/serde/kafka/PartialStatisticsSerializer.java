@@ -0,0 +1,48 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.PartialStatistics;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Kafka Serializer class for writing the PartialStatistics.
+ * <p>
+ * Layout (big-endian): window start in epoch milliseconds (long), account presence byte (1 for
+ * the partial statistics of an account) and accountId (int, zero when absent), length of the
+ * bucket (short) followed by its UTF-8 bytes, then the statistics in the format of
+ * {@link PolicyLimitChangeRequestsStatisticsSerializer}.
+ */
+public class PartialStatisticsSerializer implements Serializer<PartialStatistics> {
+    // Window start, account presence, accountId and bucket length
+    static final int HEADER_SIZE = Long.BYTES + 1 + Integer.BYTES + Short.BYTES;
+    private final PolicyLimitChangeRequestsStatisticsSerializer statisticsSerializer =
+            new PolicyLimitChangeRequestsStatisticsSerializer();
+
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, PartialStatistics partialStats) {
+        if (partialStats == null) {
+            return null;
+        }
+        byte[] bucket = partialStats.getBucket().getBytes(StandardCharsets.UTF_8);
+        byte[] statistics = statisticsSerializer.serialize(topic, partialStats.getStatistics());
+        ByteBuffer buffer = ByteBuffer.allocate(HEADER_SIZE + bucket.length + statistics.length);
+        buffer.putLong(partialStats.getWindowStart());
+        buffer.put(partialStats.getAccountId() == null ? (byte) 0 : (byte) 1);
+        buffer.putInt(partialStats.getAccountId() == null ? 0 : partialStats.getAccountId());
+        buffer.putShort((short) bucket.length);
+        buffer.put(bucket);
+        buffer.put(statistics);
+        return buffer.array();
+    }
+
+    @Override
+    public void close() {
+    }
+}
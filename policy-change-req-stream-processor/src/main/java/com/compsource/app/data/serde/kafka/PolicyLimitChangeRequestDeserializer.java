@@ -0,0 +1,458 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+
+/**
+ * Kafka Deserializer class for the PolicyLimitChangeRequest event.
+ * <p>
+ * Reads the UTF-8 bytes of the record directly with a streaming token parser and maps the known
+ * fields by name without reflection. Numbers and booleans are decoded straight from the bytes;
+ * Strings are only built for the String fields of the event. Unknown fields are skipped.
+ * <p>
+ * Accepts the same values as the Gson based {@link JsonDeserializer}: quoted numbers and
+ * booleans, integral numbers written with a fraction or exponent and a top level null. Malformed
+ * JSON is rejected with a SerializationException, which is handled by the deserialization
+ * exception handler.
+ */
+public class PolicyLimitChangeRequestDeserializer implements Deserializer<PolicyLimitChangeRequest> {
+
+    private static final byte[][] FIELD_NAMES = {
+            utf8("coiRequestId"), utf8("accountId"), utf8("existingPolicyCoverageLimit"),
+            utf8("isChangeRequested"), utf8("newlyRequestedPolicyCoverageLimit"),
+            utf8("isNewRecipient"), utf8("recipientId"), utf8("recipientName"),
+            utf8("recipientEmail"), utf8("dateRequested")};
+    private static final int COI_REQUEST_ID = 0;
+    private static final int ACCOUNT_ID = 1;
+    private static final int EXISTING_POLICY_COVERAGE_LIMIT = 2;
+    private static final int IS_CHANGE_REQUESTED = 3;
+    private static final int NEWLY_REQUESTED_POLICY_COVERAGE_LIMIT = 4;
+    private static final int IS_NEW_RECIPIENT = 5;
+    private static final int RECIPIENT_ID = 6;
+    private static final int RECIPIENT_NAME = 7;
+    private static final int RECIPIENT_EMAIL = 8;
+    private static final int DATE_REQUESTED = 9;
+    private static final int UNKNOWN_FIELD = -1;
+
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public PolicyLimitChangeRequest deserialize(String topic, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        // The parser keeps the read position, so a new one is used per record. The serde is
+        // shared by the stream threads
+        PolicyLimitChangeRequest request = new Parser(bytes).parseRequest();
+        // The record bytes are kept as they are, so a rejected request is dead lettered unchanged
+        if (request != null)
+            request.setSourceBytes(bytes);
+        return request;
+    }
+
+    @Override
+    public void close() {
+    }
+
+    private static byte[] utf8(String text) {
+        return text.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Single pass parser over the bytes of one record
+     */
+    private static final class Parser {
+        private final byte[] bytes;
+        private int position;
+
+        private Parser(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        private PolicyLimitChangeRequest parseRequest() {
+            skipWhitespace();
+            if (position == bytes.length) {
+                return null;
+            }
+            if (consumeLiteral("null")) {
+                expectEnd();
+                return null;
+            }
+            expect('{');
+            PolicyLimitChangeRequest request = new PolicyLimitChangeRequest();
+            skipWhitespace();
+            if (peek() == '}') {
+                position++;
+                expectEnd();
+                return request;
+            }
+            do {
+                skipWhitespace();
+                int field = readFieldName();
+                skipWhitespace();
+                expect(':');
+                skipWhitespace();
+                readFieldValue(request, field);
+                skipWhitespace();
+            } while (consume(','));
+            expect('}');
+            expectEnd();
+            return request;
+        }
+
+        private void readFieldValue(PolicyLimitChangeRequest request, int field) {
+            switch (field) {
+                case COI_REQUEST_ID:
+                    request.setCoiRequestId(readString());
+                    break;
+                case ACCOUNT_ID:
+                    request.setAccountId(readInteger());
+                    break;
+                case EXISTING_POLICY_COVERAGE_LIMIT:
+                    request.setExistingPolicyCoverageLimit(readInteger());
+                    break;
+                case IS_CHANGE_REQUESTED:
+                    request.setIsChangeRequested(readBoolean());
+                    break;
+                case NEWLY_REQUESTED_POLICY_COVERAGE_LIMIT:
+                    request.setNewlyRequestedPolicyCoverageLimit(readInteger());
+                    break;
+                case IS_NEW_RECIPIENT:
+                    request.setIsNewRecipient(readBoolean());
+                    break;
+                case RECIPIENT_ID:
+                    request.setRecipientId(readString());
+                    break;
+                case RECIPIENT_NAME:
+                    request.setRecipientName(readString());
+                    break;
+                case RECIPIENT_EMAIL:
+                    request.setRecipientEmail(readString());
+                    break;
+                case DATE_REQUESTED:
+                    request.setDateRequested(readString());
+                    break;
+                default:
+                    skipValue();
+            }
+        }
+
+        /**
+         * Reads a quoted field name and returns the index of the matching known field
+         */
+        private int readFieldName() {
+            expect('"');
+            int start = position;
+            while (position < bytes.length && bytes[position] != '"') {
+                if (bytes[position] == '\\') {
+                    // Escaped names are rare; decode them and compare as text
+                    position = start - 1;
+                    return fieldIndex(utf8(readQuotedString()));
+                }
+                position++;
+            }
+            if (position == bytes.length) {
+                throw malformed("Unterminated field name");
+            }
+            int field = fieldIndex(bytes, start, position - start);
+            position++;
+            return field;
+        }
+
+        private int fieldIndex(byte[] name) {
+            return fieldIndex(name, 0, name.length);
+        }
+
+        private static int fieldIndex(byte[] source, int offset, int length) {
+            for (int field = 0; field < FIELD_NAMES.length; field++) {
+                byte[] fieldName = FIELD_NAMES[field];
+                if (fieldName.length != length) continue;
+                int index = 0;
+                while (index < length && fieldName[index] == source[offset + index]) index++;
+                if (index == length) return field;
+            }
+            return UNKNOWN_FIELD;
+        }
+
+        private String readString() {
+            byte next = peek();
+            if (next == '"') {
+                return readQuotedString();
+            }
+            if (consumeLiteral("null")) {
+                return null;
+            }
+            // Gson converts the numbers and booleans to their text for String fields
+            int start = position;
+            skipValue();
+            if (next == '{' || next == '[') {
+                throw malformed("Expected a String value");
+            }
+            return new String(bytes, start, position - start, StandardCharsets.UTF_8);
+        }
+
+        private String readQuotedString() {
+            expect('"');
+            int start = position;
+            while (position < bytes.length) {
+                byte current = bytes[position];
+                if (current == '"') {
+                    String value = new String(bytes, start, position - start, StandardCharsets.UTF_8);
+                    position++;
+                    return value;
+                }
+                if (current == '\\') {
+                    return readEscapedString(start);
+                }
+                position++;
+            }
+            throw malformed("Unterminated String");
+        }
+
+        /**
+         * Slow path for Strings that contain escape sequences
+         */
+        private String readEscapedString(int start) {
+            StringBuilder builder = new StringBuilder(new String(bytes, start, position - start,
+                    StandardCharsets.UTF_8));
+            int chunkStart = position;
+            while (position < bytes.length) {
+                byte current = bytes[position];
+                if (current == '"') {
+                    builder.append(new String(bytes, chunkStart, position - chunkStart,
+                            StandardCharsets.UTF_8));
+                    position++;
+                    return builder.toString();
+                }
+                if (current != '\\') {
+                    position++;
+                    continue;
+                }
+                builder.append(new String(bytes, chunkStart, position - chunkStart,
+                        StandardCharsets.UTF_8));
+                if (++position == bytes.length) break;
+                byte escaped = bytes[position++];
+                switch (escaped) {
+                    case '"':
+                    case '\\':
+                    case '/':
+                        builder.append((char) escaped);
+                        break;
+                    case 'b':
+                        builder.append('\b');
+                        break;
+                    case 'f':
+                        builder.append('\f');
+                        break;
+                    case 'n':
+                        builder.append('\n');
+                        break;
+                    case 'r':
+                        builder.append('\r');
+                        break;
+                    case 't':
+                        builder.append('\t');
+                        break;
+                    case 'u':
+                        builder.append(readUnicodeEscape());
+                        break;
+                    default:
+                        throw malformed("Invalid escape sequence");
+                }
+                chunkStart = position;
+            }
+            throw malformed("Unterminated String");
+        }
+
+        private char readUnicodeEscape() {
+            if (position + 4 > bytes.length) {
+                throw malformed("Invalid unicode escape sequence");
+            }
+            int value = 0;
+            for (int index = 0; index < 4; index++) {
+                int digit = Character.digit(bytes[position++], 16);
+                if (digit < 0) {
+                    throw malformed("Invalid unicode escape sequence");
+                }
+                value = (value << 4) | digit;
+            }
+            return (char) value;
+        }
+
+        private Integer readInteger() {
+            byte next = peek();
+            if (consumeLiteral("null")) {
+                return null;
+            }
+            if (next == '"') {
+                return parseInteger(readQuotedString());
+            }
+            int start = position;
+            boolean negative = consume('-');
+            long value = 0;
+            int digitsStart = position;
+            while (position < bytes.length && bytes[position] >= '0' && bytes[position] <= '9') {
+                value = value * 10 + (bytes[position++] - '0');
+                if (value > (long) Integer.MAX_VALUE + 1) {
+                    throw malformed("Integer value out of range");
+                }
+            }
+            if (position == digitsStart) {
+                throw malformed("Expected a number");
+            }
+            if (position < bytes.length && (bytes[position] == '.' || bytes[position] == 'e'
+                    || bytes[position] == 'E')) {
+                // Fraction or exponent, only accepted when the value is still an integer
+                position = start;
+                skipValue();
+                return parseInteger(new String(bytes, start, position - start, StandardCharsets.US_ASCII));
+            }
+            value = negative ? -value : value;
+            if (value > Integer.MAX_VALUE) {
+                throw malformed("Integer value out of range");
+            }
+            return (int) value;
+        }
+
+        private Integer parseInteger(String text) {
+            try {
+                return Integer.parseInt(text);
+            } catch (NumberFormatException e) {
+                try {
+                    double value = Double.parseDouble(text);
+                    if (value == (int) value) {
+                        return (int) value;
+                    }
+                } catch (NumberFormatException ignored) {
+                    // Reported below
+                }
+                throw malformed("Expected an Integer but was " + text);
+            }
+        }
+
+        private Boolean readBoolean() {
+            if (consumeLiteral("true")) {
+                return Boolean.TRUE;
+            }
+            if (consumeLiteral("false")) {
+                return Boolean.FALSE;
+            }
+            if (consumeLiteral("null")) {
+                return null;
+            }
+            if (peek() == '"') {
+                return Boolean.parseBoolean(readQuotedString());
+            }
+            throw malformed("Expected a Boolean");
+        }
+
+        /**
+         * Skips a value of any type, including nested objects and arrays
+         */
+        private void skipValue() {
+            byte next = peek();
+            if (next == '"') {
+                readQuotedString();
+            } else if (next == '{' || next == '[') {
+                skipContainer();
+            } else if (consumeLiteral("true") || consumeLiteral("false") || consumeLiteral("null")) {
+                return;
+            } else {
+                int start = position;
+                while (position < bytes.length && isNumberCharacter(bytes[position])) position++;
+                if (position == start) {
+                    throw malformed("Unexpected character");
+                }
+            }
+        }
+
+        private void skipContainer() {
+            byte open = bytes[position++];
+            char close = open == '{' ? '}' : ']';
+            skipWhitespace();
+            if (consume(close)) {
+                return;
+            }
+            do {
+                skipWhitespace();
+                if (open == '{') {
+                    readQuotedString();
+                    skipWhitespace();
+                    expect(':');
+                    skipWhitespace();
+                }
+                skipValue();
+                skipWhitespace();
+            } while (consume(','));
+            expect(close);
+        }
+
+        private static boolean isNumberCharacter(byte character) {
+            return (character >= '0' && character <= '9') || character == '-' || character == '+'
+                    || character == '.' || character == 'e' || character == 'E';
+        }
+
+        private boolean consumeLiteral(String literal) {
+            int length = literal.length();
+            if (position + length > bytes.length) {
+                return false;
+            }
+            for (int index = 0; index < length; index++) {
+                if (bytes[position + index] != literal.charAt(index)) {
+                    return false;
+                }
+            }
+            position += length;
+            return true;
+        }
+
+        private boolean consume(char character) {
+            if (position < bytes.length && bytes[position] == character) {
+                position++;
+                return true;
+            }
+            return false;
+        }
+
+        private void expect(char character) {
+            if (!consume(character)) {
+                throw malformed("Expected '" + character + "'");
+            }
+        }
+
+        private void expectEnd() {
+            skipWhitespace();
+            if (position != bytes.length) {
+                throw malformed("Unexpected data after the JSON object");
+            }
+        }
+
+        private byte peek() {
+            if (position == bytes.length) {
+                throw malformed("Unexpected end of input");
+            }
+            return bytes[position];
+        }
+
+        private void skipWhitespace() {
+            while (position < bytes.length) {
+                byte current = bytes[position];
+                if (current != ' ' && current != '\n' && current != '\r' && current != '\t') {
+                    return;
+                }
+                position++;
+            }
+        }
+
+        private SerializationException malformed(String reason) {
+            return new SerializationException(String.format("Malformed PolicyLimitChangeRequest " +
+                    "JSON at position %s: %s", position, reason));
+        }
+    }
+}
@@ -0,0 +1,80 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.DistinctCountSketch;
+import com.compsource.app.data.model.HeavyHittersSketch;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.QuantileSketch;
+import com.datastax.driver.core.LocalDate;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.time.Instant;
+import java.util.Map;
+
+import static com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsSerializer.*;
+
+/**
+ * Kafka Deserializer class for reading the PolicyLimitChangeRequestsStatistics written by
+ * {@link PolicyLimitChangeRequestsStatisticsSerializer}. The per account totals written without
+ * distinct count sketches are read without them.
+ * <p>
+ * The entries of the earlier Gson based serde aren't read: the state stores and changelogs created
+ * before the binary format require an application reset, see {@link
+ * com.compsource.app.PolicyChangeReqTopology}.
+ */
+public class PolicyLimitChangeRequestsStatisticsDeserializer implements Deserializer<PolicyLimitChangeRequestsStatistics> {
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public PolicyLimitChangeRequestsStatistics deserialize(String topic, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length <= SERIALIZED_SIZE || bytes[0] != FORMAT_VERSION) {
+            throw new SerializationException(String.format("Unsupported statistics format. " +
+                    "Version: %s, Size: %s bytes", bytes.length > 0 ? bytes[0] : null, bytes.length));
+        }
+
+        ByteBuffer buffer = ByteBuffer.wrap(bytes, 1, bytes.length - 1);
+        byte flags = buffer.get();
+        int epochDay = buffer.getInt();
+        byte hour = buffer.get();
+
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setTotalCoverageIncreaseAmount(buffer.getLong());
+        stats.setTotalCoverageIncreaseRequestsCount(buffer.getInt());
+        long epochSecond = buffer.getLong();
+        int nano = buffer.getInt();
+
+        if ((flags & DATE_REQUESTED_PRESENT) != 0)
+            stats.setDateRequested(LocalDate.fromDaysSinceEpoch(epochDay));
+        if ((flags & HOUR_REQUESTED_PRESENT) != 0)
+            stats.setHourRequested(hour);
+        if ((flags & STATISTICS_ADDED_AT_PRESENT) != 0)
+            stats.setStatisticsAddedAt(Instant.ofEpochSecond(epochSecond, nano));
+        try {
+            stats.setCoverageIncreaseSketch(QuantileSketch.decode(buffer));
+            if ((flags & DISTINCT_COUNTS_PRESENT) != 0) {
+                stats.setDistinctAccountsSketch(DistinctCountSketch.decode(buffer));
+                stats.setDistinctRecipientsSketch(DistinctCountSketch.decode(buffer));
+            } else {
+                stats.setDistinctAccountsSketch(null);
+                stats.setDistinctRecipientsSketch(null);
+            }
+            stats.setVersion(ByteUtils.readVarlong(buffer));
+            if ((flags & TOP_ACCOUNTS_PRESENT) != 0)
+                stats.setTopAccountsSketch(HeavyHittersSketch.decode(buffer));
+        } catch (RuntimeException e) {
+            throw new SerializationException("Invalid statistics sketch", e);
+        }
+        return stats;
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,86 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.DistinctCountSketch;
+import com.compsource.app.data.model.HeavyHittersSketch;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.QuantileSketch;
+import org.apache.kafka.common.serialization.Serializer;
+import org.apache.kafka.common.utils.ByteUtils;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Kafka Serializer class for writing the PolicyLimitChangeRequestsStatistics in a compact,
+ * fixed-layout binary format.
+ * <p>
+ * Layout (big-endian): version byte, presence flags byte, epoch day (int), hour (byte), total
+ * coverage increase amount (long), total coverage increase requests count (int), statistics added
+ * at epoch second (long) and nano adjustment (int), followed by the coverage increase
+ * {@link QuantileSketch} and the distinct accounts and recipients {@link DistinctCountSketch} in
+ * their own encodings when the statistics keep them (not the per account totals), the version of
+ * the statistics (varlong) and the {@link HeavyHittersSketch} of the top accounts when the
+ * statistics keep one. Absent values are written as zero and flagged as missing in the presence
+ * flags.
+ */
+public class PolicyLimitChangeRequestsStatisticsSerializer implements Serializer<PolicyLimitChangeRequestsStatistics> {
+    public static final byte FORMAT_VERSION = 1;
+    // Size of the fixed part, before the sketches
+    static final int SERIALIZED_SIZE = 31;
+    static final byte DATE_REQUESTED_PRESENT = 1;
+    static final byte HOUR_REQUESTED_PRESENT = 1 << 1;
+    static final byte STATISTICS_ADDED_AT_PRESENT = 1 << 2;
+    static final byte TOP_ACCOUNTS_PRESENT = 1 << 3;
+    static final byte DISTINCT_COUNTS_PRESENT = 1 << 4;
+
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, PolicyLimitChangeRequestsStatistics stats) {
+        if (stats == null) {
+            return null;
+        }
+        byte flags = 0;
+        if (stats.getDateRequested() != null) flags |= DATE_REQUESTED_PRESENT;
+        if (stats.getHourRequested() != null) flags |= HOUR_REQUESTED_PRESENT;
+        if (stats.getStatisticsAddedAt() != null) flags |= STATISTICS_ADDED_AT_PRESENT;
+        if (stats.getTopAccountsSketch() != null) flags |= TOP_ACCOUNTS_PRESENT;
+        boolean distinctCounts = stats.getDistinctAccountsSketch() != null
+                || stats.getDistinctRecipientsSketch() != null;
+        if (distinctCounts) flags |= DISTINCT_COUNTS_PRESENT;
+
+        QuantileSketch sketch = stats.getCoverageIncreaseSketch() == null
+                ? new QuantileSketch() : stats.getCoverageIncreaseSketch();
+        DistinctCountSketch accountsSketch = stats.getDistinctAccountsSketch() == null
+                ? new DistinctCountSketch(DistinctCountSketch.MIN_PRECISION) : stats.getDistinctAccountsSketch();
+        DistinctCountSketch recipientsSketch = stats.getDistinctRecipientsSketch() == null
+                ? new DistinctCountSketch(DistinctCountSketch.MIN_PRECISION) : stats.getDistinctRecipientsSketch();
+        ByteBuffer buffer = ByteBuffer.allocate(SERIALIZED_SIZE + sketch.encodedSize()
+                + (distinctCounts ? accountsSketch.encodedSize() + recipientsSketch.encodedSize() : 0)
+                + ByteUtils.sizeOfVarlong(stats.getVersion())
+                + (stats.getTopAccountsSketch() == null ? 0 : stats.getTopAccountsSketch().encodedSize()));
+        buffer.put(FORMAT_VERSION);
+        buffer.put(flags);
+        buffer.putInt(stats.getDateRequested() == null ? 0 : stats.getDateRequested().getDaysSinceEpoch());
+        buffer.put(stats.getHourRequested() == null ? 0 : stats.getHourRequested());
+        buffer.putLong(stats.getTotalCoverageIncreaseAmount());
+        buffer.putInt(stats.getTotalCoverageIncreaseRequestsCount());
+        buffer.putLong(stats.getStatisticsAddedAt() == null ? 0 : stats.getStatisticsAddedAt().getEpochSecond());
+        buffer.putInt(stats.getStatisticsAddedAt() == null ? 0 : stats.getStatisticsAddedAt().getNano());
+        sketch.encode(buffer);
+        if (distinctCounts) {
+            accountsSketch.encode(buffer);
+            recipientsSketch.encode(buffer);
+        }
+        ByteUtils.writeVarlong(stats.getVersion(), buffer);
+        if (stats.getTopAccountsSketch() != null)
+            stats.getTopAccountsSketch().encode(buffer);
+        return buffer.array();
+    }
+
+    @Override
+    public void close() {
+    }
+}
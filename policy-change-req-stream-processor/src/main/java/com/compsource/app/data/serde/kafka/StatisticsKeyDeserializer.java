@@ -0,0 +1,45 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.StatisticsKey;
+import org.apache.kafka.common.errors.SerializationException;
+import org.apache.kafka.common.serialization.Deserializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+import static com.compsource.app.data.serde.kafka.StatisticsKeySerializer.SERIALIZED_SIZE;
+
+/**
+ * Kafka Deserializer class for reading the StatisticsKey written by {@link StatisticsKeySerializer}
+ */
+public class StatisticsKeyDeserializer implements Deserializer<StatisticsKey> {
+
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public StatisticsKey deserialize(String topic, byte[] bytes) {
+        if (bytes == null) {
+            return null;
+        }
+        if (bytes.length != SERIALIZED_SIZE) {
+            throw new SerializationException("Unsupported statistics key size: " + bytes.length + " bytes");
+        }
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        StatisticsKey.Granularity granularity;
+        try {
+            granularity = StatisticsKey.Granularity.of(buffer.get());
+        } catch (IllegalArgumentException e) {
+            throw new SerializationException(e.getMessage());
+        }
+        long periodStart = buffer.getLong();
+        int accountId = buffer.getInt() ^ Integer.MIN_VALUE;
+        return new StatisticsKey(granularity, periodStart,
+                granularity == StatisticsKey.Granularity.ACCOUNT_HOURLY ? accountId : null);
+    }
+
+    @Override
+    public void close() {
+    }
+}
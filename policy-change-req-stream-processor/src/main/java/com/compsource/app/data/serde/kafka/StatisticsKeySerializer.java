@@ -0,0 +1,39 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.StatisticsKey;
+import org.apache.kafka.common.serialization.Serializer;
+
+import java.nio.ByteBuffer;
+import java.util.Map;
+
+/**
+ * Kafka Serializer class for writing the StatisticsKey in a fixed-layout binary format.
+ * <p>
+ * Layout (big-endian): granularity code (byte), period start in epoch milliseconds (long) and the
+ * accountId (int) with its sign bit flipped, zero when absent. The byte order of the serialized
+ * keys follows the granularity, then the period start, then the accountId, so the keys of a
+ * granularity up to a given period can be read with a single range query.
+ */
+public class StatisticsKeySerializer implements Serializer<StatisticsKey> {
+    public static final int SERIALIZED_SIZE = 13;
+
+    @Override
+    public void configure(Map<String, ?> map, boolean b) {
+    }
+
+    @Override
+    public byte[] serialize(String topic, StatisticsKey key) {
+        if (key == null) {
+            return null;
+        }
+        ByteBuffer buffer = ByteBuffer.allocate(SERIALIZED_SIZE);
+        buffer.put(key.getGranularity().code());
+        buffer.putLong(key.getPeriodStart());
+        buffer.putInt(key.getAccountId() == null ? 0 : key.getAccountId() ^ Integer.MIN_VALUE);
+        return buffer.array();
+    }
+
+    @Override
+    public void close() {
+    }
+}
@@ -0,0 +1,289 @@
+package com.compsource.app.data.validation;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Validation rules for the PolicyLimitChangeRequest, compiled once from the properties file into a
+ * flat array of typed checks.
+ * <p>
+ * Evaluating an event goes through the precomputed field accessors and the precompiled GUID
+ * patterns (with one reusable Matcher per stream thread) and returns the index of the first
+ * failed rule, so the accept path allocates nothing. The rules are evaluated in this order:
+ * <ul>
+ * <li>rules.guid - field must be a valid and non-empty Guid</li>
+ * <li>fields.non-nullable - field must not be NULL</li>
+ * <li>rules.minimum - field:minimum, Integer field must be greater than or equal to the minimum</li>
+ * <li>rules.true - Boolean field must be true</li>
+ * <li>rules.greater-than - fieldA&gt;fieldB, Integer fieldA must be greater than fieldB</li>
+ * <li>rules.present-if-true - flag:fieldA|fieldB, the fields must be non-null when the flag is true
+ * and null when it is false</li>
+ * </ul>
+ * Every property key is suffixed with the event name (.policy-limit-change-request) and holds a
+ * comma separated list of rules.
+ */
+public class PolicyLimitChangeReqRuleEngine {
+    public static final int ACCEPTED = -1;
+    private static final String EVENT_SUFFIX = ".policy-limit-change-request";
+    private static final Pattern GUID_PATTERN =
+            Pattern.compile("^[{]?[0-9a-fA-F]{8}-([0-9a-fA-F]{4}-){3}[0-9a-fA-F]{12}[}]?$");
+    private static final Pattern EMPTY_GUID_PATTERN = Pattern.compile("^0{8}-(0{4}-){3}0{12}$");
+
+    private final Rule[] rules;
+
+    private PolicyLimitChangeReqRuleEngine(Rule[] rules) {
+        this.rules = rules;
+    }
+
+    /**
+     * Compiles the validation rules configured in the properties
+     *
+     * @param properties - Properties holding the validation rules
+     * @return - Compiled PolicyLimitChangeReqRuleEngine
+     * @throws IllegalArgumentException - The rules reference an unknown field or are malformed
+     */
+    public static PolicyLimitChangeReqRuleEngine compile(Properties properties) {
+        List<Rule> rules = new ArrayList<>();
+        for (String field : ruleList(properties, "rules.guid"))
+            rules.add(new GuidRule(PolicyLimitChangeRequestField.of(field, String.class)));
+        for (String field : ruleList(properties, "fields.non-nullable"))
+            rules.add(new NotNullRule(PolicyLimitChangeRequestField.of(field, Object.class)));
+        for (String rule : ruleList(properties, "rules.minimum")) {
+            String[] operands = split(rule, ":");
+            rules.add(new MinimumRule(PolicyLimitChangeRequestField.of(operands[0], Integer.class),
+                    Integer.parseInt(operands[1].trim())));
+        }
+        for (String field : ruleList(properties, "rules.true"))
+            rules.add(new TrueRule(PolicyLimitChangeRequestField.of(field, Boolean.class)));
+        for (String rule : ruleList(properties, "rules.greater-than")) {
+            String[] operands = split(rule, ">");
+            rules.add(new GreaterThanRule(PolicyLimitChangeRequestField.of(operands[0], Integer.class),
+                    PolicyLimitChangeRequestField.of(operands[1], Integer.class)));
+        }
+        for (String rule : ruleList(properties, "rules.present-if-true")) {
+            String[] operands = split(rule, ":");
+            String[] dependentFieldNames = operands[1].split("\\|");
+            PolicyLimitChangeRequestField[] dependentFields =
+                    new PolicyLimitChangeRequestField[dependentFieldNames.length];
+            for (int index = 0; index < dependentFieldNames.length; index++)
+                dependentFields[index] = PolicyLimitChangeRequestField.of(dependentFieldNames[index], Object.class);
+            rules.add(new PresentIfTrueRule(PolicyLimitChangeRequestField.of(operands[0], Boolean.class),
+                    dependentFields));
+        }
+        return new PolicyLimitChangeReqRuleEngine(rules.toArray(new Rule[0]));
+    }
+
+    /**
+     * Evaluates all the rules against the PolicyLimitChangeRequest
+     *
+     * @param policyLimitChangeRequest - PolicyLimitChangeRequest object
+     * @return - Index of the first failed rule, ACCEPTED if the request passed all the rules
+     */
+    public int evaluate(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        for (int index = 0; index < rules.length; index++) {
+            if (!rules[index].passes(policyLimitChangeRequest))
+                return index;
+        }
+        return ACCEPTED;
+    }
+
+    /**
+     * @param result - Result of {@link #evaluate(PolicyLimitChangeRequest)}
+     * @return - Rejection reason code of the result
+     */
+    public RejectionReason reasonOf(int result) {
+        return result == ACCEPTED ? RejectionReason.ACCEPTED : rules[result].reason;
+    }
+
+    /**
+     * Describes why the request failed the rule. Only used on the rejection path
+     *
+     * @param result                   - Result of {@link #evaluate(PolicyLimitChangeRequest)}
+     * @param policyLimitChangeRequest - Evaluated PolicyLimitChangeRequest object
+     * @return - Reason for marking the event as invalid
+     */
+    public String describe(int result, PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return result == ACCEPTED ? RejectionReason.ACCEPTED.getDescription()
+                : rules[result].describe(policyLimitChangeRequest);
+    }
+
+    private static List<String> ruleList(Properties properties, String key) {
+        List<String> rules = new ArrayList<>();
+        String value = properties.getProperty(key + EVENT_SUFFIX);
+        if (value != null) {
+            for (String rule : value.split(",")) {
+                if (!rule.trim().isEmpty())
+                    rules.add(rule.trim());
+            }
+        }
+        return rules;
+    }
+
+    private static String[] split(String rule, String separator) {
+        String[] operands = rule.split(Pattern.quote(separator));
+        if (operands.length != 2)
+            throw new IllegalArgumentException("Malformed validation rule: " + rule);
+        return operands;
+    }
+
+    /**
+     * A single compiled check
+     */
+    private abstract static class Rule {
+        private final RejectionReason reason;
+
+        Rule(RejectionReason reason) {
+            this.reason = reason;
+        }
+
+        abstract boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest);
+
+        abstract String describe(PolicyLimitChangeRequest policyLimitChangeRequest);
+    }
+
+    private static final class GuidRule extends Rule {
+        private final PolicyLimitChangeRequestField field;
+        // Matchers are not thread safe, each stream thread reuses its own
+        private final ThreadLocal<Matcher> guidMatcher = ThreadLocal.withInitial(() -> GUID_PATTERN.matcher(""));
+        private final ThreadLocal<Matcher> emptyGuidMatcher =
+                ThreadLocal.withInitial(() -> EMPTY_GUID_PATTERN.matcher(""));
+
+        GuidRule(PolicyLimitChangeRequestField field) {
+            super(RejectionReason.INVALID_COI_REQUEST_ID);
+            this.field = field;
+        }
+
+        @Override
+        boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            String guid = field.getString(policyLimitChangeRequest);
+            return guid != null && guidMatcher.get().reset(guid).matches()
+                    && !emptyGuidMatcher.get().reset(guid).matches();
+        }
+
+        @Override
+        String describe(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return String.format("The incoming %s is either Invalid (or) Empty", field.getFieldName());
+        }
+    }
+
+    private static final class NotNullRule extends Rule {
+        private final PolicyLimitChangeRequestField field;
+
+        NotNullRule(PolicyLimitChangeRequestField field) {
+            super(RejectionReason.NULL_FIELD);
+            this.field = field;
+        }
+
+        @Override
+        boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return field.get(policyLimitChangeRequest) != null;
+        }
+
+        @Override
+        String describe(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return String.format("Field %s is NULL", field.getFieldName());
+        }
+    }
+
+    private static final class MinimumRule extends Rule {
+        private final PolicyLimitChangeRequestField field;
+        private final int minimum;
+
+        MinimumRule(PolicyLimitChangeRequestField field, int minimum) {
+            super(RejectionReason.BELOW_MINIMUM);
+            this.field = field;
+            this.minimum = minimum;
+        }
+
+        @Override
+        boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            Integer value = field.getInteger(policyLimitChangeRequest);
+            return value != null && value >= minimum;
+        }
+
+        @Override
+        String describe(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return String.format("%s => %s is less than %s", field.getFieldName(),
+                    field.get(policyLimitChangeRequest), minimum);
+        }
+    }
+
+    private static final class TrueRule extends Rule {
+        private final PolicyLimitChangeRequestField field;
+
+        TrueRule(PolicyLimitChangeRequestField field) {
+            super(RejectionReason.NOT_TRUE);
+            this.field = field;
+        }
+
+        @Override
+        boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return Boolean.TRUE.equals(field.getBoolean(policyLimitChangeRequest));
+        }
+
+        @Override
+        String describe(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return String.format("%s => %s is not true", field.getFieldName(),
+                    field.get(policyLimitChangeRequest));
+        }
+    }
+
+    private static final class GreaterThanRule extends Rule {
+        private final PolicyLimitChangeRequestField field;
+        private final PolicyLimitChangeRequestField comparedField;
+
+        GreaterThanRule(PolicyLimitChangeRequestField field, PolicyLimitChangeRequestField comparedField) {
+            super(RejectionReason.NOT_GREATER_THAN);
+            this.field = field;
+            this.comparedField = comparedField;
+        }
+
+        @Override
+        boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            Integer value = field.getInteger(policyLimitChangeRequest);
+            Integer comparedValue = comparedField.getInteger(policyLimitChangeRequest);
+            return value != null && comparedValue != null && value > comparedValue;
+        }
+
+        @Override
+        String describe(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return String.format("%s => %s is not greater than %s => %s", field.getFieldName(),
+                    field.get(policyLimitChangeRequest), comparedField.getFieldName(),
+                    comparedField.get(policyLimitChangeRequest));
+        }
+    }
+
+    private static final class PresentIfTrueRule extends Rule {
+        private final PolicyLimitChangeRequestField flag;
+        private final PolicyLimitChangeRequestField[] dependentFields;
+
+        PresentIfTrueRule(PolicyLimitChangeRequestField flag, PolicyLimitChangeRequestField[] dependentFields) {
+            super(RejectionReason.PRESENCE_MISMATCH);
+            this.flag = flag;
+            this.dependentFields = dependentFields;
+        }
+
+        @Override
+        boolean passes(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            Boolean flagValue = flag.getBoolean(policyLimitChangeRequest);
+            if (flagValue == null)
+                return false;
+            for (PolicyLimitChangeRequestField dependentField : dependentFields) {
+                if ((dependentField.get(policyLimitChangeRequest) != null) != flagValue)
+                    return false;
+            }
+            return true;
+        }
+
+        @Override
+        String describe(PolicyLimitChangeRequest policyLimitChangeRequest) {
+            return String.format("The fields depending on %s => %s doesn't conforms to the " +
+                    "business rules", flag.getFieldName(), flag.get(policyLimitChangeRequest));
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.compsource.app.data.validation;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+
+import java.util.function.Function;
+
+/**
+ * Typed accessors for the fields of the PolicyLimitChangeRequest that can be referenced by the
+ * validation rules in the properties file
+ */
+public enum PolicyLimitChangeRequestField {
+    COI_REQUEST_ID("coiRequestId", String.class, PolicyLimitChangeRequest::getCoiRequestId),
+    ACCOUNT_ID("accountId", Integer.class, PolicyLimitChangeRequest::getAccountId),
+    EXISTING_POLICY_COVERAGE_LIMIT("existingPolicyCoverageLimit", Integer.class,
+            PolicyLimitChangeRequest::getExistingPolicyCoverageLimit),
+    IS_CHANGE_REQUESTED("isChangeRequested", Boolean.class, PolicyLimitChangeRequest::getIsChangeRequested),
+    NEWLY_REQUESTED_POLICY_COVERAGE_LIMIT("newlyRequestedPolicyCoverageLimit", Integer.class,
+            PolicyLimitChangeRequest::getNewlyRequestedPolicyCoverageLimit),
+    IS_NEW_RECIPIENT("isNewRecipient", Boolean.class, PolicyLimitChangeRequest::getIsNewRecipient),
+    RECIPIENT_ID("recipientId", String.class, PolicyLimitChangeRequest::getRecipientId),
+    RECIPIENT_NAME("recipientName", String.class, PolicyLimitChangeRequest::getRecipientName),
+    RECIPIENT_EMAIL("recipientEmail", String.class, PolicyLimitChangeRequest::getRecipientEmail),
+    DATE_REQUESTED("dateRequested", String.class, PolicyLimitChangeRequest::getDateRequested);
+
+    private final String fieldName;
+    private final Class<?> type;
+    private final Function<PolicyLimitChangeRequest, ?> accessor;
+
+    PolicyLimitChangeRequestField(String fieldName, Class<?> type,
+                                  Function<PolicyLimitChangeRequest, ?> accessor) {
+        this.fieldName = fieldName;
+        this.type = type;
+        this.accessor = accessor;
+    }
+
+    /**
+     * Returns the field with the given name
+     *
+     * @param fieldName  - Field name as in the event JSON
+     * @param fieldType  - Type the rule expects for the field
+     * @return - PolicyLimitChangeRequestField
+     * @throws IllegalArgumentException - Unknown field or field of another type
+     */
+    public static PolicyLimitChangeRequestField of(String fieldName, Class<?> fieldType) {
+        for (PolicyLimitChangeRequestField field : values()) {
+            if (field.fieldName.equals(fieldName.trim())) {
+                if (!fieldType.isAssignableFrom(field.type))
+                    throw new IllegalArgumentException(String.format("Field %s of the class " +
+                            "PolicyLimitChangeRequest is not of type %s", fieldName, fieldType.getSimpleName()));
+                return field;
+            }
+        }
+        throw new IllegalArgumentException("Field: " + fieldName + " not found in the class " +
+                "PolicyLimitChangeRequest");
+    }
+
+    public String getFieldName() {
+        return fieldName;
+    }
+
+    public Object get(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return accessor.apply(policyLimitChangeRequest);
+    }
+
+    public Integer getInteger(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return (Integer) accessor.apply(policyLimitChangeRequest);
+    }
+
+    public Boolean getBoolean(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return (Boolean) accessor.apply(policyLimitChangeRequest);
+    }
+
+    public String getString(PolicyLimitChangeRequest policyLimitChangeRequest) {
+        return (String) accessor.apply(policyLimitChangeRequest);
+    }
+}
@@ -0,0 +1,31 @@
+package com.compsource.app.data.validation;
+
+/**
+ * Reason codes for the outcome of the PolicyLimitChangeRequest validation
+ */
+public enum RejectionReason {
+    ACCEPTED(0, "Accepted"),
+    INVALID_COI_REQUEST_ID(1, "The incoming coiRequestedId is either Invalid (or) Empty"),
+    NULL_FIELD(2, "Non-nullable field is NULL"),
+    BELOW_MINIMUM(3, "Field value is below the allowed minimum"),
+    NOT_TRUE(4, "Required flag is not true"),
+    NOT_GREATER_THAN(5, "Field value is not greater than the compared field"),
+    PRESENCE_MISMATCH(6, "Dependent fields doesn't conforms to the business rules"),
+    INVALID_DATE_REQUESTED(7, "The dateRequested is either missing (or) not a valid yyyy-MM-dd HH:mm:ss date");
+
+    private final byte code;
+    private final String description;
+
+    RejectionReason(int code, String description) {
+        this.code = (byte) code;
+        this.description = description;
+    }
+
+    public byte getCode() {
+        return code;
+    }
+
+    public String getDescription() {
+        return description;
+    }
+}
@@ -8,11 +8,21 @@ import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.Properties;
 import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.Supplier;
 
 import static net.logstash.logback.argument.StructuredArguments.kv;
 
 /**
  * Class that handles custom logging operations
+ * <p>
+ * The structured messages are sampled per message: log.sampling.&lt;message&gt; (the message with
+ * its spaces replaced by dashes, e.g. log.sampling.event-received) is the fraction of the messages
+ * written, all of them by default. The structured arguments and the technical details are only
+ * built for the messages written at an enabled level, the details of the Supplier overloads only
+ * then. The hostname is resolved once.
  */
 public class LogManager {
     private static Properties properties = ConfigUtil.loadProperty();
@@ -22,6 +32,8 @@ public class LogManager {
     private static String technicalDetailsKey = properties.getProperty("log.technical-details.key");
     private static String hostNameKey = properties.getProperty("log.hostname.key");
     private static String serviceNameKey = properties.getProperty("log.service-name.key");
+    private static final String hostName = resolveHostName();
+    private static final ConcurrentMap<String, Double> samplingRates = new ConcurrentHashMap<>();
     private Logger logger;
 
     public LogManager(Class<?> loggerClass) {
@@ -36,10 +48,31 @@ public class LogManager {
      * @param technicalDetails - null
      */
     public void info(String message, String correlationId, String technicalDetails) {
-        if (correlationId.equals("")) correlationId = UUID.randomUUID().toString();
-        logger.info(message, kv(correlationIdKey, correlationId),
-                kv(statusKey, "success"), kv(technicalDetailsKey, technicalDetails),
-                kv(hostNameKey, getHostName()), kv(serviceNameKey, serviceName));
+        if (logger.isInfoEnabled() && isSampled(message))
+            logInfo(message, correlationId, technicalDetails);
+    }
+
+    /**
+     * Publishes a log info message without technical details
+     *
+     * @param message       - log message
+     * @param correlationId - COI Request Id
+     */
+    public void info(String message, String correlationId) {
+        if (logger.isInfoEnabled() && isSampled(message))
+            logInfo(message, correlationId, null);
+    }
+
+    /**
+     * Publishes a log info message, the technical details are only built if it is written
+     *
+     * @param message          - log message
+     * @param correlationId    - COI Request Id
+     * @param technicalDetails - Builds the technical details
+     */
+    public void info(String message, String correlationId, Supplier<String> technicalDetails) {
+        if (logger.isInfoEnabled() && isSampled(message))
+            logInfo(message, correlationId, technicalDetails.get());
     }
 
     public void info(String message) {
@@ -54,22 +87,54 @@ public class LogManager {
      * @param technicalDetails - Reason for the error along with the required information
      */
     public void error(String message, String correlationId, String technicalDetails) {
+        if (logger.isErrorEnabled() && isSampled(message))
+            logError(message, correlationId, technicalDetails);
+    }
+
+    /**
+     * Publishes a log error message, the technical details are only built if it is written
+     *
+     * @param message          - log message
+     * @param correlationId    - COI Request Id
+     * @param technicalDetails - Builds the reason for the error along with the required information
+     */
+    public void error(String message, String correlationId, Supplier<String> technicalDetails) {
+        if (logger.isErrorEnabled() && isSampled(message))
+            logError(message, correlationId, technicalDetails.get());
+    }
+
+    public void error(String message) {
+        logger.error(message);
+    }
+
+    private void logInfo(String message, String correlationId, String technicalDetails) {
+        if (correlationId.equals("")) correlationId = UUID.randomUUID().toString();
+        logger.info(message, kv(correlationIdKey, correlationId),
+                kv(statusKey, "success"), kv(technicalDetailsKey, technicalDetails),
+                kv(hostNameKey, hostName), kv(serviceNameKey, serviceName));
+    }
+
+    private void logError(String message, String correlationId, String technicalDetails) {
         if (correlationId.equals("")) correlationId = UUID.randomUUID().toString();
 
         logger.error(message, kv(correlationIdKey, correlationId),
                 kv(statusKey, "failure"), kv(technicalDetailsKey, technicalDetails),
-                kv(hostNameKey, getHostName()), kv(serviceNameKey, serviceName));
-
+                kv(hostNameKey, hostName), kv(serviceNameKey, serviceName));
     }
 
-    public void error(String message) {
-        logger.error(message);
+    /**
+     * @return - true if this occurrence of the message is written, according to its sampling rate
+     */
+    private static boolean isSampled(String message) {
+        double samplingRate = samplingRates.computeIfAbsent(message, key -> Double.parseDouble(
+                properties.getProperty("log.sampling." + key.replace(' ', '-'), "1").trim()));
+        return samplingRate >= 1 || ThreadLocalRandom.current().nextDouble() < samplingRate;
     }
 
     /**
      * @return - Hostname of the machine
      */
-    private String getHostName() {
+    private static String resolveHostName() {
         try {
             return InetAddress.getLocalHost().getHostName();
         } catch (UnknownHostException e) {
@@ -0,0 +1,57 @@
+package com.compsource.app.logging;
+
+import java.time.Duration;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Error log of frequent events (rejected or malformed records) written as sampled summaries: at
+ * most one line per kind of event and interval, with the details of the sampled event and the
+ * number of events of this kind since the previous summary. The details are only built for the
+ * sampled events, so a flood of bad records costs a counter increment per record rather than a
+ * log line.
+ */
+public class SummaryLog {
+    private final LogManager logger;
+    private final String message;
+    private final long intervalNanos;
+    private final ConcurrentMap<String, Summary> summaries = new ConcurrentHashMap<>();
+
+    /**
+     * @param loggerClass - Class logging the summaries
+     * @param message     - Log message of the summaries
+     * @param interval    - Minimum time between two summaries of the same kind of event
+     */
+    public SummaryLog(Class<?> loggerClass, String message, Duration interval) {
+        this.logger = new LogManager(loggerClass);
+        this.message = message;
+        this.intervalNanos = interval.toNanos();
+    }
+
+    /**
+     * Counts the event, and logs a summary if none was logged for this kind of event during the
+     * interval
+     *
+     * @param kind          - Kind of event, e.g. the rejection reason
+     * @param correlationId - Correlation Id of the event
+     * @param details       - Details of the event, only built if the event is sampled
+     */
+    public void record(String kind, String correlationId, Supplier<String> details) {
+        Summary summary = summaries.computeIfAbsent(kind, key -> new Summary());
+        summary.count.incrementAndGet();
+        long now = System.nanoTime();
+        long nextSummary = summary.nextSummaryNanos.get();
+        if (now - nextSummary < 0 || !summary.nextSummaryNanos.compareAndSet(nextSummary, now + intervalNanos))
+            return;
+        logger.error(message, correlationId, String.format("%s, Occurrences since the last summary: %d",
+                details.get(), summary.count.getAndSet(0)));
+    }
+
+    private static final class Summary {
+        private final AtomicLong count = new AtomicLong();
+        // The first event of a kind is always logged
+        private final AtomicLong nextSummaryNanos = new AtomicLong(System.nanoTime());
+    }
+}
@@ -0,0 +1,279 @@
+package com.compsource.app.metrics;
+
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.data.validation.RejectionReason;
+import com.compsource.app.logging.LogManager;
+import com.compsource.app.utils.ConfigUtil;
+import com.sun.net.httpserver.HttpServer;
+import io.micrometer.core.instrument.Clock;
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.JvmGcMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmMemoryMetrics;
+import io.micrometer.core.instrument.binder.jvm.JvmThreadMetrics;
+import io.micrometer.core.instrument.binder.system.ProcessorMetrics;
+import io.micrometer.core.instrument.composite.CompositeMeterRegistry;
+import io.micrometer.jmx.JmxConfig;
+import io.micrometer.jmx.JmxMeterRegistry;
+import io.micrometer.prometheus.PrometheusConfig;
+import io.micrometer.prometheus.PrometheusMeterRegistry;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.kstream.Aggregator;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Metrics of the stream processor, in a Micrometer registry exported over JMX (metrics domain)
+ * and on a local Prometheus scrape endpoint (GET /metrics on metrics.prometheus.port) once {@link
+ * #start()} is called. Until then, and in the tests, the meters record into an empty composite
+ * registry and cost next to nothing.
+ * <ul>
+ * <li>policy.change.event.time.watermark / policy.change.event.time.lag: highest event time
+ * (dateRequested) extracted so far, and its distance to the wall clock, in seconds</li>
+ * <li>policy.change.validation: validated events by outcome (reason tag, ACCEPTED or a
+ * RejectionReason, MALFORMED for the records that aren't valid JSON)</li>
+ * <li>policy.change.aggregate: latency of the aggregation of an event (stage tag, partial or
+ * account), the aggregator only, the state store access excluded</li>
+ * <li>policy.change.statistics.write: latency of the Cassandra writes, from the submission to the
+ * acknowledgement (granularity and outcome tags)</li>
+ * <li>policy.change.state.store.entries / policy.change.state.directory.size: approximate number
+ * of entries of the key-value stores and size of the state directory on disk</li>
+ * </ul>
+ * The latencies are published as percentiles (metrics.latency.percentiles) and as histograms, so
+ * that Prometheus can aggregate them across the instances.
+ */
+public final class StreamProcessorMetrics {
+    private static LogManager logger = new LogManager(StreamProcessorMetrics.class);
+    private static Properties properties = ConfigUtil.loadProperty();
+    private static final String MALFORMED = "MALFORMED";
+    private static final double[] PERCENTILES = percentiles(
+            properties.getProperty("metrics.latency.percentiles", "0.5,0.95,0.99"));
+
+    private static final CompositeMeterRegistry registry = new CompositeMeterRegistry();
+    private static final AtomicLong watermark = new AtomicLong(-1);
+    private static final Counter[] validationOutcomes = new Counter[RejectionReason.values().length];
+    private static final Counter malformedEvents = validationCounter(MALFORMED);
+    private static final Timer partialAggregation = aggregationTimer("partial");
+    private static final Timer accountAggregation = aggregationTimer("account");
+    private static final Map<Granularity, Timer> successfulWrites = new EnumMap<>(Granularity.class);
+    private static final Map<Granularity, Timer> failedWrites = new EnumMap<>(Granularity.class);
+
+    static {
+        for (RejectionReason reason : RejectionReason.values())
+            validationOutcomes[reason.ordinal()] = validationCounter(reason.name());
+        for (Granularity granularity : Granularity.values()) {
+            successfulWrites.put(granularity, writeTimer(granularity, "success"));
+            failedWrites.put(granularity, writeTimer(granularity, "failure"));
+        }
+        Gauge.builder("policy.change.event.time.watermark", watermark, value -> value.get() < 0 ? Double.NaN
+                : value.get() / 1000.0)
+                .description("Highest event time extracted so far").baseUnit("seconds").register(registry);
+        Gauge.builder("policy.change.event.time.lag", watermark, value -> value.get() < 0 ? Double.NaN
+                : (System.currentTimeMillis() - value.get()) / 1000.0)
+                .description("Wall clock time minus the event time watermark").baseUnit("seconds")
+                .register(registry);
+    }
+
+    private StreamProcessorMetrics() {
+    }
+
+    /**
+     * Adds the JMX registry (unless metrics.jmx.enabled is false) and the Prometheus registry to
+     * the metrics, binds the JVM metrics and starts the Prometheus scrape endpoint
+     *
+     * @return - Stops the scrape endpoint and the registries
+     * @throws IOException - The port of the scrape endpoint can't be bound
+     */
+    public static Closeable start() throws IOException {
+        if (Boolean.parseBoolean(properties.getProperty("metrics.jmx.enabled", "true").trim()))
+            registry.add(new JmxMeterRegistry(JmxConfig.DEFAULT, Clock.SYSTEM));
+        new JvmMemoryMetrics().bindTo(registry);
+        new JvmGcMetrics().bindTo(registry);
+        new JvmThreadMetrics().bindTo(registry);
+        new ProcessorMetrics().bindTo(registry);
+
+        String port = properties.getProperty("metrics.prometheus.port", "").trim();
+        if (port.isEmpty())
+            return registry::close;
+        PrometheusMeterRegistry prometheusRegistry = new PrometheusMeterRegistry(PrometheusConfig.DEFAULT);
+        registry.add(prometheusRegistry);
+        HttpServer server = HttpServer.create(new InetSocketAddress(Integer.parseInt(port)), 0);
+        server.createContext("/metrics", exchange -> {
+            byte[] scrape = prometheusRegistry.scrape().getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/plain; version=0.0.4; charset=utf-8");
+            exchange.sendResponseHeaders(200, scrape.length);
+            try (OutputStream body = exchange.getResponseBody()) {
+                body.write(scrape);
+            }
+        });
+        server.start();
+        logger.info("Prometheus metrics served on port " + server.getAddress().getPort());
+        return () -> {
+            server.stop(0);
+            registry.close();
+        };
+    }
+
+    /**
+     * Raises the event time watermark
+     *
+     * @param eventTime - Event time of a record, epoch milliseconds
+     */
+    public static void observeEventTime(long eventTime) {
+        // Only the records raising the watermark write to the shared value
+        long current = watermark.get();
+        while (eventTime > current && !watermark.compareAndSet(current, eventTime))
+            current = watermark.get();
+    }
+
+    /**
+     * Counts a validated event
+     *
+     * @param reason - Outcome of the validation
+     */
+    public static void recordValidation(RejectionReason reason) {
+        validationOutcomes[reason.ordinal()].increment();
+    }
+
+    /**
+     * Counts an event that isn't valid JSON
+     */
+    public static void recordMalformed() {
+        malformedEvents.increment();
+    }
+
+    /**
+     * @param aggregator - Aggregator of the partial (bucket) statistics
+     * @return - Aggregator recording its latency in policy.change.aggregate (stage partial)
+     */
+    public static <K, V, VA> Aggregator<K, V, VA> timedPartialAggregation(Aggregator<K, V, VA> aggregator) {
+        return timed(partialAggregation, aggregator);
+    }
+
+    /**
+     * @param aggregator - Aggregator of the per account statistics
+     * @return - Aggregator recording its latency in policy.change.aggregate (stage account)
+     */
+    public static <K, V, VA> Aggregator<K, V, VA> timedAccountAggregation(Aggregator<K, V, VA> aggregator) {
+        return timed(accountAggregation, aggregator);
+    }
+
+    private static <K, V, VA> Aggregator<K, V, VA> timed(Timer timer, Aggregator<K, V, VA> aggregator) {
+        return (key, value, aggregate) -> {
+            long start = System.nanoTime();
+            VA updated = aggregator.apply(key, value, aggregate);
+            timer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+            return updated;
+        };
+    }
+
+    /**
+     * Records the latency of a statistics write
+     *
+     * @param granularity   - Granularity of the written statistics
+     * @param durationNanos - Time from the submission of the write to its completion
+     * @param succeeded     - false if the write failed
+     */
+    public static void recordWrite(Granularity granularity, long durationNanos, boolean succeeded) {
+        (succeeded ? successfulWrites : failedWrites).get(granularity).record(durationNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Registers the number of entries of the local key-value stores and the size of the state
+     * directory
+     *
+     * @param streams        - KafkaStreams instance of the topology
+     * @param stateDirectory - State directory of the application
+     * @param storeNames     - Key-value stores of the topology
+     */
+    public static void bindStateStores(KafkaStreams streams, Path stateDirectory, String... storeNames) {
+        for (String storeName : storeNames) {
+            Gauge.builder("policy.change.state.store.entries", streams, kafkaStreams -> approximateEntries(
+                    kafkaStreams, storeName))
+                    .description("Approximate number of entries of the local key-value store")
+                    .tag("store", storeName).register(registry);
+        }
+        Gauge.builder("policy.change.state.directory.size", stateDirectory, StreamProcessorMetrics::sizeOf)
+                .description("Size of the state directory on disk").baseUnit("bytes").register(registry);
+    }
+
+    private static double approximateEntries(KafkaStreams streams, String storeName) {
+        try {
+            return streams.store(StoreQueryParameters.fromNameAndType(storeName,
+                    QueryableStoreTypes.keyValueStore())).approximateNumEntries();
+        } catch (InvalidStateStoreException e) {
+            // The stores are being migrated or restored during a rebalance
+            return Double.NaN;
+        }
+    }
+
+    private static double sizeOf(Path directory) {
+        if (!Files.isDirectory(directory))
+            return 0;
+        try (Stream<Path> files = Files.walk(directory)) {
+            return files.filter(Files::isRegularFile).mapToLong(file -> {
+                try {
+                    return Files.size(file);
+                } catch (IOException e) {
+                    // Deleted by a compaction or a cleanup while walking
+                    return 0;
+                }
+            }).sum();
+        } catch (IOException | UncheckedIOException e) {
+            return Double.NaN;
+        }
+    }
+
+    private static Counter validationCounter(String reason) {
+        return Counter.builder("policy.change.validation").description("Validated events by outcome")
+                .tag("reason", reason).register(registry);
+    }
+
+    private static Timer aggregationTimer(String stage) {
+        return Timer.builder("policy.change.aggregate").description("Latency of the aggregation of an event")
+                .tag("stage", stage).publishPercentiles(PERCENTILES).publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofNanos(500)).maximumExpectedValue(Duration.ofMillis(100))
+                .register(registry);
+    }
+
+    private static Timer writeTimer(Granularity granularity, String outcome) {
+        return Timer.builder("policy.change.statistics.write").description("Latency of the statistics writes")
+                .tag("granularity", granularity.name()).tag("outcome", outcome)
+                .publishPercentiles(PERCENTILES).publishPercentileHistogram()
+                .minimumExpectedValue(Duration.ofMillis(1)).maximumExpectedValue(Duration.ofSeconds(30))
+                .register(registry);
+    }
+
+    private static double[] percentiles(String percentiles) {
+        String[] values = percentiles.split(",");
+        double[] parsed = new double[values.length];
+        for (int index = 0; index < values.length; index++)
+            parsed[index] = Double.parseDouble(values[index].trim());
+        return parsed;
+    }
+
+    /**
+     * @return - Registry of the metrics, e.g. to add a registry in the tests
+     */
+    public static CompositeMeterRegistry registry() {
+        return registry;
+    }
+}
@@ -0,0 +1,338 @@
+package com.compsource.app.query;
+
+import com.compsource.app.PolicyChangeReqTopology;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.logging.LogManager;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.KeyQueryMetadata;
+import org.apache.kafka.streams.StoreQueryParameters;
+import org.apache.kafka.streams.errors.InvalidStateStoreException;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.apache.kafka.streams.state.QueryableStoreTypes;
+import org.apache.kafka.streams.state.ReadOnlyKeyValueStore;
+import org.apache.kafka.streams.state.StreamsMetadata;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Embedded HTTP server answering the reads of the live hourly, daily and monthly totals from the
+ * local state stores of the topology (Kafka Streams interactive queries), without going through
+ * Cassandra.
+ * <p>
+ * GET /statistics/{hourly|daily|monthly}?at={time} returns the totals of the period holding the
+ * time, GET /statistics/{hourly|daily|monthly}?from={time}&amp;to={time} the totals of the periods
+ * starting between both times (inclusive), oldest first. Times are ISO-8601 instants or epoch
+ * milliseconds. A period is stored by the single instance owning its key: a lookup is forwarded to
+ * that instance, a range scan is sent to every instance of the application and the results are
+ * combined. The forwarded requests carry local=true and are answered from the local stores only.
+ * A range scan answers with the periods of the instances available, listing the instances that
+ * couldn't answer (restoring their stores, unreachable) in the X-Unavailable-Instances header as
+ * host:port, comma separated; it fails with 503 when no instance answered.
+ */
+public class StatisticsQueryServer implements Closeable {
+    private static LogManager logger = new LogManager(StatisticsQueryServer.class);
+    static final String PATH = "/statistics/";
+    static final String UNAVAILABLE_INSTANCES_HEADER = "X-Unavailable-Instances";
+    private static final Duration FORWARD_TIMEOUT = Duration.ofSeconds(5);
+    private static final Map<Granularity, String> TOTALS_STORES = new HashMap<>();
+    // Thread safe, shared by all the requests
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    static {
+        TOTALS_STORES.put(Granularity.HOURLY, PolicyChangeReqTopology.HOURLY_TOTALS_STORE);
+        TOTALS_STORES.put(Granularity.DAILY, PolicyChangeReqTopology.DAILY_TOTALS_STORE);
+        TOTALS_STORES.put(Granularity.MONTHLY, PolicyChangeReqTopology.MONTHLY_TOTALS_STORE);
+    }
+
+    private final KafkaStreams streams;
+    private final HostInfo hostInfo;
+    private final HttpServer server;
+    private final ExecutorService executor;
+    private final HttpClient client;
+
+    /**
+     * @param streams  - Running KafkaStreams instance of the topology
+     * @param hostInfo - Host and port of this server, as set in application.server
+     * @param threads  - Threads serving the requests
+     * @throws IOException - The port can't be bound
+     */
+    public StatisticsQueryServer(KafkaStreams streams, HostInfo hostInfo, int threads) throws IOException {
+        this.streams = streams;
+        this.hostInfo = hostInfo;
+        this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+            Thread thread = new Thread(runnable, "statistics-query-server");
+            thread.setDaemon(true);
+            return thread;
+        });
+        this.client = HttpClient.newBuilder().connectTimeout(FORWARD_TIMEOUT).build();
+        this.server = HttpServer.create(new InetSocketAddress(hostInfo.port()), 0);
+        this.server.createContext(PATH, this::handle);
+        this.server.setExecutor(executor);
+    }
+
+    public void start() {
+        server.start();
+        logger.info("Statistics query server listening on port " + server.getAddress().getPort());
+    }
+
+    /**
+     * @return - Port the server is bound to
+     */
+    int port() {
+        return server.getAddress().getPort();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            if (!"GET".equals(exchange.getRequestMethod())) {
+                respond(exchange, 405, error("Only GET is supported"));
+                return;
+            }
+            Granularity granularity = granularityOf(exchange.getRequestURI().getPath().substring(PATH.length()));
+            Map<String, String> parameters = parameters(exchange.getRequestURI().getRawQuery());
+            boolean local = Boolean.parseBoolean(parameters.get("local"));
+            if (granularity == null) {
+                respond(exchange, 404, error("Unknown granularity, expected hourly, daily or monthly"));
+            } else if (parameters.containsKey("at")) {
+                lookup(exchange, granularity, granularity.periodStart(timeOf(parameters.get("at"))), local);
+            } else if (parameters.containsKey("from") && parameters.containsKey("to")) {
+                long from = timeOf(parameters.get("from"));
+                long to = timeOf(parameters.get("to"));
+                if (to < from)
+                    throw new IllegalArgumentException("The from time must not be after the to time");
+                scan(exchange, granularity, granularity.periodStart(from), to, local);
+            } else {
+                respond(exchange, 400, error("Expected either the at or the from and to parameters"));
+            }
+        } catch (IllegalArgumentException e) {
+            respond(exchange, 400, error(e.getMessage()));
+        } catch (InvalidStateStoreException e) {
+            // The stores are being migrated or restored during a rebalance
+            respond(exchange, 503, error("The statistics are not available yet, retry later"));
+        } catch (IOException | RuntimeException e) {
+            logger.error("Unable to answer the statistics query " + exchange.getRequestURI() + ": " + e);
+            respond(exchange, 500, error("Unable to read the statistics"));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            respond(exchange, 500, error("Interrupted"));
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private void lookup(HttpExchange exchange, Granularity granularity, long periodStart, boolean local)
+            throws IOException, InterruptedException {
+        String storeName = TOTALS_STORES.get(granularity);
+        HostInfo owner = local ? hostInfo : ownerOf(storeName, periodStart);
+        if (owner == null) {
+            respond(exchange, 503, error("The statistics are not available yet, retry later"));
+            return;
+        }
+        if (!owner.equals(hostInfo)) {
+            HttpResponse<byte[]> response = forward(owner, granularity, "at=" + periodStart);
+            respond(exchange, response.statusCode(), response.body());
+            return;
+        }
+        PolicyLimitChangeRequestsStatistics stats = localStore(storeName).get(periodStart);
+        if (stats == null)
+            respond(exchange, 404, error("No statistics for the period"));
+        else
+            respond(exchange, 200, MAPPER.writeValueAsBytes(entry(granularity, periodStart, stats)));
+    }
+
+    private void scan(HttpExchange exchange, Granularity granularity, long from, long to, boolean local)
+            throws IOException, InterruptedException {
+        String storeName = TOTALS_STORES.get(granularity);
+        List<JsonNode> entries = new ArrayList<>();
+        if (local) {
+            scanLocalStore(storeName, granularity, from, to, entries);
+        } else {
+            List<String> unavailableInstances = new ArrayList<>();
+            Collection<HostInfo> instances = instancesOf(storeName);
+            for (HostInfo instance : instances) {
+                if (!scanInstance(instance, storeName, granularity, from, to, entries))
+                    unavailableInstances.add(instance.host() + ":" + instance.port());
+            }
+            if (!unavailableInstances.isEmpty() && unavailableInstances.size() == instances.size()) {
+                respond(exchange, 503, error("The statistics are not available yet, retry later"));
+                return;
+            }
+            if (!unavailableInstances.isEmpty())
+                exchange.getResponseHeaders().set(UNAVAILABLE_INSTANCES_HEADER, String.join(",", unavailableInstances));
+        }
+        entries.sort(Comparator.comparing(entry -> Instant.parse(entry.get("periodStart").asText())));
+        ArrayNode result = MAPPER.createArrayNode();
+        result.addAll(entries);
+        respond(exchange, 200, MAPPER.writeValueAsBytes(result));
+    }
+
+    private void scanLocalStore(String storeName, Granularity granularity, long from, long to,
+                                List<JsonNode> entries) {
+        try (KeyValueIterator<Long, PolicyLimitChangeRequestsStatistics> periods =
+                     localStore(storeName).range(from, to)) {
+            periods.forEachRemaining(period -> entries.add(entry(granularity, period.key, period.value)));
+        }
+    }
+
+    /**
+     * Adds the periods of an instance to the entries
+     *
+     * @return - false if the instance couldn't answer
+     */
+    private boolean scanInstance(HostInfo instance, String storeName, Granularity granularity, long from, long to,
+                                 List<JsonNode> entries) throws InterruptedException {
+        try {
+            if (instance.equals(hostInfo)) {
+                List<JsonNode> localEntries = new ArrayList<>();
+                scanLocalStore(storeName, granularity, from, to, localEntries);
+                entries.addAll(localEntries);
+                return true;
+            }
+            HttpResponse<byte[]> response = forward(instance, granularity, "from=" + from + "&to=" + to);
+            if (response.statusCode() != 200)
+                return false;
+            MAPPER.readTree(response.body()).forEach(entries::add);
+            return true;
+        } catch (InvalidStateStoreException | IOException e) {
+            logger.info("Statistics of " + instance + " not available for the range scan: " + e);
+            return false;
+        }
+    }
+
+    /**
+     * The totals stores are written by the merger of the partial statistics, which are partitioned
+     * by the start of their month: the period is owned by the instance of its month, whatever the
+     * granularity of the store.
+     *
+     * @return - Instance hosting the active store of the period, null while the metadata is not
+     * available
+     */
+    HostInfo ownerOf(String storeName, long periodStart) {
+        KeyQueryMetadata metadata = queryMetadataForKey(storeName, Granularity.MONTHLY.periodStart(periodStart));
+        return metadata == null || metadata == KeyQueryMetadata.NOT_AVAILABLE ? null : metadata.getActiveHost();
+    }
+
+    /**
+     * @param partitionKey - Key the records of the store are partitioned by
+     */
+    KeyQueryMetadata queryMetadataForKey(String storeName, long partitionKey) {
+        return streams.queryMetadataForKey(storeName, partitionKey, Serdes.Long().serializer());
+    }
+
+    /**
+     * @return - Instances holding a part of the store
+     */
+    Collection<HostInfo> instancesOf(String storeName) {
+        List<HostInfo> instances = new ArrayList<>();
+        for (StreamsMetadata metadata : streams.allMetadataForStore(storeName))
+            instances.add(metadata.hostInfo());
+        return instances;
+    }
+
+    ReadOnlyKeyValueStore<Long, PolicyLimitChangeRequestsStatistics> localStore(String storeName) {
+        return streams.store(StoreQueryParameters.fromNameAndType(storeName,
+                QueryableStoreTypes.<Long, PolicyLimitChangeRequestsStatistics>keyValueStore()));
+    }
+
+    private HttpResponse<byte[]> forward(HostInfo instance, Granularity granularity, String query)
+            throws IOException, InterruptedException {
+        URI uri = URI.create("http://" + instance.host() + ":" + instance.port() + PATH
+                + granularity.name().toLowerCase() + "?" + query + "&local=true");
+        return client.send(HttpRequest.newBuilder(uri).timeout(FORWARD_TIMEOUT).GET().build(),
+                HttpResponse.BodyHandlers.ofByteArray());
+    }
+
+    private static ObjectNode entry(Granularity granularity, long periodStart,
+                                    PolicyLimitChangeRequestsStatistics stats) {
+        ObjectNode entry = MAPPER.createObjectNode();
+        entry.put("granularity", granularity.name());
+        entry.put("periodStart", Instant.ofEpochMilli(periodStart).toString());
+        entry.put("periodEnd", Instant.ofEpochMilli(granularity.periodEnd(periodStart)).toString());
+        entry.set("statistics", MAPPER.valueToTree(stats));
+        if (stats.getCoverageIncreaseSketch() != null && stats.getCoverageIncreaseSketch().getCount() > 0) {
+            ObjectNode quantiles = ((ObjectNode) entry.get("statistics")).putObject("coverageIncreaseQuantiles");
+            quantiles.put("p50", stats.getCoverageIncreaseSketch().getQuantile(0.5));
+            quantiles.put("p95", stats.getCoverageIncreaseSketch().getQuantile(0.95));
+            quantiles.put("p99", stats.getCoverageIncreaseSketch().getQuantile(0.99));
+        }
+        return entry;
+    }
+
+    private static Granularity granularityOf(String name) {
+        for (Granularity granularity : TOTALS_STORES.keySet()) {
+            if (granularity.name().equalsIgnoreCase(name))
+                return granularity;
+        }
+        return null;
+    }
+
+    private static long timeOf(String value) {
+        try {
+            return value.chars().allMatch(Character::isDigit) ? Long.parseLong(value)
+                    : Instant.parse(value).toEpochMilli();
+        } catch (NumberFormatException | DateTimeParseException e) {
+            throw new IllegalArgumentException("Invalid time, expected an ISO-8601 instant or epoch milliseconds: "
+                    + value);
+        }
+    }
+
+    private static Map<String, String> parameters(String query) {
+        Map<String, String> parameters = new HashMap<>();
+        if (query == null)
+            return parameters;
+        for (String parameter : query.split("&")) {
+            int separator = parameter.indexOf('=');
+            if (separator > 0)
+                parameters.put(URLDecoder.decode(parameter.substring(0, separator), StandardCharsets.UTF_8),
+                        URLDecoder.decode(parameter.substring(separator + 1), StandardCharsets.UTF_8));
+        }
+        return parameters;
+    }
+
+    private static byte[] error(String message) {
+        return MAPPER.createObjectNode().put("error", message).toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void respond(HttpExchange exchange, int status, byte[] body) throws IOException {
+        exchange.getResponseHeaders().set("Content-Type", "application/json");
+        exchange.sendResponseHeaders(status, body.length);
+        try (OutputStream responseBody = exchange.getResponseBody()) {
+            responseBody.write(body);
+        }
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+}
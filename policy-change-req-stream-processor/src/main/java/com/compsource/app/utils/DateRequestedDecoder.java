@@ -0,0 +1,88 @@
+package com.compsource.app.utils;
+
+/**
+ * Decoder of the dateRequested field of the events, in the fixed yyyy-MM-dd HH:mm:ss format (UTC).
+ * The epoch milliseconds are computed straight from the characters, without a formatter, an
+ * intermediate LocalDateTime or an exception for the invalid values: it runs for every record, and
+ * allocates nothing
+ */
+public final class DateRequestedDecoder {
+    /**
+     * Length of a dateRequested value
+     */
+    public static final int LENGTH = 19;
+    public static final long HOUR_MS = 3_600_000L;
+    public static final long DAY_MS = 24 * HOUR_MS;
+    // Days from 0000-01-01 to 1970-01-01 in the proleptic Gregorian calendar
+    private static final long DAYS_0000_TO_1970 = 719_528L;
+
+    private DateRequestedDecoder() {
+    }
+
+    /**
+     * @param dateRequested - dateRequested value, yyyy-MM-dd HH:mm:ss
+     * @return - Epoch milliseconds, -1 if the value is missing, isn't in the format or isn't a valid
+     * date and time
+     */
+    public static long epochMillis(String dateRequested) {
+        if (dateRequested == null || dateRequested.length() != LENGTH || dateRequested.charAt(4) != '-'
+                || dateRequested.charAt(7) != '-' || dateRequested.charAt(10) != ' '
+                || dateRequested.charAt(13) != ':' || dateRequested.charAt(16) != ':')
+            return -1;
+        int year = digits(dateRequested, 0, 4);
+        int month = digits(dateRequested, 5, 2);
+        int day = digits(dateRequested, 8, 2);
+        int hour = digits(dateRequested, 11, 2);
+        int minute = digits(dateRequested, 14, 2);
+        int second = digits(dateRequested, 17, 2);
+        if (year < 1 || month < 1 || month > 12 || day < 1 || day > lengthOfMonth(year, month)
+                || hour < 0 || hour > 23 || minute < 0 || minute > 59 || second < 0 || second > 59)
+            return -1;
+        long epochMillis = epochDay(year, month, day) * DAY_MS + hour * HOUR_MS + minute * 60_000L + second * 1000L;
+        // The events before the epoch can't be stamped on a Kafka record either
+        return epochMillis < 0 ? -1 : epochMillis;
+    }
+
+    /**
+     * @return - Value of the decimal digits, -1 if one of the characters isn't a digit
+     */
+    private static int digits(String text, int start, int count) {
+        int value = 0;
+        for (int index = start; index < start + count; index++) {
+            int digit = text.charAt(index) - '0';
+            if (digit < 0 || digit > 9)
+                return -1;
+            value = value * 10 + digit;
+        }
+        return value;
+    }
+
+    private static boolean isLeapYear(int year) {
+        return (year & 3) == 0 && (year % 100 != 0 || year % 400 == 0);
+    }
+
+    private static int lengthOfMonth(int year, int month) {
+        switch (month) {
+            case 2:
+                return isLeapYear(year) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Days since the epoch of a valid date, as java.time.LocalDate#toEpochDay counts them
+     */
+    private static long epochDay(int year, int month, int day) {
+        long days = 365L * year + (year + 3) / 4 - (year + 99) / 100 + (year + 399) / 400
+                + (367 * month - 362) / 12 + day - 1;
+        if (month > 2)
+            days -= isLeapYear(year) ? 1 : 2;
+        return days - DAYS_0000_TO_1970;
+    }
+}
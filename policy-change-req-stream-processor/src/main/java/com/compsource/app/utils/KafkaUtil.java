@@ -2,9 +2,16 @@ package com.compsource.app.utils;
 
 import com.compsource.app.custom.DeserExcepHandler;
 import com.compsource.app.custom.PolicyChangeReqTimestampExtractor;
+import com.compsource.app.custom.PolicyChangeRocksDBConfigSetter;
 import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
 import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.state.HostInfo;
 
+import java.net.InetAddress;
+import java.net.UnknownHostException;
 import java.util.Properties;
 
 /**
@@ -13,6 +20,13 @@ import java.util.Properties;
 public class KafkaUtil {
     private static Properties properties = ConfigUtil.loadProperty();
     private static final String BOOTSTRAP_SERVERS = properties.getProperty("kafka.bootstrap.servers");
+    private static final String PROCESSING_GUARANTEE =
+            properties.getProperty("kafka.processing.guarantee", StreamsConfig.AT_LEAST_ONCE).trim();
+    /**
+     * Prefix of the properties setting a Kafka Streams key, e.g.
+     * kafka.streams.override.consumer.max.poll.records
+     */
+    public static final String STREAMS_OVERRIDE_PREFIX = "kafka.streams.override.";
 
     /**
      * @param consumerGroupId   - Consumer group Id
@@ -20,12 +34,31 @@ public class KafkaUtil {
      * @param applicationId     - Application Name
      * @param defaultKeySerde   - Key Serde class
      * @param defaultValueSerde - Value Serde class
-     * @return - Properties required for creating a KafkaStream
+     * @return - Properties required for creating a KafkaStream, tuned by the kafka.streams.profile
      */
     public static Properties getStreamProperties(String consumerGroupId, String clientId,
                                                  String applicationId,
                                                  Class<?> defaultKeySerde,
                                                  Class<?> defaultValueSerde) {
+        return getStreamProperties(consumerGroupId, clientId, applicationId, defaultKeySerde, defaultValueSerde,
+                getStreamsTuningProfile());
+    }
+
+    /**
+     * @param consumerGroupId   - Consumer group Id
+     * @param clientId          - Client name
+     * @param applicationId     - Application Name
+     * @param defaultKeySerde   - Key Serde class
+     * @param defaultValueSerde - Value Serde class
+     * @param profile           - Tuning profile, instead of the kafka.streams.profile property. null
+     *                          for the Kafka Streams defaults
+     * @return - Properties required for creating a KafkaStream
+     */
+    public static Properties getStreamProperties(String consumerGroupId, String clientId,
+                                                 String applicationId,
+                                                 Class<?> defaultKeySerde,
+                                                 Class<?> defaultValueSerde,
+                                                 StreamsTuningProfile profile) {
         Properties properties = new Properties();
         //An identifier for the stream processing application
         properties.put(StreamsConfig.APPLICATION_ID_CONFIG, applicationId);
@@ -53,12 +86,115 @@ public class KafkaUtil {
         properties.put(StreamsConfig.DEFAULT_DESERIALIZATION_EXCEPTION_HANDLER_CLASS_CONFIG,
                 DeserExcepHandler.class);
 
+        //Tunes the RocksDB state stores from the rocksdb.* properties
+        properties.put(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG,
+                PolicyChangeRocksDBConfigSetter.class);
+
         //Reads the earliest data from the topic when there is no initial offset in Kafka or if the
         // current offset does not exist any more on the server
         properties.put(ConsumerConfig.AUTO_OFFSET_RESET_CONFIG, "earliest");
 
+        //at_least_once, or exactly_once: the state stores, the changelogs and the consumed offsets
+        // are committed atomically, so the replayed events are not counted twice after a crash
+        properties.put(StreamsConfig.PROCESSING_GUARANTEE_CONFIG, PROCESSING_GUARANTEE);
+
+        //Endpoint of the statistics query server of this instance, so that the other instances can
+        // route the interactive queries of the periods stored here
+        HostInfo queryServer = getQueryServerHostInfo();
+        if (queryServer != null)
+            properties.put(StreamsConfig.APPLICATION_SERVER_CONFIG, queryServer.host() + ":" + queryServer.port());
+
+        //Threads, record cache, commits, consumers, producers and internal topics of the profile
+        if (profile != null)
+            properties.putAll(profile.getSettings());
+        //Any Kafka Streams key, set last
+        for (String name : KafkaUtil.properties.stringPropertyNames()) {
+            if (name.startsWith(STREAMS_OVERRIDE_PREFIX))
+                properties.put(name.substring(STREAMS_OVERRIDE_PREFIX.length()),
+                        KafkaUtil.properties.getProperty(name).trim());
+        }
+
+        return properties;
+    }
+
+    /**
+     * @return - Tuning profile of the kafka.streams.profile property, null if none is configured
+     */
+    public static StreamsTuningProfile getStreamsTuningProfile() {
+        return StreamsTuningProfile.of(properties.getProperty("kafka.streams.profile", ""));
+    }
+
+    /**
+     * @param clientId - Client name
+     * @return - Properties of a plain consumer reading the raw record bytes of assigned partitions,
+     * without a consumer group
+     */
+    public static Properties getConsumerProperties(String clientId) {
+        Properties properties = new Properties();
+        properties.put(ConsumerConfig.BOOTSTRAP_SERVERS_CONFIG, BOOTSTRAP_SERVERS);
+        properties.put(ConsumerConfig.CLIENT_ID_CONFIG, clientId);
+        properties.put(ConsumerConfig.KEY_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        properties.put(ConsumerConfig.VALUE_DESERIALIZER_CLASS_CONFIG, ByteArrayDeserializer.class);
+        //The offsets are managed by the caller, nothing is committed
+        properties.put(ConsumerConfig.ENABLE_AUTO_COMMIT_CONFIG, false);
+        //Skips the records of aborted transactions
+        properties.put(ConsumerConfig.ISOLATION_LEVEL_CONFIG, "read_committed");
         return properties;
     }
 
+    /**
+     * @param clientId - Client name
+     * @return - Properties of the producer of the dead letter topic, tuned by the dlq.producer.*
+     * properties: large batches, compressed, and a short maximum blocking time so that an
+     * unreachable dead letter topic doesn't stall the stream threads
+     */
+    public static Properties getDeadLetterProducerProperties(String clientId) {
+        Properties producerProperties = new Properties();
+        producerProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, BOOTSTRAP_SERVERS);
+        producerProperties.put(ProducerConfig.CLIENT_ID_CONFIG, clientId);
+        producerProperties.put(ProducerConfig.KEY_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        producerProperties.put(ProducerConfig.VALUE_SERIALIZER_CLASS_CONFIG, ByteArraySerializer.class);
+        producerProperties.put(ProducerConfig.ACKS_CONFIG, properties.getProperty("dlq.producer.acks", "all").trim());
+        //Waits for more records to fill the batches, compressed as a whole
+        producerProperties.put(ProducerConfig.LINGER_MS_CONFIG,
+                Integer.parseInt(properties.getProperty("dlq.producer.linger.ms", "50").trim()));
+        producerProperties.put(ProducerConfig.BATCH_SIZE_CONFIG,
+                1024 * Integer.parseInt(properties.getProperty("dlq.producer.batch.kb", "256").trim()));
+        producerProperties.put(ProducerConfig.COMPRESSION_TYPE_CONFIG,
+                properties.getProperty("dlq.producer.compression", "lz4").trim());
+        //Bounds the records waiting to be sent, and the time a send waits for room in the buffer
+        producerProperties.put(ProducerConfig.BUFFER_MEMORY_CONFIG,
+                1024L * 1024 * Long.parseLong(properties.getProperty("dlq.producer.buffer.mb", "32").trim()));
+        producerProperties.put(ProducerConfig.MAX_BLOCK_MS_CONFIG,
+                Long.parseLong(properties.getProperty("dlq.producer.max-block.ms", "500").trim()));
+        return producerProperties;
+    }
+
+    /**
+     * @return - true if the stream runs with the exactly_once processing guarantee
+     */
+    public static boolean isExactlyOnce() {
+        return StreamsConfig.EXACTLY_ONCE.equals(PROCESSING_GUARANTEE);
+    }
+
+    /**
+     * @return - Host (query.server.host, the hostname by default) and port (query.server.port) of the
+     * statistics query server, null if no port is configured
+     */
+    public static HostInfo getQueryServerHostInfo() {
+        String port = properties.getProperty("query.server.port", "").trim();
+        if (port.isEmpty())
+            return null;
+        String host = properties.getProperty("query.server.host", "").trim();
+        if (host.isEmpty()) {
+            try {
+                host = InetAddress.getLocalHost().getHostName();
+            } catch (UnknownHostException e) {
+                host = "localhost";
+            }
+        }
+        return new HostInfo(host, Integer.parseInt(port));
+    }
+
 
 }
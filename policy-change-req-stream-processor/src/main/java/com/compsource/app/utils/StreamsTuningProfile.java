@@ -0,0 +1,96 @@
+package com.compsource.app.utils;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.config.TopicConfig;
+import org.apache.kafka.streams.StreamsConfig;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Named sets of Kafka Streams settings (stream threads, record cache, commits, the consumers and
+ * producers of the stream threads and the configs of the internal topics) trading the end to end
+ * latency of the statistics against the throughput or the restoration time. Applied by {@link
+ * KafkaUtil#getStreamProperties} over its own settings, the kafka.streams.override.* properties
+ * are applied last
+ */
+public enum StreamsTuningProfile {
+    /**
+     * One stream thread per core, a large record cache and commits every 30 seconds (also under
+     * exactly_once), so fewer updates reach the changelogs, the repartition topics and the sink.
+     * The consumers wait for fuller fetches and the producers send large lz4 batches
+     */
+    THROUGHPUT {
+        @Override
+        void apply(Map<String, Object> settings) {
+            settings.put(StreamsConfig.NUM_STREAM_THREADS_CONFIG, Runtime.getRuntime().availableProcessors());
+            settings.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, 64L * 1024 * 1024);
+            settings.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, 30_000L);
+            settings.put(StreamsConfig.consumerPrefix(ConsumerConfig.FETCH_MIN_BYTES_CONFIG), 64 * 1024);
+            settings.put(StreamsConfig.consumerPrefix(ConsumerConfig.MAX_POLL_RECORDS_CONFIG), 2000);
+            settings.put(StreamsConfig.producerPrefix(ProducerConfig.LINGER_MS_CONFIG), 50);
+            settings.put(StreamsConfig.producerPrefix(ProducerConfig.BATCH_SIZE_CONFIG), 256 * 1024);
+            settings.put(StreamsConfig.producerPrefix(ProducerConfig.COMPRESSION_TYPE_CONFIG), "lz4");
+        }
+    },
+    /**
+     * No record cache and commits every 100 ms, so every update reaches the sink at once. The
+     * consumers return the records as soon as they are there, in small polls, and the producers
+     * send them uncompressed without waiting for a batch
+     */
+    LOW_LATENCY {
+        @Override
+        void apply(Map<String, Object> settings) {
+            settings.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, 0L);
+            settings.put(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG, 100L);
+            settings.put(StreamsConfig.POLL_MS_CONFIG, 10L);
+            settings.put(StreamsConfig.consumerPrefix(ConsumerConfig.FETCH_MIN_BYTES_CONFIG), 1);
+            settings.put(StreamsConfig.consumerPrefix(ConsumerConfig.FETCH_MAX_WAIT_MS_CONFIG), 10);
+            settings.put(StreamsConfig.consumerPrefix(ConsumerConfig.MAX_POLL_RECORDS_CONFIG), 100);
+            settings.put(StreamsConfig.producerPrefix(ProducerConfig.LINGER_MS_CONFIG), 0);
+            settings.put(StreamsConfig.producerPrefix(ProducerConfig.COMPRESSION_TYPE_CONFIG), "none");
+        }
+    },
+    /**
+     * Shortens the restoration of the state stores after a failover or a lost state directory: a
+     * standby replica of every task on another instance, large restore consumer fetches, and
+     * changelogs written compressed and compacted sooner, so there are fewer bytes to read back
+     */
+    RESTORE_FAST {
+        @Override
+        void apply(Map<String, Object> settings) {
+            settings.put(StreamsConfig.NUM_STANDBY_REPLICAS_CONFIG, 1);
+            settings.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, 32L * 1024 * 1024);
+            settings.put(StreamsConfig.restoreConsumerPrefix(ConsumerConfig.MAX_POLL_RECORDS_CONFIG), 10_000);
+            settings.put(StreamsConfig.restoreConsumerPrefix(ConsumerConfig.FETCH_MAX_BYTES_CONFIG), 64 * 1024 * 1024);
+            settings.put(StreamsConfig.restoreConsumerPrefix(ConsumerConfig.MAX_PARTITION_FETCH_BYTES_CONFIG),
+                    16 * 1024 * 1024);
+            settings.put(StreamsConfig.producerPrefix(ProducerConfig.COMPRESSION_TYPE_CONFIG), "lz4");
+            settings.put(StreamsConfig.topicPrefix(TopicConfig.SEGMENT_BYTES_CONFIG), 64 * 1024 * 1024);
+            settings.put(StreamsConfig.topicPrefix(TopicConfig.MIN_CLEANABLE_DIRTY_RATIO_CONFIG), "0.1");
+        }
+    };
+
+    abstract void apply(Map<String, Object> settings);
+
+    /**
+     * @return - Kafka Streams settings of the profile
+     */
+    public Map<String, Object> getSettings() {
+        Map<String, Object> settings = new HashMap<>();
+        apply(settings);
+        return Collections.unmodifiableMap(settings);
+    }
+
+    /**
+     * @param name - Profile name as in the properties file (throughput, low-latency, restore-fast)
+     * @return - StreamsTuningProfile, null for an empty name (the Kafka Streams defaults)
+     */
+    public static StreamsTuningProfile of(String name) {
+        if (name == null || name.trim().isEmpty())
+            return null;
+        return valueOf(name.trim().toUpperCase().replace('-', '_'));
+    }
+}
@@ -6,6 +6,10 @@ import com.datastax.driver.core.LocalDate;
  * Util class for common Type conversions
  */
 public class TypeConverter {
+    // Datastax dates of the recent days, by epoch day modulo the size of the cache. The dates are
+    // immutable, so a slot read by another stream thread holds null or a complete date
+    private static final int DATE_CACHE_DAYS = 1024;
+    private static final LocalDate[] datastaxDates = new LocalDate[DATE_CACHE_DAYS];
 
     /**
      * Converts given string(valid) to datastax based LocalDate
@@ -31,4 +35,21 @@ public class TypeConverter {
         return date;
     }
 
+    /**
+     * Converts the given epoch day to the datastax based LocalDate, cached for the days of the
+     * recent windows
+     *
+     * @param epochDay - Days since 1970-01-01
+     * @return - Cassandra LocalDate
+     */
+    public static LocalDate epochDayToDatastaxDate(int epochDay) {
+        int slot = Math.floorMod(epochDay, DATE_CACHE_DAYS);
+        LocalDate date = datastaxDates[slot];
+        if (date == null || date.getDaysSinceEpoch() != epochDay) {
+            date = LocalDate.fromDaysSinceEpoch(epochDay);
+            datastaxDates[slot] = date;
+        }
+        return date;
+    }
+
 }
@@ -0,0 +1,327 @@
+package com.compsource.app;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqTopology.AggregationMode;
+import com.compsource.app.PolicyChangeReqTopology.StoreType;
+import com.compsource.app.custom.DeadLetterPublisher;
+import com.compsource.app.data.model.HeavyHittersSketch.TopAccount;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.data.validation.RejectionReason;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.TopologyDescription;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestPolicyChangeReqTopology {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    private TopologyTestDriver testDriver;
+    private TestInputTopic<String, String> inputTopic;
+    private Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> writtenStatistics;
+    private boolean versionsIncrease;
+    private boolean totalsNeverDecrease;
+    private Properties streamProperties;
+    private MockProducer<byte[], byte[]> deadLetterProducer;
+    private DeadLetterPublisher deadLetterPublisher;
+
+    @Before
+    public void initialize() {
+        this.writtenStatistics = new HashMap<>();
+        this.versionsIncrease = true;
+        this.totalsNeverDecrease = true;
+        this.streamProperties = KafkaUtil.getStreamProperties("test-group", "test-client",
+                "test-app", Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class);
+        // Disabling the cache so that every intermediate update reaches the sink
+        streamProperties.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, 0);
+        this.deadLetterProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        this.deadLetterPublisher = new DeadLetterPublisher(deadLetterProducer, "dlq");
+        streamProperties.put(DeadLetterPublisher.CONFIG, deadLetterPublisher);
+
+        startDriver(topology(AggregationMode.REPARTITION));
+    }
+
+    private void startDriver(Topology topology) {
+        if (testDriver != null)
+            testDriver.close();
+        this.testDriver = new TopologyTestDriver(topology, streamProperties);
+        this.inputTopic = testDriver.createInputTopic(
+                ConfigUtil.loadProperty().getProperty("kafka.consumer.topic"),
+                new StringSerializer(), new StringSerializer());
+    }
+
+    private ListenableFuture<?> write(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics stats) {
+        PolicyLimitChangeRequestsStatistics previous = writtenStatistics.put(statisticsKey, stats);
+        // Every write of a row must have a higher version (write timestamp) than the previous one
+        versionsIncrease &= previous == null || previous.getVersion() < stats.getVersion();
+        // The events only add to the totals, a lower total would be a partial merge
+        totalsNeverDecrease &= stats != null && (previous == null
+                || previous.getTotalCoverageIncreaseRequestsCount() <= stats.getTotalCoverageIncreaseRequestsCount()
+                && previous.getTotalCoverageIncreaseAmount() <= stats.getTotalCoverageIncreaseAmount());
+        return Futures.immediateFuture(null);
+    }
+
+    private Topology topology(AggregationMode aggregationMode) {
+        // Deduplicating the copies within a day, while the shipped config leaves it off
+        return topology(aggregationMode, Duration.ofHours(24));
+    }
+
+    private Topology topology(AggregationMode aggregationMode, Duration dedupHorizon) {
+        return PolicyChangeReqTopology.build(this::write, null, deadLetterPublisher, StoreType.PERSISTENT,
+                aggregationMode, dedupHorizon);
+    }
+
+    @After
+    public void tearDown() {
+        testDriver.close();
+    }
+
+    @Test
+    public void testTwoStageTotalsMatchSingleKeyTotals() {
+        assertTotalsMatchSingleKeyTotals();
+    }
+
+    @Test
+    public void testCountsEveryCopyWithoutDeduplication() {
+        startDriver(topology(AggregationMode.REPARTITION, Duration.ZERO));
+        LocalDateTime dateRequested = LocalDateTime.of(2021, 5, 31, 22, 10, 0);
+        String request = request(1001, 10000, 10500, dateRequested);
+        inputTopic.pipeInput(null, request);
+        inputTopic.pipeInput(null, request);
+
+        assertEquals(Integer.valueOf(2), writtenStatistics.get(StatisticsKey.hourly(Granularity.HOURLY
+                .periodStart(dateRequested.toInstant(ZoneOffset.UTC).toEpochMilli())))
+                .getTotalCoverageIncreaseRequestsCount());
+    }
+
+    @Test
+    public void testWrittenTotalsNeverDecrease() {
+        // Eager emission (the default) with the record caches disabled: every update of every
+        // total is written, many buckets updating the same hours in turn
+        LocalDateTime start = LocalDateTime.of(2021, 5, 31, 22, 0, 0);
+        for (int event = 0; event < 300; event++)
+            inputTopic.pipeInput(null, request(1000 + event % 53, 10000, 10500 + event % 7,
+                    start.plusMinutes(event % 180)));
+
+        assertTrue(totalsNeverDecrease);
+        // Spanning the end of May: 240 events on the last two hours of May, 60 in June
+        assertEquals(Integer.valueOf(240), writtenStatistics.get(StatisticsKey.monthly(Granularity.MONTHLY
+                .periodStart(start.toInstant(ZoneOffset.UTC).toEpochMilli()))).getTotalCoverageIncreaseRequestsCount());
+        assertEquals(Integer.valueOf(60), writtenStatistics.get(StatisticsKey.monthly(Granularity.MONTHLY
+                .periodStart(start.plusHours(2).toInstant(ZoneOffset.UTC).toEpochMilli())))
+                .getTotalCoverageIncreaseRequestsCount());
+    }
+
+    @Test
+    public void testPartitionLocalTotalsMatchSingleKeyTotals() {
+        startDriver(topology(AggregationMode.PARTITION_LOCAL));
+        assertTotalsMatchSingleKeyTotals();
+    }
+
+    @Test
+    public void testPartitionLocalModeOnlyRepartitionsFlushedPartials() {
+        // The events by bucket and by account, and the partial statistics by month
+        assertEquals(3, internalTopicsOf(topology(AggregationMode.REPARTITION)).size());
+        // The events are aggregated where they are read, only the partial statistics are regrouped by month
+        List<String> localTopics = internalTopicsOf(topology(AggregationMode.PARTITION_LOCAL));
+        assertEquals(1, localTopics.size());
+
+        startDriver(topology(AggregationMode.PARTITION_LOCAL));
+        TestOutputTopic<byte[], byte[]> partialsTopic = testDriver.createOutputTopic(
+                "test-app-" + localTopics.get(0), new ByteArrayDeserializer(), new ByteArrayDeserializer());
+        LocalDateTime start = LocalDateTime.of(2021, 5, 31, 22, 0, 0);
+        for (int event = 0; event < 300; event++)
+            inputTopic.pipeInput(null, request(1000 + event % 5, 10000, 10500, start.plusMinutes(event % 120)));
+        testDriver.advanceWallClockTime(Duration.ofSeconds(1));
+
+        // One partial statistics per updated hour and account hour, not one per event
+        assertEquals(2 + 2 * 5, partialsTopic.getQueueSize());
+        assertEquals(Integer.valueOf(300), writtenStatistics.get(StatisticsKey.daily(Granularity.DAILY
+                .periodStart(start.toInstant(ZoneOffset.UTC).toEpochMilli()))).getTotalCoverageIncreaseRequestsCount());
+        assertEquals(Integer.valueOf(36), writtenStatistics.get(StatisticsKey.accountHourly(1000, Granularity.HOURLY
+                .periodStart(start.toInstant(ZoneOffset.UTC).toEpochMilli()))).getTotalCoverageIncreaseRequestsCount());
+    }
+
+    private void assertTotalsMatchSingleKeyTotals() {
+        // Spanning the end of a month, so the events fall into several hours, days and months
+        LocalDateTime start = LocalDateTime.of(2021, 5, 31, 20, 0, 0);
+        Map<StatisticsKey, Long> expectedAmounts = new HashMap<>();
+        Map<StatisticsKey, Integer> expectedCounts = new HashMap<>();
+        Map<StatisticsKey, Set<Integer>> expectedAccounts = new HashMap<>();
+        long streamTime = 0;
+
+        for (int event = 0; event < 500; event++) {
+            LocalDateTime dateRequested = start.plusMinutes(event * 7 % 300);
+            int accountId = 1000 + event % 37;
+            int existingLimit = 10000 + event;
+            int newLimit = existingLimit + 500 + event % 11;
+            String request = request(accountId, existingLimit, newLimit, dateRequested);
+            inputTopic.pipeInput(null, request);
+            //Copies republished by the producer must only be counted once
+            if (event % 10 == 0)
+                inputTopic.pipeInput(null, request);
+
+            long timestamp = dateRequested.toInstant(ZoneOffset.UTC).toEpochMilli();
+            long windowStart = Granularity.HOURLY.periodStart(timestamp);
+            streamTime = Math.max(streamTime, timestamp);
+            for (StatisticsKey statisticsKey : new StatisticsKey[]{StatisticsKey.hourly(windowStart),
+                    StatisticsKey.daily(Granularity.DAILY.periodStart(timestamp)),
+                    StatisticsKey.monthly(Granularity.MONTHLY.periodStart(timestamp)),
+                    StatisticsKey.accountHourly(accountId, windowStart)}) {
+                expectedAmounts.merge(statisticsKey, (long) (newLimit - existingLimit), Long::sum);
+                expectedCounts.merge(statisticsKey, 1, Integer::sum);
+                expectedAccounts.computeIfAbsent(statisticsKey, key -> new HashSet<>()).add(accountId);
+            }
+        }
+        //Invalid request (new limit lower than the existing limit) must not be counted
+        inputTopic.pipeInput(null, request(1001, 20000, 100, start));
+        //Flushing the windows held back by the rate limited emission policy, when configured
+        testDriver.advanceWallClockTime(Duration.ofSeconds(60));
+
+        // The top accounts of the hours ended in stream time
+        Set<StatisticsKey> expectedKeys = new HashSet<>(expectedCounts.keySet());
+        for (StatisticsKey statisticsKey : expectedCounts.keySet()) {
+            if (statisticsKey.getGranularity() == Granularity.HOURLY && statisticsKey.getPeriodEnd() <= streamTime)
+                expectedKeys.add(StatisticsKey.hourlyTopAccounts(statisticsKey.getPeriodStart()));
+        }
+        assertEquals(expectedKeys, writtenStatistics.keySet());
+        assertTrue(versionsIncrease);
+        assertTrue(totalsNeverDecrease);
+        for (StatisticsKey statisticsKey : expectedKeys) {
+            if (statisticsKey.getGranularity() != Granularity.HOURLY_TOP_ACCOUNTS)
+                continue;
+            List<Long> expectedTopCounts = new ArrayList<>();
+            for (StatisticsKey accountKey : expectedCounts.keySet()) {
+                if (accountKey.getGranularity() == Granularity.ACCOUNT_HOURLY
+                        && accountKey.getPeriodStart() == statisticsKey.getPeriodStart())
+                    expectedTopCounts.add((long) expectedCounts.get(accountKey));
+            }
+            expectedTopCounts.sort(Comparator.reverseOrder());
+            List<TopAccount> topAccounts =
+                    writtenStatistics.get(statisticsKey).getTopAccountsSketch().getTopAccountsByCount();
+            assertEquals(10, topAccounts.size());
+            for (int rank = 0; rank < topAccounts.size(); rank++) {
+                TopAccount topAccount = topAccounts.get(rank);
+                // A few dozen accounts don't collide in all the rows of the Count-Min sketch
+                assertEquals(expectedTopCounts.get(rank), Long.valueOf(topAccount.getEstimate()));
+                assertEquals((long) expectedCounts.get(StatisticsKey.accountHourly(topAccount.getAccountId(),
+                        statisticsKey.getPeriodStart())), topAccount.getEstimate());
+            }
+        }
+        for (StatisticsKey statisticsKey : expectedCounts.keySet()) {
+            PolicyLimitChangeRequestsStatistics stats = writtenStatistics.get(statisticsKey);
+            assertEquals(expectedCounts.get(statisticsKey), stats.getTotalCoverageIncreaseRequestsCount());
+            assertEquals(expectedAmounts.get(statisticsKey), stats.getTotalCoverageIncreaseAmount());
+            // The sketches are merged and subtracted along with the totals
+            assertEquals((long) expectedCounts.get(statisticsKey), stats.getCoverageIncreaseSketch().getCount());
+            // A few dozen accounts stay in the exact range of the distinct count sketch, the per account
+            // totals don't count them
+            if (statisticsKey.getGranularity() == Granularity.ACCOUNT_HOURLY)
+                assertNull(stats.getDistinctAccounts());
+            else
+                assertEquals(Long.valueOf(expectedAccounts.get(statisticsKey).size()), stats.getDistinctAccounts());
+        }
+    }
+
+    @Test
+    public void testRejectedEventsDeadLettered() {
+        String invalidRequest = request(1001, 20000, 100, LocalDateTime.of(2021, 5, 31, 20, 0, 0));
+        String malformedRequest = "{\"coiRequestId\":";
+        String invalidDateRequest = request(1001, 10000, 20000, LocalDateTime.of(2021, 5, 31, 20, 0, 0))
+                .replace("2021-05-31 20:00:00", "31/05/2021 20:00:00");
+        inputTopic.pipeInput("key", invalidRequest);
+        inputTopic.pipeInput(null, malformedRequest);
+        inputTopic.pipeInput(null, invalidDateRequest);
+
+        assertTrue(writtenStatistics.isEmpty());
+        List<ProducerRecord<byte[], byte[]>> deadLetters = deadLetterProducer.history();
+        assertEquals(3, deadLetters.size());
+        // Sent unchanged, with the reason code and the source offset in the headers
+        assertArrayEquals("key".getBytes(StandardCharsets.UTF_8), deadLetters.get(0).key());
+        assertArrayEquals(invalidRequest.getBytes(StandardCharsets.UTF_8), deadLetters.get(0).value());
+        assertEquals(Byte.valueOf(RejectionReason.NOT_GREATER_THAN.getCode()),
+                DeadLetterPublisher.reasonOf(deadLetters.get(0).headers()));
+        assertArrayEquals(malformedRequest.getBytes(StandardCharsets.UTF_8), deadLetters.get(1).value());
+        assertEquals(Byte.valueOf(DeadLetterPublisher.MALFORMED), DeadLetterPublisher.reasonOf(deadLetters.get(1).headers()));
+        assertEquals(1L, ByteBuffer.wrap(deadLetters.get(1).headers()
+                .lastHeader(DeadLetterPublisher.SOURCE_OFFSET_HEADER).value()).getLong());
+        assertArrayEquals(invalidDateRequest.getBytes(StandardCharsets.UTF_8), deadLetters.get(2).value());
+        assertEquals(Byte.valueOf(RejectionReason.INVALID_DATE_REQUESTED.getCode()),
+                DeadLetterPublisher.reasonOf(deadLetters.get(2).headers()));
+    }
+
+    @Test
+    public void testEmptyRecordsDoNotMoveStreamTime() {
+        LocalDateTime hour = LocalDateTime.of(2021, 5, 31, 20, 0, 0);
+        inputTopic.pipeInput(null, request(1001, 10000, 20000, hour.plusMinutes(10)));
+        // Stamped with the wall clock by the producer
+        inputTopic.pipeInput(null, "");
+        inputTopic.pipeInput(null, request(1002, 10000, 20000, hour.plusMinutes(20)));
+
+        //The top accounts of the hour are only written once the hour is over in stream time
+        assertFalse(writtenStatistics.containsKey(StatisticsKey.hourlyTopAccounts(
+                hour.toInstant(ZoneOffset.UTC).toEpochMilli())));
+    }
+
+    /**
+     * @return - Topics written by the topology, the repartition topics
+     */
+    private static List<String> internalTopicsOf(Topology topology) {
+        List<String> topics = new ArrayList<>();
+        for (TopologyDescription.Subtopology subtopology : topology.describe().subtopologies()) {
+            for (TopologyDescription.Node node : subtopology.nodes()) {
+                if (node instanceof TopologyDescription.Sink)
+                    topics.add(((TopologyDescription.Sink) node).topic());
+            }
+        }
+        return topics;
+    }
+
+    private static String request(int accountId, int existingLimit, int newLimit,
+                                  LocalDateTime dateRequested) {
+        return "{\"coiRequestId\":\"" + UUID.randomUUID() + "\",\"accountId\":" + accountId +
+                ",\"existingPolicyCoverageLimit\":" + existingLimit + ",\"isChangeRequested\":true," +
+                "\"newlyRequestedPolicyCoverageLimit\":" + newLimit + ",\"isNewRecipient\":false," +
+                "\"recipientId\":\"" + UUID.randomUUID() + "\",\"recipientName\":null," +
+                "\"recipientEmail\":null,\"dateRequested\":\"" + DATE_FORMAT.format(dateRequested) + "\"}";
+    }
+}
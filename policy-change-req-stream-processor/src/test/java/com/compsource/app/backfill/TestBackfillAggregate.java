@@ -0,0 +1,158 @@
+package com.compsource.app.backfill;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.data.validation.RejectionReason;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+public class TestBackfillAggregate {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // Three full days, spanning the end of a month that isn't fully inside the range
+    private static final LocalDateTime FROM = LocalDateTime.of(2021, 5, 31, 0, 0, 0);
+    private static final LocalDateTime TO = LocalDateTime.of(2021, 6, 3, 0, 0, 0);
+
+    private Path exportFile;
+
+    @Before
+    public void initialize() throws IOException {
+        this.exportFile = Files.createTempFile("policy-change-requests", ".ndjson");
+    }
+
+    @After
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(exportFile);
+    }
+
+    @Test
+    public void testParallelReadMatchesSingleKeyTotals() throws IOException {
+        Map<StatisticsKey, Long> expectedAmounts = new HashMap<>();
+        Map<StatisticsKey, Integer> expectedCounts = new HashMap<>();
+        List<String> lines = new ArrayList<>();
+        for (int event = 0; event < 3000; event++) {
+            LocalDateTime dateRequested = FROM.plusMinutes(event * 7L % (3 * 24 * 60));
+            int accountId = 1000 + event % 37;
+            int existingLimit = 10000 + event;
+            int newLimit = existingLimit + 500 + event % 11;
+            lines.add(request(accountId, existingLimit, newLimit, dateRequested));
+
+            long timestamp = dateRequested.toInstant(ZoneOffset.UTC).toEpochMilli();
+            long windowStart = Granularity.HOURLY.periodStart(timestamp);
+            for (StatisticsKey statisticsKey : new StatisticsKey[]{StatisticsKey.hourly(windowStart),
+                    StatisticsKey.daily(Granularity.DAILY.periodStart(timestamp)),
+                    StatisticsKey.accountHourly(accountId, windowStart)}) {
+                expectedAmounts.merge(statisticsKey, (long) (newLimit - existingLimit), Long::sum);
+                expectedCounts.merge(statisticsKey, 1, Integer::sum);
+            }
+        }
+        //Invalid request (new limit lower than the existing limit), out of range request, malformed
+        // JSON, invalid dateRequested and blank lines must not be counted
+        lines.add(request(1001, 20000, 100, FROM));
+        lines.add(request(1001, 20000, 30000, TO));
+        lines.add("{\"coiRequestId\":");
+        lines.add(request(1001, 20000, 30000, FROM).replace(DATE_FORMAT.format(FROM), "yesterday"));
+        lines.add("");
+        Files.write(exportFile, String.join("\r\n", lines).getBytes(StandardCharsets.UTF_8));
+
+        long from = FROM.toInstant(ZoneOffset.UTC).toEpochMilli();
+        long to = TO.toInstant(ZoneOffset.UTC).toEpochMilli();
+        // Small splits, so that the events of an hour are spread across the splits and threads
+        BackfillAggregate aggregate = BackfillAggregate.read(new NdjsonFileSource(exportFile, 4096), from, to, 4, false);
+
+        assertEquals(3000, aggregate.getEvents(RejectionReason.ACCEPTED));
+        assertEquals(1, aggregate.getEvents(RejectionReason.NOT_GREATER_THAN));
+        assertEquals(1, aggregate.getOutOfRangeEvents());
+        assertEquals(1, aggregate.getMalformedEvents());
+        assertEquals(1, aggregate.getInvalidTimestamps());
+
+        Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> statistics = aggregate.statistics();
+        for (StatisticsKey statisticsKey : expectedCounts.keySet()) {
+            PolicyLimitChangeRequestsStatistics stats = statistics.get(statisticsKey);
+            assertEquals(statisticsKey.toString(), expectedCounts.get(statisticsKey),
+                    stats.getTotalCoverageIncreaseRequestsCount());
+            assertEquals(expectedAmounts.get(statisticsKey), stats.getTotalCoverageIncreaseAmount());
+            assertEquals((long) expectedCounts.get(statisticsKey), stats.getCoverageIncreaseSketch().getCount());
+            if (statisticsKey.getGranularity() == Granularity.HOURLY)
+                assertSame(stats, statistics.get(StatisticsKey.hourlyTopAccounts(statisticsKey.getPeriodStart())));
+        }
+        // The hours and their top accounts, the days and the account hours. Not the months, only
+        // partially inside the range
+        assertEquals(expectedCounts.size() + 3 * 24, statistics.size());
+    }
+
+    @Test
+    public void testCopiesOfARequestAggregatedOnce() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int event = 0; event < 500; event++)
+            lines.add(request(1000 + event % 7, 10000, 10100, FROM.plusMinutes(event % 120)));
+        // Every request republished once, the copies in other splits than their first copy
+        lines.addAll(new ArrayList<>(lines));
+        Files.write(exportFile, String.join("\n", lines).getBytes(StandardCharsets.UTF_8));
+
+        long from = FROM.toInstant(ZoneOffset.UTC).toEpochMilli();
+        long to = TO.toInstant(ZoneOffset.UTC).toEpochMilli();
+        BackfillAggregate aggregate = BackfillAggregate.read(new NdjsonFileSource(exportFile, 4096), from, to, 4, true);
+
+        assertEquals(1000, aggregate.getEvents(RejectionReason.ACCEPTED));
+        assertEquals(500, aggregate.getDuplicateEvents());
+        Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> statistics = aggregate.statistics();
+        assertEquals(Integer.valueOf(500), statistics.get(StatisticsKey.daily(from)).getTotalCoverageIncreaseRequestsCount());
+        assertEquals(Long.valueOf(50000), statistics.get(StatisticsKey.daily(from)).getTotalCoverageIncreaseAmount());
+        assertEquals(Integer.valueOf(260), statistics.get(StatisticsKey.hourly(from)).getTotalCoverageIncreaseRequestsCount());
+    }
+
+    @Test
+    public void testSplitsEndAtLineFeeds() throws IOException {
+        List<String> lines = new ArrayList<>();
+        for (int line = 0; line < 200; line++)
+            lines.add("line-" + line + "-" + "x".repeat(line % 13));
+        Files.write(exportFile, (String.join("\n", lines) + "\n").getBytes(StandardCharsets.UTF_8));
+
+        List<String> readLines = new ArrayList<>();
+        for (EventSource.Split split : new NdjsonFileSource(exportFile, 7).splits())
+            split.read(event -> readLines.add(new String(event, StandardCharsets.UTF_8)));
+        assertEquals(lines, readLines);
+    }
+
+    @Test
+    public void testParseOffsets() {
+        Map<Integer, long[]> offsets = TopicRangeSource.parseOffsets("0:0-1500, 2:200-1800");
+        assertEquals(2, offsets.size());
+        assertArrayEquals(new long[]{0, 1500}, offsets.get(0));
+        assertArrayEquals(new long[]{200, 1800}, offsets.get(2));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testRejectsRangeNotAlignedOnHours() {
+        new BackfillAggregate(0, 90 * 60 * 1000L);
+    }
+
+    private static String request(int accountId, int existingLimit, int newLimit,
+                                  LocalDateTime dateRequested) {
+        return "{\"coiRequestId\":\"" + UUID.randomUUID() + "\",\"accountId\":" + accountId +
+                ",\"existingPolicyCoverageLimit\":" + existingLimit + ",\"isChangeRequested\":true," +
+                "\"newlyRequestedPolicyCoverageLimit\":" + newLimit + ",\"isNewRecipient\":false," +
+                "\"recipientId\":\"" + UUID.randomUUID() + "\",\"recipientName\":null," +
+                "\"recipientEmail\":null,\"dateRequested\":\"" + DATE_FORMAT.format(dateRequested) + "\"}";
+    }
+}
@@ -0,0 +1,86 @@
+package com.compsource.app.benchmark;
+
+import kafka.server.KafkaServerStartable;
+import org.apache.kafka.clients.admin.Admin;
+import org.apache.kafka.clients.admin.AdminClientConfig;
+import org.apache.kafka.clients.admin.NewTopic;
+import org.apache.zookeeper.server.ServerCnxnFactory;
+import org.apache.zookeeper.server.ZooKeeperServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Properties;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Stream;
+
+/**
+ * A ZooKeeper server and a single Kafka broker in the benchmark's process, on loopback ports and
+ * temporary directories, for the benchmarks that need the real clients: the consumers, producers
+ * and internal topics that the TopologyTestDriver leaves out
+ */
+public class EmbeddedKafkaCluster implements AutoCloseable {
+    private final Path directory;
+    private final ServerCnxnFactory zooKeeper;
+    private final KafkaServerStartable broker;
+    private final String bootstrapServers;
+
+    public EmbeddedKafkaCluster() throws IOException, InterruptedException {
+        directory = Files.createTempDirectory("embedded-kafka");
+        zooKeeper = ServerCnxnFactory.createFactory(new InetSocketAddress("127.0.0.1", 0), 100);
+        zooKeeper.startup(new ZooKeeperServer(directory.resolve("zookeeper").toFile(),
+                directory.resolve("zookeeper").toFile(), 500));
+
+        int port;
+        try (ServerSocket socket = new ServerSocket(0)) {
+            port = socket.getLocalPort();
+        }
+        bootstrapServers = "127.0.0.1:" + port;
+        Properties brokerProperties = new Properties();
+        brokerProperties.put("zookeeper.connect", "127.0.0.1:" + zooKeeper.getLocalPort());
+        brokerProperties.put("listeners", "PLAINTEXT://" + bootstrapServers);
+        brokerProperties.put("log.dirs", directory.resolve("kafka").toString());
+        brokerProperties.put("offsets.topic.replication.factor", "1");
+        brokerProperties.put("offsets.topic.num.partitions", "1");
+        brokerProperties.put("transaction.state.log.replication.factor", "1");
+        brokerProperties.put("transaction.state.log.min.isr", "1");
+        brokerProperties.put("group.initial.rebalance.delay.ms", "0");
+        broker = KafkaServerStartable.fromProps(brokerProperties);
+        broker.startup();
+    }
+
+    /**
+     * @return - host:port of the broker
+     */
+    public String getBootstrapServers() {
+        return bootstrapServers;
+    }
+
+    /**
+     * @param topic      - Topic name
+     * @param partitions - Number of partitions
+     */
+    public void createTopic(String topic, int partitions) throws ExecutionException, InterruptedException {
+        try (Admin admin = Admin.create(Collections.singletonMap(AdminClientConfig.BOOTSTRAP_SERVERS_CONFIG,
+                bootstrapServers))) {
+            admin.createTopics(Collections.singleton(new NewTopic(topic, partitions, (short) 1))).all().get();
+        }
+    }
+
+    /**
+     * Stops the broker and ZooKeeper and deletes their directories
+     */
+    @Override
+    public void close() throws IOException {
+        broker.shutdown();
+        broker.awaitShutdown();
+        zooKeeper.shutdown();
+        try (Stream<Path> paths = Files.walk(directory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
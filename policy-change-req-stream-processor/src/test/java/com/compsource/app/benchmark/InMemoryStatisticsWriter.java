@@ -0,0 +1,52 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.custom.StatisticsWriter;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Stand-in for the PolicyLimitChangeRequestsStatisticsDao in the load tests: keeps the rows in
+ * memory, with the upsert semantics of the Cassandra writes (the highest version of a row wins, as
+ * with the write timestamps), and acknowledges every write at once
+ */
+public class InMemoryStatisticsWriter implements StatisticsWriter {
+    private final Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> rows = new ConcurrentHashMap<>();
+    private final Map<Granularity, AtomicLong> writes = new EnumMap<>(Granularity.class);
+
+    public InMemoryStatisticsWriter() {
+        for (Granularity granularity : Granularity.values())
+            writes.put(granularity, new AtomicLong());
+    }
+
+    @Override
+    public ListenableFuture<?> write(StatisticsKey statisticsKey,
+                                     PolicyLimitChangeRequestsStatistics policyLimitChangeRequestsStats) {
+        writes.get(statisticsKey.getGranularity()).incrementAndGet();
+        rows.merge(statisticsKey, policyLimitChangeRequestsStats, (stored, written) ->
+                written.getVersion() >= stored.getVersion() ? written : stored);
+        return Futures.immediateFuture(null);
+    }
+
+    /**
+     * @param granularity - Granularity of the rows
+     * @return - Number of writes of the granularity
+     */
+    public long getWrites(Granularity granularity) {
+        return writes.get(granularity).get();
+    }
+
+    /**
+     * @return - Rows by key, as the tables would hold them
+     */
+    public Map<StatisticsKey, PolicyLimitChangeRequestsStatistics> getRows() {
+        return rows;
+    }
+}
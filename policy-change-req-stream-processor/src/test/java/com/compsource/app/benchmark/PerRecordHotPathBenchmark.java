@@ -0,0 +1,169 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.custom.PolicyChangeReqTimestampExtractor;
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.serde.kafka.JsonDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsSerializer;
+import com.compsource.app.data.validation.PolicyLimitChangeReqValidator;
+import org.apache.kafka.clients.consumer.ConsumerRecord;
+import org.apache.kafka.common.serialization.Deserializer;
+import org.apache.kafka.common.serialization.Serializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures every step an event goes through on the stream thread, one event per operation, on a
+ * pool of seeded {@link SyntheticEvents} cycled through so that the branch predictor doesn't learn
+ * a single event:
+ * <ul>
+ * <li>deserialize / deserializeGson - PolicyLimitChangeRequestDeserializer of the serde and the
+ * Gson based JsonDeserializer</li>
+ * <li>extract - PolicyChangeReqTimestampExtractor</li>
+ * <li>validate - PolicyLimitChangeReqValidator, logging included</li>
+ * <li>add - PolicyLimitChangeRequestsStatistics.add into the statistics of an iteration</li>
+ * <li>requestSerdeSerialize / statisticsSerde* - the other direction of the
+ * PolicyLimitChangeRequestSerde, both directions of the statistics serializer and deserializer</li>
+ * </ul>
+ * eventKind selects realistic or malformed events; the malformed records that can't be parsed are
+ * only fed to the deserializers, the steps after them get the malformed records that parse.
+ * <p>
+ * The benchmark profile runs with -prof gc (gc.alloc.rate.norm is the allocation per event) and
+ * writes the results to target/jmh-result.json, e.g. to compare two builds:
+ * <pre>
+ * mvn test -Pbenchmark -Dbenchmark.include=PerRecordHotPathBenchmark -Dbenchmark.result=before.json
+ * </pre>
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PerRecordHotPathBenchmark {
+    private static final int POOL_SIZE = 1024;
+    private static final String TOPIC = "policy-change-requests";
+
+    @Param({"realistic", "malformed"})
+    public String eventKind;
+
+    @Param({"42"})
+    public long seed;
+
+    private final PolicyLimitChangeRequestSerde requestSerde = new PolicyLimitChangeRequestSerde();
+    private final Deserializer<PolicyLimitChangeRequest> requestDeserializer = requestSerde.deserializer();
+    private final Serializer<PolicyLimitChangeRequest> requestSerializer = requestSerde.serializer();
+    private final JsonDeserializer<PolicyLimitChangeRequest> gsonDeserializer =
+            new JsonDeserializer<>(PolicyLimitChangeRequest.class);
+    private final PolicyLimitChangeRequestsStatisticsSerializer statisticsSerializer =
+            new PolicyLimitChangeRequestsStatisticsSerializer();
+    private final PolicyLimitChangeRequestsStatisticsDeserializer statisticsDeserializer =
+            new PolicyLimitChangeRequestsStatisticsDeserializer();
+    private final PolicyChangeReqTimestampExtractor timestampExtractor = new PolicyChangeReqTimestampExtractor();
+
+    private byte[][] records;
+    private PolicyLimitChangeRequest[] requests;
+    private List<ConsumerRecord<Object, Object>> consumerRecords;
+    private PolicyLimitChangeRequestsStatistics statistics;
+    private byte[] serializedStatistics;
+    private int recordIndex;
+    private int requestIndex;
+
+    @Setup(Level.Trial)
+    public void generateEvents() {
+        SyntheticEvents events = new SyntheticEvents(seed);
+        records = new byte[POOL_SIZE][];
+        List<PolicyLimitChangeRequest> parsed = new ArrayList<>();
+        for (int index = 0; index < POOL_SIZE; index++) {
+            records[index] = ("malformed".equals(eventKind) ? events.malformed(index) : events.realistic())
+                    .getBytes(StandardCharsets.UTF_8);
+            PolicyLimitChangeRequest request = deserializeOrNull(records[index]);
+            if (request != null)
+                parsed.add(request);
+        }
+        requests = parsed.toArray(new PolicyLimitChangeRequest[0]);
+        consumerRecords = new ArrayList<>();
+        for (int index = 0; index < requests.length; index++)
+            consumerRecords.add(new ConsumerRecord<>(TOPIC, 0, index, null, requests[index]));
+
+        PolicyLimitChangeRequestsStatistics hourlyStatistics = PolicyLimitChangeRequestsStatistics.withTopAccounts();
+        for (PolicyLimitChangeRequest request : requests)
+            hourlyStatistics.accumulate(request);
+        serializedStatistics = statisticsSerializer.serialize(TOPIC, hourlyStatistics);
+    }
+
+    @Setup(Level.Iteration)
+    public void resetStatistics() {
+        // The statistics of a window, which grow with the events of the iteration
+        statistics = PolicyLimitChangeRequestsStatistics.withTopAccounts();
+    }
+
+    @Benchmark
+    public PolicyLimitChangeRequest deserialize() {
+        return deserializeOrNull(nextRecord());
+    }
+
+    @Benchmark
+    public PolicyLimitChangeRequest deserializeGson() {
+        try {
+            return gsonDeserializer.deserialize(TOPIC, nextRecord());
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    @Benchmark
+    public long extract() {
+        return timestampExtractor.extract(consumerRecords.get(nextRequestIndex()), -1);
+    }
+
+    @Benchmark
+    public boolean validate() {
+        return PolicyLimitChangeReqValidator.validate(requests[nextRequestIndex()]);
+    }
+
+    @Benchmark
+    public PolicyLimitChangeRequestsStatistics add() {
+        return statistics.add(requests[nextRequestIndex()]);
+    }
+
+    @Benchmark
+    public byte[] requestSerdeSerialize() {
+        return requestSerializer.serialize(TOPIC, requests[nextRequestIndex()]);
+    }
+
+    @Benchmark
+    public byte[] statisticsSerdeSerialize() {
+        return statisticsSerializer.serialize(TOPIC, statistics.accumulate(requests[nextRequestIndex()]));
+    }
+
+    @Benchmark
+    public PolicyLimitChangeRequestsStatistics statisticsSerdeDeserialize() {
+        return statisticsDeserializer.deserialize(TOPIC, serializedStatistics);
+    }
+
+    private PolicyLimitChangeRequest deserializeOrNull(byte[] record) {
+        try {
+            return requestDeserializer.deserialize(TOPIC, record);
+        } catch (RuntimeException e) {
+            // The DeserExcepHandler path of the stream thread
+            return null;
+        }
+    }
+
+    private byte[] nextRecord() {
+        recordIndex = (recordIndex + 1) % records.length;
+        return records[recordIndex];
+    }
+
+    private int nextRequestIndex() {
+        requestIndex = (requestIndex + 1) % requests.length;
+        return requestIndex;
+    }
+}
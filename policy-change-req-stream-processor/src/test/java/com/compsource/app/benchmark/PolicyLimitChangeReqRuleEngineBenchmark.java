@@ -0,0 +1,52 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.validation.PolicyLimitChangeReqRuleEngine;
+import com.compsource.app.utils.ConfigUtil;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the compiled validation rules. With -prof gc the gc.alloc.rate.norm of both benchmarks
+ * should stay at ~0 B/op
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PolicyLimitChangeReqRuleEngineBenchmark {
+    private final PolicyLimitChangeReqRuleEngine ruleEngine =
+            PolicyLimitChangeReqRuleEngine.compile(ConfigUtil.loadProperty());
+    private final PolicyLimitChangeRequest validRequest = new PolicyLimitChangeRequest();
+    private final PolicyLimitChangeRequest invalidRequest = new PolicyLimitChangeRequest();
+
+    @Setup
+    public void setup() {
+        for (PolicyLimitChangeRequest request : new PolicyLimitChangeRequest[]{validRequest, invalidRequest}) {
+            request.setCoiRequestId("27a38f48-a95c-48b1-b890-4fffd511310e");
+            request.setAccountId(11245);
+            request.setExistingPolicyCoverageLimit(100000);
+            request.setIsChangeRequested(true);
+            request.setNewlyRequestedPolicyCoverageLimit(200000);
+            request.setIsNewRecipient(true);
+            request.setRecipientId("3dde4653-6388-4500-879a-e42a37c81319");
+            request.setRecipientName("braums");
+            request.setRecipientEmail("braums@gmail.com");
+        }
+        // Fails the last rule, so every rule is evaluated
+        invalidRequest.setRecipientEmail(null);
+    }
+
+    @Benchmark
+    public int validRequest() {
+        return ruleEngine.evaluate(validRequest);
+    }
+
+    @Benchmark
+    public int invalidRequest() {
+        return ruleEngine.evaluate(invalidRequest);
+    }
+}
@@ -0,0 +1,43 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.data.serde.kafka.JsonDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestDeserializer;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput and the allocation (gc.alloc.rate.norm with -prof gc) of the streaming
+ * PolicyLimitChangeRequestDeserializer with the Gson based JsonDeserializer
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class PolicyLimitChangeRequestDeserializerBenchmark {
+    private static final byte[] REQUEST = ("{\"coiRequestId\": \"27a38f48-a95c-48b1-b890-4fffd511310e\"," +
+            "\"accountId\": 11245,\"existingPolicyCoverageLimit\": 100000,\"isChangeRequested\": " +
+            "true,\"newlyRequestedPolicyCoverageLimit\": 200000,\"isNewRecipient\": " +
+            "true,\"recipientId\": \"3dde4653-6388-4500-879a-e42a37c81319\"," +
+            "\"recipientName\": \"braums\",\"recipientEmail\": \"braums@gmail.com\"," +
+            "\"dateRequested\": \"2021-05-13 12:00:00\"}").getBytes(StandardCharsets.UTF_8);
+
+    private final PolicyLimitChangeRequestDeserializer streamingDeserializer =
+            new PolicyLimitChangeRequestDeserializer();
+    private final JsonDeserializer<PolicyLimitChangeRequest> gsonDeserializer =
+            new JsonDeserializer<>(PolicyLimitChangeRequest.class);
+
+    @Benchmark
+    public PolicyLimitChangeRequest streamingDeserializer() {
+        return streamingDeserializer.deserialize("topic", REQUEST);
+    }
+
+    @Benchmark
+    public PolicyLimitChangeRequest gsonDeserializer() {
+        return gsonDeserializer.deserialize("topic", REQUEST);
+    }
+}
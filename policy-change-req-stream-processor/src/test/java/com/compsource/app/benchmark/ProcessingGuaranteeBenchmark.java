@@ -0,0 +1,87 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqTopology;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.google.common.util.concurrent.Futures;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Compares the at_least_once and exactly_once processing guarantees on the throughput and the
+ * per-event latency distribution (p50 to p99.99 in the SampleTime results) of the topology.
+ * <p>
+ * The test driver commits after every event, with a producer transaction per event under
+ * exactly_once, so the difference is the worst case of a commit interval of one event: the
+ * application commits every 100 ms with exactly_once and every 30 seconds with at_least_once. The
+ * statistics writes are stubbed, the versioned Cassandra writes cost the same as the plain ones.
+ */
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ProcessingGuaranteeBenchmark {
+    private static final String SAMPLE_EVENTS = "/benchmark/policy-change-requests.ndjson";
+
+    @Param({StreamsConfig.AT_LEAST_ONCE, StreamsConfig.EXACTLY_ONCE})
+    public String processingGuarantee;
+
+    private List<String> events;
+    private int nextEvent;
+    private Path stateDirectory;
+    private TopologyTestDriver testDriver;
+    private TestInputTopic<String, String> inputTopic;
+
+    @Setup(Level.Trial)
+    public void createTopology() throws IOException {
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                ProcessingGuaranteeBenchmark.class.getResourceAsStream(SAMPLE_EVENTS), StandardCharsets.UTF_8))) {
+            events = reader.lines().filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
+        }
+        stateDirectory = Files.createTempDirectory("processing-guarantee-benchmark");
+        Properties streamProperties = KafkaUtil.getStreamProperties("guarantee-benchmark", "guarantee-benchmark",
+                "guarantee-benchmark", Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class);
+        streamProperties.put(StreamsConfig.STATE_DIR_CONFIG, stateDirectory.toString());
+        streamProperties.put(StreamsConfig.PROCESSING_GUARANTEE_CONFIG, processingGuarantee);
+
+        testDriver = new TopologyTestDriver(
+                PolicyChangeReqTopology.build((statisticsKey, stats) -> Futures.immediateFuture(null)),
+                streamProperties);
+        inputTopic = testDriver.createInputTopic(ConfigUtil.loadProperty().getProperty("kafka.consumer.topic"),
+                new StringSerializer(), new StringSerializer());
+    }
+
+    @TearDown(Level.Trial)
+    public void closeTopology() throws IOException {
+        testDriver.close();
+        try (Stream<Path> paths = Files.walk(stateDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void processEvent() {
+        inputTopic.pipeInput(null, events.get(nextEvent));
+        nextEvent = (nextEvent + 1) % events.size();
+    }
+}
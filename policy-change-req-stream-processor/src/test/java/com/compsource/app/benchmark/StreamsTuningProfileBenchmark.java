@@ -0,0 +1,318 @@
+package com.compsource.app.benchmark;
+
+import ch.qos.logback.classic.Logger;
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqTopology;
+import com.compsource.app.custom.StatisticsWriter;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.compsource.app.utils.StreamsTuningProfile;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import org.apache.kafka.clients.producer.KafkaProducer;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.clients.producer.ProducerRecord;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.TopicPartition;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.KafkaStreams;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.processor.StateRestoreListener;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Effect of the {@link StreamsTuningProfile}s (-p profile, default for the Kafka Streams defaults)
+ * on the synthetic workload, through a broker and ZooKeeper running in the benchmark's process
+ * ({@link EmbeddedKafkaCluster}), since the TopologyTestDriver has no consumers, producers or
+ * commit interval. The statistics are written eagerly to an in-memory writer.
+ * <p>
+ * The score is the time for the statistics written to reflect all the events preloaded in the
+ * input topic (-p events, in -p partitions). After every iteration are printed:
+ * <ul>
+ * <li>the events per second of the catch-up, the statistics writes and the records and bytes the
+ * stream threads sent to the changelog and repartition topics</li>
+ * <li>the end to end latency (p50, p99 and max) of -p probes events sent 20 ms apart once caught
+ * up, from the send to the write of an hourly total counting them</li>
+ * <li>the time to restore the state stores from the changelogs into an empty state directory, and
+ * the records restored</li>
+ * </ul>
+ * <pre>
+ * mvn test -Pbenchmark -Dbenchmark.include=StreamsTuningProfileBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class StreamsTuningProfileBenchmark {
+    private static final String TOPIC = ConfigUtil.loadProperty().getProperty("kafka.consumer.topic");
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    // An hour after all the synthetic events, only counting the probes
+    private static final LocalDateTime PROBE_HOUR = LocalDateTime.of(2030, 1, 1, 0, 0);
+    private static final long PROBE_INTERVAL_MS = 20;
+    private static final Duration TIMEOUT = Duration.ofMinutes(10);
+
+    static {
+        // Every update reaches the writer when the record caches flush, as soon as the profile allows
+        ConfigUtil.loadProperty().setProperty("statistics.emission.policy", "eager");
+    }
+
+    @Param({"default", "throughput", "low-latency", "restore-fast"})
+    public String profile;
+
+    @Param({"10000"})
+    public int events;
+
+    @Param({"4"})
+    public int partitions;
+
+    @Param({"200"})
+    public int probes;
+
+    @Param({"42"})
+    public long seed;
+
+    private EmbeddedKafkaCluster cluster;
+    private Properties streamProperties;
+    private Path stateDirectory;
+    private ProgressWriter progressWriter;
+    private KafkaStreams kafkaStreams;
+    private long catchUpNanos;
+
+    @Setup(Level.Trial)
+    public void startCluster() throws Exception {
+        ((Logger) LoggerFactory.getLogger(org.slf4j.Logger.ROOT_LOGGER_NAME))
+                .setLevel(ch.qos.logback.classic.Level.WARN);
+        cluster = new EmbeddedKafkaCluster();
+        cluster.createTopic(TOPIC, partitions);
+        SyntheticEvents generator = new SyntheticEvents(seed, 0, 0, 0);
+        try (KafkaProducer<String, String> producer = producer()) {
+            for (int event = 0; event < events; event++)
+                producer.send(new ProducerRecord<>(TOPIC, generator.next()));
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void stopCluster() throws IOException {
+        cluster.close();
+    }
+
+    @Setup(Level.Iteration)
+    public void createStreams() throws IOException {
+        String applicationId = "profile-benchmark-" + UUID.randomUUID();
+        stateDirectory = Files.createTempDirectory("profile-benchmark");
+        streamProperties = KafkaUtil.getStreamProperties(applicationId, applicationId, applicationId,
+                Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class,
+                "default".equals(profile) ? null : StreamsTuningProfile.of(profile));
+        streamProperties.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, cluster.getBootstrapServers());
+        streamProperties.put(StreamsConfig.STATE_DIR_CONFIG, stateDirectory.toString());
+        progressWriter = new ProgressWriter(probes);
+        kafkaStreams = new KafkaStreams(PolicyChangeReqTopology.build(progressWriter), streamProperties);
+    }
+
+    @Benchmark
+    public void catchUp() throws InterruptedException, TimeoutException {
+        long start = System.nanoTime();
+        kafkaStreams.start();
+        progressWriter.awaitEvents(events);
+        catchUpNanos = System.nanoTime() - start;
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() throws Exception {
+        long writes = progressWriter.writes.get();
+        double sentRecords = producerMetric("record-send-total");
+        double sentBytes = producerMetric("outgoing-byte-total");
+
+        try (KafkaProducer<String, String> producer = producer()) {
+            for (int probe = 0; probe < probes; probe++) {
+                progressWriter.probeSent(probe, System.nanoTime());
+                producer.send(new ProducerRecord<>(TOPIC, probeEvent(probe)));
+                producer.flush();
+                Thread.sleep(PROBE_INTERVAL_MS);
+            }
+        }
+        progressWriter.awaitProbes();
+        kafkaStreams.close();
+
+        // Restoring everything from the changelogs into an empty state directory
+        deleteStateDirectory();
+        AtomicLong restoredRecords = new AtomicLong();
+        CountDownLatch running = new CountDownLatch(1);
+        kafkaStreams = new KafkaStreams(PolicyChangeReqTopology.build(new InMemoryStatisticsWriter()),
+                streamProperties);
+        kafkaStreams.setGlobalStateRestoreListener(new RestoredRecordsCounter(restoredRecords));
+        kafkaStreams.setStateListener((newState, oldState) -> {
+            if (newState == KafkaStreams.State.RUNNING)
+                running.countDown();
+        });
+        long restoreStart = System.nanoTime();
+        kafkaStreams.start();
+        if (!running.await(TIMEOUT.toMillis(), TimeUnit.MILLISECONDS))
+            throw new TimeoutException("The state stores weren't restored within " + TIMEOUT);
+        long restoreNanos = System.nanoTime() - restoreStart;
+        kafkaStreams.close();
+        deleteStateDirectory();
+
+        long[] latencies = progressWriter.probeLatenciesMs();
+        System.out.printf("%n%s: %,.0f events/s, statistics writes: %,d, sent to the internal topics: %,.0f " +
+                        "records, %,.0f KB%nEnd to end latency: p50 %d ms, p99 %d ms, max %d ms%n" +
+                        "Restore: %,d ms, %,d records%n", profile, events / (catchUpNanos / 1e9), writes,
+                sentRecords, sentBytes / 1024, latencies[latencies.length / 2],
+                latencies[(int) (latencies.length * 0.99)], latencies[latencies.length - 1],
+                TimeUnit.NANOSECONDS.toMillis(restoreNanos), restoredRecords.get());
+    }
+
+    /**
+     * @return - Sum of the producer metric over the producers of the stream threads
+     */
+    private double producerMetric(String name) {
+        double total = 0;
+        for (Map.Entry<MetricName, ? extends Metric> metric : kafkaStreams.metrics().entrySet()) {
+            if (metric.getKey().group().equals("producer-metrics") && metric.getKey().name().equals(name))
+                total += ((Number) metric.getValue().metricValue()).doubleValue();
+        }
+        return total;
+    }
+
+    private KafkaProducer<String, String> producer() {
+        Map<String, Object> producerProperties = new HashMap<>();
+        producerProperties.put(ProducerConfig.BOOTSTRAP_SERVERS_CONFIG, cluster.getBootstrapServers());
+        return new KafkaProducer<>(producerProperties, new StringSerializer(), new StringSerializer());
+    }
+
+    private static String probeEvent(int probe) {
+        return "{\"coiRequestId\":\"" + UUID.randomUUID() + "\",\"accountId\":" + (1000 + probe) +
+                ",\"existingPolicyCoverageLimit\":10000,\"isChangeRequested\":true," +
+                "\"newlyRequestedPolicyCoverageLimit\":20000,\"isNewRecipient\":false," +
+                "\"recipientId\":\"" + UUID.randomUUID() + "\",\"recipientName\":null,\"recipientEmail\":null," +
+                "\"dateRequested\":\"" + DATE_FORMAT.format(PROBE_HOUR.plusSeconds(probe)) + "\"}";
+    }
+
+    private void deleteStateDirectory() throws IOException {
+        try (Stream<Path> paths = Files.walk(stateDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    /**
+     * Follows the hourly totals written: the events they count, and the write of the first total
+     * counting each probe
+     */
+    private static final class ProgressWriter implements StatisticsWriter {
+        private static final long PROBE_HOUR_START = PROBE_HOUR.toInstant(ZoneOffset.UTC).toEpochMilli();
+
+        private final AtomicLong writes = new AtomicLong();
+        private final Map<Long, Integer> hourlyCounts = new HashMap<>();
+        private final long[] probesSent;
+        private final long[] probesWritten;
+        private long countedEvents;
+        private int countedProbes;
+
+        ProgressWriter(int probes) {
+            probesSent = new long[probes];
+            probesWritten = new long[probes];
+        }
+
+        @Override
+        public synchronized ListenableFuture<?> write(StatisticsKey statisticsKey,
+                                                      PolicyLimitChangeRequestsStatistics stats) {
+            writes.incrementAndGet();
+            if (statisticsKey.getGranularity() != Granularity.HOURLY)
+                return Futures.immediateFuture(null);
+            int count = stats.getTotalCoverageIncreaseRequestsCount();
+            if (statisticsKey.getPeriodStart() == PROBE_HOUR_START) {
+                long now = System.nanoTime();
+                for (; countedProbes < Math.min(count, probesSent.length); countedProbes++)
+                    probesWritten[countedProbes] = now;
+            } else {
+                Integer previous = hourlyCounts.put(statisticsKey.getPeriodStart(), count);
+                countedEvents += count - (previous == null ? 0 : previous);
+            }
+            notifyAll();
+            return Futures.immediateFuture(null);
+        }
+
+        synchronized void awaitEvents(long events) throws InterruptedException, TimeoutException {
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+            while (countedEvents < events) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new TimeoutException(countedEvents + " of the " + events + " events written");
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        synchronized void probeSent(int probe, long nanos) {
+            probesSent[probe] = nanos;
+        }
+
+        synchronized void awaitProbes() throws InterruptedException, TimeoutException {
+            long deadline = System.nanoTime() + TIMEOUT.toNanos();
+            while (countedProbes < probesSent.length) {
+                long remaining = deadline - System.nanoTime();
+                if (remaining <= 0)
+                    throw new TimeoutException(countedProbes + " of the " + probesSent.length + " probes written");
+                TimeUnit.NANOSECONDS.timedWait(this, remaining);
+            }
+        }
+
+        synchronized long[] probeLatenciesMs() {
+            long[] latencies = new long[probesSent.length];
+            for (int probe = 0; probe < latencies.length; probe++)
+                latencies[probe] = TimeUnit.NANOSECONDS.toMillis(probesWritten[probe] - probesSent[probe]);
+            Arrays.sort(latencies);
+            return latencies;
+        }
+    }
+
+    private static final class RestoredRecordsCounter implements StateRestoreListener {
+        private final AtomicLong restoredRecords;
+
+        RestoredRecordsCounter(AtomicLong restoredRecords) {
+            this.restoredRecords = restoredRecords;
+        }
+
+        @Override
+        public void onRestoreStart(TopicPartition topicPartition, String storeName, long startingOffset,
+                                   long endingOffset) {
+        }
+
+        @Override
+        public void onBatchRestored(TopicPartition topicPartition, String storeName, long batchEndOffset,
+                                    long numRestored) {
+        }
+
+        @Override
+        public void onRestoreEnd(TopicPartition topicPartition, String storeName, long totalRestored) {
+            restoredRecords.addAndGet(totalRestored);
+        }
+    }
+}
@@ -0,0 +1,131 @@
+package com.compsource.app.benchmark;
+
+import java.time.LocalDateTime;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+import java.util.UUID;
+
+/**
+ * Seeded generator of synthetic PolicyLimitChangeRequest events (JSON), so that the benchmarks
+ * of two builds are fed the same events:
+ * <ul>
+ * <li>realistic - valid requests over a few thousand accounts, a third of them to a new
+ * recipient, with an event time moving forward by a few seconds per event</li>
+ * <li>malformed - in turn: a request failing a business rule, a request with an unparseable
+ * dateRequested, a truncated record and a record that isn't JSON</li>
+ * </ul>
+ * {@link #next()} mixes them as a producer would: a share of malformed events, of late events
+ * (an event time up to a few hours behind the latest one) and of duplicates (a copy of one of the
+ * recent events, as republished by a retrying producer).
+ */
+public final class SyntheticEvents {
+    private static final DateTimeFormatter DATE_REQUESTED_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+    private static final LocalDateTime FIRST_EVENT_TIME = LocalDateTime.of(2021, 5, 13, 0, 0);
+    private static final String[] RECIPIENT_NAMES = {"braums", "quiktrip", "love's", "sonic", "hobby lobby"};
+    private static final String[] RECIPIENT_EMAILS = {"braums@gmail.com", "quiktrip@gmail.com", "loves@gmail.com",
+            "sonic@gmail.com", "hobbylobby@gmail.com"};
+    private static final int RECENT_EVENTS = 1024;
+    private static final int MAX_LATENESS_SECONDS = 6 * 3600;
+
+    private final Random random;
+    private final double invalidRatio;
+    private final double lateRatio;
+    private final double duplicateRatio;
+    private final String[] recentEvents = new String[RECENT_EVENTS];
+    private LocalDateTime eventTime = FIRST_EVENT_TIME;
+    private long generatedEvents;
+
+    /**
+     * @param seed - Seed of the generator, the same seed generates the same events
+     */
+    public SyntheticEvents(long seed) {
+        this(seed, 0, 0, 0);
+    }
+
+    /**
+     * @param seed           - Seed of the generator, the same seed generates the same events
+     * @param invalidRatio   - Share of the malformed events of {@link #next()}
+     * @param lateRatio      - Share of the late events of {@link #next()}
+     * @param duplicateRatio - Share of the duplicates of {@link #next()}
+     */
+    public SyntheticEvents(long seed, double invalidRatio, double lateRatio, double duplicateRatio) {
+        if (invalidRatio < 0 || lateRatio < 0 || duplicateRatio < 0 || invalidRatio + lateRatio + duplicateRatio > 1)
+            throw new IllegalArgumentException("The ratios must be positive and add up to at most 1");
+        this.random = new Random(seed);
+        this.invalidRatio = invalidRatio;
+        this.lateRatio = lateRatio;
+        this.duplicateRatio = duplicateRatio;
+    }
+
+    /**
+     * @return - Next event of the mix of valid, malformed, late and duplicate events
+     */
+    public String next() {
+        double kind = random.nextDouble();
+        String event;
+        if (kind < invalidRatio) {
+            event = malformed(random.nextInt(4));
+        } else if (kind < invalidRatio + duplicateRatio && generatedEvents > 0) {
+            // Not remembered again, so that a copy is of an original event
+            return recentEvents[random.nextInt((int) Math.min(generatedEvents, RECENT_EVENTS))];
+        } else if (kind < invalidRatio + duplicateRatio + lateRatio) {
+            LocalDateTime latest = eventTime;
+            eventTime = eventTime.minusSeconds(1 + random.nextInt(MAX_LATENESS_SECONDS));
+            event = realistic();
+            eventTime = latest;
+        } else {
+            event = realistic();
+        }
+        recentEvents[(int) (generatedEvents++ % RECENT_EVENTS)] = event;
+        return event;
+    }
+
+    /**
+     * @return - Next valid event
+     */
+    public String realistic() {
+        int existingLimit = 10_000 * (1 + random.nextInt(50));
+        eventTime = eventTime.plusSeconds(random.nextInt(5));
+        return event(existingLimit, existingLimit + 5_000 * (1 + random.nextInt(20)),
+                eventTime.format(DATE_REQUESTED_FORMAT));
+    }
+
+    /**
+     * @param index - Index of the event, selects the kind of malformation
+     * @return - Next malformed event
+     */
+    public String malformed(int index) {
+        String event = realistic();
+        switch (index % 4) {
+            case 0:
+                // Newly requested limit not greater than the existing one
+                return event(200_000, 100_000, eventTime.format(DATE_REQUESTED_FORMAT));
+            case 1:
+                return event.replace(eventTime.format(DATE_REQUESTED_FORMAT), "13/05/2021 12h");
+            case 2:
+                return event.substring(0, random.nextInt(event.length() - 1));
+            default:
+                return "coiRequestId=" + uuid() + ";accountId=" + random.nextInt(5_000);
+        }
+    }
+
+    private String event(int existingLimit, int newlyRequestedLimit, String dateRequested) {
+        boolean newRecipient = random.nextInt(3) == 0;
+        int recipient = random.nextInt(RECIPIENT_NAMES.length);
+        // The name and the email of a recipient are only sent for a new recipient
+        String recipientFields = newRecipient ? "\"recipientName\": \"" + RECIPIENT_NAMES[recipient] + "\"," +
+                "\"recipientEmail\": \"" + RECIPIENT_EMAILS[recipient] + "\"," : "";
+        return "{\"coiRequestId\": \"" + uuid() + "\"," +
+                "\"accountId\": " + (1 + random.nextInt(5_000)) + "," +
+                "\"existingPolicyCoverageLimit\": " + existingLimit + "," +
+                "\"isChangeRequested\": true," +
+                "\"newlyRequestedPolicyCoverageLimit\": " + newlyRequestedLimit + "," +
+                "\"isNewRecipient\": " + newRecipient + "," +
+                "\"recipientId\": \"" + uuid() + "\"," + recipientFields +
+                "\"dateRequested\": \"" + dateRequested + "\"}";
+    }
+
+    private String uuid() {
+        return new UUID(random.nextLong(), random.nextLong()).toString();
+    }
+}
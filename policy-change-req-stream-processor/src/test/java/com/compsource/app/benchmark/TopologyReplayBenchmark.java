@@ -0,0 +1,141 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqTopology;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.google.common.util.concurrent.Futures;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Replays a recorded event file (one JSON event per line) through the topology with RocksDB
+ * state stores, to compare RocksDB tuning profiles on throughput and footprint:
+ * <ul>
+ * <li>defaults - Kafka Streams defaults, no config setter</li>
+ * <li>configured - PolicyChangeRocksDBConfigSetter with the rocksdb.* settings of the properties
+ * file</li>
+ * </ul>
+ * Every iteration replays the file once into fresh stores and prints the state directory size and
+ * the resident memory after the replay. The test driver commits (and so flushes the stores) after
+ * every event, which weighs more than the 30 seconds commit interval of the application. Another
+ * recording can be replayed with -p eventFile=path/to/events.ndjson
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopologyReplayBenchmark {
+    private static final String SAMPLE_EVENTS = "/benchmark/policy-change-requests.ndjson";
+
+    @Param({"defaults", "configured"})
+    public String rocksDbProfile;
+
+    @Param({""})
+    public String eventFile;
+
+    private List<String> events;
+    private Path stateDirectory;
+    private TopologyTestDriver testDriver;
+    private TestInputTopic<String, String> inputTopic;
+
+    @Setup(Level.Trial)
+    public void loadEvents() throws IOException {
+        if (eventFile.isEmpty()) {
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    TopologyReplayBenchmark.class.getResourceAsStream(SAMPLE_EVENTS), StandardCharsets.UTF_8))) {
+                events = reader.lines().filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
+            }
+        } else {
+            try (Stream<String> lines = Files.lines(Paths.get(eventFile), StandardCharsets.UTF_8)) {
+                events = lines.filter(line -> !line.trim().isEmpty()).collect(Collectors.toList());
+            }
+        }
+    }
+
+    @Setup(Level.Iteration)
+    public void createTopology() throws IOException {
+        stateDirectory = Files.createTempDirectory("replay-benchmark");
+        Properties streamProperties = KafkaUtil.getStreamProperties("replay-benchmark", "replay-benchmark",
+                "replay-benchmark", Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class);
+        streamProperties.put(StreamsConfig.STATE_DIR_CONFIG, stateDirectory.toString());
+        if ("defaults".equals(rocksDbProfile))
+            streamProperties.remove(StreamsConfig.ROCKSDB_CONFIG_SETTER_CLASS_CONFIG);
+
+        testDriver = new TopologyTestDriver(
+                PolicyChangeReqTopology.build((statisticsKey, stats) -> Futures.immediateFuture(null)),
+                streamProperties);
+        inputTopic = testDriver.createInputTopic(ConfigUtil.loadProperty().getProperty("kafka.consumer.topic"),
+                new StringSerializer(), new StringSerializer());
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeTopology() throws IOException {
+        System.out.printf("%nState directory: %d KB, resident memory: %d MB%n",
+                directorySize(stateDirectory) / 1024, residentMemoryKb() / 1024);
+        testDriver.close();
+        try (Stream<Path> paths = Files.walk(stateDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void replay() {
+        for (String event : events)
+            inputTopic.pipeInput(null, event);
+    }
+
+    static long directorySize(Path directory) throws IOException {
+        AtomicLong size = new AtomicLong();
+        Files.walkFileTree(directory, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attributes) {
+                size.addAndGet(attributes.size());
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Removed by a RocksDB compaction meanwhile
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return size.get();
+    }
+
+    // Resident set size of the process (Linux only, 0 elsewhere)
+    static long residentMemoryKb() throws IOException {
+        Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status))
+            return 0;
+        for (String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:"))
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+        }
+        return 0;
+    }
+}
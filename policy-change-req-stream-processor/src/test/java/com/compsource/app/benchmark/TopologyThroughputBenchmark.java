@@ -0,0 +1,187 @@
+package com.compsource.app.benchmark;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqTopology;
+import com.compsource.app.custom.DeadLetterPublisher;
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import org.apache.kafka.clients.producer.MockProducer;
+import org.apache.kafka.common.serialization.ByteArrayDeserializer;
+import org.apache.kafka.common.serialization.ByteArraySerializer;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.Topology;
+import org.apache.kafka.streams.TopologyDescription;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Load test of the whole topology without a Kafka cluster or Cassandra: drives the events of a
+ * seeded {@link SyntheticEvents} generator (with -p invalidRatio, lateRatio and duplicateRatio)
+ * through a TopologyTestDriver with in-memory or RocksDB state stores (-p storeType), in both
+ * aggregation modes (-p aggregationMode), writing the statistics to an {@link
+ * InMemoryStatisticsWriter} and the dead letters to a mock producer. The wall clock of the driver
+ * moves forward by a second every eventsPerSecond events, so that the rate limited emissions are
+ * written as they would be at that input rate.
+ * <p>
+ * The score is the time to drive the events; after every iteration the events per second, the sink
+ * writes by granularity, the dead lettered records, the entries of the key-value stores and the
+ * size of the state directory are printed. The test driver commits after every event, which
+ * defeats the record caches and flushes every RocksDB instance: the events per second are a lower
+ * bound of a stream thread's, and the RocksDB stores are better compared on fewer events. A
+ * million events (5% malformed, 2% late, 1% duplicates) take a while, in a single iteration:
+ * <pre>
+ * mvn test -Pbenchmark -Dbenchmark.include=TopologyThroughputBenchmark
+ * </pre>
+ */
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TopologyThroughputBenchmark {
+    private static final String APPLICATION_ID = "throughput-benchmark";
+    // The hourly totals sent to the internal topics weigh several KB each
+    private static final int DRAIN_INTERVAL_EVENTS = 100;
+    private static final String[] KEY_VALUE_STORES = {PolicyChangeReqTopology.HOURLY_TOTALS_STORE,
+            PolicyChangeReqTopology.DAILY_TOTALS_STORE, PolicyChangeReqTopology.MONTHLY_TOTALS_STORE,
+            PolicyChangeReqTopology.PENDING_EMISSIONS_STORE};
+
+    @Param({"1000000"})
+    public int events;
+
+    @Param({"IN_MEMORY"})
+    public PolicyChangeReqTopology.StoreType storeType;
+
+    @Param({"REPARTITION", "PARTITION_LOCAL"})
+    public PolicyChangeReqTopology.AggregationMode aggregationMode;
+
+    @Param({"0.05"})
+    public double invalidRatio;
+
+    @Param({"0.02"})
+    public double lateRatio;
+
+    @Param({"0.01"})
+    public double duplicateRatio;
+
+    @Param({"5000"})
+    public int eventsPerSecond;
+
+    @Param({"42"})
+    public long seed;
+
+    private Path stateDirectory;
+    private TopologyTestDriver testDriver;
+    private TestInputTopic<String, String> inputTopic;
+    private InMemoryStatisticsWriter statisticsWriter;
+    private MockProducer<byte[], byte[]> deadLetterProducer;
+    private List<TestOutputTopic<byte[], byte[]>> internalTopics;
+    private long startNanos;
+
+    @Setup(Level.Iteration)
+    public void createTopology() throws IOException {
+        stateDirectory = Files.createTempDirectory("throughput-benchmark");
+        Properties streamProperties = KafkaUtil.getStreamProperties(APPLICATION_ID, APPLICATION_ID,
+                APPLICATION_ID, Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class);
+        streamProperties.put(StreamsConfig.STATE_DIR_CONFIG, stateDirectory.toString());
+        statisticsWriter = new InMemoryStatisticsWriter();
+        deadLetterProducer = new MockProducer<>(true, new ByteArraySerializer(), new ByteArraySerializer());
+        DeadLetterPublisher deadLetterPublisher = new DeadLetterPublisher(deadLetterProducer, "dlq");
+        streamProperties.put(DeadLetterPublisher.CONFIG, deadLetterPublisher);
+
+        // Deduplicating the copies of the generator, off by default
+        Topology topology = PolicyChangeReqTopology.build(statisticsWriter, null, deadLetterPublisher, storeType,
+                aggregationMode, Duration.ofHours(24));
+        testDriver = new TopologyTestDriver(topology, streamProperties);
+        inputTopic = testDriver.createInputTopic(ConfigUtil.loadProperty().getProperty("kafka.consumer.topic"),
+                new StringSerializer(), new StringSerializer());
+        internalTopics = new ArrayList<>();
+        for (String topic : internalTopicsOf(topology))
+            internalTopics.add(testDriver.createOutputTopic(topic, new ByteArrayDeserializer(),
+                    new ByteArrayDeserializer()));
+        startNanos = System.nanoTime();
+    }
+
+    @TearDown(Level.Iteration)
+    public void report() throws IOException {
+        double seconds = (System.nanoTime() - startNanos) / 1e9;
+        StringBuilder report = new StringBuilder(String.format("%n%,.0f events/s, sink writes:",
+                events / seconds));
+        for (Granularity granularity : Granularity.values())
+            report.append(' ').append(granularity).append('=').append(statisticsWriter.getWrites(granularity));
+        report.append(String.format(", rows: %d, dead lettered: %d%nStore entries:",
+                statisticsWriter.getRows().size(), deadLetterProducer.history().size()));
+        for (String storeName : KEY_VALUE_STORES)
+            report.append(' ').append(storeName).append('=')
+                    .append(testDriver.getKeyValueStore(storeName).approximateNumEntries());
+        System.out.println(report);
+
+        testDriver.close();
+        System.out.printf("State directory: %d KB, resident memory: %d MB%n",
+                TopologyReplayBenchmark.directorySize(stateDirectory) / 1024,
+                TopologyReplayBenchmark.residentMemoryKb() / 1024);
+        try (Stream<Path> paths = Files.walk(stateDirectory)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+
+    @Benchmark
+    public void drive() {
+        // Every iteration drives the same events
+        SyntheticEvents generator = new SyntheticEvents(seed, invalidRatio, lateRatio, duplicateRatio);
+        for (int event = 1; event <= events; event++) {
+            inputTopic.pipeInput(null, generator.next());
+            if (event % eventsPerSecond == 0)
+                testDriver.advanceWallClockTime(Duration.ofSeconds(1));
+            // The test driver keeps every record sent to the repartition and changelog topics
+            if (event % DRAIN_INTERVAL_EVENTS == 0) {
+                for (TestOutputTopic<byte[], byte[]> internalTopic : internalTopics)
+                    drain(internalTopic);
+            }
+        }
+    }
+
+    private static void drain(TestOutputTopic<byte[], byte[]> topic) {
+        try {
+            topic.readRecordsToList();
+        } catch (IllegalArgumentException e) {
+            // Nothing sent to the topic yet, or the store isn't logged
+        }
+    }
+
+    /**
+     * @return - Repartition and changelog topics of the topology
+     */
+    private static List<String> internalTopicsOf(Topology topology) {
+        List<String> topics = new ArrayList<>();
+        for (TopologyDescription.Subtopology subtopology : topology.describe().subtopologies()) {
+            for (TopologyDescription.Node node : subtopology.nodes()) {
+                if (node instanceof TopologyDescription.Sink) {
+                    String topic = ((TopologyDescription.Sink) node).topic();
+                    topics.add(topic.endsWith("-repartition") ? APPLICATION_ID + "-" + topic : topic);
+                } else if (node instanceof TopologyDescription.Processor) {
+                    for (String storeName : ((TopologyDescription.Processor) node).stores())
+                        topics.add(APPLICATION_ID + "-" + storeName + "-changelog");
+                }
+            }
+        }
+        return topics;
+    }
+}
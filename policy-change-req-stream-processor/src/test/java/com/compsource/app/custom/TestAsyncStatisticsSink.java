@@ -0,0 +1,257 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.data.journal.StatisticsSpillJournal;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.kafka.streams.errors.StreamsException;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+
+public class TestAsyncStatisticsSink {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testFlushWaitsForPendingWrites() throws Exception {
+        List<SettableFuture<Object>> writes = new CopyOnWriteArrayList<>();
+        AsyncStatisticsSink sink = sink((statisticsKey, stats) -> {
+            SettableFuture<Object> write = SettableFuture.create();
+            writes.add(write);
+            return write;
+        }, 4);
+        sink.write(StatisticsKey.hourly(0L), new PolicyLimitChangeRequestsStatistics());
+        sink.write(StatisticsKey.hourly(1L), new PolicyLimitChangeRequestsStatistics());
+
+        CountDownLatch flushed = new CountDownLatch(1);
+        Thread commit = new Thread(() -> {
+            sink.flush();
+            flushed.countDown();
+        });
+        commit.start();
+        assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+
+        writes.get(0).set(null);
+        assertFalse(flushed.await(200, TimeUnit.MILLISECONDS));
+        writes.get(1).set(null);
+        assertTrue(flushed.await(5, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testLimitsInFlightWrites() throws Exception {
+        List<SettableFuture<Object>> writes = new CopyOnWriteArrayList<>();
+        AsyncStatisticsSink sink = sink((statisticsKey, stats) -> {
+            SettableFuture<Object> write = SettableFuture.create();
+            writes.add(write);
+            return write;
+        }, 2);
+        sink.write(StatisticsKey.hourly(0L), new PolicyLimitChangeRequestsStatistics());
+        sink.write(StatisticsKey.hourly(1L), new PolicyLimitChangeRequestsStatistics());
+
+        CountDownLatch written = new CountDownLatch(1);
+        Thread streamThread = new Thread(() -> {
+            sink.write(StatisticsKey.hourly(2L), new PolicyLimitChangeRequestsStatistics());
+            written.countDown();
+        });
+        streamThread.start();
+        assertFalse(written.await(200, TimeUnit.MILLISECONDS));
+        assertEquals(2, writes.size());
+
+        writes.get(0).set(null);
+        assertTrue(written.await(5, TimeUnit.SECONDS));
+        assertEquals(3, writes.size());
+    }
+
+    @Test
+    public void testRetriesTransientFailures() {
+        AtomicInteger attempts = new AtomicInteger();
+        AsyncStatisticsSink sink = sink(new StatisticsWriter() {
+            @Override
+            public ListenableFuture<?> write(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics stats) {
+                SettableFuture<Object> write = SettableFuture.create();
+                if (attempts.incrementAndGet() < 3)
+                    write.setException(new TimeoutException("transient"));
+                else
+                    write.set(null);
+                return write;
+            }
+
+            @Override
+            public boolean isRetryable(Throwable error) {
+                return error instanceof TimeoutException;
+            }
+        }, 1);
+        sink.write(StatisticsKey.hourly(0L), new PolicyLimitChangeRequestsStatistics());
+        sink.flush();
+
+        assertEquals(3, attempts.get());
+    }
+
+    @Test
+    public void testFailsOnPermanentFailure() {
+        AsyncStatisticsSink sink = sink((statisticsKey, stats) -> {
+            SettableFuture<Object> write = SettableFuture.create();
+            write.setException(new IllegalStateException("permanent"));
+            return write;
+        }, 1);
+        sink.write(StatisticsKey.hourly(0L), new PolicyLimitChangeRequestsStatistics());
+
+        try {
+            sink.flush();
+            fail("Expected a StreamsException");
+        } catch (StreamsException e) {
+            assertEquals("permanent", e.getCause().getMessage());
+        }
+    }
+
+    @Test
+    public void testFlushTimesOutOnUnacknowledgedWrites() {
+        AsyncStatisticsSink sink = new AsyncStatisticsSink("sink", (statisticsKey, stats) -> SettableFuture.create(),
+                null, 1, Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofMillis(200));
+        sink.init(new MockProcessorContext(), sink);
+        sink.write(StatisticsKey.hourly(0L), new PolicyLimitChangeRequestsStatistics());
+
+        try {
+            sink.flush();
+            fail("Expected a StreamsException");
+        } catch (StreamsException e) {
+            assertTrue(e.getMessage().contains("timed out"));
+        }
+    }
+
+    @Test
+    public void testSpillsTransientFailuresToJournal() throws Exception {
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(
+                temporaryFolder.getRoot().toPath().resolve("spill.journal"), 4096);
+        AtomicInteger attempts = new AtomicInteger();
+        AsyncStatisticsSink sink = sink(new StatisticsWriter() {
+            @Override
+            public ListenableFuture<?> write(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics stats) {
+                attempts.incrementAndGet();
+                SettableFuture<Object> write = SettableFuture.create();
+                write.setException(new TimeoutException("database down"));
+                return write;
+            }
+
+            @Override
+            public boolean isRetryable(Throwable error) {
+                return error instanceof TimeoutException;
+            }
+        }, journal, 1);
+
+        sink.write(StatisticsKey.hourly(0L), statistics(10));
+        // The journal holds a record, the following writes skip the database
+        sink.write(StatisticsKey.hourly(0L), statistics(20));
+        sink.write(StatisticsKey.hourly(3600000L), statistics(5));
+        sink.flush();
+
+        assertEquals(1, attempts.get());
+        List<Long> amounts = new ArrayList<>();
+        journal.read(journal.position(), (statisticsKey, stats) -> amounts.add(stats.getTotalCoverageIncreaseAmount()));
+        assertEquals(Arrays.asList(10L, 20L, 5L), amounts);
+    }
+
+    @Test
+    public void testDropsFailedWriteSupersededWhileWaitingForASlot() throws Exception {
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(
+                temporaryFolder.getRoot().toPath().resolve("spill.journal"), 4096);
+        List<SettableFuture<Object>> writes = new CopyOnWriteArrayList<>();
+        List<Long> written = new CopyOnWriteArrayList<>();
+        AsyncStatisticsSink sink = sink(new StatisticsWriter() {
+            @Override
+            public ListenableFuture<?> write(StatisticsKey statisticsKey, PolicyLimitChangeRequestsStatistics stats) {
+                written.add(stats.getTotalCoverageIncreaseAmount());
+                SettableFuture<Object> write = SettableFuture.create();
+                writes.add(write);
+                return write;
+            }
+
+            @Override
+            public boolean isRetryable(Throwable error) {
+                return error instanceof TimeoutException;
+            }
+        }, journal, 1);
+        sink.write(StatisticsKey.hourly(0L), statistics(10));
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread streamThread = new Thread(() -> {
+            sink.write(StatisticsKey.hourly(0L), statistics(20));
+            done.countDown();
+        });
+        streamThread.start();
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+
+        // The older value fails once the newer one waits for its slot: it isn't journaled behind it
+        writes.get(0).setException(new TimeoutException("database down"));
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        writes.get(1).set(null);
+        sink.flush();
+
+        assertTrue(journal.isEmpty());
+        assertEquals(Arrays.asList(10L, 20L), written);
+    }
+
+    @Test
+    public void testWaitsForFullJournalToDrain() throws Exception {
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(
+                temporaryFolder.getRoot().toPath().resolve("spill.journal"), 100);
+        assertTrue(journal.append(StatisticsKey.hourly(0L), statistics(10)));
+        List<Long> written = new CopyOnWriteArrayList<>();
+        AsyncStatisticsSink sink = sink((statisticsKey, stats) -> {
+            written.add(stats.getTotalCoverageIncreaseAmount());
+            return Futures.immediateFuture(null);
+        }, journal, 1);
+
+        CountDownLatch done = new CountDownLatch(1);
+        Thread streamThread = new Thread(() -> {
+            sink.write(StatisticsKey.hourly(0L), statistics(20));
+            done.countDown();
+        });
+        streamThread.start();
+        // The full journal holds an older value of the period, it isn't written around
+        assertFalse(done.await(200, TimeUnit.MILLISECONDS));
+        assertTrue(written.isEmpty());
+
+        journal.truncate(journal.position());
+        assertTrue(done.await(5, TimeUnit.SECONDS));
+        assertEquals(Arrays.asList(20L), written);
+    }
+
+    private static PolicyLimitChangeRequestsStatistics statistics(long amount) {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setTotalCoverageIncreaseAmount(amount);
+        return stats;
+    }
+
+    private static AsyncStatisticsSink sink(StatisticsWriter writer, int maxInFlight) {
+        return sink(writer, null, maxInFlight);
+    }
+
+    private static AsyncStatisticsSink sink(StatisticsWriter writer, StatisticsSpillJournal journal,
+                                            int maxInFlight) {
+        AsyncStatisticsSink sink = new AsyncStatisticsSink("sink", writer, journal, maxInFlight,
+                Duration.ofMillis(1), Duration.ofMillis(10), Duration.ofSeconds(30));
+        sink.init(new MockProcessorContext(), sink);
+        return sink;
+    }
+}
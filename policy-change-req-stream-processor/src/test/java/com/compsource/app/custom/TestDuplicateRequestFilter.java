@@ -0,0 +1,122 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringDeserializer;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.StreamsBuilder;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TestOutputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.kstream.Consumed;
+import org.apache.kafka.streams.kstream.Produced;
+import org.apache.kafka.streams.state.Stores;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestDuplicateRequestFilter {
+    private static final String STORE_NAME = "seen";
+    private static final Duration HORIZON = Duration.ofHours(1);
+    private static final long HOUR = HORIZON.toMillis();
+
+    private TopologyTestDriver testDriver;
+    private TestInputTopic<String, PolicyLimitChangeRequest> inputTopic;
+    private TestOutputTopic<String, PolicyLimitChangeRequest> outputTopic;
+
+    @Before
+    public void initialize() {
+        StreamsBuilder streamsBuilder = new StreamsBuilder();
+        streamsBuilder.addStateStore(Stores.windowStoreBuilder(Stores.inMemoryWindowStore(STORE_NAME, HORIZON,
+                Duration.ofMillis(1), false), Serdes.String(), Serdes.Long()));
+        streamsBuilder.stream("requests", Consumed.with(Serdes.String(), new PolicyLimitChangeRequestSerde()))
+                .transform(() -> new DuplicateRequestFilter(STORE_NAME, HORIZON, 10_000, 0.01), STORE_NAME)
+                .to("accepted", Produced.with(Serdes.String(), new PolicyLimitChangeRequestSerde()));
+        Properties streamProperties = new Properties();
+        streamProperties.put(StreamsConfig.APPLICATION_ID_CONFIG, "test-dedup");
+        streamProperties.put(StreamsConfig.BOOTSTRAP_SERVERS_CONFIG, "dummy:9092");
+        testDriver = new TopologyTestDriver(streamsBuilder.build(), streamProperties);
+        PolicyLimitChangeRequestSerde serde = new PolicyLimitChangeRequestSerde();
+        inputTopic = testDriver.createInputTopic("requests", new StringSerializer(), serde.serializer());
+        outputTopic = testDriver.createOutputTopic("accepted", new StringDeserializer(), serde.deserializer());
+    }
+
+    @After
+    public void tearDown() {
+        testDriver.close();
+    }
+
+    @Test
+    public void testCopiesDroppedWithinHorizon() {
+        for (int request = 0; request < 100; request++) {
+            pipe("request-" + request, request);
+            // Republished a little later, with the same dateRequested
+            pipe("request-" + request, request);
+        }
+        assertEquals(100, outputTopic.getQueueSize());
+        assertEquals(100.0, metric("duplicates-dropped-total"), 0.0);
+        // Only the copies (and the rare false positives) are looked up in the store
+        assertTrue(metric("store-lookups-total") < 110);
+    }
+
+    @Test
+    public void testLateCopiesAccepted() {
+        pipe("request", 10);
+        // A copy arriving more than a horizon of stream time later is aggregated again
+        pipe("other-request", 3 * HOUR);
+        pipe("request", 10);
+        assertEquals(3, outputTopic.getQueueSize());
+        assertEquals(0.0, metric("duplicates-dropped-total"), 0.0);
+    }
+
+    @Test
+    public void testBloomFilterRotation() {
+        RotatingBloomFilter bloomFilter = new RotatingBloomFilter(HOUR, 10_000, 0.01);
+        bloomFilter.advance(0);
+        for (int id = 0; id < 10_000; id++)
+            bloomFilter.add("seen-" + id);
+
+        int falsePositives = 0;
+        for (int id = 0; id < 10_000; id++) {
+            assertTrue(bloomFilter.mightContain("seen-" + id));
+            if (bloomFilter.mightContain(UUID.randomUUID().toString()))
+                falsePositives++;
+        }
+        assertTrue("False positives: " + falsePositives, falsePositives < 200);
+
+        // Still remembered during the next generation, forgotten in the one after
+        bloomFilter.advance(HOUR);
+        assertTrue(bloomFilter.mightContain("seen-0"));
+        bloomFilter.advance(2 * HOUR);
+        assertFalse(bloomFilter.mightContain("seen-0"));
+    }
+
+    private void pipe(String coiRequestId, long eventTime) {
+        PolicyLimitChangeRequest policyLimitChangeRequest = new PolicyLimitChangeRequest();
+        policyLimitChangeRequest.setCoiRequestId(coiRequestId);
+        inputTopic.pipeInput(null, policyLimitChangeRequest, eventTime);
+    }
+
+    private double metric(String name) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : testDriver.metrics().entrySet()) {
+            if (metric.getKey().name().equals(name)
+                    && metric.getKey().group().equals("stream-request-deduplication-metrics"))
+                return (Double) metric.getValue().metricValue();
+        }
+        throw new AssertionError("Metric not found: " + name);
+    }
+}
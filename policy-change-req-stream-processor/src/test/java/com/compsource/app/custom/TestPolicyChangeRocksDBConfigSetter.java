@@ -0,0 +1,39 @@
+package com.compsource.app.custom;
+
+import org.junit.Test;
+import org.rocksdb.BlockBasedTableConfig;
+import org.rocksdb.CompactionStyle;
+import org.rocksdb.CompressionType;
+import org.rocksdb.Options;
+import org.rocksdb.RocksDB;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestPolicyChangeRocksDBConfigSetter {
+
+    @Test
+    public void testAppliesConfiguredSettings() {
+        RocksDB.loadLibrary();
+        Map<String, Object> configs = new HashMap<>();
+        // Overrides the properties file
+        configs.put("rocksdb.compression", "zstd");
+        configs.put("rocksdb.compaction-style", "universal");
+        configs.put("rocksdb.write-buffer.mb", "8");
+
+        PolicyChangeRocksDBConfigSetter configSetter = new PolicyChangeRocksDBConfigSetter();
+        try (Options options = new Options()) {
+            options.setTableFormatConfig(new BlockBasedTableConfig());
+            configSetter.setConfig("policy-change-aggregates", options, configs);
+
+            assertEquals(CompressionType.ZSTD_COMPRESSION, options.compressionType());
+            assertEquals(CompactionStyle.UNIVERSAL, options.compactionStyle());
+            assertEquals(8L * 1024 * 1024, options.writeBufferSize());
+            assertEquals(16L * 1024, ((BlockBasedTableConfig) options.tableFormatConfig()).blockSize());
+            configSetter.close("policy-change-aggregates", options);
+        }
+    }
+}
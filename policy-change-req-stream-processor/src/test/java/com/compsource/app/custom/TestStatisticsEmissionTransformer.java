@@ -0,0 +1,152 @@
+package com.compsource.app.custom;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.StatisticsKeySerde;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsDeserializer;
+import com.compsource.app.data.serde.kafka.PolicyLimitChangeRequestsStatisticsSerializer;
+import org.apache.kafka.common.Metric;
+import org.apache.kafka.common.MetricName;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.state.KeyValueStore;
+import org.apache.kafka.streams.state.Stores;
+import org.junit.Test;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestStatisticsEmissionTransformer {
+    private static final String STORE_NAME = "pending";
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+
+    private MockProcessorContext context;
+
+    @Test
+    public void testEagerWritesEveryUpdate() {
+        StatisticsEmissionTransformer transformer = transformer(StatisticsEmissionPolicy.EAGER);
+
+        assertNotNull(update(transformer, 0L, 10, 1));
+        assertNotNull(update(transformer, 0L, 20, 2));
+        assertEquals(0.0, metric("suppressed-writes-total"), 0.0);
+        assertEquals(2.0, metric("emitted-writes-total"), 0.0);
+    }
+
+    @Test
+    public void testFinalWritesOnceAfterGrace() {
+        StatisticsEmissionTransformer transformer = transformer(StatisticsEmissionPolicy.FINAL);
+
+        context.setTimestamp(10);
+        assertNull(update(transformer, 0L, 10, 1));
+        assertNull(update(transformer, 0L, 20, 2));
+        context.setTimestamp(HOUR + 10);
+        assertNull(update(transformer, HOUR, 5, 1));
+
+        // Window 0 closes at window end + grace (1 hour)
+        punctuate(2 * HOUR - 1);
+        assertTrue(context.forwarded().isEmpty());
+        punctuate(2 * HOUR);
+        assertEquals(1, context.forwarded().size());
+        KeyValue<?, ?> written = context.forwarded().get(0).keyValue();
+        assertEquals(StatisticsKey.hourly(0L), written.key);
+        assertEquals(Long.valueOf(20), ((PolicyLimitChangeRequestsStatistics) written.value)
+                .getTotalCoverageIncreaseAmount());
+
+        // A late correction of the closed window is written straight away
+        context.setTimestamp(2 * HOUR);
+        assertNotNull(update(transformer, 0L, 30, 3));
+        assertEquals(1.0, metric("suppressed-writes-total"), 0.0);
+        assertEquals(2.0, metric("emitted-writes-total"), 0.0);
+    }
+
+    @Test
+    public void testRateLimitedWritesLatestValuePerInterval() {
+        StatisticsEmissionTransformer transformer = transformer(StatisticsEmissionPolicy.RATE_LIMITED);
+
+        for (int update = 1; update <= 5; update++) {
+            assertNull(update(transformer, 0L, update * 10, update));
+            assertNull(update(transformer, HOUR, update, update));
+        }
+        punctuate(0);
+
+        List<KeyValue<?, ?>> written = new ArrayList<>();
+        for (MockProcessorContext.CapturedForward forward : context.forwarded())
+            written.add(forward.keyValue());
+        assertEquals(2, written.size());
+        assertEquals(Long.valueOf(50), ((PolicyLimitChangeRequestsStatistics) written.get(0).value)
+                .getTotalCoverageIncreaseAmount());
+        assertEquals(Long.valueOf(5), ((PolicyLimitChangeRequestsStatistics) written.get(1).value)
+                .getTotalCoverageIncreaseAmount());
+        assertEquals(8.0, metric("suppressed-writes-total"), 0.0);
+
+        // Nothing is pending any more
+        context.resetForwards();
+        punctuate(0);
+        assertTrue(context.forwarded().isEmpty());
+    }
+
+    @Test
+    public void testTopAccountsWrittenOnceTheHourIsOver() {
+        StatisticsEmissionTransformer transformer = transformer(StatisticsEmissionPolicy.EAGER);
+
+        context.setTimestamp(10);
+        assertNull(transformer.transform(StatisticsKey.hourlyTopAccounts(0L), new PolicyLimitChangeRequestsStatistics()));
+        assertNotNull(update(transformer, 0L, 10, 1));
+        punctuate(HOUR - 1);
+        assertTrue(context.forwarded().isEmpty());
+
+        // The top accounts don't wait for the grace period
+        punctuate(HOUR);
+        assertEquals(1, context.forwarded().size());
+        assertEquals(StatisticsKey.hourlyTopAccounts(0L), context.forwarded().get(0).keyValue().key);
+        context.setTimestamp(HOUR);
+        assertNotNull(transformer.transform(StatisticsKey.hourlyTopAccounts(0L),
+                new PolicyLimitChangeRequestsStatistics()));
+    }
+
+    private StatisticsEmissionTransformer transformer(StatisticsEmissionPolicy policy) {
+        context = new MockProcessorContext();
+        KeyValueStore<StatisticsKey, PolicyLimitChangeRequestsStatistics> store = Stores.keyValueStoreBuilder(
+                Stores.inMemoryKeyValueStore(STORE_NAME), new StatisticsKeySerde(), Serdes.serdeFrom(
+                new PolicyLimitChangeRequestsStatisticsSerializer(), new PolicyLimitChangeRequestsStatisticsDeserializer()))
+                .withLoggingDisabled().build();
+        store.init(context, store);
+        context.register(store, null);
+
+        StatisticsEmissionTransformer transformer = new StatisticsEmissionTransformer(policy, STORE_NAME,
+                Duration.ofHours(1), Duration.ofSeconds(60));
+        transformer.init(context);
+        return transformer;
+    }
+
+    private KeyValue<StatisticsKey, PolicyLimitChangeRequestsStatistics> update(StatisticsEmissionTransformer transformer,
+                                                                       long windowStart, long amount, int count) {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setTotalCoverageIncreaseAmount(amount);
+        stats.setTotalCoverageIncreaseRequestsCount(count);
+        return transformer.transform(StatisticsKey.hourly(windowStart), stats);
+    }
+
+    private void punctuate(long timestamp) {
+        for (MockProcessorContext.CapturedPunctuator punctuator : context.scheduledPunctuators())
+            punctuator.getPunctuator().punctuate(timestamp);
+    }
+
+    private double metric(String name) {
+        for (Map.Entry<MetricName, ? extends Metric> metric : context.metrics().metrics().entrySet()) {
+            if (metric.getKey().name().equals(name)
+                    && metric.getKey().group().equals("stream-statistics-emission-metrics"))
+                return (Double) metric.getValue().metricValue();
+        }
+        throw new AssertionError("Metric not found: " + name);
+    }
+}
@@ -0,0 +1,105 @@
+package com.compsource.app.custom;
+
+import org.apache.kafka.common.utils.Bytes;
+import org.apache.kafka.streams.KeyValue;
+import org.apache.kafka.streams.kstream.Windowed;
+import org.apache.kafka.streams.processor.MockProcessorContext;
+import org.apache.kafka.streams.state.KeyValueIterator;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestTieredWindowStore {
+    private static final long HOUR = Duration.ofHours(1).toMillis();
+    private static final long DAY = Duration.ofDays(1).toMillis();
+    private static final Bytes BUCKET_0 = Bytes.wrap("bucket-0".getBytes(StandardCharsets.UTF_8));
+    private static final Bytes BUCKET_1 = Bytes.wrap("bucket-1".getBytes(StandardCharsets.UTF_8));
+
+    private TieredWindowStore store;
+
+    @Before
+    public void initialize() {
+        // 10 days of retention, the last 6 hours in the hot tier
+        store = new TieredWindowStore("tiered", 10 * DAY, HOUR, 6 * HOUR);
+        store.init(new MockProcessorContext(), store);
+    }
+
+    @Test
+    public void testKeepsWindowsAcrossTiers() {
+        for (long hour = 0; hour < 72; hour++) {
+            store.put(BUCKET_0, value("0@" + hour), hour * HOUR);
+            if (hour % 2 == 0)
+                store.put(BUCKET_1, value("1@" + hour), hour * HOUR);
+        }
+
+        for (long hour = 0; hour < 72; hour++) {
+            assertArrayEquals(value("0@" + hour), store.fetch(BUCKET_0, hour * HOUR));
+            assertArrayEquals(hour % 2 == 0 ? value("1@" + hour) : null, store.fetch(BUCKET_1, hour * HOUR));
+        }
+        assertNull(store.fetch(BUCKET_0, 72 * HOUR));
+    }
+
+    @Test
+    public void testAcceptsLateUpdatesOfColdWindows() {
+        store.put(BUCKET_0, value("first"), 2 * HOUR);
+        store.put(BUCKET_0, value("now"), 5 * DAY);
+
+        store.put(BUCKET_0, value("late"), 2 * HOUR);
+        store.put(BUCKET_1, value("late"), 3 * HOUR);
+        assertArrayEquals(value("late"), store.fetch(BUCKET_0, 2 * HOUR));
+        assertArrayEquals(value("late"), store.fetch(BUCKET_1, 3 * HOUR));
+
+        store.put(BUCKET_0, null, 2 * HOUR);
+        assertNull(store.fetch(BUCKET_0, 2 * HOUR));
+    }
+
+    @Test
+    public void testDropsExpiredWindows() {
+        store.put(BUCKET_0, value("old"), 0);
+        store.put(BUCKET_0, value("now"), 10 * DAY);
+
+        assertNull(store.fetch(BUCKET_0, 0));
+        store.put(BUCKET_0, value("too late"), 0);
+        assertNull(store.fetch(BUCKET_0, 0));
+        assertArrayEquals(value("now"), store.fetch(BUCKET_0, 10 * DAY));
+    }
+
+    @Test
+    public void testIteratesInWindowAndKeyOrder() {
+        store.put(BUCKET_1, value("b"), 30 * HOUR);
+        store.put(BUCKET_0, value("a"), 30 * HOUR);
+        store.put(BUCKET_0, value("c"), HOUR);
+        store.put(BUCKET_1, value("d"), 40 * HOUR);
+
+        assertEquals(Arrays.asList("c@" + HOUR, "a@" + 30 * HOUR, "b@" + 30 * HOUR, "d@" + 40 * HOUR),
+                entries(store.all()));
+        assertEquals(Arrays.asList("a@" + 30 * HOUR, "b@" + 30 * HOUR),
+                entries(store.fetchAll(30 * HOUR, 35 * HOUR)));
+        assertEquals(Arrays.asList("c@" + HOUR, "a@" + 30 * HOUR),
+                entries(store.fetch(BUCKET_0, BUCKET_0, 0, 40 * HOUR)));
+    }
+
+    private static List<String> entries(KeyValueIterator<Windowed<Bytes>, byte[]> iterator) {
+        List<String> entries = new ArrayList<>();
+        while (iterator.hasNext()) {
+            KeyValue<Windowed<Bytes>, byte[]> entry = iterator.next();
+            entries.add(new String(entry.value, StandardCharsets.UTF_8) + "@" + entry.key.window().start());
+        }
+        iterator.close();
+        return entries;
+    }
+
+    private static byte[] value(String value) {
+        return value.getBytes(StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,144 @@
+package com.compsource.app.data.journal;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.StatisticsKey;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.SettableFuture;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestStatisticsSpillJournal {
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void testKeepsRecordsAcrossReopen() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("spill.journal");
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(path, 4096);
+        assertTrue(journal.isEmpty());
+        assertTrue(journal.append(StatisticsKey.hourly(0L), statistics(10, 1)));
+        assertTrue(journal.append(StatisticsKey.hourly(3600000L), statistics(20, 2)));
+        int tornRecordPosition = journal.position();
+        assertTrue(journal.append(StatisticsKey.hourly(7200000L), statistics(30, 3)));
+        journal.close();
+
+        // Corrupting the last record as if the process died while appending it
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.seek(tornRecordPosition + 20);
+            file.write(0x7f);
+        }
+
+        StatisticsSpillJournal reopened = StatisticsSpillJournal.open(path, 4096);
+        assertEquals(Arrays.asList(0L, 3600000L), windowStarts(reopened));
+        assertEquals(tornRecordPosition, reopened.position());
+    }
+
+    @Test
+    public void testTruncateKeepsLaterRecords() throws Exception {
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(
+                temporaryFolder.getRoot().toPath().resolve("spill.journal"), 4096);
+        journal.append(StatisticsKey.hourly(0L), statistics(10, 1));
+        int drainedPosition = journal.position();
+        journal.append(StatisticsKey.hourly(3600000L), statistics(20, 2));
+
+        journal.truncate(drainedPosition);
+        assertEquals(Arrays.asList(3600000L), windowStarts(journal));
+        journal.truncate(journal.position());
+        assertTrue(journal.isEmpty());
+    }
+
+    @Test
+    public void testKeepsReadPositionAcrossReopen() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("spill.journal");
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(path, 4096);
+        journal.append(StatisticsKey.hourly(0L), statistics(10, 1));
+        int drainedPosition = journal.position();
+        journal.append(StatisticsKey.hourly(3600000L), statistics(20, 2));
+        journal.truncate(drainedPosition);
+        journal.close();
+
+        StatisticsSpillJournal reopened = StatisticsSpillJournal.open(path, 4096);
+        assertEquals(Arrays.asList(3600000L), windowStarts(reopened));
+        reopened.truncate(reopened.position());
+        // A shorter record appended in place of the drained ones doesn't bring them back
+        reopened.append(StatisticsKey.hourly(7200000L), new PolicyLimitChangeRequestsStatistics());
+        reopened.close();
+        assertEquals(Arrays.asList(7200000L), windowStarts(StatisticsSpillJournal.open(path, 4096)));
+    }
+
+    @Test
+    public void testRejectsAppendWhenFull() throws Exception {
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(
+                temporaryFolder.getRoot().toPath().resolve("spill.journal"), 100);
+        assertTrue(journal.append(StatisticsKey.hourly(0L), statistics(10, 1)));
+        assertFalse(journal.append(StatisticsKey.hourly(3600000L), statistics(20, 2)));
+    }
+
+    @Test
+    public void testDrainerWritesLatestValuePerWindow() throws Exception {
+        StatisticsSpillJournal journal = StatisticsSpillJournal.open(
+                temporaryFolder.getRoot().toPath().resolve("spill.journal"), 4096);
+        journal.append(StatisticsKey.hourly(0L), statistics(10, 1));
+        journal.append(StatisticsKey.hourly(3600000L), statistics(5, 1));
+        journal.append(StatisticsKey.hourly(0L), statistics(30, 3));
+
+        List<StatisticsKey> failingWindows = new ArrayList<>(Arrays.asList(StatisticsKey.hourly(3600000L)));
+        Map<Long, Long> written = new HashMap<>();
+        StatisticsJournalDrainer drainer = new StatisticsJournalDrainer(journal, (statisticsKey, stats) -> {
+            if (failingWindows.remove(statisticsKey)) {
+                SettableFuture<Object> write = SettableFuture.create();
+                write.setException(new IllegalStateException("database down"));
+                return write;
+            }
+            written.put(statisticsKey.getPeriodStart(), stats.getTotalCoverageIncreaseAmount());
+            return Futures.immediateFuture(null);
+        });
+
+        assertFalse(drainer.drain());
+        assertFalse(journal.isEmpty());
+        assertTrue(drainer.drain());
+        assertTrue(journal.isEmpty());
+        assertEquals(Long.valueOf(30), written.get(0L));
+        assertEquals(Long.valueOf(5), written.get(3600000L));
+    }
+
+    @Test(expected = IOException.class)
+    public void testRejectsOtherFiles() throws Exception {
+        Path path = temporaryFolder.getRoot().toPath().resolve("spill.journal");
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            file.setLength(4096);
+            file.writeInt(0x504c4353);
+            file.writeInt(2);
+        }
+
+        StatisticsSpillJournal.open(path, 4096);
+    }
+
+    private static List<Long> windowStarts(StatisticsSpillJournal journal) {
+        List<Long> windowStarts = new ArrayList<>();
+        journal.read(journal.position(), (statisticsKey, stats) -> windowStarts.add(statisticsKey.getPeriodStart()));
+        return windowStarts;
+    }
+
+    private static PolicyLimitChangeRequestsStatistics statistics(long amount, int count) {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setTotalCoverageIncreaseAmount(amount);
+        stats.setTotalCoverageIncreaseRequestsCount(count);
+        return stats;
+    }
+}
@@ -0,0 +1,76 @@
+package com.compsource.app.data.model;
+
+import org.junit.Test;
+
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestDistinctCountSketch {
+
+    @Test
+    public void testEstimateWithinStandardError() {
+        for (int distinct : new int[]{10, 1000, 100000}) {
+            DistinctCountSketch sketch = new DistinctCountSketch(12);
+            for (int value = 0; value < distinct; value++) {
+                // Every value is added twice
+                sketch.add(value).add(value);
+            }
+            // 3 standard errors (1.6% each)
+            assertTrue(distinct + ": " + sketch.getEstimate(),
+                    Math.abs(sketch.getEstimate() - distinct) <= distinct * 0.05 + 1);
+        }
+    }
+
+    @Test
+    public void testMergeIsUnion() {
+        DistinctCountSketch first = new DistinctCountSketch(12);
+        DistinctCountSketch second = new DistinctCountSketch(12);
+        DistinctCountSketch all = new DistinctCountSketch(12);
+        for (int value = 0; value < 3000; value++) {
+            String recipientId = UUID.nameUUIDFromBytes(new byte[]{(byte) value, (byte) (value >> 8)}).toString();
+            (value < 2000 ? first : second).add(recipientId);
+            if (value >= 1000)
+                second.add(recipientId);
+            all.add(recipientId);
+        }
+
+        DistinctCountSketch merged = new DistinctCountSketch(first).merge(second);
+        assertEquals(all, merged);
+        // Merging the same values again doesn't change the sketch
+        assertEquals(all, merged.merge(first));
+    }
+
+    @Test
+    public void testMergesDifferentPrecisionsAtTheLowerOne() {
+        DistinctCountSketch precise = new DistinctCountSketch(14);
+        DistinctCountSketch coarse = new DistinctCountSketch(10);
+        DistinctCountSketch expected = new DistinctCountSketch(10);
+        for (int value = 0; value < 5000; value++) {
+            (value % 2 == 0 ? precise : coarse).add(value);
+            expected.add(value);
+        }
+
+        DistinctCountSketch merged = new DistinctCountSketch(precise).merge(coarse);
+        assertEquals(10, merged.getPrecision());
+        assertEquals(expected, merged);
+        assertEquals(14, new DistinctCountSketch(precise).merge(new DistinctCountSketch(10)).getPrecision());
+    }
+
+    @Test
+    public void testEncodingRoundTrip() {
+        DistinctCountSketch sketch = new DistinctCountSketch(12);
+        for (int value = 0; value < 5000; value += 50) {
+            sketch.add(value);
+            assertEquals(sketch, DistinctCountSketch.fromBytes(sketch.toBytes()));
+            assertEquals(sketch.encodedSize(), sketch.toBytes().length);
+        }
+        for (int value = 0; value < 5000; value++)
+            sketch.add(value);
+        // Dense
+        assertEquals(3 + 4096, sketch.encodedSize());
+        assertEquals(sketch, DistinctCountSketch.fromBytes(sketch.toBytes()));
+    }
+}
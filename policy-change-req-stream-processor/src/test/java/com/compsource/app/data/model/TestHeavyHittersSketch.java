@@ -0,0 +1,82 @@
+package com.compsource.app.data.model;
+
+import com.compsource.app.data.model.HeavyHittersSketch.TopAccount;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestHeavyHittersSketch {
+
+    @Test
+    public void testFindsHeavyHittersAmongManyAccounts() {
+        Random random = new Random(42);
+        HeavyHittersSketch sketch = new HeavyHittersSketch(256, 5);
+        long total = 0;
+        for (int request = 0; request < 50000; request++) {
+            // Accounts 1 to 5 send a request in 10, the others are spread over 100000 accounts
+            int accountId = request % 10 == 0 ? 1 + request / 10 % 5 : 100 + random.nextInt(100000);
+            sketch.add(accountId, accountId < 100 ? 1000 : 10);
+            total++;
+        }
+
+        int[] topAccountIds = sketch.getTopAccountsByCount().stream().mapToInt(TopAccount::getAccountId).sorted().toArray();
+        assertTrue(Arrays.equals(new int[]{1, 2, 3, 4, 5}, topAccountIds));
+        for (TopAccount topAccount : sketch.getTopAccountsByCount()) {
+            // Never undercounted, overcounted by at most e / width of the total
+            assertTrue(topAccount.toString(), topAccount.getEstimate() >= 1000
+                    && topAccount.getEstimate() <= 1000 + Math.E / 256 * total);
+        }
+        assertEquals(5, sketch.getTopAccountsByAmount().size());
+        assertTrue(sketch.getTopAccountsByAmount().get(4).getEstimate() >= 1000 * 1000);
+    }
+
+    @Test
+    public void testMergeAndSubtractAreExact() {
+        HeavyHittersSketch first = new HeavyHittersSketch(64, 2).add(1, 100).add(1, 100).add(2, 50);
+        HeavyHittersSketch second = new HeavyHittersSketch(64, 2).add(3, 700).add(3, 700).add(3, 700);
+        HeavyHittersSketch all = new HeavyHittersSketch(64, 2)
+                .add(1, 100).add(1, 100).add(2, 50).add(3, 700).add(3, 700).add(3, 700);
+
+        HeavyHittersSketch merged = new HeavyHittersSketch(first).merge(second);
+        assertEquals(all, merged);
+        assertEquals(Arrays.asList(new TopAccount(3, 3), new TopAccount(1, 2)), merged.getTopAccountsByCount());
+        assertEquals(Arrays.asList(new TopAccount(3, 2100), new TopAccount(1, 200)), merged.getTopAccountsByAmount());
+
+        // Account 2 left the top accounts with the merge
+        merged.subtract(second);
+        assertEquals(Arrays.asList(new TopAccount(1, 2)), merged.getTopAccountsByCount());
+        assertEquals(0, merged.estimateCount(3));
+    }
+
+    @Test
+    public void testEncodingRoundTrip() {
+        HeavyHittersSketch sketch = new HeavyHittersSketch(128, 3);
+        for (int accountId = 1; accountId <= 20; accountId++) {
+            for (int request = 0; request < accountId; request++)
+                sketch.add(accountId, 1000L * accountId);
+        }
+
+        HeavyHittersSketch decoded = HeavyHittersSketch.fromBytes(sketch.toBytes());
+
+        assertEquals(sketch, decoded);
+        assertEquals(sketch.encodedSize(), sketch.toBytes().length);
+        assertEquals(sketch.getTopAccountsByAmount(), decoded.getTopAccountsByAmount());
+    }
+
+    @Test
+    public void testEncodesCountersSparsely() {
+        HeavyHittersSketch sketch = new HeavyHittersSketch(256, 10);
+        // Version, depth, width, capacity, no non-zero counters and no ranked accounts
+        assertEquals(9, sketch.encodedSize());
+
+        sketch.add(1001, 500).add(1002, 250000);
+        // At most depth non-zero counters per account and counter kind, instead of 2 x depth x width
+        assertTrue(String.valueOf(sketch.encodedSize()), sketch.encodedSize() < 100);
+        assertEquals(sketch, HeavyHittersSketch.fromBytes(sketch.toBytes()));
+    }
+}
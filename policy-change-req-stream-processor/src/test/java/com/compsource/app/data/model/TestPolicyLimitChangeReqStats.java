@@ -64,7 +64,17 @@ public class TestPolicyLimitChangeReqStats {
 
     }
 
-
+    @Test
+    public void testVersionCountsTheUpdates() {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        PolicyLimitChangeRequestsStatistics partial = new PolicyLimitChangeRequestsStatistics();
+        stats.merge(partial);
+        assertEquals(1, stats.getVersion());
+
+        // Restored from the changelog, the version keeps counting from its stored value
+        PolicyLimitChangeRequestsStatistics restored = new PolicyLimitChangeRequestsStatistics(stats);
+        restored.merge(partial);
+        restored.subtract(partial);
+        assertEquals(3, restored.getVersion());
+    }
 }
-
-
@@ -0,0 +1,58 @@
+package com.compsource.app.data.model;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestQuantileSketch {
+
+    @Test
+    public void testQuantilesWithinRelativeAccuracy() {
+        Random random = new Random(42);
+        long[] amounts = new long[10000];
+        QuantileSketch sketch = new QuantileSketch();
+        for (int index = 0; index < amounts.length; index++) {
+            amounts[index] = 500 + (long) (Math.exp(random.nextDouble() * 10) * 100);
+            sketch.add(amounts[index]);
+        }
+        Arrays.sort(amounts);
+
+        for (double quantile : new double[]{0, 0.5, 0.95, 0.99, 1}) {
+            long exact = amounts[(int) (quantile * (amounts.length - 1))];
+            long estimate = sketch.getQuantile(quantile);
+            assertTrue(quantile + ": " + estimate + " vs " + exact,
+                    Math.abs(estimate - exact) <= exact * QuantileSketch.RELATIVE_ACCURACY + 1);
+        }
+        assertEquals(amounts.length, sketch.getCount());
+        assertNull(new QuantileSketch().getQuantile(0.5));
+    }
+
+    @Test
+    public void testMergeAndSubtractAreExact() {
+        QuantileSketch first = new QuantileSketch().add(500).add(1500).add(0);
+        QuantileSketch second = new QuantileSketch().add(1500).add(900000);
+        QuantileSketch all = new QuantileSketch().add(500).add(1500).add(0).add(1500).add(900000);
+
+        QuantileSketch merged = new QuantileSketch(first).merge(second);
+        assertEquals(all, merged);
+        assertEquals(second, merged.subtract(first));
+        assertEquals(new QuantileSketch(), merged.subtract(second));
+    }
+
+    @Test
+    public void testEncodingRoundTrip() {
+        QuantileSketch sketch = new QuantileSketch().add(-3).add(1).add(700).add(700).add(Long.MAX_VALUE);
+
+        QuantileSketch decoded = QuantileSketch.fromBytes(sketch.toBytes());
+
+        assertEquals(sketch, decoded);
+        assertEquals(sketch.encodedSize(), sketch.toBytes().length);
+        assertEquals(sketch.getQuantile(0.5), decoded.getQuantile(0.5));
+    }
+}
@@ -0,0 +1,80 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+
+public class TestPolicyLimitChangeRequestDeserializer {
+    private PolicyLimitChangeRequestDeserializer deserializer;
+    private JsonDeserializer<PolicyLimitChangeRequest> gsonDeserializer;
+
+    @Before
+    public void initialize() {
+        this.deserializer = new PolicyLimitChangeRequestDeserializer();
+        this.gsonDeserializer = new JsonDeserializer<>(PolicyLimitChangeRequest.class);
+    }
+
+    @Test
+    public void testMatchesGsonDeserializer() {
+        List<String> sampleRequests = Arrays.asList(
+                "{\"coiRequestId\": \"27a38f48-a95c-48b1-b890-4fffd511310e\",\"accountId\": " +
+                        "11245,\"existingPolicyCoverageLimit\": 100000,\"isChangeRequested\": " +
+                        "true,\"newlyRequestedPolicyCoverageLimit\": 200000,\"isNewRecipient\": " +
+                        "true,\"recipientId\": \"3dde4653-6388-4500-879a-e42a37c81319\"," +
+                        "\"recipientName\": \"braums\",\"recipientEmail\": \"braums@gmail.com\"," +
+                        "\"dateRequested\": \"2021-05-13 12:00:00\"}",
+                "{\"coiRequestId\":\"d90bfc22-05dc-4db8-b4f9-2d3a665acd32\"," +
+                        "\"accountId\":-7824561,\"existingPolicyCoverageLimit\":2000000," +
+                        "\"isChangeRequested\":false,\"newlyRequestedPolicyCoverageLimit\":null," +
+                        "\"isNewRecipient\":true,\"recipientId\":\"ed249c31-1f46-4dac-bc14\"," +
+                        "\"recipientName\":\"Amy\\u0027s \\\"Caf\\u00e9\\\"\\n\",\"recipientEmail\":null}",
+                "{ \"accountId\" : \"42\", \"isNewRecipient\" : \"true\", " +
+                        "\"existingPolicyCoverageLimit\": 1.0E5, \"recipientId\": 12345, " +
+                        "\"unknown\": {\"nested\": [1, 2.5, {\"a\": null}], \"flag\": false}, " +
+                        "\"isChangeRequested\": \"yes\", \"accountId\": 43 }",
+                "{}", "  null  ", "");
+
+        for (String sampleRequest : sampleRequests) {
+            byte[] bytes = sampleRequest.getBytes(StandardCharsets.UTF_8);
+            assertEquals(sampleRequest, String.valueOf(gsonDeserializer.deserialize("topic", bytes)),
+                    String.valueOf(deserializer.deserialize("topic", bytes)));
+        }
+        assertNull(deserializer.deserialize("topic", null));
+    }
+
+    @Test
+    public void testDecodesUtf8Independently() {
+        // The Gson path decodes with the platform charset, the streaming parser always uses UTF-8
+        byte[] bytes = "{\"recipientName\": \"Caf\u00e9 \u00fcber \u20ac\"}".getBytes(StandardCharsets.UTF_8);
+
+        assertEquals("Caf\u00e9 \u00fcber \u20ac", deserializer.deserialize("topic", bytes).getRecipientName());
+    }
+
+    @Test
+    public void testRejectsMalformedJson() {
+        List<String> malformedRequests = Arrays.asList(
+                "{\"coiRequestId\": \"27a38f48", "{\"accountId\": 11245,}",
+                "{\"accountId\": 1.5}", "{\"accountId\": 99999999999}",
+                "{\"isNewRecipient\": 1}", "{\"recipientName\": {\"a\": 1}}",
+                "{\"accountId\": 1} trailing", "[1, 2]", "{\"recipientName\": \"\\x\"}");
+
+        for (String malformedRequest : malformedRequests) {
+            try {
+                deserializer.deserialize("topic", malformedRequest.getBytes(StandardCharsets.UTF_8));
+                fail("Expected a SerializationException for " + malformedRequest);
+            } catch (SerializationException e) {
+                // Expected
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.DistinctCountSketch;
+import com.compsource.app.data.model.HeavyHittersSketch;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.data.model.QuantileSketch;
+import com.datastax.driver.core.LocalDate;
+import org.apache.kafka.common.errors.SerializationException;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestPolicyLimitChangeRequestsStatisticsSerde {
+    private PolicyLimitChangeRequestsStatisticsSerializer serializer;
+    private PolicyLimitChangeRequestsStatisticsDeserializer deserializer;
+
+    @Before
+    public void initialize() {
+        this.serializer = new PolicyLimitChangeRequestsStatisticsSerializer();
+        this.deserializer = new PolicyLimitChangeRequestsStatisticsDeserializer();
+    }
+
+    @Test
+    public void testBinaryRoundTrip() {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setDateRequested(LocalDate.fromYearMonthDay(2021, 5, 13));
+        stats.setHourRequested((byte) 23);
+        stats.setTotalCoverageIncreaseAmount(9876543210L);
+        stats.setTotalCoverageIncreaseRequestsCount(4242);
+        stats.setStatisticsAddedAt(Instant.parse("2021-05-13T23:59:59.123456789Z"));
+        stats.setCoverageIncreaseSketch(new QuantileSketch().add(500).add(500).add(250000));
+        stats.setDistinctAccountsSketch(new DistinctCountSketch(12).add(1001).add(1002));
+        stats.setDistinctRecipientsSketch(new DistinctCountSketch(12).add("de31a442-4e0d-4b40-9a3a-47afb02877c1"));
+        stats.setTopAccountsSketch(new HeavyHittersSketch(64, 3).add(1001, 500).add(1002, 250000).add(1001, 500));
+        stats.setVersion(4243);
+
+        byte[] bytes = serializer.serialize("topic", stats);
+        PolicyLimitChangeRequestsStatistics result = deserializer.deserialize("topic", bytes);
+
+        assertEquals(PolicyLimitChangeRequestsStatisticsSerializer.SERIALIZED_SIZE
+                + stats.getCoverageIncreaseSketch().encodedSize() + stats.getDistinctAccountsSketch().encodedSize()
+                + stats.getDistinctRecipientsSketch().encodedSize() + stats.getTopAccountsSketch().encodedSize() + 2,
+                bytes.length);
+        assertEquals(stats.toString(), result.toString());
+        assertEquals(stats.getCoverageIncreaseSketch(), result.getCoverageIncreaseSketch());
+        assertEquals(stats.getDistinctAccountsSketch(), result.getDistinctAccountsSketch());
+        assertEquals(stats.getDistinctRecipientsSketch(), result.getDistinctRecipientsSketch());
+        assertEquals(stats.getTopAccountsSketch(), result.getTopAccountsSketch());
+    }
+
+    @Test
+    public void testBinaryRoundTripWithoutDistinctCounts() {
+        PolicyLimitChangeRequestsStatistics stats = PolicyLimitChangeRequestsStatistics.withoutDistinctCounts();
+        stats.setTotalCoverageIncreaseAmount(1500L);
+        stats.setTotalCoverageIncreaseRequestsCount(2);
+
+        byte[] bytes = serializer.serialize("topic", stats);
+        PolicyLimitChangeRequestsStatistics result = deserializer.deserialize("topic", bytes);
+
+        assertEquals(PolicyLimitChangeRequestsStatisticsSerializer.SERIALIZED_SIZE
+                + stats.getCoverageIncreaseSketch().encodedSize() + 1, bytes.length);
+        assertEquals(Long.valueOf(1500L), result.getTotalCoverageIncreaseAmount());
+        assertNull(result.getDistinctAccountsSketch());
+        assertNull(result.getDistinctRecipientsSketch());
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testRejectsUnsupportedFormatVersion() {
+        byte[] bytes = serializer.serialize("topic", new PolicyLimitChangeRequestsStatistics());
+        bytes[0] = PolicyLimitChangeRequestsStatisticsSerializer.FORMAT_VERSION + 1;
+
+        deserializer.deserialize("topic", bytes);
+    }
+
+    @Test
+    public void testBinaryRoundTripOfWindowAggregate() {
+        PolicyLimitChangeRequestsStatistics stats = new PolicyLimitChangeRequestsStatistics();
+        stats.setTotalCoverageIncreaseAmount(100000L);
+        stats.setTotalCoverageIncreaseRequestsCount(1);
+
+        PolicyLimitChangeRequestsStatistics result =
+                deserializer.deserialize("topic", serializer.serialize("topic", stats));
+
+        assertNull(result.getDateRequested());
+        assertNull(result.getHourRequested());
+        assertNull(result.getStatisticsAddedAt());
+        assertEquals(Long.valueOf(100000L), result.getTotalCoverageIncreaseAmount());
+        assertEquals(Integer.valueOf(1), result.getTotalCoverageIncreaseRequestsCount());
+        assertNull(result.getTopAccountsSketch());
+    }
+
+    @Test(expected = SerializationException.class)
+    public void testRejectsLegacyJsonEntries() {
+        byte[] legacyEntry = ("{\"dateRequested\":\"2021-05-13\",\"hourRequested\":12," +
+                "\"totalCoverageIncreaseAmount\":1040000,\"totalCoverageIncreaseRequestsCount\":3}")
+                .getBytes(StandardCharsets.UTF_8);
+
+        deserializer.deserialize("topic", legacyEntry);
+    }
+}
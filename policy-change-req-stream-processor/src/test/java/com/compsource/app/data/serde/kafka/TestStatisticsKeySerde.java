@@ -0,0 +1,55 @@
+package com.compsource.app.data.serde.kafka;
+
+import com.compsource.app.data.model.StatisticsKey;
+import org.apache.kafka.common.utils.Bytes;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestStatisticsKeySerde {
+    private StatisticsKeySerializer serializer;
+    private StatisticsKeyDeserializer deserializer;
+
+    @Before
+    public void initialize() {
+        this.serializer = new StatisticsKeySerializer();
+        this.deserializer = new StatisticsKeyDeserializer();
+    }
+
+    @Test
+    public void testRoundTrip() {
+        long monthStart = Instant.parse("2021-05-01T00:00:00Z").toEpochMilli();
+        for (StatisticsKey key : new StatisticsKey[]{StatisticsKey.hourly(monthStart),
+                StatisticsKey.daily(monthStart), StatisticsKey.monthly(monthStart),
+                StatisticsKey.accountHourly(-7, monthStart), StatisticsKey.accountHourly(1001, monthStart)}) {
+            byte[] bytes = serializer.serialize("topic", key);
+            assertEquals(StatisticsKeySerializer.SERIALIZED_SIZE, bytes.length);
+            assertEquals(key, deserializer.deserialize("topic", bytes));
+        }
+    }
+
+    @Test
+    public void testBytesFollowGranularityPeriodAndAccountOrder() {
+        StatisticsKey[] ordered = {StatisticsKey.hourly(0L), StatisticsKey.hourly(3600000L),
+                StatisticsKey.daily(0L), StatisticsKey.accountHourly(-1, 0L), StatisticsKey.accountHourly(1, 0L),
+                StatisticsKey.accountHourly(Integer.MIN_VALUE, 3600000L)};
+        for (int index = 1; index < ordered.length; index++) {
+            assertTrue(ordered[index].toString(), Bytes.wrap(serializer.serialize("topic", ordered[index - 1]))
+                    .compareTo(Bytes.wrap(serializer.serialize("topic", ordered[index]))) < 0);
+        }
+    }
+
+    @Test
+    public void testMonthlyPeriods() {
+        long timestamp = Instant.parse("2021-02-14T10:30:00Z").toEpochMilli();
+        long monthStart = StatisticsKey.Granularity.MONTHLY.periodStart(timestamp);
+        assertEquals(Instant.parse("2021-02-01T00:00:00Z").toEpochMilli(), monthStart);
+        assertEquals(Instant.parse("2021-03-01T00:00:00Z").toEpochMilli(),
+                StatisticsKey.monthly(monthStart).getPeriodEnd());
+    }
+}
@@ -0,0 +1,74 @@
+package com.compsource.app.data.validation;
+
+import com.compsource.app.data.model.PolicyLimitChangeRequest;
+import com.compsource.app.utils.ConfigUtil;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+
+
+public class TestPolicyLimitChangeReqRuleEngine {
+    private PolicyLimitChangeRequest policyLimitChangeRequest;
+
+    @Before
+    public void initialize() {
+        this.policyLimitChangeRequest = new PolicyLimitChangeRequest();
+        policyLimitChangeRequest.setCoiRequestId("27a38f48-a95c-48b1-b890-4fffd511310e");
+        policyLimitChangeRequest.setAccountId(11245);
+        policyLimitChangeRequest.setExistingPolicyCoverageLimit(100000);
+        policyLimitChangeRequest.setIsChangeRequested(true);
+        policyLimitChangeRequest.setNewlyRequestedPolicyCoverageLimit(200000);
+        policyLimitChangeRequest.setIsNewRecipient(false);
+        policyLimitChangeRequest.setRecipientId("3dde4653-6388-4500-879a-e42a37c81319");
+    }
+
+    @Test
+    public void testConfiguredRules() {
+        PolicyLimitChangeReqRuleEngine ruleEngine = PolicyLimitChangeReqRuleEngine.compile(ConfigUtil.loadProperty());
+        assertEquals(RejectionReason.ACCEPTED, reason(ruleEngine));
+
+        policyLimitChangeRequest.setRecipientName("braums");
+        assertEquals(RejectionReason.PRESENCE_MISMATCH, reason(ruleEngine));
+
+        policyLimitChangeRequest.setNewlyRequestedPolicyCoverageLimit(100000);
+        assertEquals(RejectionReason.NOT_GREATER_THAN, reason(ruleEngine));
+
+        policyLimitChangeRequest.setAccountId(0);
+        assertEquals(RejectionReason.BELOW_MINIMUM, reason(ruleEngine));
+
+        policyLimitChangeRequest.setIsNewRecipient(null);
+        assertEquals(RejectionReason.NULL_FIELD, reason(ruleEngine));
+
+        policyLimitChangeRequest.setCoiRequestId("00000000-0000-0000-0000-000000000000");
+        assertEquals(RejectionReason.INVALID_COI_REQUEST_ID, reason(ruleEngine));
+    }
+
+    @Test
+    public void testRulesAddedThroughProperties() {
+        Properties properties = new Properties();
+        properties.setProperty("fields.non-nullable.policy-limit-change-request", "dateRequested");
+        properties.setProperty("rules.minimum.policy-limit-change-request", "newlyRequestedPolicyCoverageLimit:250000");
+        PolicyLimitChangeReqRuleEngine ruleEngine = PolicyLimitChangeReqRuleEngine.compile(properties);
+
+        assertEquals(RejectionReason.NULL_FIELD, reason(ruleEngine));
+        assertEquals("Field dateRequested is NULL", ruleEngine.describe(
+                ruleEngine.evaluate(policyLimitChangeRequest), policyLimitChangeRequest));
+
+        policyLimitChangeRequest.setDateRequested("2021-05-13 12:00:00");
+        assertEquals(RejectionReason.BELOW_MINIMUM, reason(ruleEngine));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testUnknownFieldFailsAtCompileTime() {
+        Properties properties = new Properties();
+        properties.setProperty("rules.true.policy-limit-change-request", "isApproved");
+        PolicyLimitChangeReqRuleEngine.compile(properties);
+    }
+
+    private RejectionReason reason(PolicyLimitChangeReqRuleEngine ruleEngine) {
+        return ruleEngine.reasonOf(ruleEngine.evaluate(policyLimitChangeRequest));
+    }
+}
@@ -0,0 +1,75 @@
+package com.compsource.app.metrics;
+
+import com.compsource.app.data.model.StatisticsKey.Granularity;
+import com.compsource.app.data.validation.RejectionReason;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.apache.kafka.streams.kstream.Aggregator;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+
+public class TestStreamProcessorMetrics {
+    private MeterRegistry meterRegistry;
+
+    @Before
+    public void setUp() {
+        meterRegistry = new SimpleMeterRegistry();
+        StreamProcessorMetrics.registry().add(meterRegistry);
+    }
+
+    @After
+    public void tearDown() {
+        StreamProcessorMetrics.registry().remove(meterRegistry);
+        meterRegistry.close();
+    }
+
+    @Test
+    public void testCountsValidationOutcomes() {
+        double accepted = validated("ACCEPTED");
+        double malformed = validated("MALFORMED");
+
+        StreamProcessorMetrics.recordValidation(RejectionReason.ACCEPTED);
+        StreamProcessorMetrics.recordValidation(RejectionReason.ACCEPTED);
+        StreamProcessorMetrics.recordMalformed();
+
+        assertEquals(accepted + 2, validated("ACCEPTED"), 0);
+        assertEquals(malformed + 1, validated("MALFORMED"), 0);
+    }
+
+    @Test
+    public void testWatermarkOnlyMovesForward() {
+        long now = System.currentTimeMillis();
+        StreamProcessorMetrics.observeEventTime(now - 60_000);
+        StreamProcessorMetrics.observeEventTime(now - 120_000);
+
+        double watermark = meterRegistry.get("policy.change.event.time.watermark").gauge().value();
+        assertTrue(watermark >= (now - 60_000) / 1000.0);
+        assertTrue(meterRegistry.get("policy.change.event.time.lag").gauge().value() >= 0);
+    }
+
+    @Test
+    public void testTimesAggregationsAndWrites() {
+        long partial = meterRegistry.get("policy.change.aggregate").tag("stage", "partial").timer().count();
+        Aggregator<String, Integer, Integer> sum = StreamProcessorMetrics.timedPartialAggregation(
+                (key, value, aggregate) -> aggregate + value);
+
+        assertEquals(Integer.valueOf(5), sum.apply("key", 2, 3));
+        assertEquals(partial + 1, meterRegistry.get("policy.change.aggregate").tag("stage", "partial").timer()
+                .count());
+
+        StreamProcessorMetrics.recordWrite(Granularity.DAILY, TimeUnit.MILLISECONDS.toNanos(4), false);
+        assertTrue(meterRegistry.get("policy.change.statistics.write").tag("granularity", "DAILY")
+                .tag("outcome", "failure").timer().totalTime(TimeUnit.MILLISECONDS) >= 4);
+    }
+
+    private double validated(String reason) {
+        return meterRegistry.get("policy.change.validation").tag("reason", reason).counter().count();
+    }
+}
@@ -0,0 +1,205 @@
+package com.compsource.app.query;
+
+import com.compsource.app.PolicyChangeReqStreamProcessor.PolicyLimitChangeRequestSerde;
+import com.compsource.app.PolicyChangeReqTopology;
+import com.compsource.app.data.model.PolicyLimitChangeRequestsStatistics;
+import com.compsource.app.utils.ConfigUtil;
+import com.compsource.app.utils.KafkaUtil;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.util.concurrent.Futures;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.common.serialization.StringSerializer;
+import org.apache.kafka.streams.KeyQueryMetadata;
+import org.apache.kafka.streams.StreamsConfig;
+import org.apache.kafka.streams.TestInputTopic;
+import org.apache.kafka.streams.TopologyTestDriver;
+import org.apache.kafka.streams.state.HostInfo;
+import org.apache.kafka.streams.state.ReadOnlyKeyValueStore;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+
+public class TestStatisticsQueryServer {
+    private final HttpClient client = HttpClient.newHttpClient();
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private TopologyTestDriver ownerDriver;
+    private TopologyTestDriver otherDriver;
+    private StatisticsQueryServer owner;
+    private StatisticsQueryServer other;
+
+    @Before
+    public void initialize() throws IOException {
+        this.ownerDriver = driver("owner");
+        this.otherDriver = driver("other");
+        TestInputTopic<String, String> inputTopic = ownerDriver.createInputTopic(
+                ConfigUtil.loadProperty().getProperty("kafka.consumer.topic"),
+                new StringSerializer(), new StringSerializer());
+        inputTopic.pipeInput(null, request(1001, 10000, 10500, "2021-05-31 20:10:00"));
+        inputTopic.pipeInput(null, request(1002, 10000, 12000, "2021-05-31 20:50:00"));
+        inputTopic.pipeInput(null, request(1001, 10000, 10700, "2021-05-31 22:05:00"));
+
+        // Every period is owned by the first server, the second one forwards its queries
+        this.owner = server(ownerDriver, null);
+        this.other = server(otherDriver, new HostInfo("localhost", owner.port()));
+        owner.start();
+        other.start();
+    }
+
+    @After
+    public void tearDown() {
+        owner.close();
+        other.close();
+        ownerDriver.close();
+        otherDriver.close();
+    }
+
+    @Test
+    public void testLookupIsRoutedToTheOwner() throws Exception {
+        for (StatisticsQueryServer server : new StatisticsQueryServer[]{owner, other}) {
+            HttpResponse<String> response = get(server, "hourly?at=2021-05-31T20:30:00Z");
+            assertEquals(200, response.statusCode());
+            JsonNode entry = mapper.readTree(response.body());
+            assertEquals("2021-05-31T20:00:00Z", entry.get("periodStart").asText());
+            assertEquals(2, entry.get("statistics").get("totalCoverageIncreaseRequestsCount").asInt());
+            assertEquals(2500, entry.get("statistics").get("totalCoverageIncreaseAmount").asLong());
+            assertEquals(2, entry.get("statistics").get("distinctAccounts").asLong());
+        }
+        assertEquals(404, get(other, "hourly?at=2021-05-31T21:30:00Z").statusCode());
+    }
+
+    @Test
+    public void testRangeScanCombinesAllInstances() throws Exception {
+        HttpResponse<String> response = get(other, "hourly?from=2021-05-31T00:00:00Z&to=1622505600000");
+        assertEquals(200, response.statusCode());
+        JsonNode entries = mapper.readTree(response.body());
+        assertEquals(2, entries.size());
+        assertEquals("2021-05-31T20:00:00Z", entries.get(0).get("periodStart").asText());
+        assertEquals("2021-05-31T22:00:00Z", entries.get(1).get("periodStart").asText());
+
+        JsonNode daily = mapper.readTree(get(owner, "daily?from=2021-05-31T12:00:00Z&to=2021-05-31T12:00:00Z").body());
+        assertEquals(3, daily.get(0).get("statistics").get("totalCoverageIncreaseRequestsCount").asInt());
+    }
+
+    @Test
+    public void testRangeScanAnswersWithoutUnavailableInstances() throws Exception {
+        // Nothing listens on the port of the second instance
+        HostInfo unavailable = new HostInfo("localhost", 1);
+        StatisticsQueryServer partial = server(ownerDriver, null, unavailable);
+        partial.start();
+        try {
+            HttpResponse<String> response = get(partial, "hourly?from=2021-05-31T00:00:00Z&to=1622505600000");
+            assertEquals(200, response.statusCode());
+            assertEquals(2, mapper.readTree(response.body()).size());
+            assertEquals("localhost:1", response.headers()
+                    .firstValue(StatisticsQueryServer.UNAVAILABLE_INSTANCES_HEADER).orElse(null));
+        } finally {
+            partial.close();
+        }
+        assertFalse(get(other, "hourly?from=2021-05-31T00:00:00Z&to=1622505600000").headers()
+                .firstValue(StatisticsQueryServer.UNAVAILABLE_INSTANCES_HEADER).isPresent());
+    }
+
+    @Test
+    public void testLookupIsRoutedByTheMonthOfThePeriod() throws Exception {
+        List<Long> partitionKeys = new ArrayList<>();
+        StatisticsQueryServer server = new StatisticsQueryServer(null, new HostInfo("localhost", 0), 1) {
+            @Override
+            KeyQueryMetadata queryMetadataForKey(String storeName, long partitionKey) {
+                partitionKeys.add(partitionKey);
+                return new KeyQueryMetadata(new HostInfo("localhost", 1), Collections.emptySet(), 0);
+            }
+        };
+        try {
+            server.ownerOf(PolicyChangeReqTopology.HOURLY_TOTALS_STORE,
+                    Instant.parse("2021-05-31T20:00:00Z").toEpochMilli());
+            server.ownerOf(PolicyChangeReqTopology.DAILY_TOTALS_STORE,
+                    Instant.parse("2021-05-31T00:00:00Z").toEpochMilli());
+            server.ownerOf(PolicyChangeReqTopology.MONTHLY_TOTALS_STORE,
+                    Instant.parse("2021-05-01T00:00:00Z").toEpochMilli());
+        } finally {
+            server.close();
+        }
+        Long monthStart = Instant.parse("2021-05-01T00:00:00Z").toEpochMilli();
+        assertEquals(Arrays.asList(monthStart, monthStart, monthStart), partitionKeys);
+    }
+
+    @Test
+    public void testRejectsInvalidQueries() throws Exception {
+        assertEquals(404, get(owner, "weekly?at=0").statusCode());
+        assertEquals(400, get(owner, "hourly?at=yesterday").statusCode());
+        assertEquals(400, get(owner, "hourly").statusCode());
+        assertEquals(400, get(owner, "hourly?from=2000&to=1000").statusCode());
+    }
+
+    private HttpResponse<String> get(StatisticsQueryServer server, String query) throws Exception {
+        return client.send(HttpRequest.newBuilder(URI.create("http://localhost:" + server.port()
+                + StatisticsQueryServer.PATH + query)).build(), HttpResponse.BodyHandlers.ofString());
+    }
+
+    /**
+     * Query server answering from the stores of a test driver
+     *
+     * @param ownerHost      - Owner of every period, null for the server itself
+     * @param otherInstances - Other instances holding a part of the stores
+     */
+    private static StatisticsQueryServer server(TopologyTestDriver driver, HostInfo ownerHost,
+                                                HostInfo... otherInstances) throws IOException {
+        HostInfo hostInfo = new HostInfo("localhost", 0);
+        return new StatisticsQueryServer(null, hostInfo, 2) {
+            @Override
+            HostInfo ownerOf(String storeName, long periodStart) {
+                return ownerHost == null ? hostInfo : ownerHost;
+            }
+
+            @Override
+            Collection<HostInfo> instancesOf(String storeName) {
+                List<HostInfo> instances = new ArrayList<>(Arrays.asList(otherInstances));
+                instances.add(0, hostInfo);
+                if (ownerHost != null)
+                    instances.add(ownerHost);
+                return instances;
+            }
+
+            @Override
+            ReadOnlyKeyValueStore<Long, PolicyLimitChangeRequestsStatistics> localStore(String storeName) {
+                return driver.getKeyValueStore(storeName);
+            }
+        };
+    }
+
+    private static TopologyTestDriver driver(String applicationId) {
+        Properties streamProperties = KafkaUtil.getStreamProperties("test-group", "test-client",
+                applicationId, Serdes.String().getClass(), PolicyLimitChangeRequestSerde.class);
+        streamProperties.put(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG, 0);
+        return new TopologyTestDriver(PolicyChangeReqTopology.build(
+                (statisticsKey, stats) -> Futures.immediateFuture(null)), streamProperties);
+    }
+
+    private static String request(int accountId, int existingLimit, int newLimit, String dateRequested) {
+        return "{\"coiRequestId\":\"" + UUID.randomUUID() + "\",\"accountId\":" + accountId +
+                ",\"existingPolicyCoverageLimit\":" + existingLimit + ",\"isChangeRequested\":true," +
+                "\"newlyRequestedPolicyCoverageLimit\":" + newLimit + ",\"isNewRecipient\":false," +
+                "\"recipientId\":\"" + UUID.randomUUID() + "\",\"recipientName\":null," +
+                "\"recipientEmail\":null,\"dateRequested\":\"" + dateRequested + "\"}";
+    }
+}
@@ -0,0 +1,54 @@
+package com.compsource.app.utils;
+
+import com.datastax.driver.core.LocalDate;
+import org.junit.Test;
+
+import java.time.LocalDateTime;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+
+public class TestDateRequestedDecoder {
+    private static final DateTimeFormatter DATE_FORMAT = DateTimeFormatter.ofPattern("yyyy-MM-dd HH:mm:ss");
+
+    @Test
+    public void testMatchesLocalDateTime() {
+        Random random = new Random(7);
+        long to = LocalDateTime.of(2200, 1, 1, 0, 0).toEpochSecond(ZoneOffset.UTC);
+        for (int sample = 0; sample < 100_000; sample++) {
+            LocalDateTime dateRequested = LocalDateTime.ofEpochSecond((long) (random.nextDouble() * to), 0,
+                    ZoneOffset.UTC);
+            assertEquals(dateRequested.toInstant(ZoneOffset.UTC).toEpochMilli(),
+                    DateRequestedDecoder.epochMillis(DATE_FORMAT.format(dateRequested)));
+        }
+        assertEquals(0, DateRequestedDecoder.epochMillis("1970-01-01 00:00:00"));
+        assertEquals(LocalDateTime.of(2024, 2, 29, 23, 59, 59).toInstant(ZoneOffset.UTC).toEpochMilli(),
+                DateRequestedDecoder.epochMillis("2024-02-29 23:59:59"));
+    }
+
+    @Test
+    public void testInvalidValues() {
+        String[] invalidValues = {null, "", "2021-05-31", "2021-05-31T20:00:00", "2021-05-31 20:00:00.000",
+                "13/05/2021 12h00m00", "2021-5-31 20:00:000", "2021-05-3a 20:00:00", "2021-13-01 00:00:00",
+                "2021-00-01 00:00:00", "2021-02-29 00:00:00", "2021-04-31 00:00:00", "2021-05-00 00:00:00",
+                "2021-05-31 24:00:00", "2021-05-31 20:60:00", "2021-05-31 20:00:60", "1969-12-31 23:59:59",
+                "0000-01-01 00:00:00", "+021-05-31 20:00:00"};
+        for (String invalidValue : invalidValues)
+            assertEquals(invalidValue, -1, DateRequestedDecoder.epochMillis(invalidValue));
+    }
+
+    @Test
+    public void testDatastaxDatesCached() {
+        int epochDay = (int) java.time.LocalDate.of(2021, 5, 31).toEpochDay();
+        LocalDate date = TypeConverter.epochDayToDatastaxDate(epochDay);
+        assertEquals(LocalDate.fromYearMonthDay(2021, 5, 31), date);
+        assertSame(date, TypeConverter.epochDayToDatastaxDate(epochDay));
+        // A day sharing the slot of the cache replaces it
+        assertEquals(LocalDate.fromDaysSinceEpoch(epochDay + 1024), TypeConverter.epochDayToDatastaxDate(epochDay + 1024));
+        assertEquals(date, TypeConverter.epochDayToDatastaxDate(epochDay));
+    }
+}
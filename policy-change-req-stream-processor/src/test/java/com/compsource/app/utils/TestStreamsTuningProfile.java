@@ -0,0 +1,73 @@
+package com.compsource.app.utils;
+
+import org.apache.kafka.clients.consumer.ConsumerConfig;
+import org.apache.kafka.clients.producer.ProducerConfig;
+import org.apache.kafka.common.serialization.Serdes;
+import org.apache.kafka.streams.StreamsConfig;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+
+public class TestStreamsTuningProfile {
+
+    @Test
+    public void testProfilesReachTheClients() {
+        for (StreamsTuningProfile profile : StreamsTuningProfile.values()) {
+            // Every setting is a valid key and value of its client
+            StreamsConfig config = new StreamsConfig(streamProperties(profile));
+            Map<String, Object> consumerConfigs = config.getMainConsumerConfigs("test-app", "test-client", 0);
+            Map<String, Object> producerConfigs = config.getProducerConfigs("test-client");
+            Map<String, Object> restoreConsumerConfigs = config.getRestoreConsumerConfigs("test-client");
+            switch (profile) {
+                case THROUGHPUT:
+                    assertEquals(64L * 1024 * 1024, (long) config.getLong(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG));
+                    assertEquals(2000, consumerConfigs.get(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+                    assertEquals("lz4", producerConfigs.get(ProducerConfig.COMPRESSION_TYPE_CONFIG));
+                    break;
+                case LOW_LATENCY:
+                    assertEquals(0L, (long) config.getLong(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG));
+                    assertEquals(100L, (long) config.getLong(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG));
+                    assertEquals(0, producerConfigs.get(ProducerConfig.LINGER_MS_CONFIG));
+                    break;
+                case RESTORE_FAST:
+                    assertEquals(1, (int) config.getInt(StreamsConfig.NUM_STANDBY_REPLICAS_CONFIG));
+                    assertEquals(10_000, restoreConsumerConfigs.get(ConsumerConfig.MAX_POLL_RECORDS_CONFIG));
+                    assertEquals(64 * 1024 * 1024, config.originalsWithPrefix(StreamsConfig.TOPIC_PREFIX)
+                            .get("segment.bytes"));
+                    break;
+            }
+        }
+    }
+
+    @Test
+    public void testOverridesAppliedLast() {
+        Properties properties = ConfigUtil.loadProperty();
+        String overrideKey = KafkaUtil.STREAMS_OVERRIDE_PREFIX + StreamsConfig.COMMIT_INTERVAL_MS_CONFIG;
+        properties.setProperty(overrideKey, " 5000 ");
+        try {
+            StreamsConfig config = new StreamsConfig(streamProperties(StreamsTuningProfile.LOW_LATENCY));
+            assertEquals(5000L, (long) config.getLong(StreamsConfig.COMMIT_INTERVAL_MS_CONFIG));
+            // The other settings of the profile stay
+            assertEquals(0L, (long) config.getLong(StreamsConfig.CACHE_MAX_BYTES_BUFFERING_CONFIG));
+        } finally {
+            properties.remove(overrideKey);
+        }
+    }
+
+    @Test
+    public void testProfileNames() {
+        assertEquals(StreamsTuningProfile.LOW_LATENCY, StreamsTuningProfile.of("low-latency"));
+        assertEquals(StreamsTuningProfile.RESTORE_FAST, StreamsTuningProfile.of(" restore-fast "));
+        assertNull(StreamsTuningProfile.of(""));
+    }
+
+    private static Properties streamProperties(StreamsTuningProfile profile) {
+        return KafkaUtil.getStreamProperties("test-group", "test-client", "test-app",
+                Serdes.String().getClass(), Serdes.String().getClass(), profile);
+    }
+}